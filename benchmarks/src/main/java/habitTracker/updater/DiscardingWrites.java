@@ -0,0 +1,26 @@
+package habitTracker.updater;
+
+import habitTracker.Structure.HabitStructure;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+/** The engine's write batch with nothing behind it: writes are counted and dropped. */
+final class DiscardingWrites extends EngineWriteBatch {
+
+    int seeds;
+    int updates;
+
+    DiscardingWrites() {
+        super(null, 1);
+    }
+
+    @Override
+    public void insertSeed(HabitStructure seed) {
+        seeds++;
+    }
+
+    @Override
+    public void updateHabit(Query query, Update update) {
+        updates++;
+    }
+}
@@ -0,0 +1,104 @@
+package habitTracker.updater;
+
+import habitTracker.Habit.Habit;
+import habitTracker.Structure.HabitStructure;
+import habitTracker.Structure.TodayCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One user shard of the daily engine: HabitUpdateService.processHabit over habitCount habits that
+ * were last resolved gapDays ago (1 = a normal nightly run, larger = catching up after downtime),
+ * against in-memory rows instead of Mongo. catchUpThreshold 8 is the production setting (gaps of 8+
+ * windows go through the closed-form catch-up); Integer.MAX_VALUE forces the window-by-window loop.
+ *
+ * processShard additionally builds the structure index from the shard's rows, which is what the
+ * engine does after its range query.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class EngineBenchmark {
+
+    private static final LocalDate TODAY = LocalDate.of(2025, 6, 1);
+
+    @Param({"100", "1000", "10000"})
+    int habitCount;
+
+    @Param({"1", "7", "30"})
+    int frequency;
+
+    @Param({"1", "30", "365"})
+    int gapDays;
+
+    @Param({"8", "2147483647"})
+    int catchUpThreshold;
+
+    private HabitUpdateService engine;
+    private List<Habit> habits;
+    private List<HabitStructure> rows;
+    private OccurrenceLookup lookup;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        engine = new HabitUpdateService(null, new HabitStructureManager(null), new EngineRunService(null),
+                EngineThrottle.unlimited(), TodayCache.disabled(), 500, 1, catchUpThreshold, SeedPolicy.ALL);
+        Random random = new Random(42);
+        habits = new ArrayList<>(habitCount);
+        rows = new ArrayList<>();
+        for (int id = 1; id <= habitCount; id++) {
+            LocalDate curDate = TODAY.minusDays(gapDays);
+            boolean defaultMade = random.nextInt(4) == 0;
+            habits.add(Habit.builder()
+                    .id(id).name("habit " + id).userId("bench").frequency(frequency)
+                    .startDate(curDate).curDate(curDate).active(true).defaultMade(defaultMade)
+                    .streak(random.nextInt(20)).longestStreak(20).build());
+            // roughly 60% of windows done (or, for defaultMade, 60% relapsed-free)
+            for (LocalDate day = curDate; !day.isAfter(TODAY); day = day.plusDays(1)) {
+                if (random.nextDouble() < 0.6 / frequency) {
+                    rows.add(HabitStructure.builder().habitId(id).structureDate(day).completed(!defaultMade).build());
+                }
+            }
+        }
+        lookup = new InMemoryOccurrences(rows);
+    }
+
+    @Benchmark
+    public int processHabits(Blackhole blackhole) {
+        DiscardingWrites writes = new DiscardingWrites();
+        for (Habit habit : habits) {
+            blackhole.consume(engine.processHabit(habit, TODAY, lookup, writes));
+        }
+        return writes.updates + writes.seeds;
+    }
+
+    @Benchmark
+    public int processShard(Blackhole blackhole) {
+        DiscardingWrites writes = new DiscardingWrites();
+        OccurrenceLookup index = new InMemoryOccurrences(rows);
+        for (Habit habit : habits) {
+            blackhole.consume(engine.processHabit(habit, TODAY, index, writes));
+        }
+        return writes.updates + writes.seeds;
+    }
+}
@@ -0,0 +1,96 @@
+package habitTracker.updater;
+
+import habitTracker.Habit.Habit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HabitDateCalculator as the completion table uses it: shouldTrackHabitOnDate for every habit on
+ * every day of a gapDays range against one activeDays bitmap per habit over the same range, and
+ * calculateNextOccurrence for every habit from a start date up to gapDays back.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class HabitDateCalculatorBenchmark {
+
+    private static final LocalDate TODAY = LocalDate.of(2025, 6, 1);
+
+    @Param({"10", "100", "1000"})
+    int habitCount;
+
+    @Param({"1", "7", "30"})
+    int frequency;
+
+    @Param({"7", "365", "3650"})
+    int gapDays;
+
+    private final HabitDateCalculator calculator = new HabitDateCalculator();
+    private List<Habit> habits;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        habits = new ArrayList<>(habitCount);
+        for (int id = 1; id <= habitCount; id++) {
+            habits.add(Habit.builder()
+                    .id(id).frequency(frequency)
+                    .startDate(TODAY.minusDays(random.nextInt(gapDays) + 1))
+                    .endDate(random.nextInt(5) == 0 ? TODAY.minusDays(random.nextInt(gapDays)) : null)
+                    .build());
+        }
+    }
+
+    /** The completion table over the last gapDays days: is each habit tracked on each of them. */
+    @Benchmark
+    public int shouldTrackHabitOnDate() {
+        int tracked = 0;
+        for (LocalDate day = TODAY.minusDays(gapDays - 1); !day.isAfter(TODAY); day = day.plusDays(1)) {
+            for (Habit habit : habits) {
+                if (calculator.shouldTrackHabitOnDate(habit, day)) {
+                    tracked++;
+                }
+            }
+        }
+        return tracked;
+    }
+
+    /** The same count from one activeDays bitmap per habit over the range. */
+    @Benchmark
+    public int activeDays() {
+        LocalDate from = TODAY.minusDays(gapDays - 1);
+        int tracked = 0;
+        for (Habit habit : habits) {
+            tracked += calculator.activeDays(habit, from, TODAY).cardinality();
+        }
+        return tracked;
+    }
+
+    @Benchmark
+    public long calculateNextOccurrence() {
+        long sum = 0;
+        for (Habit habit : habits) {
+            sum += calculator.calculateNextOccurrence(habit, TODAY).toEpochDay();
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,40 @@
+package habitTracker.updater;
+
+import habitTracker.Structure.HabitStructure;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * The engine's structure lookup over a fixed set of rows, standing in for the per-user range query.
+ * Seeds the engine reports are not recorded, so every benchmark invocation sees the same rows and
+ * does the same work.
+ */
+final class InMemoryOccurrences implements OccurrenceLookup {
+
+    private final HabitStructureIndex index;
+
+    InMemoryOccurrences(List<HabitStructure> rows) {
+        this.index = HabitStructureIndex.of(rows);
+    }
+
+    @Override
+    public boolean hasStructure(Integer habitId, LocalDate date) {
+        return index.hasStructure(habitId, date);
+    }
+
+    @Override
+    public boolean existsInWindow(Integer habitId, Boolean completed, LocalDate start, LocalDate end) {
+        return index.existsInWindow(habitId, completed, start, end);
+    }
+
+    @Override
+    public List<LocalDate> datesInWindow(Integer habitId, Boolean completed, LocalDate start, LocalDate end) {
+        return index.datesInWindow(habitId, completed, start, end);
+    }
+
+    @Override
+    public void structureCreated(Integer habitId, LocalDate date, boolean completed) {
+        // not kept: the next invocation must find the same gaps
+    }
+}
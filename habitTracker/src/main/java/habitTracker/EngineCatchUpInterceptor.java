@@ -0,0 +1,34 @@
+package habitTracker;
+
+import habitTracker.auth.SecurityUtils;
+import habitTracker.updater.UserCatchUpService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+/**
+ * Runs the engine for the signed-in user on their first habit request of the day
+ * (UserCatchUpService), before the request reads or writes their habits. Never blocks the request:
+ * if the catch-up fails, the habits are served as they are and the next request tries again.
+ * Registered in WebConfig for the habit paths, after EngineReadinessInterceptor.
+ */
+@Component
+public class EngineCatchUpInterceptor implements HandlerInterceptor {
+
+    private final UserCatchUpService userCatchUpService;
+
+    public EngineCatchUpInterceptor(UserCatchUpService userCatchUpService) {
+        this.userCatchUpService = userCatchUpService;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        try {
+            userCatchUpService.catchUp(SecurityUtils.getCurrentUserId());
+        } catch (RuntimeException e) {
+            System.err.println("First-request catch-up failed: " + e.getMessage());
+        }
+        return true;
+    }
+}
@@ -0,0 +1,40 @@
+package habitTracker;
+
+import habitTracker.updater.EngineStatus;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+/**
+ * Rejects habit writes with 503 + Retry-After while the startup catch-up run is in progress
+ * (EngineStatus). GETs always pass, so pages and the Today view keep working. Registered in
+ * WebConfig for the habit write paths only.
+ */
+@Component
+public class EngineReadinessInterceptor implements HandlerInterceptor {
+
+    static final int RETRY_AFTER_SECONDS = 30;
+
+    private final EngineStatus engineStatus;
+
+    public EngineReadinessInterceptor(EngineStatus engineStatus) {
+        this.engineStatus = engineStatus;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        if (HttpMethod.GET.matches(request.getMethod()) || engineStatus.isReady()) {
+            return true;
+        }
+        response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(RETRY_AFTER_SECONDS));
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.getWriter().write("{\"error\":\"Catching up on missed days, please retry shortly\"}");
+        return false;
+    }
+}
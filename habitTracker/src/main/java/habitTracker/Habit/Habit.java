@@ -2,6 +2,7 @@ package habitTracker.Habit;
 
 import java.time.LocalDate;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
 import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
@@ -18,16 +19,23 @@ import lombok.NoArgsConstructor;
 import org.bson.types.ObjectId;
 
 @Document(collection = "habits")
+@CompoundIndex(name = "active_nextResolutionDate", def = "{'active': 1, 'nextResolutionDate': 1}")
+@CompoundIndex(name = Habit.ZONE_DUE_INDEX, def = "{'active': 1, 'timeZone': 1, 'nextResolutionDate': 1}")
 @AllArgsConstructor
 @NoArgsConstructor
 @Data
 @Builder
 public class Habit {
+    public static final String ZONE_DUE_INDEX = "active_timeZone_nextResolutionDate";
+
     // Validation group: constraints that must hold only when creating a brand-new habit.
     // Partial-update endpoints (edit, info/save) validate the Default group only, so a null
     // field means "leave unchanged" instead of failing NotBlank/NotNull.
     public interface OnCreate {}
 
+    // nextResolutionDate for a habit whose schedule has ended: never due until an edit resets it.
+    public static final LocalDate NO_RESOLUTION_DUE = LocalDate.of(9999, 12, 31);
+
     @Id
     private Integer id = new ObjectId().hashCode();
 
@@ -52,7 +60,17 @@ public class Habit {
     private String twoMinuteRule; // 2 minute rule
     private Boolean defaultMade;
     private Integer lastNegativeStreak;
+    // Next day the daily engine has work for this habit (a window opens or closes). Written by the
+    // engine; null means "due now" and is what edits and completion toggles reset it to.
+    private LocalDate nextResolutionDate;
+    // Set when a completion toggle resolved the current window on the spot; lets the matching
+    // uncheck undo it. Stale (and ignored) once curDate has moved on.
+    private InlineResolution inlineResolution;
 
     @Indexed
     private String userId;
+
+    // The owner's User.timeZone (null = server zone), copied here so an engine bucket selects its
+    // habits by zone instead of by a list of its users' ids. Kept in sync by UserService.updateTimeZone.
+    private String timeZone;
 }
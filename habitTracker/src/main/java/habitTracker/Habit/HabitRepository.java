@@ -6,6 +6,8 @@ import java.time.LocalDate;
 import java.util.List;
 
 import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.mongodb.repository.Query;
+import org.springframework.data.mongodb.repository.Update;
 
 @Repository
 public interface HabitRepository extends MongoRepository<Habit, Integer> {
@@ -16,4 +18,9 @@ public interface HabitRepository extends MongoRepository<Habit, Integer> {
     List<Habit> findByName(String name);
     List<Habit> findByCurDate(LocalDate curDate);
     List<Habit> findByUserId(String userId);
+
+    // Makes the habit visible to the next engine pass (see HabitUpdateService.dueHabitsQuery).
+    @Query("{ '_id': ?0 }")
+    @Update("{ '$unset': { 'nextResolutionDate': 1 } }")
+    void markDueForResolution(Integer id);
 }
@@ -14,8 +14,11 @@ import org.springframework.transaction.annotation.Transactional;
 
 import habitTracker.Rules.RuleService;
 import habitTracker.Rules.UpdateDTO;
-import habitTracker.Structure.HabitStructure;
 import habitTracker.Structure.HabitStructureRepository;
+import habitTracker.Structure.TodayCache;
+import habitTracker.updater.EngineBuckets;
+import habitTracker.updater.HabitStructureManager;
+import habitTracker.updater.ResolutionWheel;
 import habitTracker.util.Pair;
 
 @Service
@@ -24,9 +27,19 @@ public class HabitService {
     private final HabitRepository habitRepository;
     private final HabitStructureRepository habitStructureRepository;
     private final RuleService ruleService;
+    private final ResolutionWheel resolutionWheel;
+    private final HabitStructureManager habitStructureManager;
+    private final TodayCache todayCache;
+    private final EngineBuckets engineBuckets; // the owner's local "today" (User.timeZone)
 
-    public HabitService(HabitRepository habitRepository, HabitStructureRepository habitStructureRepository, RuleService ruleService) {
+    public HabitService(HabitRepository habitRepository, HabitStructureRepository habitStructureRepository, RuleService ruleService,
+                        ResolutionWheel resolutionWheel, HabitStructureManager habitStructureManager, TodayCache todayCache,
+                        EngineBuckets engineBuckets) {
+        this.todayCache = todayCache;
+        this.engineBuckets = engineBuckets;
         this.ruleService = ruleService;
+        this.resolutionWheel = resolutionWheel;
+        this.habitStructureManager = habitStructureManager;
         this.habitRepository = habitRepository;
         this.habitStructureRepository = habitStructureRepository;
     }
@@ -48,13 +61,11 @@ public class HabitService {
         String userId = SecurityUtils.getCurrentUserId();
         if (userId == null) throw new IllegalStateException("Cannot save habit: no authenticated user");
         habit.setUserId(userId);
+        habit.setTimeZone(engineBuckets.storedZoneOf(userId));
         habitRepository.save(habit);
-        habitStructureRepository.save(HabitStructure.builder()
-            .habitId(habit.getId())
-            .structureDate(habit.getStartDate())
-            .completed(false)
-            .userId(habit.getUserId())
-            .build());
+        habitStructureManager.seedIfAbsent(habit.getId(), habit.getStartDate(), false, habit.getUserId());
+        resolutionWheel.habitChanged(habit);
+        todayCache.invalidate(userId);
     }
 
     public List<Habit> getAllHabits() {
@@ -86,6 +97,7 @@ public class HabitService {
         }
         habit.setActive(false); // Mark as inactive instead of deleting
         habitRepository.save(habit);
+        todayCache.invalidate(habit.getUserId());
     }
 
     @Transactional(readOnly = true)
@@ -122,9 +134,10 @@ public class HabitService {
             isActive = false;
         }
         Integer maxStreak = existingHabit.getStreak() != null ? existingHabit.getStreak() : 0;
+        LocalDate today = engineBuckets.todayOf(existingHabit.getUserId());
         if(!isActive) {
             habitStructureRepository.deleteByHabitIdAndStructureDate(
-                existingHabit.getId(), LocalDate.now());
+                existingHabit.getId(), today);
         } else if( isActive && existingHabit.getActive() != true ) {
             List<Integer> mainIds = ruleService.getMainIdsBySubId(existingHabit.getId());
             List<Habit> mainHabits = habitRepository.findAllById(mainIds);
@@ -133,23 +146,17 @@ public class HabitService {
                     maxStreak = mainHabit.getStreak();
                 }
             }
-            boolean exists = habitStructureRepository.existsByHabitIdAndStructureDate(
-                existingHabit.getId(), LocalDate.now());
-            if (!exists) {
-                habitStructureRepository.save(HabitStructure.builder()
-                    .habitId(existingHabit.getId())
-                    .structureDate(LocalDate.now())
-                    .completed(false)
-                    .userId(existingHabit.getUserId())
-                    .build());
-            }
+            habitStructureManager.seedIfAbsent(existingHabit.getId(), today, false, existingHabit.getUserId());
             ruleService.deleteBySubId(existingHabit.getId());
         }
         existingHabit.setActive(isActive); // Update active status
         existingHabit.setStreak(maxStreak);
+        existingHabit.setNextResolutionDate(null); // schedule may have changed; let the engine re-evaluate
 
         // Save the updated habit
         habitRepository.save(existingHabit);
+        resolutionWheel.habitChanged(existingHabit);
+        todayCache.invalidate(existingHabit.getUserId());
     }
 
     public Habit getHabitById(Integer id) {
@@ -196,12 +203,10 @@ public class HabitService {
     }
     public List<StreakDTO> getStreaks(List<Integer> ids){
         List<Habit> habits = habitRepository.findAllById(ids);
+        LocalDate today = engineBuckets.todayOf(SecurityUtils.getCurrentUserId());
         return habits.stream()
             .filter(this::ownedByCurrentUser) // never reveal another user's streaks
-            .map(habit -> new StreakDTO(
-                    habit.getId(),
-                    habit.getStreak() != null ? habit.getStreak() : 0,
-                    habit.getFrequency() != null && habit.getFrequency() > 0 ? habit.getFrequency() : 1))
+            .map(habit -> StreakDTO.of(habit, today))
             .collect(Collectors.toList());
     }
 
@@ -209,7 +214,10 @@ public class HabitService {
         List<Habit> habits = habitRepository.findAllById(ids);
         for (Habit habit : habits) {
             habit.setFrequency(frequency);
+            habit.setNextResolutionDate(null);
             habitRepository.save(habit);
+            resolutionWheel.habitChanged(habit);
+            todayCache.invalidate(habit.getUserId());
         }
     }
 
@@ -217,9 +225,18 @@ public class HabitService {
         List<Habit> habits = habitRepository.findAllById(ids);
         for (Habit habit : habits) {
             habit.setActive(active);
+            habit.setNextResolutionDate(null);
             habitRepository.save(habit);
+            resolutionWheel.habitChanged(habit);
+            todayCache.invalidate(habit.getUserId());
         }
     }
+    // A completion toggle can resolve an open window early, so the engine must look at it next run.
+    public void markDueForResolution(Integer habitId) {
+        habitRepository.markDueForResolution(habitId);
+        resolutionWheel.dueAtNextMidnight(habitId, SecurityUtils.getCurrentUserId());
+    }
+
     public void restoreNegativeStreak(Integer habitId) {
         Habit habit = habitRepository.findById(habitId).orElse(null);
         if (habit != null && habit.getLastNegativeStreak() != null) {
@@ -253,19 +270,18 @@ public class HabitService {
             subHabit.setStreak(updateDTO.getStreak());
             habitRepository.save(subHabit);
             habitStructureRepository.deleteByHabitIdAndStructureDate(
-                subHabit.getId(), LocalDate.now());
+                subHabit.getId(), engineBuckets.todayOf(subHabit.getUserId()));
+            resolutionWheel.habitChanged(subHabit);
+            todayCache.invalidate(subHabit.getUserId());
         }
         mainHabit.setActive(true);
         mainHabit.setFrequency(updateDTO.getFrequency());
         mainHabit.setStreak(updateDTO.getStreak());
+        mainHabit.setNextResolutionDate(null);
 
         habitRepository.save(mainHabit);
-        habitStructureRepository.save(HabitStructure.builder()
-            .habitId(mainHabit.getId())
-            .structureDate(LocalDate.now())
-            .completed(false)
-            .userId(mainHabit.getUserId())
-            .build());
-        
+        habitStructureManager.seedIfAbsent(mainHabit.getId(), engineBuckets.todayOf(mainHabit.getUserId()), false, mainHabit.getUserId());
+        resolutionWheel.habitChanged(mainHabit);
+        todayCache.invalidate(mainHabit.getUserId());
     }
 }
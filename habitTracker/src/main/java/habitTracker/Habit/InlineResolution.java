@@ -0,0 +1,24 @@
+package habitTracker.Habit;
+
+import java.time.LocalDate;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * A habit's streak fields from just before a completion toggle credited its window inline
+ * (CompletionResolver). Unchecking that completion puts them back — but only while curDate is still
+ * windowStart + frequency, i.e. nothing has been resolved since.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class InlineResolution {
+    private LocalDate windowStart;
+    private Integer streak;
+    private Integer longestStreak;
+    private Integer lastNegativeStreak;
+}
@@ -1,12 +1,16 @@
 package habitTracker.Habit;
 
+import java.time.LocalDate;
+
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 
 /**
  * Streak payload for POST /habits/streaks. Keeps the historical {key, value} field names (habitId,
  * streak) so existing consumers keep working, and adds frequency so the client can scale the
- * negative-streak color by period (a longer period reddens faster).
+ * negative-streak color by period (a longer period reddens faster). open says whether the current
+ * occurrence is still unresolved: only then does a checked card show streak + 1 — a completion that
+ * was already credited (CompletionResolver) is in the streak itself.
  */
 @Getter
 @AllArgsConstructor
@@ -14,4 +18,13 @@ public class StreakDTO {
     private final Integer key;        // habitId
     private final Integer value;      // streak
     private final Integer frequency;  // days between occurrences
+    private final Boolean open;       // current occurrence not credited yet
+
+    public static StreakDTO of(Habit habit, LocalDate today) {
+        return new StreakDTO(
+                habit.getId(),
+                habit.getStreak() != null ? habit.getStreak() : 0,
+                habit.getFrequency() != null && habit.getFrequency() > 0 ? habit.getFrequency() : 1,
+                habit.getCurDate() == null || !habit.getCurDate().isAfter(today));
+    }
 }
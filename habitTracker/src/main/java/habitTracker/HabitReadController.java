@@ -21,8 +21,11 @@ import habitTracker.Habit.HabitDTO;
 import habitTracker.Habit.HabitService;
 import habitTracker.Habit.StreakDTO;
 import habitTracker.Rules.RuleDTO;
+import habitTracker.Structure.HabitTableColumns;
 import habitTracker.Structure.StructureDTO;
 import habitTracker.Structure.StructureService;
+import habitTracker.auth.SecurityUtils;
+import habitTracker.updater.EngineBuckets;
 import habitTracker.util.Pair;
 
 @RestController
@@ -31,6 +34,7 @@ public class HabitReadController {
 
     private final HabitService habitService;
     private final StructureService structureService;
+    private final EngineBuckets engineBuckets;
 
     @GetMapping("/api/today")
     public Map<String, Object> getToday() {
@@ -49,7 +53,7 @@ public class HabitReadController {
             });
         }
         Map<String, Object> resp = new HashMap<>();
-        resp.put("date", structure.getDate() != null ? structure.getDate().toString() : LocalDate.now().toString());
+        resp.put("date", structure.getDate().toString());
         resp.put("habits", habits);
         return resp;
     }
@@ -65,8 +69,8 @@ public class HabitReadController {
     public Map<String, Object> getHabitTable(
             @RequestParam(required = false) LocalDate startDate,
             @RequestParam(required = false) LocalDate endDate) {
-        if (startDate == null) startDate = LocalDate.now().minusDays(7);
-        if (endDate == null) endDate = LocalDate.now();
+        if (endDate == null) endDate = userToday();
+        if (startDate == null) startDate = endDate.minusDays(7);
 
         List<Pair<String, Integer>> habitNames = habitService.getAllUniqueHabitNamesIds();
         habitNames.sort((a, b) -> Integer.compare(a.getValue(), b.getValue()));
@@ -80,13 +84,23 @@ public class HabitReadController {
         return resp;
     }
 
+    // Same table, each habit once with its days bit-packed (HabitTableColumns); used by the table pages.
+    @GetMapping("/api/v2/habits/table")
+    public HabitTableColumns getHabitTableColumns(
+            @RequestParam(required = false) LocalDate startDate,
+            @RequestParam(required = false) LocalDate endDate) {
+        if (endDate == null) endDate = userToday();
+        if (startDate == null) startDate = endDate.minusDays(7);
+        return structureService.getTableColumns(startDate, endDate, habitService.getAllUniqueHabitNamesIds());
+    }
+
     // kept for backward-compat with existing table JS
     @GetMapping(value = "/habits/tableAsync", produces = "application/json")
     public List<StructureDTO> getHabitTableData(
             @RequestParam(required = false) LocalDate startDate,
             @RequestParam(required = false) LocalDate endDate) {
-        if (startDate == null) startDate = LocalDate.now().minusDays(7);
-        if (endDate == null) endDate = LocalDate.now();
+        if (endDate == null) endDate = userToday();
+        if (startDate == null) startDate = endDate.minusDays(7);
         List<Pair<String, Integer>> habitNames = habitService.getAllUniqueHabitNamesIds();
         habitNames.sort((a, b) -> Integer.compare(a.getValue(), b.getValue()));
         return structureService.getStructuresForDateRange(startDate, endDate, habitNames);
@@ -127,4 +141,9 @@ public class HabitReadController {
     public List<StreakDTO> getStreaks(@RequestBody List<Integer> habitIds) {
         return habitService.getStreaks(habitIds);
     }
+
+    // Default range end: the user's local date, not the server's.
+    private LocalDate userToday() {
+        return engineBuckets.todayOf(SecurityUtils.getCurrentUserId());
+    }
 }
@@ -21,6 +21,7 @@ import org.springframework.http.HttpStatus;
 import habitTracker.Habit.Habit;
 import habitTracker.Habit.Habit.OnCreate;
 import habitTracker.Habit.HabitService;
+import habitTracker.Habit.StreakDTO;
 import habitTracker.Rules.RuleService;
 import habitTracker.Rules.UpdateDTO;
 import habitTracker.Structure.StructureService;
@@ -63,12 +64,12 @@ public class HabitWriteController {
         return ResponseEntity.ok("Habit updated successfully");
     }
 
+    // Answers with the habit's streak after the toggle, so the Today page needs no second fetch.
     @PostMapping("/habits/update/{habitId}")
-    public ResponseEntity<String> updateCompletion(@PathVariable Integer habitId,
-                                                   @RequestParam Boolean completed,
-                                                   @RequestParam(required = false) LocalDate date) {
-        structureService.updateHabitCompletion(habitId, completed, date);
-        return ResponseEntity.ok("Habit completion updated successfully");
+    public ResponseEntity<StreakDTO> updateCompletion(@PathVariable Integer habitId,
+                                                      @RequestParam Boolean completed,
+                                                      @RequestParam(required = false) LocalDate date) {
+        return ResponseEntity.ok(structureService.updateHabitCompletion(habitId, completed, date));
     }
 
     @PostMapping("/habits/info/save")
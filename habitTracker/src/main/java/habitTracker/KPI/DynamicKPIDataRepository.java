@@ -1,10 +1,14 @@
 package habitTracker.KPI;
 
+import com.mongodb.bulk.BulkWriteResult;
 import lombok.RequiredArgsConstructor;
 import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDate;
@@ -60,6 +64,34 @@ public class DynamicKPIDataRepository {
         return mongoTemplate.find(query, KPIData.class, collectionName);
     }
     
+    /**
+     * Latest point on or before the given date (default-fill: where the EMA chain continues from)
+     */
+    public Optional<KPIData> findLatestOnOrBefore(LocalDate date, String collectionName) {
+        Query query = new Query(Criteria.where("date").lte(date))
+                .with(Sort.by(Sort.Direction.DESC, "date"));
+        return Optional.ofNullable(mongoTemplate.findOne(query, KPIData.class, collectionName));
+    }
+
+    /**
+     * Insert points in one unordered bulk write, as upserts keyed by date with $setOnInsert only:
+     * a day that already has a value keeps it. Returns how many were inserted.
+     */
+    public int insertMissing(List<KPIData> points, String collectionName) {
+        if (points.isEmpty()) {
+            return 0;
+        }
+        BulkOperations ops = mongoTemplate.bulkOps(BulkMode.UNORDERED, KPIData.class, collectionName);
+        for (KPIData point : points) {
+            ops.upsert(new Query(Criteria.where("date").is(point.getDate())), new Update()
+                    .setOnInsert("value", point.getValue())
+                    .setOnInsert("exponentialMovingAverage", point.getExponentialMovingAverage())
+                    .setOnInsert("autoFilled", point.getAutoFilled()));
+        }
+        BulkWriteResult result = ops.execute();
+        return result != null ? result.getUpserts().size() : 0;
+    }
+
     /**
      * Delete KPI data by date
      */
@@ -9,6 +9,7 @@ import org.springframework.data.mongodb.core.mapping.Document;
 import org.springframework.data.mongodb.core.index.CompoundIndex;
 import org.springframework.data.mongodb.core.index.Indexed;
 
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 
 @Document(collection = "kpis")
@@ -36,10 +37,17 @@ public class KPI {
     @Indexed
     private String userId;
 
+    // The owner's User.timeZone (null = server zone), so the default-fill pass selects a bucket's
+    // KPIs by zone, like Habit.timeZone. Kept in sync by UserService.updateTimeZone.
+    private String timeZone;
+
     // Opt-in: if true, a missed day is auto-filled with defaultValue by the daily cron
     // (KPIDefaultFillService) instead of being left blank. Off by default — not every KPI
     // wants a synthetic zero/whatever on days you forgot to log.
     private Boolean autoFillEnabled;
 
     private Double defaultValue;
+
+    // Last day the default-fill cron covered for this KPI; the next run only fills days after it.
+    private LocalDate autoFilledThrough;
 }
@@ -3,6 +3,7 @@ package habitTracker.KPI;
 import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -14,6 +15,7 @@ public interface KPIRepository extends MongoRepository<KPI, String> {
     List<KPI> findByActive(Boolean active);
     List<KPI> findByActiveAndUserId(Boolean active, String userId);
     List<KPI> findByActiveAndAutoFillEnabled(Boolean active, Boolean autoFillEnabled);
+    List<KPI> findByActiveAndAutoFillEnabledAndTimeZoneIn(Boolean active, Boolean autoFillEnabled, Collection<String> timeZones);
     boolean existsByName(String name);
     boolean existsByNameAndUserId(String name, String userId);
 }
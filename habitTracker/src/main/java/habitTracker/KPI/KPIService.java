@@ -1,6 +1,7 @@
 package habitTracker.KPI;
 
 import habitTracker.auth.SecurityUtils;
+import habitTracker.updater.EngineBuckets;
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -22,6 +23,7 @@ public class KPIService {
     private final DynamicKPIDataRepository dynamicKPIDataRepository;
     private final KPIHabitMappingRepository kpiHabitMappingRepository;
     private final KPICollectionNameUtil collectionNameUtil;
+    private final EngineBuckets engineBuckets;
     
     @Transactional
     public KPIDTO createKPI(String name, String description, Boolean higherIsBetter, List<Integer> habitIds,
@@ -42,6 +44,7 @@ public class KPIService {
                 .updatedAt(LocalDateTime.now())
                 .active(true)
                 .userId(userId)
+                .timeZone(engineBuckets.storedZoneOf(userId))
                 .autoFillEnabled(Boolean.TRUE.equals(autoFillEnabled))
                 .defaultValue(Boolean.TRUE.equals(autoFillEnabled) ? defaultValue : null)
                 .build();
@@ -91,28 +94,50 @@ public class KPIService {
                 .orElseThrow(() -> new IllegalArgumentException("KPI with name '" + kpiName + "' does not exist"));
 
         // A manually-entered value always wins and clears any prior auto-filled flag.
-        saveKPIDataPoint(kpi, date, value, false);
+        saveKPIDataPoint(kpi, date, value);
     }
 
     /**
-     * Cron entry point (habitTracker.updater.KPIDefaultFillService): fills in the KPI's
-     * defaultValue for the given date if, and only if, no data point already exists for it.
-     * Takes an already-resolved KPI (the cron scans all users' KPIs directly via MongoTemplate,
-     * the same way HabitUpdateService does for habits) rather than going through
-     * SecurityUtils.getCurrentUserId(), since there is no authenticated request on a cron thread.
-     * Writes only into this KPI's own collection (kpi.getId()) — never touches another user's data.
+     * Cron entry point (habitTracker.updater.KPIDefaultFillService): the defaultValue points for every
+     * day after the KPI's last point on or before `through`, but not before notBefore. With no points
+     * in between, each day's EMA chains from the previous one in memory, as if each default had been
+     * logged on its day. One read; nothing is written. Takes an already-resolved KPI rather than going
+     * through SecurityUtils.getCurrentUserId(), since there is no authenticated request on a cron thread.
      */
-    @Transactional
-    public boolean fillDefaultIfMissing(KPI kpi, LocalDate date) {
-        if (!Boolean.TRUE.equals(kpi.getAutoFillEnabled()) || kpi.getDefaultValue() == null) {
-            return false;
+    public List<KPIData> planDefaultFill(KPI kpi, LocalDate notBefore, LocalDate through) {
+        List<KPIData> points = new ArrayList<>();
+        if (!Boolean.TRUE.equals(kpi.getAutoFillEnabled()) || kpi.getDefaultValue() == null || through.isBefore(notBefore)) {
+            return points;
         }
         String collectionName = collectionNameUtil.toCollectionName(kpi.getId());
-        if (dynamicKPIDataRepository.findByDate(date, collectionName).isPresent()) {
-            return false; // already has a value (manual or previously auto-filled) — never overwrite
+        Optional<KPIData> last = dynamicKPIDataRepository.findLatestOnOrBefore(through, collectionName);
+        LocalDate from = notBefore;
+        Double ema = null;
+        if (last.isPresent()) {
+            if (!last.get().getDate().isBefore(from)) {
+                from = last.get().getDate().plusDays(1);
+            }
+            ema = last.get().getExponentialMovingAverage() != null
+                    ? last.get().getExponentialMovingAverage() : last.get().getValue();
+        }
+        for (LocalDate date = from; !date.isAfter(through); date = date.plusDays(1)) {
+            ema = nextEMA(ema, kpi.getDefaultValue());
+            points.add(KPIData.builder()
+                    .date(date)
+                    .value(kpi.getDefaultValue())
+                    .exponentialMovingAverage(ema)
+                    .autoFilled(true)
+                    .build());
         }
-        saveKPIDataPoint(kpi, date, kpi.getDefaultValue(), true);
-        return true;
+        return points;
+    }
+
+    /**
+     * Writes planDefaultFill's points into the KPI's own collection in one bulk write. A day that
+     * was logged by hand in the meantime keeps its value. Returns the number of days filled.
+     */
+    public int writeDefaultFill(KPI kpi, List<KPIData> points) {
+        return dynamicKPIDataRepository.insertMissing(points, collectionNameUtil.toCollectionName(kpi.getId()));
     }
 
     @Transactional
@@ -131,7 +156,7 @@ public class KPIService {
         return convertToDTO(saved);
     }
 
-    private void saveKPIDataPoint(KPI kpi, LocalDate date, Double value, boolean autoFilled) {
+    private void saveKPIDataPoint(KPI kpi, LocalDate date, Double value) {
         String collectionName = collectionNameUtil.toCollectionName(kpi.getId());
 
         Optional<KPIData> existingData = dynamicKPIDataRepository.findByDate(date, collectionName);
@@ -146,7 +171,7 @@ public class KPIService {
                     .value(value)
                     .build();
         }
-        kpiData.setAutoFilled(autoFilled);
+        kpiData.setAutoFilled(false);
 
         Double ema = calculateEMA(collectionName, value);
         kpiData.setExponentialMovingAverage(ema);
@@ -173,13 +198,13 @@ public class KPIService {
     }
     
     public List<KPIDataDTO> getWeeklyKPIData(String kpiName) {
-        LocalDate endDate = LocalDate.now();
+        LocalDate endDate = engineBuckets.todayOf(SecurityUtils.getCurrentUserId());
         LocalDate startDate = endDate.minusDays(7);
         return getKPIDataForDateRange(kpiName, startDate, endDate);
     }
 
     public List<KPIDataDTO> getMonthlyKPIData(String kpiName) {
-        LocalDate endDate = LocalDate.now();
+        LocalDate endDate = engineBuckets.todayOf(SecurityUtils.getCurrentUserId());
         LocalDate startDate = endDate.minusDays(30);
         return getKPIDataForDateRange(kpiName, startDate, endDate);
     }
@@ -262,17 +287,19 @@ public class KPIService {
             return currentValue; // First data point
         }
         
-        // Use 14-day EMA (smoothing factor = 2/(N+1) = 2/15 ≈ 0.133)
-        double smoothingFactor = 2.0 / 15.0;
-        
         // Find the most recent EMA
-        Double previousEMA = historicalData.get(0).getExponentialMovingAverage();
+        return nextEMA(historicalData.get(0).getExponentialMovingAverage(), currentValue);
+    }
+
+    // Use 14-day EMA (smoothing factor = 2/(N+1) = 2/15 ≈ 0.133)
+    private static final double EMA_SMOOTHING = 2.0 / 15.0;
+
+    /** EMA = (CurrentValue * SmoothingFactor) + (PreviousEMA * (1 - SmoothingFactor)); no previous EMA = the value itself. */
+    static double nextEMA(Double previousEMA, double currentValue) {
         if (previousEMA == null) {
-            previousEMA = currentValue;
+            return currentValue;
         }
-        
-        // EMA = (CurrentValue * SmoothingFactor) + (PreviousEMA * (1 - SmoothingFactor))
-        return (currentValue * smoothingFactor) + (previousEMA * (1 - smoothingFactor));
+        return (currentValue * EMA_SMOOTHING) + (previousEMA * (1 - EMA_SMOOTHING));
     }
     
     private KPIDTO convertToDTO(KPI kpi) {
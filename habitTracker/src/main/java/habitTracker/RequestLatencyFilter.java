@@ -0,0 +1,36 @@
+package habitTracker;
+
+import habitTracker.updater.EngineThrottle;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+
+/**
+ * Feeds the wall-clock time of every HTTP request to EngineThrottle, which slows the engine down
+ * when interactive latency rises.
+ */
+@Component
+public class RequestLatencyFilter extends OncePerRequestFilter {
+
+    private final EngineThrottle engineThrottle;
+
+    public RequestLatencyFilter(EngineThrottle engineThrottle) {
+        this.engineThrottle = engineThrottle;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        long started = System.nanoTime();
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            engineThrottle.recordRequestLatency((System.nanoTime() - started) / 1_000_000);
+        }
+    }
+}
@@ -3,6 +3,7 @@ package habitTracker.Structure;
 import java.time.LocalDate;
 
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
 import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 import org.springframework.data.mongodb.core.mapping.Field;
@@ -13,12 +14,16 @@ import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.bson.types.ObjectId;
 
+// One row per habit and day: seeds and toggles are upserts on this key (HabitStructureManager).
 @Document(collection = "habit_structures")
+@CompoundIndex(name = HabitStructure.UNIQUE_DAY_INDEX, def = "{'habitId': 1, 'structureDate': 1}", unique = true)
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
 @Builder
 public class HabitStructure {
+    public static final String UNIQUE_DAY_INDEX = "habit_day_unique";
+
     @Id
     private String id = new ObjectId().toString();
     
@@ -25,4 +25,9 @@ public interface HabitStructureRepository extends MongoRepository<HabitStructure
     @Query(value = "{ 'habitId': ?0, 'completed': ?1, 'structureDate': { $gte: ?2, $lte: ?3 } }", exists = true)
     boolean existsByHabitIdAndCompletedInWindow(Integer habitId, Boolean completed,
                                                  LocalDate startDate, LocalDate endDate);
+    // Same window, but the rows themselves (dates only) — engine catch-up over a long gap.
+    @Query(value = "{ 'habitId': ?0, 'completed': ?1, 'structureDate': { $gte: ?2, $lte: ?3 } }",
+           fields = "{ 'structureDate': 1 }")
+    List<HabitStructure> findByHabitIdAndCompletedInWindow(Integer habitId, Boolean completed,
+                                                          LocalDate startDate, LocalDate endDate);
 }
\ No newline at end of file
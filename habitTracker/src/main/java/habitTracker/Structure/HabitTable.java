@@ -0,0 +1,126 @@
+package habitTracker.Structure;
+
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import habitTracker.Structure.StructureDTO.HabitStatus;
+import habitTracker.util.Pair;
+
+/**
+ * The habit × day table behind StructureService.getStructuresForDateRange. The habits are sorted
+ * once (by name, then id) into rows, and each cell is one bit in two bitsets: "active" (the
+ * habit is scheduled that day) and "completed" (its row for that day says so). That is
+ * habits × days × 2 bits, so a year of 50 habits is about 4.5 KB. The per-day maps of the
+ * response are only built by toStructures(), or skipped entirely by toColumns().
+ */
+final class HabitTable {
+
+    private final LocalDate startDate;
+    private final int days;
+    private final List<Pair<String, Integer>> habits;
+    private final Map<Integer, Integer> rowOf = new HashMap<>();
+    private final BitSet active;
+    private final BitSet completed;
+    private final BitSet known; // rows whose habit was found, i.e. that get a status
+
+    HabitTable(LocalDate startDate, LocalDate endDate, List<Pair<String, Integer>> habitNames) {
+        this.startDate = startDate;
+        this.days = endDate.isBefore(startDate) ? 0 : (int) ChronoUnit.DAYS.between(startDate, endDate) + 1;
+        this.habits = habitNames.stream()
+                .distinct()
+                .sorted(Comparator.comparing((Pair<String, Integer> p) -> p.getKey(), Comparator.nullsLast(Comparator.naturalOrder()))
+                        .thenComparing(Pair::getValue, Comparator.nullsLast(Comparator.naturalOrder())))
+                .toList();
+        for (int row = 0; row < habits.size(); row++) {
+            rowOf.putIfAbsent(habits.get(row).getValue(), row);
+        }
+        this.active = new BitSet(habits.size() * days);
+        this.completed = new BitSet(habits.size() * days);
+        this.known = new BitSet(habits.size());
+    }
+
+    int days() {
+        return days;
+    }
+
+    LocalDate dateOf(int day) {
+        return startDate.plusDays(day);
+    }
+
+    /** The habit's row, or -1 if it is not in the table. */
+    int rowOf(Integer habitId) {
+        return rowOf.getOrDefault(habitId, -1);
+    }
+
+    /** Records a habit_structures row; rows for other habits or outside the date range are ignored. */
+    void setCompleted(Integer habitId, LocalDate date, Boolean isCompleted) {
+        int row = rowOf(habitId);
+        long day = date == null ? -1 : ChronoUnit.DAYS.between(startDate, date);
+        if (row < 0 || day < 0 || day >= days) {
+            return;
+        }
+        completed.set(cell(row, (int) day), Boolean.TRUE.equals(isCompleted)); // the last row for a day wins
+    }
+
+    /** The habit behind this row was found, so each of its days gets a status. */
+    void markKnown(int row) {
+        known.set(row);
+    }
+
+    /** Sets the row's scheduled days; bit i of days is day i of the table (HabitDateCalculator.activeDays). */
+    void markActive(int row, BitSet days) {
+        int from = cell(row, 0);
+        for (int day = days.nextSetBit(0); day >= 0 && day < this.days; day = days.nextSetBit(day + 1)) {
+            active.set(from + day);
+        }
+    }
+
+    /** One StructureDTO per day, oldest first, each listing every habit in row order. */
+    List<StructureDTO> toStructures() {
+        List<StructureDTO> structures = new ArrayList<>(days);
+        for (int day = 0; day < days; day++) {
+            Map<Pair<String, Integer>, Boolean> dayHabits = new LinkedHashMap<>();
+            Map<Pair<String, Integer>, HabitStatus> statuses = new LinkedHashMap<>();
+            for (int row = 0; row < habits.size(); row++) {
+                Pair<String, Integer> habit = habits.get(row);
+                boolean done = completed.get(cell(row, day));
+                dayHabits.put(habit, done);
+                if (known.get(row)) {
+                    statuses.put(habit, !active.get(cell(row, day)) ? HabitStatus.INACTIVE
+                            : done ? HabitStatus.ACTIVE_COMPLETED : HabitStatus.ACTIVE_INCOMPLETE);
+                }
+            }
+            StructureDTO structure = new StructureDTO(dateOf(day));
+            structure.setHabits(dayHabits);
+            structure.setHabitStatuses(statuses);
+            structures.add(structure);
+        }
+        return structures;
+    }
+
+    /** The same table in the version 2 wire format: one column per habit, its days bit-packed. */
+    HabitTableColumns toColumns(LocalDate endDate) {
+        Base64.Encoder base64 = Base64.getEncoder();
+        List<HabitTableColumns.Column> columns = new ArrayList<>(habits.size());
+        for (int row = 0; row < habits.size(); row++) {
+            Pair<String, Integer> habit = habits.get(row);
+            int from = cell(row, 0);
+            String done = base64.encodeToString(completed.get(from, from + days).toByteArray());
+            String scheduled = known.get(row) ? base64.encodeToString(active.get(from, from + days).toByteArray()) : null;
+            columns.add(new HabitTableColumns.Column(habit.getValue(), habit.getKey(), done, scheduled));
+        }
+        return new HabitTableColumns(HabitTableColumns.VERSION, startDate, endDate, days, columns);
+    }
+
+    private int cell(int row, int day) {
+        return row * days + day;
+    }
+}
@@ -0,0 +1,20 @@
+package habitTracker.Structure;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Version 2 of the habit table response (GET /api/v2/habits/table): each habit once, with its days
+ * bit-packed instead of one map per day keyed by "Pair(key=..., value=...)" strings.
+ *
+ * completed and active are base64 strings of little-endian bits (BitSet.toByteArray): day d of the
+ * range is bit (d % 8) of byte (d / 8), and missing trailing bytes are zero. A day's status is
+ * INACTIVE when its active bit is clear, otherwise ACTIVE_COMPLETED or ACTIVE_INCOMPLETE by its
+ * completed bit. active is null for a habit that could not be found (no statuses, as in version 1).
+ */
+public record HabitTableColumns(int version, LocalDate startDate, LocalDate endDate, int days, List<Column> habits) {
+
+    public static final int VERSION = 2;
+
+    public record Column(Integer id, String name, String completed, String active) {}
+}
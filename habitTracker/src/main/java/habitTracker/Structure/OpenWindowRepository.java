@@ -0,0 +1,49 @@
+package habitTracker.Structure;
+
+import lombok.RequiredArgsConstructor;
+import org.bson.Document;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDate;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Answers "is there a row with this completed value inside this habit's window" for many habits at
+ * once: one aggregation with one $or branch per window, each served by the unique
+ * (habitId, structureDate) index, grouped down to one document per habit that has a hit. Replaces one
+ * existsByHabitIdAndCompletedInWindow round trip per habit on the Today page.
+ */
+@Repository
+@RequiredArgsConstructor
+public class OpenWindowRepository {
+
+    private final MongoTemplate mongoTemplate;
+
+    /** A habit's window [start, end] (inclusive) and the completed value being looked for in it. */
+    public record WindowProbe(Integer habitId, boolean completed, LocalDate start, LocalDate end) {}
+
+    /** Ids of the probed habits that have at least one matching row in their window. */
+    public Set<Integer> habitsWithRowInWindow(List<WindowProbe> probes) {
+        Set<Integer> hits = new HashSet<>();
+        if (probes.isEmpty()) {
+            return hits;
+        }
+        Criteria[] windows = probes.stream()
+                .map(p -> Criteria.where("habitId").is(p.habitId())
+                        .and("structureDate").gte(p.start()).lte(p.end())
+                        .and("completed").is(p.completed()))
+                .toArray(Criteria[]::new);
+        Aggregation aggregation = Aggregation.newAggregation(
+                Aggregation.match(new Criteria().orOperator(windows)),
+                Aggregation.group("habitId"));
+        for (Document hit : mongoTemplate.aggregate(aggregation, HabitStructure.class, Document.class)) {
+            hits.add(hit.getInteger("_id"));
+        }
+        return hits;
+    }
+}
@@ -1,10 +1,12 @@
 package habitTracker.Structure;
 
 import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 import org.springframework.stereotype.Service;
@@ -13,10 +15,15 @@ import org.springframework.transaction.annotation.Transactional;
 import habitTracker.Habit.Habit;
 import habitTracker.auth.SecurityUtils;
 import habitTracker.Habit.HabitService;
+import habitTracker.Habit.InlineResolution;
+import habitTracker.Habit.StreakDTO;
 import habitTracker.Rules.Rule;
 import habitTracker.Rules.RuleService;
+import habitTracker.updater.CompletionResolver;
+import habitTracker.updater.EngineBuckets;
 import habitTracker.updater.HabitDateCalculator;
-import habitTracker.Structure.StructureDTO.HabitStatus;
+import habitTracker.updater.HabitStructureManager;
+import habitTracker.Structure.OpenWindowRepository.WindowProbe;
 import habitTracker.util.Pair;
 import lombok.RequiredArgsConstructor;
 
@@ -28,24 +35,33 @@ public class StructureService {
     private final HabitService habitService;
     private final RuleService ruleService;
     private final HabitDateCalculator habitDateCalculator;
+    private final CompletionResolver completionResolver;
+    private final HabitStructureManager habitStructureManager;
+    private final OpenWindowRepository openWindowRepository;
+    private final TodayCache todayCache;
+    private final EngineBuckets engineBuckets;
 
+    // "Today" is the user's local date (User.timeZone), the same day the engine resolves against.
     @Transactional(readOnly = true)
     public StructureDTO getTodayStructure() {
-        LocalDate today = LocalDate.now();
-        StructureDTO structure = getStructureForDate(today);
-        structure = filterFailedNegativeHabits(structure, today);
-        return structure;
+        String userId = SecurityUtils.getCurrentUserId();
+        LocalDate today = engineBuckets.todayOf(userId);
+        return todayCache.getOrCompute(userId, today,
+                () -> filterFailedNegativeHabits(getStructureForDate(today), today));
     }
 
     // Habit/window-driven: a habit belongs on the given day when that day falls inside its current
     // grace window [curDate, curDate + frequency). Completion is resolved across the whole window,
     // not just the single day, so a long-period habit stays visible (and catchable) for its whole period.
+    // One habits read plus one aggregation over every shown window, however many habits the user has.
     private StructureDTO getStructureForDate(LocalDate date) {
         StructureDTO structure = new StructureDTO();
         structure.setDate(date);
         structure.setHabits(new HashMap<>());
         structure.setHabitDetails(new HashMap<>());
 
+        List<Habit> shown = new ArrayList<>();
+        List<WindowProbe> probes = new ArrayList<>();
         for (Habit habit : habitService.getAllHabits()) {
             if (!Boolean.TRUE.equals(habit.getActive()) || habit.getName() == null) {
                 continue;
@@ -55,14 +71,21 @@ public class StructureService {
                 continue;
             }
             int freq = habit.getFrequency() != null && habit.getFrequency() > 0 ? habit.getFrequency() : 1;
+            anchor = creditedWindowCovering(habit, anchor, freq, date);
             boolean windowCoversDate = !date.isBefore(anchor) && date.isBefore(anchor.plusDays(freq));
             boolean withinEndDate = habit.getEndDate() == null || !date.isAfter(habit.getEndDate());
             if (!windowCoversDate || !withinEndDate) {
                 continue;
             }
+            shown.add(habit);
+            probes.add(occurrenceProbe(habit, anchor, freq));
+        }
 
+        Set<Integer> hits = openWindowRepository.habitsWithRowInWindow(probes);
+        for (Habit habit : shown) {
             Pair<String, Integer> habitKey = new Pair<>(habit.getName(), habit.getId());
-            structure.getHabits().put(habitKey, isOccurrenceComplete(habit, anchor, freq));
+            boolean hit = hits.contains(habit.getId());
+            structure.getHabits().put(habitKey, Boolean.TRUE.equals(habit.getDefaultMade()) ? !hit : hit);
             structure.getHabitDetails().put(habitKey, habit);
         }
 
@@ -73,199 +96,102 @@ public class StructureService {
         return structure;
     }
 
-    // Mirrors the resolution used by the daily engine (HabitUpdateService): a defaultMade habit is
-    // "done" for the window unless there is a relapse in it; a normal habit is "done" when it was
-    // completed anywhere in the window.
-    private boolean isOccurrenceComplete(Habit habit, LocalDate anchor, int freq) {
-        LocalDate windowLastDay = anchor.plusDays(freq - 1);
-        if (Boolean.TRUE.equals(habit.getDefaultMade())) {
-            return !habitStructureRepository.existsByHabitIdAndCompletedInWindow(
-                    habit.getId(), Boolean.FALSE, anchor, windowLastDay);
+    // A window credited on the spot by a completion toggle (CompletionResolver) has already moved
+    // curDate on, but stays on the Today page — checked, and uncheckable — until it would have closed.
+    private LocalDate creditedWindowCovering(Habit habit, LocalDate anchor, int freq, LocalDate date) {
+        InlineResolution credited = habit.getInlineResolution();
+        if (credited == null || credited.getWindowStart() == null
+                || !anchor.equals(credited.getWindowStart().plusDays(freq))) {
+            return anchor;
         }
-        return habitStructureRepository.existsByHabitIdAndCompletedInWindow(
-                habit.getId(), Boolean.TRUE, anchor, windowLastDay);
+        boolean covers = !date.isBefore(credited.getWindowStart()) && date.isBefore(anchor);
+        return covers ? credited.getWindowStart() : anchor;
     }
 
-    private boolean isHabitActiveOnDate(Habit habit, LocalDate date) {
-        if (habit.getActive() == null || !habit.getActive()) {
-            return false;
-        }
-        return habitDateCalculator.shouldTrackHabitOnDate(habit, date);
-    }
-
-    private Map<Integer, String> getHabitIdToNameMapFromIds(List<Pair<String, Integer>> habitNames) {
-        List<Integer> habitIds = habitNames.stream()
-            .map(Pair::getValue)
-            .distinct()
-            .collect(Collectors.toList());
-
-        List<Habit> habits = habitService.getHabitsByIds(habitIds);
-        return habits.stream()
-            .collect(Collectors.toMap(Habit::getId, Habit::getName));
+    // Mirrors the resolution used by the daily engine (HabitUpdateService): a defaultMade habit is
+    // "done" for the window unless there is a relapse in it; a normal habit is "done" when it was
+    // completed anywhere in the window. The probe looks for the row that decides it.
+    private static WindowProbe occurrenceProbe(Habit habit, LocalDate anchor, int freq) {
+        boolean lookFor = !Boolean.TRUE.equals(habit.getDefaultMade()); // relapse (false) for defaultMade
+        return new WindowProbe(habit.getId(), lookFor, anchor, anchor.plusDays(freq - 1));
     }
 
+    /**
+     * The habit table for [startDate, endDate]: one StructureDTO per day, oldest first, listing every
+     * requested habit by name with its completion and status. Built as a HabitTable (two bitsets over
+     * the sorted habits) from one habits read and one rows read; the maps are only made at the end.
+     */
     @Transactional(readOnly = true)
     public List<StructureDTO> getStructuresForDateRange(LocalDate startDate, LocalDate endDate, List<Pair<String, Integer>> habitNames) {
-        Map<LocalDate, StructureDTO> structureMap = initializeStructureMap(startDate, endDate);
-        List<HabitStructure> habitStructures = fetchHabitStructures(startDate, endDate);
-        Map<Integer, String> habitIdToNameMap = getHabitIdToNameMapFromIds(habitNames);
-        populateStructureMap(structureMap, habitStructures, habitIdToNameMap);
-        fillMissingHabits(structureMap, habitNames);
-        
-        // Enhanced: Populate habit activity statuses
-        populateHabitStatuses(structureMap, habitNames, startDate, endDate);
+        return buildTable(startDate, endDate, habitNames).toStructures();
+    }
 
-        return structureMap.values().stream()
-            .sorted((s1, s2) -> s1.getDate().compareTo(s2.getDate()))
-            .collect(Collectors.toList());
+    /** The same table in the compact version 2 format (HabitTableColumns), habits sorted by name. */
+    @Transactional(readOnly = true)
+    public HabitTableColumns getTableColumns(LocalDate startDate, LocalDate endDate, List<Pair<String, Integer>> habitNames) {
+        return buildTable(startDate, endDate, habitNames).toColumns(endDate);
     }
 
-    private Map<LocalDate, StructureDTO> initializeStructureMap(LocalDate startDate, LocalDate endDate) {
-        Map<LocalDate, StructureDTO> structureMap = new HashMap<>();
-        for (LocalDate date = startDate; !date.isAfter(endDate); date = date.plusDays(1)) {
-            StructureDTO structure = new StructureDTO();
-            structure.setDate(date);
-            structure.setHabits(new HashMap<>());
-            structure.setHabitStatuses(new HashMap<>()); // Initialize habit statuses map
-            structureMap.put(date, structure);
+    private HabitTable buildTable(LocalDate startDate, LocalDate endDate, List<Pair<String, Integer>> habitNames) {
+        HabitTable table = new HabitTable(startDate, endDate, habitNames);
+        for (HabitStructure row : fetchHabitStructures(startDate, endDate)) {
+            table.setCompleted(row.getHabitId(), row.getStructureDate(), row.getCompleted());
         }
-        return structureMap;
+        markSchedules(table, habitNames);
+        return table;
     }
 
     private List<HabitStructure> fetchHabitStructures(LocalDate startDate, LocalDate endDate) {
         String userId = SecurityUtils.getCurrentUserId();
+        // Derived Between queries are exclusive on Mongo ($gt/$lt), hence the day either side.
         return userId != null
                 ? habitStructureRepository.findByStructureDateBetweenAndUserId(startDate.minusDays(1), endDate.plusDays(1), userId)
                 : List.of();
     }
 
-    private void populateStructureMap(Map<LocalDate, StructureDTO> structureMap, List<HabitStructure> habitStructures, Map<Integer, String> habitIdToNameMap) {
-        for (HabitStructure habitStructure : habitStructures) {
-            if(habitStructure.getStructureDate() == null) {
-                continue; // Skip if structure date is null
-            }
-            LocalDate storedDate = habitStructure.getStructureDate();
-            StructureDTO structure = structureMap.get(storedDate);
-
-            String habitName = habitIdToNameMap.get(habitStructure.getHabitId());
-            if (habitName != null) {
-                Pair<String, Integer> habitKey = new Pair<>(habitName, habitStructure.getHabitId());
-                structure.getHabits().put(habitKey, habitStructure.getCompleted());
-            }
-        }
-
-        // Sort the habits in each StructureDTO by habit name
-        for (StructureDTO structure : structureMap.values()) {
-            structure.setHabits(structure.getHabits().entrySet().stream()
-                .sorted((entry1, entry2) -> entry1.getKey().getKey().compareTo(entry2.getKey().getKey())) // Sort by habit name
-                .collect(Collectors.toMap(
-                    Map.Entry::getKey,
-                    Map.Entry::getValue,
-                    (e1, e2) -> e1,
-                    LinkedHashMap::new // Maintain sorted order
-                )));
-        }
-    }
-
-    private void fillMissingHabits(Map<LocalDate, StructureDTO> structureMap, List<Pair<String, Integer>> habitNames) {
-        for (StructureDTO dto : structureMap.values()) {
-            for (Pair<String, Integer> habitName : habitNames) {
-                if (!dto.getHabits().containsKey(habitName)) {
-                    dto.getHabits().put(habitName, false); // Default to false if not present
-                }
-            }
-
-            // Sort the habits after adding missing ones by habit name
-            dto.setHabits(dto.getHabits().entrySet().stream()
-                .sorted((entry1, entry2) -> entry1.getKey().getKey().compareTo(entry2.getKey().getKey())) // Sort by habit name
-                .collect(Collectors.toMap(
-                    Map.Entry::getKey,
-                    Map.Entry::getValue,
-                    (e1, e2) -> e1,
-                    LinkedHashMap::new // Maintain sorted order
-                )));
-        }
-    }
-
-    /**
-     * Populates habit statuses for each date based on habit activity and completion
-     */
-    private void populateHabitStatuses(Map<LocalDate, StructureDTO> structureMap, 
-                                     List<Pair<String, Integer>> habitNames, 
-                                     LocalDate startDate, LocalDate endDate) {
-        // Get all habits
+    // Which days each habit is scheduled on, one HabitDateCalculator.activeDays pass per habit; a habit
+    // that cannot be found gets no statuses at all.
+    private void markSchedules(HabitTable table, List<Pair<String, Integer>> habitNames) {
         List<Integer> habitIds = habitNames.stream()
             .map(Pair::getValue)
+            .distinct()
             .collect(Collectors.toList());
-        List<Habit> habits = habitService.getHabitsByIds(habitIds);
-        Map<Integer, Habit> habitMap = habits.stream()
-            .collect(Collectors.toMap(Habit::getId, habit -> habit));
-        
-        // For each date and habit, determine the status
-        for (StructureDTO structure : structureMap.values()) {
-            LocalDate date = structure.getDate();
-            
-            for (Pair<String, Integer> habitPair : habitNames) {
-                Integer habitId = habitPair.getValue();
-                Habit habit = habitMap.get(habitId);
-                
-                if (habit == null) {
-                    continue; // Skip if habit not found
-                }
-                
-                HabitStatus status;
-                if (isHabitActiveOnDate(habit, date)) {
-                    // Habit is active on this date
-                    Boolean completed = structure.getHabits().get(habitPair);
-                    if (completed != null && completed) {
-                        status = HabitStatus.ACTIVE_COMPLETED;
-                    } else {
-                        status = HabitStatus.ACTIVE_INCOMPLETE;
-                    }
-                } else {
-                    // Habit is not active on this date
-                    status = HabitStatus.INACTIVE;
-                }
-                
-                structure.getHabitStatuses().put(habitPair, status);
+        for (Habit habit : habitService.getHabitsByIds(habitIds)) {
+            int row = table.rowOf(habit.getId());
+            if (row < 0) {
+                continue;
+            }
+            table.markKnown(row);
+            if (Boolean.TRUE.equals(habit.getActive()) && table.days() > 0) {
+                table.markActive(row, habitDateCalculator.activeDays(habit, table.dateOf(0), table.dateOf(table.days() - 1)));
             }
-            
-            // Sort habit statuses by habit name for consistency
-            structure.setHabitStatuses(structure.getHabitStatuses().entrySet().stream()
-                .sorted((entry1, entry2) -> entry1.getKey().getKey().compareTo(entry2.getKey().getKey()))
-                .collect(Collectors.toMap(
-                    Map.Entry::getKey,
-                    Map.Entry::getValue,
-                    (e1, e2) -> e1,
-                    LinkedHashMap::new
-                )));
         }
     }
 
+    /**
+     * Writes the completion row, credits (or un-credits) the window on the spot where
+     * CompletionResolver can, and returns the habit's streak as it now stands.
+     */
     @Transactional
-    public void updateHabitCompletion(Integer habitId, Boolean completed, LocalDate date) {
+    public StreakDTO updateHabitCompletion(Integer habitId, Boolean completed, LocalDate date) {
         // Ownership guard: getHabitById is scoped to the current user, so this rejects
         // attempts to toggle a habit the caller doesn't own (IDOR on /habits/update/{id}).
         if (habitService.getHabitById(habitId) == null) {
             throw new IllegalArgumentException("Habit not found with ID: " + habitId);
         }
+        LocalDate today = engineBuckets.todayOf(SecurityUtils.getCurrentUserId());
         if(date == null) {
-            date = LocalDate.now();
-        }
-        HabitStructure habitStructure = habitStructureRepository.findByHabitIdAndStructureDate(habitId, date)
-            .orElse(null);
-        if (habitStructure == null) {
-            habitStructure = new HabitStructure();
-            habitStructure.setHabitId(habitId);
-            habitStructure.setStructureDate(date);
+            date = today;
         }
-        habitStructure.setCompleted(completed);
-        // Without this, toggles written here have no userId while cron-created records do —
-        // any userId-scoped read (e.g. getStructuresForDateRange) silently misses them on reload.
-        habitStructure.setUserId(SecurityUtils.getCurrentUserId());
-        habitStructureRepository.save(habitStructure);
-
-        if (Boolean.FALSE.equals(completed) && LocalDate.now().equals(date)) {
+        // One upsert on the unique (habitId, structureDate) key: updates the day's seed, or creates
+        // the row. The userId matters — without it any userId-scoped read (e.g.
+        // getStructuresForDateRange) silently misses the toggle on reload.
+        habitStructureManager.setCompleted(habitId, date, completed, SecurityUtils.getCurrentUserId());
+        habitService.markDueForResolution(habitId);
+        CompletionResolver.Outcome outcome = completionResolver.completionToggled(habitId, date, Boolean.TRUE.equals(completed));
+
+        // An undone inline credit already put lastNegativeStreak back along with the rest.
+        if (outcome != CompletionResolver.Outcome.UNDONE && Boolean.FALSE.equals(completed) && today.equals(date)) {
             habitService.restoreNegativeStreak(habitId);
         }
 
@@ -281,6 +207,8 @@ public class StructureService {
             }
             updateHabitCompletion(subId, completed, date);
         }
+        todayCache.invalidate(SecurityUtils.getCurrentUserId());
+        return StreakDTO.of(habitService.getHabitById(habitId), today);
     }
 
     /**
@@ -292,15 +220,11 @@ public class StructureService {
             return structure;
         }
 
-        // Get all habit IDs from the current structure
-        List<Integer> habitIds = structure.getHabits().keySet().stream()
-            .map(Pair::getValue)
-            .collect(Collectors.toList());
-
-        // Fetch full habit objects to check defaultMade property
-        List<Habit> habits = habitService.getHabitsByIds(habitIds);
-        Map<Integer, Habit> habitMap = habits.stream()
-            .collect(Collectors.toMap(Habit::getId, habit -> habit));
+        // The habits were already read to build the structure; no need to fetch them again
+        Map<Integer, Habit> habitMap = new HashMap<>();
+        if (structure.getHabitDetails() != null) {
+            structure.getHabitDetails().forEach((key, habit) -> habitMap.put(key.getValue(), habit));
+        }
 
         // Filter out failed negative habits
         Map<Pair<String, Integer>, Boolean> filteredHabits = structure.getHabits().entrySet().stream()
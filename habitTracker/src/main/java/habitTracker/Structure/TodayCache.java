@@ -0,0 +1,107 @@
+package habitTracker.Structure;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Each user's Today structure (StructureService.getTodayStructure), so a repeat visit to /api/today is
+ * a map lookup instead of a habits read plus a window aggregation. Bounded: least recently used users
+ * are evicted past max-entries, and an entry is only served for the date it was built for (the user's
+ * local date, EngineBuckets.todayOf, so it turns over at the user's midnight) and for at most ttl-seconds (a backstop for writes that bypass the invalidation hooks, e.g. another replica).
+ *
+ * Invalidated per user after every write that changes what the page shows: completion toggles
+ * (StructureService.updateHabitCompletion), HabitService edits to name/schedule/active/defaultMade,
+ * and engine passes that moved a user's windows (HabitUpdateService). Streak-only writes leave it
+ * alone; the page does not show streaks.
+ *
+ * A structure computed while one of its user's writes was landing is not stored: every invalidation
+ * bumps a per-user generation (striped, so the counters stay bounded) and getOrCompute only stores
+ * its result if the generation did not move while it was computing.
+ */
+@Component
+public class TodayCache {
+
+    private static final int STRIPES = 64;
+
+    private final int maxEntries;
+    private final Duration ttl;
+    private final Clock clock;
+    private final long[] generations = new long[STRIPES]; // guarded by entries
+    private final Map<String, Entry> entries;
+
+    private record Entry(LocalDate date, Instant expiresAt, StructureDTO structure) {}
+
+    public TodayCache(@Value("${habits.today-cache.max-entries:10000}") int maxEntries,
+                      @Value("${habits.today-cache.ttl-seconds:300}") long ttlSeconds) {
+        this(maxEntries, Duration.ofSeconds(ttlSeconds), Clock.systemUTC());
+    }
+
+    TodayCache(int maxEntries, Duration ttl, Clock clock) {
+        this.maxEntries = maxEntries;
+        this.ttl = ttl;
+        this.clock = clock;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > TodayCache.this.maxEntries;
+            }
+        };
+    }
+
+    /** Never stores anything; for code built outside Spring (tests, benchmarks, replays). */
+    public static TodayCache disabled() {
+        return new TodayCache(0, Duration.ZERO, Clock.systemUTC());
+    }
+
+    /** The user's structure for `date` (their local today), from the cache or freshly computed (and then cached). */
+    public StructureDTO getOrCompute(String userId, LocalDate date, Supplier<StructureDTO> compute) {
+        if (userId == null || maxEntries <= 0 || ttl.isZero() || ttl.isNegative()) {
+            return compute.get();
+        }
+        Instant now = clock.instant();
+        long generation;
+        synchronized (entries) {
+            Entry cached = entries.get(userId);
+            if (cached != null && cached.date().equals(date) && now.isBefore(cached.expiresAt())) {
+                return cached.structure();
+            }
+            generation = generations[stripe(userId)];
+        }
+        StructureDTO structure = compute.get();
+        synchronized (entries) {
+            if (generations[stripe(userId)] == generation) {
+                entries.put(userId, new Entry(date, now.plus(ttl), structure));
+            }
+        }
+        return structure;
+    }
+
+    /** Call after the write has landed, so a concurrent read cannot re-cache what it replaced. */
+    public void invalidate(String userId) {
+        if (userId == null) {
+            return;
+        }
+        synchronized (entries) {
+            generations[stripe(userId)]++;
+            entries.remove(userId);
+        }
+    }
+
+    int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private static int stripe(String userId) {
+        return Math.floorMod(userId.hashCode(), STRIPES);
+    }
+}
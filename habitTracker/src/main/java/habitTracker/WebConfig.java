@@ -1,11 +1,22 @@
 package habitTracker;
 
 import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.ResourceHandlerRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
 @Configuration
 public class WebConfig implements WebMvcConfigurer {
+
+    private final EngineReadinessInterceptor engineReadinessInterceptor;
+    private final EngineCatchUpInterceptor engineCatchUpInterceptor;
+
+    public WebConfig(EngineReadinessInterceptor engineReadinessInterceptor,
+                     EngineCatchUpInterceptor engineCatchUpInterceptor) {
+        this.engineReadinessInterceptor = engineReadinessInterceptor;
+        this.engineCatchUpInterceptor = engineCatchUpInterceptor;
+    }
+
     @Override
     public void addResourceHandlers(ResourceHandlerRegistry registry) {
         registry.addResourceHandler("/**")
@@ -14,4 +25,15 @@ public class WebConfig implements WebMvcConfigurer {
                 .resourceChain(true)
                 .addResolver(new org.springframework.web.servlet.resource.PathResourceResolver());
     }
-}
\ No newline at end of file
+
+    // Habit writes (HabitWriteController) wait for the startup catch-up; everything else is served.
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(engineReadinessInterceptor)
+                .addPathPatterns("/habits/**", "/new-habit")
+                .excludePathPatterns("/habits/streaks"); // a read, POST only for the id list body
+        // A user's first habit request of their day brings their habits up to date first.
+        registry.addInterceptor(engineCatchUpInterceptor)
+                .addPathPatterns("/api/habits/**", "/api/v2/habits/**", "/api/today", "/habits/**", "/new-habit");
+    }
+}
@@ -0,0 +1,26 @@
+package habitTracker.auth;
+
+import org.springframework.security.core.Authentication;
+import org.springframework.stereotype.Component;
+
+/**
+ * Operator access for /api/admin/**: signed-in users whose stored User document has admin = true.
+ * Looked up by the principal's user id on every admin request, so nothing the user controls (their
+ * email, a name they registered with) can grant it, and revoking it takes effect immediately.
+ */
+@Component
+public class AdminAccess {
+
+    private final UserRepository userRepository;
+
+    public AdminAccess(UserRepository userRepository) {
+        this.userRepository = userRepository;
+    }
+
+    public boolean isAdmin(Authentication auth) {
+        return auth != null && auth.isAuthenticated()
+                && auth.getPrincipal() instanceof UserPrincipal principal
+                && principal.getId() != null
+                && userRepository.findById(principal.getId()).map(user -> Boolean.TRUE.equals(user.getAdmin())).orElse(false);
+    }
+}
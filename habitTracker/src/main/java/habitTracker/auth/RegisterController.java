@@ -11,11 +11,13 @@ import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import java.util.HashMap;
 import java.util.Map;
 
 @Controller
@@ -31,7 +33,24 @@ public class RegisterController {
         String userId = SecurityUtils.getCurrentUserId();
         log.info("[/auth/me] userId={}", userId);
         if (userId == null) return ResponseEntity.status(401).build();
-        return ResponseEntity.ok(Map.of("userId", userId));
+        Map<String, Object> body = new HashMap<>();
+        body.put("userId", userId);
+        body.put("timeZone", userService.findTimeZone(userId)); // may be null
+        return ResponseEntity.ok(body);
+    }
+
+    // The browser reports its zone so the engine rolls this user's day over at their midnight.
+    @PostMapping("/auth/me/time-zone")
+    @ResponseBody
+    public ResponseEntity<?> updateTimeZone(@RequestBody Map<String, String> body) {
+        String userId = SecurityUtils.getCurrentUserId();
+        if (userId == null) return ResponseEntity.status(401).build();
+        try {
+            userService.updateTimeZone(userId, body.get("timeZone"));
+            return ResponseEntity.noContent().build();
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
     }
 
     @GetMapping("/login")
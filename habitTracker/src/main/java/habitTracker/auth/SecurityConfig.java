@@ -8,6 +8,7 @@ import org.springframework.context.annotation.Configuration;
 import org.springframework.core.annotation.Order;
 import org.springframework.http.HttpStatus;
 import org.springframework.security.authentication.AuthenticationManager;
+import org.springframework.security.authorization.AuthorizationDecision;
 import org.springframework.security.config.annotation.authentication.configuration.AuthenticationConfiguration;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
@@ -36,6 +37,7 @@ public class SecurityConfig {
     private static final Logger log = LoggerFactory.getLogger(SecurityConfig.class);
     private final JwtAuthFilter jwtAuthFilter;
     private final UserService userService;
+    private final AdminAccess adminAccess;
 
     // Chain 1: /api/auth/** only — stateless JWT, no session, returns 401 JSON on failure
     @Bean
@@ -70,6 +72,7 @@ public class SecurityConfig {
                     "/tableView/**", "/addHabitView/**",
                     "/*.html", "/*.css", "/*.js", "/*.png", "/*.ico", "/*.webmanifest"
                 ).permitAll()
+                .requestMatchers("/api/admin/**").access((authentication, ctx) -> new AuthorizationDecision(adminAccess.isAdmin(authentication.get())))
                 .anyRequest().authenticated()
             )
             .formLogin(form -> form
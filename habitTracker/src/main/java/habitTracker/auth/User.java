@@ -20,4 +20,12 @@ public class User {
     private String passwordHash;
     private String googleId;
     private String name;
+
+    // IANA zone id (e.g. "Europe/Berlin") the browser reported; null = the server's zone.
+    // Decides when this user's day rolls over in the engine (EngineBuckets).
+    private String timeZone;
+
+    // Operator access to /api/admin/** (AdminAccess). Never set by sign-up or OAuth; an operator sets
+    // it on the stored document, e.g. db.users.updateOne({_id: ...}, {$set: {admin: true}}).
+    private Boolean admin;
 }
@@ -1,5 +1,6 @@
 package habitTracker.auth;
 
+import habitTracker.updater.EngineBuckets;
 import lombok.RequiredArgsConstructor;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UserDetailsService;
@@ -14,6 +15,7 @@ public class UserService implements UserDetailsService {
 
     private final UserRepository userRepository;
     private final PasswordEncoder passwordEncoder;
+    private final EngineBuckets engineBuckets;
 
     // Basic RFC-5322-ish email shape; deliberately permissive, just rejects obvious garbage.
     private static final java.util.regex.Pattern EMAIL_PATTERN =
@@ -69,6 +71,26 @@ public class UserService implements UserDetailsService {
                 });
     }
 
+    public String findTimeZone(String userId) {
+        return userRepository.findById(userId).map(User::getTimeZone).orElse(null);
+    }
+
+    public void updateTimeZone(String userId, String timeZone) {
+        try {
+            timeZone = java.time.ZoneId.of(timeZone).getId();
+        } catch (java.time.DateTimeException | NullPointerException e) {
+            throw new IllegalArgumentException("Unknown time zone: " + timeZone);
+        }
+        User user = userRepository.findById(userId)
+                .orElseThrow(() -> new IllegalArgumentException("User not found: " + userId));
+        if (!timeZone.equals(user.getTimeZone())) {
+            user.setTimeZone(timeZone);
+            userRepository.save(user);
+            // Habits and KPIs carry a copy of the zone; the engine's bucket scans select on it.
+            engineBuckets.zoneChanged(userId, timeZone);
+        }
+    }
+
     @Override
     public UserDetails loadUserByUsername(String email) throws UsernameNotFoundException {
         return userRepository.findByEmail(email)
@@ -0,0 +1,151 @@
+package habitTracker.updater;
+
+import habitTracker.Habit.Habit;
+import habitTracker.Habit.InlineResolution;
+import habitTracker.Structure.HabitStructure;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Collections;
+
+/**
+ * Resolves a normal habit's open window as soon as it is completed, instead of leaving the credit to
+ * the next engine pass. Runs HabitUpdateService.processHabit for just that habit, as of the owner's
+ * local date, so the streak, curDate, nextResolutionDate and seeds come out exactly as the engine
+ * would write them; the same curDate CAS makes it idempotent with a pass that is running meanwhile
+ * (whichever writes first wins, the other matches nothing).
+ *
+ * Only the plain case is done inline: the toggled day lies in the current window, which is still
+ * open, so exactly one occurrence is credited. Anything else (defaultMade habits, older windows the
+ * engine has not closed yet, a backfill outside the window) is left to the engine as before.
+ *
+ * The state before the credit is kept in Habit.inlineResolution; unchecking the completion puts it
+ * back as long as nothing has been resolved since and no other completion is left in the window.
+ */
+@Service
+public class CompletionResolver {
+
+    private static final String[] FIELDS = {"inlineResolution", "lastNegativeStreak", "nextResolutionDate"};
+
+    private final MongoTemplate mongoTemplate;
+    private final HabitUpdateService habitUpdateService;
+    private final EngineBuckets engineBuckets;
+    private final ResolutionWheel resolutionWheel;
+    private final boolean enabled;
+
+    public CompletionResolver(MongoTemplate mongoTemplate,
+                              HabitUpdateService habitUpdateService,
+                              EngineBuckets engineBuckets,
+                              ResolutionWheel resolutionWheel,
+                              @Value("${habits.engine.inline-resolution:true}") boolean enabled) {
+        this.mongoTemplate = mongoTemplate;
+        this.habitUpdateService = habitUpdateService;
+        this.engineBuckets = engineBuckets;
+        this.resolutionWheel = resolutionWheel;
+        this.enabled = enabled;
+    }
+
+    public enum Outcome { UNCHANGED, CREDITED, UNDONE }
+
+    /** Called after the toggle's habit_structures row was written. */
+    public Outcome completionToggled(Integer habitId, LocalDate date, boolean completed) {
+        if (!enabled) {
+            return Outcome.UNCHANGED;
+        }
+        Habit habit = load(habitId);
+        if (habit == null || !Boolean.TRUE.equals(habit.getActive()) || Boolean.TRUE.equals(habit.getDefaultMade())) {
+            return Outcome.UNCHANGED;
+        }
+        ZoneId zone = engineBuckets.zonesOf(Collections.singletonList(habit.getUserId())).get(habit.getUserId());
+        LocalDate today = LocalDate.now(zone);
+        Outcome outcome = completed ? credit(habit, date, today) : undo(habit, date);
+        if (outcome != Outcome.UNCHANGED) {
+            resolutionWheel.habitChanged(load(habitId));
+        }
+        return outcome;
+    }
+
+    private Outcome credit(Habit habit, LocalDate date, LocalDate today) {
+        LocalDate windowStart = habit.getCurDate();
+        if (windowStart == null) {
+            return Outcome.UNCHANGED;
+        }
+        LocalDate windowEnd = windowStart.plusDays(frequencyOf(habit)); // exclusive
+        boolean inWindow = !date.isBefore(windowStart) && date.isBefore(windowEnd);
+        boolean windowOpen = !today.isBefore(windowStart) && today.isBefore(windowEnd);
+        boolean ended = habit.getEndDate() != null && windowStart.isAfter(habit.getEndDate());
+        if (!inWindow || !windowOpen || ended) {
+            return Outcome.UNCHANGED;
+        }
+        InlineResolution before = InlineResolution.builder()
+                .windowStart(windowStart)
+                .streak(habit.getStreak())
+                .longestStreak(habit.getLongestStreak())
+                .lastNegativeStreak(habit.getLastNegativeStreak())
+                .build();
+        EngineWriteBatch batch = new EngineWriteBatch(mongoTemplate, 1) {
+            @Override
+            public void updateHabit(Query query, Update update) {
+                super.updateHabit(query, update.set("inlineResolution", before)); // same write as the credit
+            }
+        };
+        // Only this window can be inspected (it is the open one), so that is all the lookup needs.
+        // Not through HabitUpdateService.loadStructureIndex: that one waits on the engine throttle.
+        Query rows = new Query(Criteria.where("habitId").is(habit.getId())
+                .and("structureDate").gte(windowStart).lt(windowEnd));
+        rows.fields().include("habitId", "structureDate", "completed");
+        OccurrenceLookup lookup = HabitStructureIndex.of(mongoTemplate.find(rows, HabitStructure.class));
+        boolean resolved = habitUpdateService.processHabit(habit, today, lookup, batch);
+        batch.flush();
+        return resolved && batch.getTotalUpdated() > 0 ? Outcome.CREDITED : Outcome.UNCHANGED;
+    }
+
+    private Outcome undo(Habit habit, LocalDate date) {
+        InlineResolution before = habit.getInlineResolution();
+        if (before == null || before.getWindowStart() == null || habit.getCurDate() == null) {
+            return Outcome.UNCHANGED;
+        }
+        LocalDate windowStart = before.getWindowStart();
+        LocalDate windowEnd = windowStart.plusDays(frequencyOf(habit)); // exclusive
+        if (!habit.getCurDate().equals(windowEnd) || date.isBefore(windowStart) || !date.isBefore(windowEnd)) {
+            return Outcome.UNCHANGED; // resolved further since, or a day outside the credited window
+        }
+        Query stillCompleted = new Query(Criteria.where("habitId").is(habit.getId())
+                .and("completed").is(true)
+                .and("structureDate").gte(windowStart).lt(windowEnd));
+        if (mongoTemplate.exists(stillCompleted, HabitStructure.class)) {
+            return Outcome.UNCHANGED; // another completion still resolves the window
+        }
+        Update restore = new Update()
+                .set("curDate", windowStart)
+                .set("streak", before.getStreak())
+                .set("longestStreak", before.getLongestStreak())
+                .unset("inlineResolution")
+                .unset("nextResolutionDate"); // due again: the engine decides the window when it closes
+        if (before.getLastNegativeStreak() != null) {
+            restore.set("lastNegativeStreak", before.getLastNegativeStreak());
+        } else {
+            restore.unset("lastNegativeStreak");
+        }
+        Query unchanged = new Query(Criteria.where("id").is(habit.getId()).and("curDate").is(windowEnd)
+                .and("inlineResolution.windowStart").is(windowStart));
+        return mongoTemplate.updateFirst(unchanged, restore, Habit.class).getModifiedCount() > 0
+                ? Outcome.UNDONE : Outcome.UNCHANGED;
+    }
+
+    private Habit load(Integer habitId) {
+        Query query = new Query(Criteria.where("id").is(habitId));
+        query.fields().include(HabitUpdateService.ENGINE_FIELDS).include(FIELDS);
+        return mongoTemplate.findOne(query, Habit.class);
+    }
+
+    private static int frequencyOf(Habit habit) {
+        return habit.getFrequency() != null && habit.getFrequency() > 0 ? habit.getFrequency() : 1;
+    }
+}
@@ -0,0 +1,15 @@
+package habitTracker.updater;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * A group of time zones that share the same local date right now, processed as one engine run.
+ * zones is sorted, so the same group always maps to the same EngineRun id (and can be resumed).
+ */
+public record EngineBucket(LocalDate today, List<String> zones) {
+
+    public String key() {
+        return today + "@" + String.join(",", zones);
+    }
+}
@@ -0,0 +1,183 @@
+package habitTracker.updater;
+
+import habitTracker.Habit.Habit;
+import habitTracker.KPI.KPI;
+import habitTracker.auth.User;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Splits the user base by User.timeZone so each user's day rolls over at their own midnight.
+ * Users without a zone (and habits without an owner) belong to the server zone — the TZ the
+ * container runs in — which is exactly how every user was handled before zones existed.
+ */
+@Service
+public class EngineBuckets {
+
+    private final MongoTemplate mongoTemplate;
+    private final ZoneId serverZone;
+
+    public EngineBuckets(MongoTemplate mongoTemplate,
+                         @Value("${habits.engine.server-zone:}") String serverZone) {
+        this.mongoTemplate = mongoTemplate;
+        this.serverZone = serverZone == null || serverZone.isBlank() ? ZoneId.systemDefault() : ZoneId.of(serverZone);
+    }
+
+    /** Zones whose local midnight passed within the last hour (local hour is 0), grouped by local date. */
+    public List<EngineBucket> justPastMidnight(Instant now) {
+        return group(now, 0);
+    }
+
+    /** Every zone in use, grouped by its current local date — the startup catch-up. */
+    public List<EngineBucket> all(Instant now) {
+        return group(now, -1);
+    }
+
+    /**
+     * Zones whose local hour is `hour`. With the resolution wheel on, the hourly sweep runs an hour
+     * after local midnight, once the wheel has resolved the night's habits, and only picks up the rest.
+     */
+    public List<EngineBucket> atLocalHour(Instant now, int hour) {
+        return group(now, hour);
+    }
+
+    public ZoneId serverZone() {
+        return serverZone;
+    }
+
+    /**
+     * Zone of each of these users (server zone when they have none or an unknown one). A null user id
+     * (legacy, unowned habits) maps to the server zone as well.
+     */
+    public Map<String, ZoneId> zonesOf(Collection<String> userIds) {
+        Map<String, ZoneId> zones = new HashMap<>();
+        for (String userId : userIds) {
+            zones.put(userId, serverZone);
+        }
+        List<String> ids = userIds.stream().filter(Objects::nonNull).distinct().toList();
+        if (ids.isEmpty()) {
+            return zones;
+        }
+        Query query = new Query(Criteria.where("id").in(ids).and("timeZone").ne(null));
+        query.fields().include("id", "timeZone");
+        for (User user : mongoTemplate.find(query, User.class)) {
+            ZoneId zone = parse(user.getTimeZone());
+            if (zone != null) {
+                zones.put(user.getId(), zone);
+            }
+        }
+        return zones;
+    }
+
+    /**
+     * The user's current local date (server zone for none/unknown). Every request path that derives
+     * "today" (Today view, default toggle date, streak "today") uses this rather than
+     * LocalDate.now(), so it agrees with the engine about when the user's day rolled over.
+     */
+    public LocalDate todayOf(String userId) {
+        return LocalDate.now(zonesOf(Collections.singletonList(userId)).get(userId));
+    }
+
+    /** The zone's current local date, for telling whether an unfinished run is still today's. */
+    public LocalDate todayIn(String zone, Instant now) {
+        return now.atZone(ZoneId.of(zone)).toLocalDate();
+    }
+
+    /**
+     * Records to process for these zones, selected by the timeZone copied onto them. Records without
+     * one (users without a zone, unowned habits) go with the server zone.
+     */
+    public EngineScope scopeOf(EngineBucket bucket) {
+        List<String> zones = new ArrayList<>(bucket.zones());
+        if (coversUnowned(bucket.zones())) {
+            zones.add(null);
+        }
+        return EngineScope.inZones(zones);
+    }
+
+    /**
+     * The value a new habit or KPI of this user stores in its timeZone: the user's zone, or null when
+     * they have none (or an unknown one) and so roll over in the server zone.
+     */
+    public String storedZoneOf(String userId) {
+        if (userId == null) {
+            return null;
+        }
+        Query query = new Query(Criteria.where("id").is(userId));
+        query.fields().include("timeZone");
+        User user = mongoTemplate.findOne(query, User.class);
+        ZoneId zone = user == null ? null : parse(user.getTimeZone());
+        return zone == null ? null : zone.getId();
+    }
+
+    /** Copies a user's new zone onto their habits and KPIs, moving them to that zone's bucket. */
+    public void zoneChanged(String userId, String zone) {
+        Query owned = new Query(Criteria.where("userId").is(userId));
+        Update update = new Update().set("timeZone", zone);
+        mongoTemplate.updateMulti(owned, update, Habit.class);
+        mongoTemplate.updateMulti(owned, update, KPI.class);
+    }
+
+    /** Records without a zone (and pre-accounts data without a userId) roll over with the server zone. */
+    boolean coversUnowned(List<String> zones) {
+        return zones.contains(serverZone.getId());
+    }
+
+    // localHour -1 = every zone
+    private List<EngineBucket> group(Instant now, int localHour) {
+        Map<LocalDate, TreeSet<String>> byDate = new TreeMap<>();
+        for (ZoneId zone : zonesInUse()) {
+            var local = now.atZone(zone);
+            if (localHour >= 0 && local.getHour() != localHour) {
+                continue;
+            }
+            byDate.computeIfAbsent(local.toLocalDate(), d -> new TreeSet<>()).add(zone.getId());
+        }
+        List<EngineBucket> buckets = new ArrayList<>();
+        byDate.forEach((date, zones) -> buckets.add(new EngineBucket(date, List.copyOf(zones))));
+        return buckets;
+    }
+
+    private List<ZoneId> zonesInUse() {
+        TreeMap<String, ZoneId> zones = new TreeMap<>();
+        zones.put(serverZone.getId(), serverZone);
+        for (String id : mongoTemplate.findDistinct(new Query(), "timeZone", User.class, String.class)) {
+            ZoneId zone = parse(id);
+            if (zone != null) {
+                zones.putIfAbsent(id, zone);
+            }
+        }
+        return new ArrayList<>(zones.values());
+    }
+
+    private static ZoneId parse(String id) {
+        if (id == null) {
+            return null;
+        }
+        try {
+            return ZoneId.of(id);
+        } catch (DateTimeException e) {
+            // UserService validates zones on write; a bad value here was written some other way.
+            System.err.println("Ignoring unknown user time zone: " + id);
+            return null;
+        }
+    }
+}
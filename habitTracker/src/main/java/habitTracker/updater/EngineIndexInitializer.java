@@ -0,0 +1,50 @@
+package habitTracker.updater;
+
+import habitTracker.Habit.Habit;
+import habitTracker.Structure.HabitStructure;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.index.IndexResolver;
+import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver;
+import org.springframework.stereotype.Component;
+import jakarta.annotation.PostConstruct;
+
+/**
+ * spring.data.mongodb.auto-index-creation is off, so @Indexed/@CompoundIndex on the collections the
+ * engine queries would otherwise never be created. Ensures them once at startup; ensureIndex is a
+ * no-op for an index that already exists.
+ *
+ * Runs in @PostConstruct, so the indexes exist before the startup engine run (ApplicationReadyEvent).
+ *
+ * The unique (habitId, structureDate) index on habit_structures cannot be built over duplicate rows,
+ * so the first start after it was introduced dedupes them first (HabitStructureDedupe). Likewise the
+ * first start after habits and KPIs got their owner's timeZone copies them over (EngineZoneBackfill)
+ * before the zone index is built.
+ */
+@Component
+public class EngineIndexInitializer {
+
+    private final MongoTemplate mongoTemplate;
+
+    public EngineIndexInitializer(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    @PostConstruct
+    public void ensureIndexes() {
+        HabitStructureDedupe dedupe = new HabitStructureDedupe(mongoTemplate);
+        if (dedupe.isNeeded()) {
+            dedupe.run();
+        }
+        EngineZoneBackfill zoneBackfill = new EngineZoneBackfill(mongoTemplate);
+        if (zoneBackfill.isNeeded()) {
+            zoneBackfill.run();
+        }
+        IndexResolver resolver = new MongoPersistentEntityIndexResolver(mongoTemplate.getConverter().getMappingContext());
+        for (Class<?> type : new Class<?>[] {Habit.class, HabitStructure.class, EngineRunStats.class, StreakRepairRun.class}) {
+            IndexOperations indexOps = mongoTemplate.indexOps(type);
+            resolver.resolveIndexFor(type).forEach(indexOps::ensureIndex);
+        }
+        System.out.println("Engine indexes ensured for habits, habit_structures, engine_run_stats and streak_repair_runs");
+    }
+}
@@ -0,0 +1,31 @@
+package habitTracker.updater;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+
+/**
+ * Leader lease for work that must run on exactly one replica (the daily engine + KPI fill).
+ *
+ * The document is never deleted — expiry is expiresAt, checked by the acquire query, not a Mongo TTL
+ * index — because token must keep increasing across leaders: it is the fencing token every write
+ * of a run is checked against, and a TTL delete would restart it at 1.
+ */
+@Document(collection = "engine_leases")
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class EngineLease {
+    @Id
+    private String id; // lease name
+    private String holder;
+    private Long token;
+    private Instant acquiredAt;
+    private Instant expiresAt;
+}
@@ -0,0 +1,138 @@
+package habitTracker.updater;
+
+import com.mongodb.client.result.UpdateResult;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+import jakarta.annotation.PreDestroy;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mongo-backed leader election for the daily job, so scaled-out replicas don't all run it.
+ *
+ * tryAcquire is a single findAndModify that only matches an expired (or missing) lease and bumps
+ * its token; a live lease makes the upsert collide on _id, which means "someone else is leader".
+ * The holder renews every ttl/3. If it dies, the lease expires after ttl and a standby takes over
+ * with a higher token, which the previous holder's late writes are fenced against (EngineRunService).
+ */
+@Service
+public class EngineLeaseService {
+
+    public static final String DAILY_ENGINE = "daily-engine";
+    private static final long ACQUIRE_RETRY_MILLIS = 250;
+
+    private final MongoTemplate mongoTemplate;
+    private final Duration ttl;
+    private final String instanceId;
+    private final ScheduledExecutorService heartbeats = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "engine-lease-heartbeat");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public EngineLeaseService(MongoTemplate mongoTemplate,
+                              @Value("${habits.engine.lease.ttl-seconds:120}") long ttlSeconds,
+                              @Value("${HOSTNAME:local}") String hostname) {
+        this.mongoTemplate = mongoTemplate;
+        this.ttl = Duration.ofSeconds(Math.max(3, ttlSeconds));
+        this.instanceId = hostname + "-" + UUID.randomUUID().toString().substring(0, 8);
+    }
+
+    /** The lease, renewed in the background until closed — or null if another instance holds it. */
+    public LeaderLease tryAcquire(String name) {
+        Instant now = Instant.now();
+        Query expired = new Query(Criteria.where("_id").is(name).orOperator(
+                Criteria.where("expiresAt").lt(now),
+                Criteria.where("expiresAt").is(null)));
+        Update take = new Update()
+                .set("holder", instanceId)
+                .set("acquiredAt", now)
+                .set("expiresAt", now.plus(ttl))
+                .inc("token", 1);
+        EngineLease acquired;
+        try {
+            acquired = mongoTemplate.findAndModify(expired, take,
+                    FindAndModifyOptions.options().upsert(true).returnNew(true), EngineLease.class);
+        } catch (DuplicateKeyException e) {
+            return null; // a live lease exists: the upsert tried to insert a second document with this _id
+        }
+        if (acquired == null || !instanceId.equals(acquired.getHolder())) {
+            return null;
+        }
+        LeaderLease lease = new LeaderLease(this, name, acquired.getToken(), now.plus(ttl));
+        long period = Math.max(1, ttl.toMillis() / 3);
+        lease.startHeartbeat(heartbeats.scheduleAtFixedRate(() -> renew(lease), period, period, TimeUnit.MILLISECONDS));
+        System.out.println("Acquired lease " + name + " as " + instanceId + " (token " + lease.getToken() + ")");
+        return lease;
+    }
+
+    /**
+     * tryAcquire, retried for up to `wait`: the resolution wheel holds the lease for a moment every
+     * time it fires, and a scheduled run should not be skipped just because it started in that moment.
+     */
+    public LeaderLease acquire(String name, Duration wait) {
+        long deadline = System.nanoTime() + wait.toNanos();
+        while (true) {
+            LeaderLease lease = tryAcquire(name);
+            if (lease != null || System.nanoTime() >= deadline) {
+                return lease;
+            }
+            try {
+                Thread.sleep(ACQUIRE_RETRY_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+    }
+
+    void renew(LeaderLease lease) {
+        if (!lease.isHeld()) {
+            return;
+        }
+        Instant now = Instant.now();
+        try {
+            UpdateResult result = mongoTemplate.updateFirst(held(lease).addCriteria(Criteria.where("expiresAt").gt(now)),
+                    new Update().set("expiresAt", now.plus(ttl)), EngineLease.class);
+            if (result != null && result.getMatchedCount() == 0) {
+                lease.markLost();
+                System.err.println("Lost lease " + lease.getName() + " (token " + lease.getToken() + ")");
+            } else {
+                lease.renewed(now.plus(ttl));
+            }
+        } catch (RuntimeException e) {
+            // Mongo unreachable: keep the old deadline; isHeld() turns false by itself if it passes.
+            System.err.println("Could not renew lease " + lease.getName() + ": " + e.getMessage());
+        }
+    }
+
+    void release(LeaderLease lease) {
+        try {
+            mongoTemplate.updateFirst(held(lease), new Update().set("expiresAt", Instant.now()), EngineLease.class);
+        } catch (RuntimeException e) {
+            System.err.println("Could not release lease " + lease.getName() + "; it expires on its own: " + e.getMessage());
+        }
+    }
+
+    private Query held(LeaderLease lease) {
+        return new Query(Criteria.where("_id").is(lease.getName())
+                .and("holder").is(instanceId)
+                .and("token").is(lease.getToken()));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        heartbeats.shutdownNow();
+    }
+}
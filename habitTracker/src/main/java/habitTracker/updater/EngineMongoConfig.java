@@ -0,0 +1,34 @@
+package habitTracker.updater;
+
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandSucceededEvent;
+import org.springframework.boot.autoconfigure.mongo.MongoClientSettingsBuilderCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Registers a command listener on the Mongo client so EngineThrottle sees how long Mongo takes to
+ * answer — every command, the engine's own included, since its load is exactly what should make it
+ * back off.
+ */
+@Configuration
+public class EngineMongoConfig {
+
+    @Bean
+    public MongoClientSettingsBuilderCustomizer engineThrottleCommandListener(EngineThrottle engineThrottle) {
+        return settings -> settings.addCommandListener(new CommandListener() {
+            @Override
+            public void commandSucceeded(CommandSucceededEvent event) {
+                engineThrottle.recordMongoLatency(event.getElapsedTime(TimeUnit.MILLISECONDS));
+            }
+
+            @Override
+            public void commandFailed(CommandFailedEvent event) {
+                engineThrottle.recordMongoLatency(event.getElapsedTime(TimeUnit.MILLISECONDS));
+            }
+        });
+    }
+}
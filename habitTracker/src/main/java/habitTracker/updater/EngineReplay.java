@@ -0,0 +1,252 @@
+package habitTracker.updater;
+
+import habitTracker.Habit.Habit;
+import habitTracker.Structure.HabitStructure;
+import habitTracker.Structure.TodayCache;
+import org.bson.Document;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Runs the engine's resolution logic (HabitUpdateService.processHabit) day by day over a copy of
+ * habits and their habit_structures rows, entirely in memory: nothing is read from or written to
+ * Mongo while it runs. The result is the streak/longestStreak timeline the engine would have
+ * produced, so an engine change can be checked against real-shaped data (two replays, old and new,
+ * must give identical timelines) and timed without a database in the way.
+ *
+ * The replay starts each habit fresh at `from`: curDate is its first occurrence on or after `from`
+ * (startDate + k * frequency), streak and longest are 0. Pass the earliest startDate to replay a
+ * habit's whole history. A row only becomes visible on its own structureDate, the way a toggle
+ * reaches the real engine, and a completed row makes its habit due that day like
+ * StructureService.markDueForResolution does. Seeds the engine would insert go into the in-memory
+ * rows only.
+ */
+public final class EngineReplay {
+
+    /** Which habits each simulated run visits. */
+    public enum Cadence {
+        /** Like production: habits whose nextResolutionDate has arrived, plus those completed since the last run. */
+        DUE,
+        /** Every habit on every run; the reference the nextResolutionDate skip must agree with. */
+        ALL
+    }
+
+    /** A habit's state after a run that changed its streak or longest streak. */
+    public record Point(LocalDate date, int streak, int longestStreak, LocalDate curDate) {}
+
+    public record Result(LocalDate from, LocalDate to, Map<Integer, List<Point>> timelines,
+                         Map<Integer, Point> finalStates, int engineRuns, long habitsProcessed,
+                         int seedsCreated, long elapsedMillis) {
+
+        /**
+         * Habits whose final state differs from the other replay's, or, with compareTimelines, whose
+         * timeline differs (only meaningful when both replays ran at the same stride).
+         */
+        public List<Integer> divergingHabits(Result other, boolean compareTimelines) {
+            List<Integer> diverging = new ArrayList<>();
+            for (Integer habitId : finalStates.keySet()) {
+                boolean differs = !Objects.equals(finalStates.get(habitId), other.finalStates.get(habitId))
+                        || compareTimelines && !Objects.equals(timelines.get(habitId), other.timelines.get(habitId));
+                if (differs) {
+                    diverging.add(habitId);
+                }
+            }
+            for (Integer habitId : other.finalStates.keySet()) {
+                if (!finalStates.containsKey(habitId)) {
+                    diverging.add(habitId);
+                }
+            }
+            return diverging;
+        }
+    }
+
+    private final HabitUpdateService engine;
+
+    public EngineReplay(HabitUpdateService engine) {
+        this.engine = engine;
+    }
+
+    /**
+     * A replay over an engine that has no database at all, configured like
+     * habits.engine.catch-up-threshold / catch-up-seeds. processHabit never touches Mongo itself.
+     */
+    public static EngineReplay detached(int catchUpThreshold, SeedPolicy seedPolicy) {
+        return new EngineReplay(new HabitUpdateService(null, new HabitStructureManager(null),
+                new EngineRunService(null), EngineThrottle.unlimited(), TodayCache.disabled(), 1, 1, catchUpThreshold, seedPolicy));
+    }
+
+    public Result run(List<Habit> habits, List<HabitStructure> rows, LocalDate from, LocalDate to) {
+        return run(habits, rows, from, to, Cadence.DUE, 1);
+    }
+
+    /**
+     * One engine run every strideDays days from `from`, plus one on `to` (a stride > 1 simulates
+     * downtime, which sends long gaps through the catch-up path).
+     */
+    public Result run(List<Habit> habits, List<HabitStructure> rows, LocalDate from, LocalDate to,
+                      Cadence cadence, int strideDays) {
+        if (to.isBefore(from)) {
+            throw new IllegalArgumentException("to must not be before from");
+        }
+        if (strideDays < 1) {
+            throw new IllegalArgumentException("strideDays must be at least 1");
+        }
+        long started = System.nanoTime();
+        Map<Integer, Habit> copies = new LinkedHashMap<>();
+        for (Habit habit : habits) {
+            copies.put(habit.getId(), startingAt(habit, from));
+        }
+        Map<Integer, List<Point>> timelines = new LinkedHashMap<>();
+        copies.keySet().forEach(id -> timelines.put(id, new ArrayList<>()));
+
+        AsOfLookup lookup = new AsOfLookup(HabitStructureIndex.of(rows));
+        InMemoryWrites writes = new InMemoryWrites(copies);
+        int runs = 0;
+        long processed = 0;
+        LocalDate previousRun = from.minusDays(1);
+        // The last run always lands on `to`, so replays at different strides end on the same day.
+        for (LocalDate day = from; day != null; day = day.equals(to) ? null : min(day.plusDays(strideDays), to)) {
+            lookup.today = day;
+            for (Habit habit : copies.values()) {
+                if (cadence == Cadence.DUE && !isDue(habit, previousRun, day, lookup)) {
+                    continue;
+                }
+                int streak = habit.getStreak();
+                int longest = habit.getLongestStreak();
+                engine.processHabit(habit, day, lookup, writes);
+                processed++;
+                if (habit.getStreak() != streak || habit.getLongestStreak() != longest) {
+                    timelines.get(habit.getId()).add(pointOf(habit, day));
+                }
+            }
+            previousRun = day;
+            runs++;
+        }
+        Map<Integer, Point> finalStates = new LinkedHashMap<>();
+        copies.forEach((id, habit) -> finalStates.put(id, pointOf(habit, to)));
+        return new Result(from, to, timelines, finalStates, runs, processed, writes.seeds,
+                (System.nanoTime() - started) / 1_000_000);
+    }
+
+    private static LocalDate min(LocalDate a, LocalDate b) {
+        return a.isBefore(b) ? a : b;
+    }
+
+    private static boolean isDue(Habit habit, LocalDate previousRun, LocalDate day, OccurrenceLookup lookup) {
+        if (habit.getNextResolutionDate() == null || !habit.getNextResolutionDate().isAfter(day)) {
+            return true;
+        }
+        // A completion toggled since the last run pulled the habit forward (markDueForResolution).
+        return lookup.existsInWindow(habit.getId(), Boolean.TRUE, previousRun.plusDays(1), day);
+    }
+
+    private static Point pointOf(Habit habit, LocalDate date) {
+        return new Point(date, habit.getStreak(), habit.getLongestStreak(), habit.getCurDate());
+    }
+
+    /** The copy the replay works on: the habit's schedule, as it stood before its first occurrence on or after from. */
+    static Habit startingAt(Habit habit, LocalDate from) {
+        int freq = habit.getFrequency() != null && habit.getFrequency() > 0 ? habit.getFrequency() : 1;
+        LocalDate start = habit.getStartDate() != null ? habit.getStartDate() : from;
+        LocalDate anchor = start;
+        if (start.isBefore(from)) {
+            long periods = (ChronoUnit.DAYS.between(start, from) + freq - 1) / freq;
+            anchor = start.plusDays(periods * freq);
+        }
+        return Habit.builder()
+                .id(habit.getId())
+                .name(habit.getName())
+                .userId(habit.getUserId())
+                .frequency(habit.getFrequency())
+                .startDate(habit.getStartDate())
+                .endDate(habit.getEndDate())
+                .active(habit.getActive())
+                .defaultMade(habit.getDefaultMade())
+                .curDate(anchor)
+                .streak(0)
+                .longestStreak(0)
+                .build();
+    }
+
+    /** Hides rows dated after the simulated day; seeds the engine creates are kept in the index. */
+    private static final class AsOfLookup implements OccurrenceLookup {
+
+        private final HabitStructureIndex index;
+        private LocalDate today;
+
+        AsOfLookup(HabitStructureIndex index) {
+            this.index = index;
+        }
+
+        @Override
+        public boolean hasStructure(Integer habitId, LocalDate date) {
+            return !date.isAfter(today) && index.hasStructure(habitId, date);
+        }
+
+        @Override
+        public boolean existsInWindow(Integer habitId, Boolean completed, LocalDate start, LocalDate end) {
+            return index.existsInWindow(habitId, completed, start, end.isAfter(today) ? today : end);
+        }
+
+        @Override
+        public List<LocalDate> datesInWindow(Integer habitId, Boolean completed, LocalDate start, LocalDate end) {
+            return index.datesInWindow(habitId, completed, start, end.isAfter(today) ? today : end);
+        }
+
+        @Override
+        public void structureCreated(Integer habitId, LocalDate date, boolean completed) {
+            index.structureCreated(habitId, date, completed);
+        }
+    }
+
+    /**
+     * Applies the engine's writes to the in-memory copies instead of Mongo. Buffers are never used,
+     * so the base class's flush has nothing to send and no MongoTemplate is needed.
+     */
+    private static final class InMemoryWrites extends EngineWriteBatch {
+
+        private final Map<Integer, Habit> habits;
+        private int seeds;
+
+        InMemoryWrites(Map<Integer, Habit> habits) {
+            super(null, 1);
+            this.habits = habits;
+        }
+
+        @Override
+        public void insertSeed(HabitStructure seed) {
+            seeds++; // already recorded in the lookup by processHabit
+        }
+
+        @Override
+        public void updateHabit(Query query, Update update) {
+            Document match = query.getQueryObject();
+            Habit habit = habits.get(match.getInteger("id"));
+            if (habit == null || !Objects.equals(habit.getCurDate(), match.get("curDate"))) {
+                return; // the CAS matches nothing, as in Mongo
+            }
+            Document set = update.getUpdateObject().get("$set", Document.class);
+            if (set != null) {
+                habit.setCurDate((LocalDate) set.get("curDate"));
+                habit.setNextResolutionDate((LocalDate) set.get("nextResolutionDate"));
+                habit.setStreak(set.getInteger("streak"));
+                habit.setLongestStreak(set.getInteger("longestStreak"));
+                if (set.containsKey("lastNegativeStreak")) {
+                    habit.setLastNegativeStreak(set.getInteger("lastNegativeStreak"));
+                }
+            }
+            Document unset = update.getUpdateObject().get("$unset", Document.class);
+            if (unset != null && unset.containsKey("lastNegativeStreak")) {
+                habit.setLastNegativeStreak(null);
+            }
+        }
+    }
+}
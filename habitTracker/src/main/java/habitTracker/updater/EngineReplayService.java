@@ -0,0 +1,52 @@
+package habitTracker.updater;
+
+import habitTracker.Habit.Habit;
+import habitTracker.Structure.HabitStructure;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+
+/**
+ * Replays the live engine (same HabitUpdateService bean, so the same catch-up threshold and seed
+ * policy) over a copy of one user's data. Two reads — the user's habits and their rows in the
+ * range — and then everything runs in memory (EngineReplay); nothing is written back.
+ */
+@Service
+public class EngineReplayService {
+
+    static final int MAX_REPLAY_DAYS = 3660;
+
+    private final MongoTemplate mongoTemplate;
+    private final EngineReplay replay;
+
+    public EngineReplayService(MongoTemplate mongoTemplate, HabitUpdateService habitUpdateService) {
+        this.mongoTemplate = mongoTemplate;
+        this.replay = new EngineReplay(habitUpdateService);
+    }
+
+    public EngineReplay.Result replayUser(String userId, LocalDate from, LocalDate to,
+                                          EngineReplay.Cadence cadence, int strideDays) {
+        if (userId == null || userId.isBlank()) {
+            throw new IllegalArgumentException("userId is required");
+        }
+        if (to.isBefore(from) || ChronoUnit.DAYS.between(from, to) >= MAX_REPLAY_DAYS) {
+            throw new IllegalArgumentException("from..to must span 1 to " + MAX_REPLAY_DAYS + " days");
+        }
+        Query habitsQuery = new Query(Criteria.where("userId").is(userId));
+        habitsQuery.fields().include(HabitUpdateService.ENGINE_FIELDS).include("startDate");
+        List<Habit> habits = mongoTemplate.find(habitsQuery, Habit.class);
+        if (habits.isEmpty()) {
+            return replay.run(habits, List.of(), from, to, cadence, strideDays);
+        }
+        Query rowsQuery = new Query(Criteria.where("habitId").in(habits.stream().map(Habit::getId).toList())
+                .and("structureDate").gte(from).lte(to));
+        rowsQuery.fields().include("habitId", "structureDate", "completed");
+        List<HabitStructure> rows = mongoTemplate.find(rowsQuery, HabitStructure.class);
+        return replay.run(habits, rows, from, to, cadence, strideDays);
+    }
+}
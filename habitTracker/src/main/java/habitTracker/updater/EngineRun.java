@@ -0,0 +1,49 @@
+package habitTracker.updater;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One engine run for one bucket of time zones (EngineBucket) and how far it got. Shards are
+ * checkpointed as they finish, so a run that was cut short (crash, redeploy) is resumed on the next
+ * start instead of waiting for tomorrow. Timings and volumes of each attempt go to EngineRunStats.
+ */
+@Document(collection = "engine_runs")
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class EngineRun {
+    public static final String RUNNING = "RUNNING";
+    public static final String COMPLETED = "COMPLETED";
+    public static final String PARTIAL = "PARTIAL";     // finished, but some shards failed — retried on resume
+    public static final String ABANDONED = "ABANDONED"; // a later day's run superseded it
+
+    @Id
+    private String id; // EngineBucket.key(): local run date + the zones it covers
+    private LocalDate runDate; // the local date ("today") of every zone in the bucket
+    private List<String> zones;
+    private String status;
+    private Instant startedAt;
+    private Instant checkpointAt;
+    private Instant finishedAt;
+    private Integer resumeCount;
+    private Long leaseToken; // fencing token of the leader currently driving this run
+
+    // Users are scanned in userId order: every user <= watermarkUserId is done. Shards finish out of
+    // order, so users done above the watermark are listed separately until it catches up to them.
+    private String watermarkUserId;
+    @Builder.Default
+    private List<String> finishedAheadUserIds = new ArrayList<>();
+
+    private String summary;
+}
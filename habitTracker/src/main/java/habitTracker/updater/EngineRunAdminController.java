@@ -0,0 +1,96 @@
+package habitTracker.updater;
+
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Engine state for operators (AdminAccess guards /api/admin/** in SecurityConfig): the run history,
+ * one entry per run attempt, newest first, with timings, throughput and write counts; the
+ * throttle's current rate; an in-memory replay of the engine over one user's data; an
+ * on-demand engine run; and the streak repair job with its stored reports.
+ */
+@RestController
+@RequestMapping("/api/admin")
+public class EngineRunAdminController {
+
+    static final int MAX_LIMIT = 500;
+
+    private final EngineRunService engineRunService;
+    private final EngineThrottle engineThrottle;
+    private final EngineReplayService engineReplayService;
+    private final StreakRepairService streakRepairService;
+    private final UpdateScheduler updateScheduler;
+
+    public EngineRunAdminController(EngineRunService engineRunService, EngineThrottle engineThrottle,
+                                    EngineReplayService engineReplayService,
+                                    StreakRepairService streakRepairService,
+                                    UpdateScheduler updateScheduler) {
+        this.engineRunService = engineRunService;
+        this.engineThrottle = engineThrottle;
+        this.engineReplayService = engineReplayService;
+        this.streakRepairService = streakRepairService;
+        this.updateScheduler = updateScheduler;
+    }
+
+    @GetMapping("/engine-throttle")
+    public ResponseEntity<EngineThrottle.Snapshot> throttle() {
+        return ResponseEntity.ok(engineThrottle.snapshot());
+    }
+
+    @GetMapping("/engine-runs")
+    public ResponseEntity<List<EngineRunStats>> history(
+            @RequestParam(defaultValue = "50") int limit,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate runDate) {
+        if (limit < 1 || limit > MAX_LIMIT) {
+            throw new IllegalArgumentException("limit must be between 1 and " + MAX_LIMIT);
+        }
+        return ResponseEntity.ok(engineRunService.recentStats(limit, runDate));
+    }
+
+    /** Read-only: the streak timeline the engine computes for this user's habits over from..to. */
+    @GetMapping("/engine-replay")
+    public ResponseEntity<EngineReplay.Result> replay(
+            @RequestParam String userId,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+            @RequestParam(defaultValue = "DUE") EngineReplay.Cadence cadence,
+            @RequestParam(defaultValue = "1") int strideDays) {
+        return ResponseEntity.ok(engineReplayService.replayUser(userId, from, to, cadence, strideDays));
+    }
+
+    /** Starts an engine pass over every zone in the background; progress shows up in /engine-runs. */
+    @PostMapping("/engine-run")
+    public ResponseEntity<Void> runEngine() {
+        updateScheduler.runNow();
+        return ResponseEntity.status(HttpStatus.ACCEPTED).build();
+    }
+
+    /**
+     * Starts recomputing every habit's streak fields from its history in the background, fixing the
+     * drifted ones (none with dryRun). 202 with the RUNNING run; its report shows up in
+     * /streak-repairs. 409 while another repair is running on this instance.
+     */
+    @PostMapping("/streak-repair")
+    public ResponseEntity<StreakRepairRun> repairStreaks(@RequestParam(defaultValue = "false") boolean dryRun) {
+        StreakRepairRun run = streakRepairService.start(dryRun);
+        return run != null ? ResponseEntity.status(HttpStatus.ACCEPTED).body(run)
+                : ResponseEntity.status(HttpStatus.CONFLICT).build();
+    }
+
+    @GetMapping("/streak-repairs")
+    public ResponseEntity<List<StreakRepairRun>> streakRepairs(@RequestParam(defaultValue = "10") int limit) {
+        if (limit < 1 || limit > MAX_LIMIT) {
+            throw new IllegalArgumentException("limit must be between 1 and " + MAX_LIMIT);
+        }
+        return ResponseEntity.ok(streakRepairService.recentRuns(limit));
+    }
+}
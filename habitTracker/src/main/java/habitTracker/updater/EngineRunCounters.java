@@ -0,0 +1,95 @@
+package habitTracker.updater;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Run-wide totals for one engine pass. Shards run on their own worker threads and each owns its
+ * EngineWriteBatch, so they add their results here when they finish instead of sharing a batch.
+ */
+public class EngineRunCounters {
+
+    private final AtomicInteger habitsScanned = new AtomicInteger();
+    private final AtomicInteger shardsProcessed = new AtomicInteger();
+    private final AtomicInteger shardsFailed = new AtomicInteger();
+    private final AtomicInteger seedsInserted = new AtomicInteger();
+    private final AtomicInteger habitsUpdated = new AtomicInteger();
+    private final AtomicInteger shardsSkipped = new AtomicInteger();
+    private final AtomicInteger habitsResolved = new AtomicInteger();
+    private final LatencyHistogram habitTimings = new LatencyHistogram();
+    private volatile boolean interrupted;
+
+    void habitScanned() {
+        habitsScanned.incrementAndGet();
+    }
+
+    /** One processHabit call: whether it resolved an occurrence, and how long it took. */
+    void habitProcessed(boolean resolved, long micros) {
+        if (resolved) {
+            habitsResolved.incrementAndGet();
+        }
+        habitTimings.record(micros);
+    }
+
+    void shardFinished(EngineWriteBatch batch) {
+        shardsProcessed.incrementAndGet();
+        seedsInserted.addAndGet(batch.getTotalInserted());
+        habitsUpdated.addAndGet(batch.getTotalUpdated());
+    }
+
+    void shardFailed() {
+        shardsFailed.incrementAndGet();
+    }
+
+    void shardSkipped() {
+        shardsSkipped.incrementAndGet();
+    }
+
+    void interrupted() {
+        interrupted = true;
+    }
+
+    /** Every due user was processed: nothing failed and the scan was not cut short. */
+    public boolean isComplete() {
+        return !interrupted && shardsFailed.get() == 0;
+    }
+
+    public int getHabitsScanned() {
+        return habitsScanned.get();
+    }
+
+    public int getShardsProcessed() {
+        return shardsProcessed.get();
+    }
+
+    public int getShardsFailed() {
+        return shardsFailed.get();
+    }
+
+    public int getSeedsInserted() {
+        return seedsInserted.get();
+    }
+
+    public int getHabitsUpdated() {
+        return habitsUpdated.get();
+    }
+
+    public int getShardsSkipped() {
+        return shardsSkipped.get();
+    }
+
+    public int getHabitsResolved() {
+        return habitsResolved.get();
+    }
+
+    LatencyHistogram getHabitTimings() {
+        return habitTimings;
+    }
+
+    @Override
+    public String toString() {
+        return habitsScanned + " active habit(s) scanned in " + shardsProcessed + " user shard(s) ("
+                + shardsFailed + " failed, " + shardsSkipped + " already done), " + habitsResolved + " resolved, "
+                + seedsInserted + " seed(s) inserted, " + habitsUpdated + " habit(s) updated, per habit p50 "
+                + habitTimings.percentile(0.50) + "us / p99 " + habitTimings.percentile(0.99) + "us";
+    }
+}
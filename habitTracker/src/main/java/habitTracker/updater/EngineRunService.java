@@ -0,0 +1,132 @@
+package habitTracker.updater;
+
+import com.mongodb.client.result.UpdateResult;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+@Service
+public class EngineRunService {
+
+    private final MongoTemplate mongoTemplate;
+
+    public EngineRunService(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    /**
+     * The run for this bucket: resumed from its last checkpoint if one was left unfinished,
+     * otherwise a fresh one. Unfinished runs of any of these zones on earlier days are marked ABANDONED —
+     * this run covers them, since every habit still due is picked up regardless of which day it
+     * became due.
+     *
+     * leaseToken is the caller's fencing token (LeaderLease); checkpoints and the final status are
+     * only written while the run still carries it, so a leader that lost its lease cannot overwrite
+     * the progress of the one that took over.
+     */
+    public EngineRun startOrResume(EngineBucket bucket, long leaseToken) {
+        mongoTemplate.updateMulti(
+                new Query(Criteria.where("status").in(EngineRun.RUNNING, EngineRun.PARTIAL)
+                        .and("runDate").lt(bucket.today())
+                        // any overlap: buckets regroup as zones change date; null = runs from before zones
+                        .orOperator(Criteria.where("zones").in(bucket.zones()), Criteria.where("zones").is(null))),
+                new Update().set("status", EngineRun.ABANDONED),
+                EngineRun.class);
+
+        EngineRun existing = mongoTemplate.findById(bucket.key(), EngineRun.class);
+        if (existing != null && !EngineRun.COMPLETED.equals(existing.getStatus())) {
+            int resumes = existing.getResumeCount() != null ? existing.getResumeCount() + 1 : 1;
+            existing.setResumeCount(resumes);
+            existing.setStatus(EngineRun.RUNNING);
+            existing.setLeaseToken(leaseToken);
+            if (existing.getFinishedAheadUserIds() == null) {
+                existing.setFinishedAheadUserIds(new ArrayList<>());
+            }
+            mongoTemplate.updateFirst(byId(existing),
+                    new Update().set("status", EngineRun.RUNNING).set("resumeCount", resumes)
+                            .set("leaseToken", leaseToken).unset("finishedAt"),
+                    EngineRun.class);
+            System.out.println("Resuming engine run " + existing.getId() + " after user "
+                    + existing.getWatermarkUserId() + " (" + existing.getFinishedAheadUserIds().size()
+                    + " user(s) already done ahead of it)");
+            return existing;
+        }
+
+        EngineRun run = EngineRun.builder()
+                .id(bucket.key())
+                .runDate(bucket.today())
+                .zones(bucket.zones())
+                .status(EngineRun.RUNNING)
+                .startedAt(Instant.now())
+                .resumeCount(0)
+                .leaseToken(leaseToken)
+                .build();
+        if (existing != null) {
+            // Already completed but asked to run again: a full fresh pass.
+            mongoTemplate.remove(byId(run), EngineRun.class);
+        }
+        mongoTemplate.insert(run);
+        return run;
+    }
+
+    public boolean isCompleted(EngineBucket bucket) {
+        return mongoTemplate.exists(
+                new Query(Criteria.where("_id").is(bucket.key()).and("status").is(EngineRun.COMPLETED)),
+                EngineRun.class);
+    }
+
+    /** False if the run has been taken over by a newer leader (the checkpoint was fenced off). */
+    public boolean checkpoint(EngineRun run, String watermarkUserId, List<String> finishedAheadUserIds) {
+        UpdateResult result = mongoTemplate.updateFirst(fenced(run),
+                new Update()
+                        .set("watermarkUserId", watermarkUserId)
+                        .set("finishedAheadUserIds", finishedAheadUserIds)
+                        .set("checkpointAt", Instant.now()),
+                EngineRun.class);
+        return result == null || result.getMatchedCount() > 0;
+    }
+
+    /** Runs that were started and never finished — their leader is still working or has died. */
+    public List<EngineRun> findUnfinishedRuns() {
+        return mongoTemplate.find(new Query(Criteria.where("status").is(EngineRun.RUNNING)), EngineRun.class);
+    }
+
+    /** complete = every due user was processed and the follow-up work (KPI fill) succeeded. */
+    public void finish(EngineRun run, boolean complete, String summary) {
+        String status = complete ? EngineRun.COMPLETED : EngineRun.PARTIAL;
+        mongoTemplate.updateFirst(fenced(run),
+                new Update()
+                        .set("status", status)
+                        .set("finishedAt", Instant.now())
+                        .set("summary", summary),
+                EngineRun.class);
+        run.setStatus(status);
+    }
+
+    public void recordStats(EngineRunStats stats) {
+        mongoTemplate.insert(stats);
+    }
+
+    /** Most recent attempts first, optionally only those of one run date. */
+    public List<EngineRunStats> recentStats(int limit, LocalDate runDate) {
+        Query query = runDate != null ? new Query(Criteria.where("runDate").is(runDate)) : new Query();
+        query.with(Sort.by(Sort.Direction.DESC, "startedAt")).limit(limit);
+        return mongoTemplate.find(query, EngineRunStats.class);
+    }
+
+    private static Query byId(EngineRun run) {
+        return new Query(Criteria.where("_id").is(run.getId()));
+    }
+
+    private static Query fenced(EngineRun run) {
+        return new Query(Criteria.where("_id").is(run.getId()).and("leaseToken").is(run.getLeaseToken()));
+    }
+}
@@ -0,0 +1,78 @@
+package habitTracker.updater;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Telemetry of one engine run attempt (a resumed run gets one document per attempt), kept so that
+ * timings and volumes can be compared across days as the user base grows. Served by
+ * EngineRunAdminController; never read by the engine itself.
+ */
+@Document(collection = "engine_run_stats")
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class EngineRunStats {
+    @Id
+    private String id;
+    private String runId; // EngineRun id (bucket key)
+    private LocalDate runDate;
+    private List<String> zones;
+    private String status; // the EngineRun status this attempt ended with
+    @Indexed
+    private Instant startedAt;
+    private Instant finishedAt;
+    private long durationMs;
+
+    private int habitsScanned;
+    private int habitsResolved;  // at least one occurrence credited or docked
+    private int seedsCreated;
+    private int streakUpdates;   // habit documents modified
+    private int kpiFills;
+    private int shardsProcessed;
+    private int shardsFailed;
+    private int shardsSkipped;
+
+    // processHabit time per habit, microseconds
+    private long habitMicrosP50;
+    private long habitMicrosP99;
+    private long habitMicrosMax;
+    private double habitsPerSecond;
+
+    static EngineRunStats of(EngineRun run, EngineRunCounters counters, int kpiFills, Instant startedAt, Instant finishedAt) {
+        long durationMs = Duration.between(startedAt, finishedAt).toMillis();
+        LatencyHistogram timings = counters.getHabitTimings();
+        return EngineRunStats.builder()
+                .runId(run.getId())
+                .runDate(run.getRunDate())
+                .zones(run.getZones())
+                .status(run.getStatus())
+                .startedAt(startedAt)
+                .finishedAt(finishedAt)
+                .durationMs(durationMs)
+                .habitsScanned(counters.getHabitsScanned())
+                .habitsResolved(counters.getHabitsResolved())
+                .seedsCreated(counters.getSeedsInserted())
+                .streakUpdates(counters.getHabitsUpdated())
+                .kpiFills(kpiFills)
+                .shardsProcessed(counters.getShardsProcessed())
+                .shardsFailed(counters.getShardsFailed())
+                .shardsSkipped(counters.getShardsSkipped())
+                .habitMicrosP50(timings.percentile(0.50))
+                .habitMicrosP99(timings.percentile(0.99))
+                .habitMicrosMax(timings.max())
+                .habitsPerSecond(durationMs > 0 ? timings.count() * 1000.0 / durationMs : 0)
+                .build();
+    }
+}
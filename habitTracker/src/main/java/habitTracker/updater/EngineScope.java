@@ -0,0 +1,45 @@
+package habitTracker.updater;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Which owners an engine run covers. An engine bucket selects by zones: records whose timeZone
+ * (copied from the owner, see Habit.timeZone) is one of them, where a null entry stands for records
+ * without a zone — users who never set one and unowned records, which roll over in the server zone.
+ * A single user's catch-up selects by userIds instead; includeUnowned then adds the records without a
+ * userId (written before accounts existed). Both null means every record.
+ */
+public record EngineScope(List<String> userIds, boolean includeUnowned, List<String> zones) {
+
+    public EngineScope(List<String> userIds, boolean includeUnowned) {
+        this(userIds, includeUnowned, null);
+    }
+
+    public static EngineScope everyone() {
+        return new EngineScope(null, true, null);
+    }
+
+    /** Records in these zones; include null to also cover the records without one. */
+    public static EngineScope inZones(List<String> zones) {
+        return new EngineScope(null, zones.stream().anyMatch(Objects::isNull), zones);
+    }
+
+    public boolean coversEveryone() {
+        return userIds == null && zones == null;
+    }
+
+    public boolean byZone() {
+        return zones != null;
+    }
+
+    /** userIds plus null when unowned records are included — the value list for a userId $in. */
+    public List<String> ownerValues() {
+        List<String> owners = new ArrayList<>(userIds);
+        if (includeUnowned) {
+            owners.add(null);
+        }
+        return owners;
+    }
+}
@@ -0,0 +1,39 @@
+package habitTracker.updater;
+
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whether the startup catch-up run is still in progress. The app serves reads as soon as it is up;
+ * habit writes are held off (EngineReadinessInterceptor answers 503) until the catch-up is over, so
+ * a toggle or edit never races the engine rolling the same habit over a long gap.
+ */
+@Component
+public class EngineStatus {
+
+    public enum State { CATCHING_UP, READY }
+
+    private volatile State state = State.CATCHING_UP;
+    private final CountDownLatch ready = new CountDownLatch(1);
+
+    public State getState() {
+        return state;
+    }
+
+    public boolean isReady() {
+        return state == State.READY;
+    }
+
+    /** Blocks until the catch-up is over; false if it still is after timeout. */
+    public boolean awaitReady(Duration timeout) throws InterruptedException {
+        return ready.await(timeout.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    void markReady() {
+        state = State.READY;
+        ready.countDown();
+    }
+}
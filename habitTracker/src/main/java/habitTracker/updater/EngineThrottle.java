@@ -0,0 +1,173 @@
+package habitTracker.updater;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestContextHolder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Adaptive token bucket in front of the engine's Mongo reads and writes, so a catch-up run after
+ * downtime cannot starve interactive requests on the small Mongo instance (0.25 GB WiredTiger cache).
+ *
+ * Every habit read, structure range query and bulk-written document costs one token. Tokens refill at
+ * the current rate; a caller that overdraws (a 500-op bulk write) sleeps for the deficit. The rate
+ * adapts AIMD-style at most once per second: it is halved while the smoothed HTTP request latency
+ * (RequestLatencyFilter) or Mongo command latency (EngineMongoConfig's command listener) is above its
+ * target, and grows by a twentieth of the maximum per interval while both are healthy.
+ *
+ * habits.engine.throttle.max-ops-per-second <= 0 disables the throttle.
+ *
+ * Only background engine work may wait here (scheduled runs, the wheel, the startup catch-up, the
+ * streak repair's worker thread). An HTTP request thread never does: acquire is a no-op on a thread
+ * bound to a request (RequestContextHolder), so a request-path caller — today UserCatchUpService,
+ * which already bypasses the throttle — cannot be made to sleep by the engine's backlog.
+ */
+@Component
+public class EngineThrottle {
+
+    private static final long ADJUST_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final double SMOOTHING = 0.2; // EWMA weight of the newest sample
+
+    private final double maxRate;
+    private final double minRate;
+    private final double requestLatencyTargetMs;
+    private final double mongoLatencyTargetMs;
+    private final LongSupplier nanoClock;
+
+    private double rate;
+    private double tokens;
+    private long lastRefill;
+    private long lastAdjust;
+    private long waitedNanos;
+
+    private final LatencyAverage requestLatency = new LatencyAverage();
+    private final LatencyAverage mongoLatency = new LatencyAverage();
+
+    @Autowired
+    public EngineThrottle(@Value("${habits.engine.throttle.max-ops-per-second:2000}") double maxRate,
+                          @Value("${habits.engine.throttle.min-ops-per-second:50}") double minRate,
+                          @Value("${habits.engine.throttle.request-latency-target-ms:250}") double requestLatencyTargetMs,
+                          @Value("${habits.engine.throttle.mongo-latency-target-ms:100}") double mongoLatencyTargetMs) {
+        this(maxRate, minRate, requestLatencyTargetMs, mongoLatencyTargetMs, System::nanoTime);
+    }
+
+    EngineThrottle(double maxRate, double minRate, double requestLatencyTargetMs, double mongoLatencyTargetMs,
+                   LongSupplier nanoClock) {
+        this.maxRate = maxRate;
+        this.minRate = Math.max(1, Math.min(minRate, maxRate));
+        this.requestLatencyTargetMs = requestLatencyTargetMs;
+        this.mongoLatencyTargetMs = mongoLatencyTargetMs;
+        this.nanoClock = nanoClock;
+        this.rate = maxRate;
+        this.tokens = maxRate;
+        this.lastRefill = nanoClock.getAsLong();
+        this.lastAdjust = lastRefill;
+    }
+
+    /** No limit at all: for tests and tools that drive the engine directly. */
+    public static EngineThrottle unlimited() {
+        return new EngineThrottle(0, 0, 0, 0, System::nanoTime);
+    }
+
+    public boolean isEnabled() {
+        return maxRate > 0;
+    }
+
+    /** Takes ops tokens, sleeping for whatever the bucket is short of; returns at once on a request thread. */
+    public void acquire(int ops) {
+        if (RequestContextHolder.getRequestAttributes() != null) {
+            return;
+        }
+        long sleepNanos = reserve(ops);
+        if (sleepNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(sleepNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /** Debits ops tokens and returns how long the caller has to wait for them (0 = go ahead). */
+    synchronized long reserve(int ops) {
+        if (!isEnabled() || ops <= 0) {
+            return 0;
+        }
+        long now = nanoClock.getAsLong();
+        if (now - lastAdjust >= ADJUST_INTERVAL_NANOS) {
+            adjust();
+            lastAdjust = now;
+        }
+        tokens = Math.min(rate, tokens + (now - lastRefill) * rate / 1e9);
+        lastRefill = now;
+        tokens -= ops;
+        if (tokens >= 0) {
+            return 0;
+        }
+        long wait = (long) (-tokens / rate * 1e9);
+        waitedNanos += wait;
+        return wait;
+    }
+
+    private void adjust() {
+        double request = requestLatency.closeInterval();
+        double mongo = mongoLatency.closeInterval();
+        double previous = rate;
+        if ((requestLatencyTargetMs > 0 && request > requestLatencyTargetMs)
+                || (mongoLatencyTargetMs > 0 && mongo > mongoLatencyTargetMs)) {
+            rate = Math.max(minRate, rate / 2);
+        } else {
+            rate = Math.min(maxRate, rate + maxRate / 20);
+        }
+        if (rate < previous) {
+            System.out.printf("Engine throttle backing off to %.0f ops/s (request %.0f ms, mongo %.0f ms)%n",
+                    rate, request, mongo);
+        }
+    }
+
+    public void recordRequestLatency(long millis) {
+        requestLatency.record(millis);
+    }
+
+    public void recordMongoLatency(long millis) {
+        mongoLatency.record(millis);
+    }
+
+    /** Current state, for the admin endpoint and run logs. */
+    public synchronized Snapshot snapshot() {
+        return new Snapshot(isEnabled(), rate, minRate, maxRate, requestLatency.value(), mongoLatency.value(),
+                TimeUnit.NANOSECONDS.toMillis(waitedNanos));
+    }
+
+    public record Snapshot(boolean enabled, double opsPerSecond, double minOpsPerSecond, double maxOpsPerSecond,
+                           double requestLatencyMs, double mongoLatencyMs, long totalWaitMs) {}
+
+    /**
+     * Exponentially weighted latency. An interval without samples decays it as if a 0 ms sample had
+     * come in, so an idle app does not keep the engine throttled on the last busy minute.
+     */
+    private static final class LatencyAverage {
+        private double average;
+        private boolean sampled;
+
+        synchronized void record(long millis) {
+            average = sampled || average > 0 ? average + SMOOTHING * (millis - average) : millis;
+            sampled = true;
+        }
+
+        synchronized double closeInterval() {
+            if (!sampled) {
+                average *= (1 - SMOOTHING);
+            }
+            sampled = false;
+            return average;
+        }
+
+        synchronized double value() {
+            return average;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package habitTracker.updater;
+
+import com.mongodb.bulk.BulkWriteResult;
+import habitTracker.Habit.Habit;
+import habitTracker.Structure.HabitStructure;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Write side of the daily engine. Seeds and per-habit streak/curDate updates are buffered and sent
+ * as unordered bulk writes instead of one save/updateFirst round trip each. A buffer is flushed when
+ * it reaches batchSize, and the engine flushes whatever is left at the end of every shard (user).
+ *
+ * Unordered is safe here: every op in a batch targets a different document (one update per habit,
+ * one seed per habit+date), so there is no ordering between them to preserve.
+ *
+ * Seeds are $setOnInsert upserts on (habitId, structureDate) (HabitStructureManager), so a row a
+ * toggle created in the meantime is left alone instead of being duplicated.
+ */
+public class EngineWriteBatch {
+
+    private final MongoTemplate mongoTemplate;
+    private final int batchSize;
+    private final EngineThrottle throttle;
+
+    private final List<HabitStructure> pendingSeeds = new ArrayList<>();
+    private final List<Query> pendingUpdateQueries = new ArrayList<>();
+    private final List<Update> pendingUpdates = new ArrayList<>();
+
+    private int totalInserted;
+    private int totalUpdated;
+
+    public EngineWriteBatch(MongoTemplate mongoTemplate, int batchSize) {
+        this(mongoTemplate, batchSize, EngineThrottle.unlimited());
+    }
+
+    /** Every flush first takes one throttle token per document it writes. */
+    public EngineWriteBatch(MongoTemplate mongoTemplate, int batchSize, EngineThrottle throttle) {
+        this.mongoTemplate = mongoTemplate;
+        this.batchSize = Math.max(1, batchSize);
+        this.throttle = throttle;
+    }
+
+    public void insertSeed(HabitStructure seed) {
+        pendingSeeds.add(seed);
+        if (pendingSeeds.size() >= batchSize) {
+            report(flushSeeds(), 0);
+        }
+    }
+
+    public void updateHabit(Query query, Update update) {
+        pendingUpdateQueries.add(query);
+        pendingUpdates.add(update);
+        if (pendingUpdates.size() >= batchSize) {
+            report(0, flushUpdates());
+        }
+    }
+
+    /** Sends everything still buffered and reports what this flush wrote. */
+    public void flush() {
+        report(flushSeeds(), flushUpdates());
+    }
+
+    public int getTotalInserted() {
+        return totalInserted;
+    }
+
+    public int getTotalUpdated() {
+        return totalUpdated;
+    }
+
+    private void report(int inserted, int updated) {
+        if (inserted > 0 || updated > 0) {
+            System.out.println("Engine flush: " + inserted + " seed insert(s), " + updated + " streak update(s)");
+        }
+    }
+
+    private int flushSeeds() {
+        if (pendingSeeds.isEmpty()) {
+            return 0;
+        }
+        throttle.acquire(pendingSeeds.size());
+        BulkOperations ops = mongoTemplate.bulkOps(BulkMode.UNORDERED, HabitStructure.class);
+        for (HabitStructure seed : pendingSeeds) {
+            ops.upsert(HabitStructureManager.dayKey(seed.getHabitId(), seed.getStructureDate()),
+                    HabitStructureManager.seedFields(seed));
+        }
+        BulkWriteResult result = ops.execute();
+        pendingSeeds.clear();
+        int inserted = result != null ? result.getUpserts().size() : 0;
+        totalInserted += inserted;
+        return inserted;
+    }
+
+    private int flushUpdates() {
+        if (pendingUpdates.isEmpty()) {
+            return 0;
+        }
+        throttle.acquire(pendingUpdates.size());
+        BulkOperations ops = mongoTemplate.bulkOps(BulkMode.UNORDERED, Habit.class);
+        for (int i = 0; i < pendingUpdates.size(); i++) {
+            ops.updateOne(pendingUpdateQueries.get(i), pendingUpdates.get(i));
+        }
+        BulkWriteResult result = ops.execute();
+        pendingUpdateQueries.clear();
+        pendingUpdates.clear();
+        int updated = result != null ? result.getModifiedCount() : 0;
+        totalUpdated += updated;
+        return updated;
+    }
+}
@@ -0,0 +1,94 @@
+package habitTracker.updater;
+
+import habitTracker.Habit.Habit;
+import habitTracker.KPI.KPI;
+import habitTracker.auth.User;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.DateTimeException;
+import java.time.ZoneId;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * One-time migration in front of the (active, timeZone, nextResolutionDate) index: engine buckets
+ * select habits and KPIs by the timeZone copied from their owner (Habit.timeZone, KPI.timeZone), and
+ * records written before that field existed have none, so they would all roll over in the server
+ * zone. Copies each zoned user's zone onto their habits and KPIs; users without a zone (or with an
+ * unknown one) are left alone, null already meaning the server zone. Once the index exists this is
+ * never run again; from then on UserService.updateTimeZone keeps the copies in sync.
+ */
+class EngineZoneBackfill {
+
+    private static final int BATCH_SIZE = 500;
+
+    private final MongoTemplate mongoTemplate;
+
+    EngineZoneBackfill(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    boolean isNeeded() {
+        return mongoTemplate.indexOps(Habit.class).getIndexInfo().stream()
+                .noneMatch(index -> Habit.ZONE_DUE_INDEX.equals(index.getName()));
+    }
+
+    /** Returns the number of users whose zone was copied. */
+    long run() {
+        Query zoned = new Query(Criteria.where("timeZone").ne(null));
+        zoned.fields().include("id", "timeZone");
+        Map<String, String> batch = new LinkedHashMap<>(); // userId -> zone
+        long users = 0;
+        try (Stream<User> stream = mongoTemplate.stream(zoned, User.class)) {
+            Iterator<User> cursor = stream.iterator();
+            while (cursor.hasNext()) {
+                User user = cursor.next();
+                String zone = validZone(user.getTimeZone());
+                if (zone == null) {
+                    continue;
+                }
+                batch.put(user.getId(), zone);
+                users++;
+                if (batch.size() == BATCH_SIZE) {
+                    write(batch);
+                }
+            }
+        }
+        write(batch);
+        System.out.println("Engine zone backfill: copied the time zone of " + users + " user(s) onto their habits and KPIs");
+        return users;
+    }
+
+    // One unordered bulk write per collection for the whole batch.
+    private void write(Map<String, String> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        BulkOperations habits = mongoTemplate.bulkOps(BulkMode.UNORDERED, Habit.class);
+        BulkOperations kpis = mongoTemplate.bulkOps(BulkMode.UNORDERED, KPI.class);
+        batch.forEach((userId, zone) -> {
+            Query owned = new Query(Criteria.where("userId").is(userId));
+            Update update = new Update().set("timeZone", zone);
+            habits.updateMulti(owned, update);
+            kpis.updateMulti(owned, update);
+        });
+        habits.execute();
+        kpis.execute();
+        batch.clear();
+    }
+
+    private static String validZone(String id) {
+        try {
+            return ZoneId.of(id).getId();
+        } catch (DateTimeException e) {
+            return null;
+        }
+    }
+}
@@ -5,6 +5,7 @@ import habitTracker.Habit.Habit;
 
 import java.time.LocalDate;
 import java.time.temporal.ChronoUnit;
+import java.util.BitSet;
 
 @Service
 public class HabitDateCalculator {
@@ -43,4 +44,36 @@ public class HabitDateCalculator {
         long daysSinceStart = ChronoUnit.DAYS.between(startDate, date);
         return daysSinceStart % frequency == 0;
     }
+
+    /**
+     * The days in [from, to] shouldTrackHabitOnDate would answer true for, as bits: bit i is
+     * from + i. Built in one pass (the first tracked day, then every frequency-th day up to the
+     * end date) instead of one DAYS.between and modulo per day. A habit with a frequency above 1
+     * and no start date has nothing to align to and gets no days.
+     */
+    public BitSet activeDays(Habit habit, LocalDate from, LocalDate to) {
+        BitSet days = new BitSet();
+        LocalDate startDate = habit.getStartDate();
+        LocalDate endDate = habit.getEndDate();
+        LocalDate first = startDate != null && startDate.isAfter(from) ? startDate : from;
+        LocalDate last = endDate != null && endDate.isBefore(to) ? endDate : to;
+        if (last.isBefore(first)) {
+            return days;
+        }
+        int firstDay = (int) ChronoUnit.DAYS.between(from, first);
+        int lastDay = (int) ChronoUnit.DAYS.between(from, last);
+        int frequency = habit.getFrequency() != null ? habit.getFrequency() : 1;
+        if (frequency == 1) {
+            days.set(firstDay, lastDay + 1);
+            return days;
+        }
+        if (startDate == null || frequency < 1) {
+            return days;
+        }
+        int behind = (int) (ChronoUnit.DAYS.between(startDate, first) % frequency);
+        for (int day = behind == 0 ? firstDay : firstDay + frequency - behind; day <= lastDay; day += frequency) {
+            days.set(day);
+        }
+        return days;
+    }
 }
@@ -0,0 +1,71 @@
+package habitTracker.updater;
+
+import habitTracker.Structure.HabitStructure;
+import org.bson.Document;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOptions;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.List;
+
+/**
+ * One-time migration in front of the unique (habitId, structureDate) index: before seeds were
+ * upserts, an exists-then-save racing with another writer could leave two rows for the same day,
+ * and the index cannot be built while any are left.
+ *
+ * Per duplicated day the rows are merged into one: the newest (highest ObjectId) is kept and the
+ * others are deleted, but the kept row takes the day's merged values first. completed is true if any
+ * duplicate was completed — the engine's window check counted the day as done on any completed row,
+ * and toggles updated rows in place, so the ObjectId says nothing about which one the user last
+ * wrote (a later engine seed must not erase a completion). userId is any of the rows' owners, so
+ * userId-scoped reads still find it. Once the index exists this is never run again.
+ */
+class HabitStructureDedupe {
+
+    private final MongoTemplate mongoTemplate;
+
+    HabitStructureDedupe(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    boolean isNeeded() {
+        return mongoTemplate.indexOps(HabitStructure.class).getIndexInfo().stream()
+                .noneMatch(index -> HabitStructure.UNIQUE_DAY_INDEX.equals(index.getName()));
+    }
+
+    /** Removes every duplicate; returns the number of rows deleted. */
+    long run() {
+        Aggregation duplicates = Aggregation.newAggregation(
+                Aggregation.sort(Sort.Direction.DESC, "_id"),
+                Aggregation.group("habitId", "structureDate")
+                        .push("_id").as("ids")
+                        .max("userId").as("userId")
+                        .max("completed").as("completed")
+                        .count().as("count"),
+                Aggregation.match(Criteria.where("count").gt(1)))
+                .withOptions(AggregationOptions.builder().allowDiskUse(true).build());
+        long deleted = 0;
+        for (Document day : mongoTemplate.aggregate(duplicates, HabitStructure.class, Document.class)) {
+            List<?> ids = day.getList("ids", Object.class);
+            Object keep = ids.get(0);
+            Update merged = new Update();
+            if (day.get("userId") != null) {
+                merged.set("userId", day.getString("userId"));
+            }
+            if (day.get("completed") != null) {
+                merged.set("completed", day.getBoolean("completed")); // $max: true if any row was
+            }
+            if (!merged.getUpdateObject().isEmpty()) {
+                mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(keep)), merged, HabitStructure.class);
+            }
+            deleted += mongoTemplate.remove(new Query(Criteria.where("_id").in(ids.subList(1, ids.size()))),
+                    HabitStructure.class).getDeletedCount();
+        }
+        System.out.println("habit_structures dedupe: removed " + deleted + " duplicate row(s)");
+        return deleted;
+    }
+}
@@ -0,0 +1,89 @@
+package habitTracker.updater;
+
+import habitTracker.Structure.HabitStructure;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * In-memory answer to OccurrenceLookup, built from habit_structures rows fetched in one range query.
+ *
+ * Per (habitId, date) only three facts matter to the engine, so each date is folded into a flag
+ * byte: some row exists, some row has completed=true, some row has completed=false. Duplicate rows
+ * for the same day simply OR together, which is exactly what the per-query exists checks see.
+ * A row with completed=null only sets PRESENT — the per-query path never matches it on
+ * completed=true/false either.
+ */
+public class HabitStructureIndex implements OccurrenceLookup {
+
+    private static final byte PRESENT = 1;
+    private static final byte COMPLETED = 2;
+    private static final byte NOT_COMPLETED = 4;
+
+    private final Map<Integer, NavigableMap<LocalDate, Byte>> byHabit = new HashMap<>();
+
+    public static HabitStructureIndex of(List<HabitStructure> rows) {
+        HabitStructureIndex index = new HabitStructureIndex();
+        for (HabitStructure row : rows) {
+            if (row.getHabitId() == null || row.getStructureDate() == null) {
+                continue;
+            }
+            index.add(row.getHabitId(), row.getStructureDate(), row.getCompleted());
+        }
+        return index;
+    }
+
+    public void add(Integer habitId, LocalDate date, Boolean completed) {
+        byte state = Boolean.TRUE.equals(completed) ? COMPLETED
+                : Boolean.FALSE.equals(completed) ? NOT_COMPLETED : 0;
+        byHabit.computeIfAbsent(habitId, id -> new TreeMap<>())
+                .merge(date, (byte) (PRESENT | state), (a, b) -> (byte) (a | b));
+    }
+
+    @Override
+    public boolean hasStructure(Integer habitId, LocalDate date) {
+        NavigableMap<LocalDate, Byte> dates = byHabit.get(habitId);
+        return dates != null && dates.containsKey(date);
+    }
+
+    @Override
+    public boolean existsInWindow(Integer habitId, Boolean completed, LocalDate start, LocalDate end) {
+        NavigableMap<LocalDate, Byte> dates = byHabit.get(habitId);
+        if (dates == null || completed == null || end.isBefore(start)) {
+            return false;
+        }
+        byte wanted = completed ? COMPLETED : NOT_COMPLETED;
+        for (byte flags : dates.subMap(start, true, end, true).values()) {
+            if ((flags & wanted) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public List<LocalDate> datesInWindow(Integer habitId, Boolean completed, LocalDate start, LocalDate end) {
+        List<LocalDate> result = new ArrayList<>();
+        NavigableMap<LocalDate, Byte> dates = byHabit.get(habitId);
+        if (dates == null || completed == null || end.isBefore(start)) {
+            return result;
+        }
+        byte wanted = completed ? COMPLETED : NOT_COMPLETED;
+        for (Map.Entry<LocalDate, Byte> entry : dates.subMap(start, true, end, true).entrySet()) {
+            if ((entry.getValue() & wanted) != 0) {
+                result.add(entry.getKey());
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void structureCreated(Integer habitId, LocalDate date, boolean completed) {
+        add(habitId, date, completed);
+    }
+}
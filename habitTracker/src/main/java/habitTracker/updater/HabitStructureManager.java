@@ -1,11 +1,22 @@
 package habitTracker.updater;
 
+import com.mongodb.client.result.UpdateResult;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 import habitTracker.Structure.HabitStructure;
 
 import java.time.LocalDate;
 
+/**
+ * The only way habit_structures rows are created. Every write is an upsert on (habitId,
+ * structureDate), which the unique index HabitStructure.UNIQUE_DAY_INDEX backs, so a seed and a
+ * toggle racing for the same day end up as one row instead of two, in one round trip instead of an
+ * exists check followed by a save.
+ */
 @Service
 public class HabitStructureManager {
 
@@ -15,14 +26,48 @@ public class HabitStructureManager {
         this.mongoTemplate = mongoTemplate;
     }
 
-    public void createHabitStructure(Integer habitId, LocalDate date, boolean completed, String userId) {
-        HabitStructure habitStructure = HabitStructure.builder()
+    public HabitStructure buildHabitStructure(Integer habitId, LocalDate date, boolean completed, String userId) {
+        return HabitStructure.builder()
                 .habitId(habitId)
                 .structureDate(date)
                 .completed(completed)
                 .userId(userId)
                 .build();
-        System.out.println("Creating habit structure: " + habitStructure);
-        mongoTemplate.save(habitStructure);
+    }
+
+    /** The row a seed or toggle for this habit and day upserts into. */
+    static Query dayKey(Integer habitId, LocalDate date) {
+        return new Query(Criteria.where("habitId").is(habitId).and("structureDate").is(date));
+    }
+
+    /** $setOnInsert only: a row that already exists (a toggle, an earlier seed) is left exactly as it is. */
+    static Update seedFields(HabitStructure seed) {
+        Update update = new Update().setOnInsert("completed", seed.getCompleted());
+        if (seed.getUserId() != null) {
+            update.setOnInsert("userId", seed.getUserId());
+        }
+        return update;
+    }
+
+    /** Creates the row unless one exists for that day; true if this call created it. */
+    public boolean seedIfAbsent(Integer habitId, LocalDate date, boolean completed, String userId) {
+        HabitStructure seed = buildHabitStructure(habitId, date, completed, userId);
+        try {
+            UpdateResult result = mongoTemplate.upsert(dayKey(habitId, date), seedFields(seed), HabitStructure.class);
+            return result.getUpsertedId() != null;
+        } catch (DuplicateKeyException e) {
+            return false; // a concurrent writer created it between our match and insert
+        }
+    }
+
+    /** A completion toggle: sets completed (and the owner) on the day's row, creating it if needed. */
+    public void setCompleted(Integer habitId, LocalDate date, Boolean completed, String userId) {
+        Update update = new Update().set("completed", completed).set("userId", userId);
+        try {
+            mongoTemplate.upsert(dayKey(habitId, date), update, HabitStructure.class);
+        } catch (DuplicateKeyException e) {
+            // Lost the insert race to a seed; the row exists now, so the same update applies to it.
+            mongoTemplate.updateFirst(dayKey(habitId, date), update, HabitStructure.class);
+        }
     }
 }
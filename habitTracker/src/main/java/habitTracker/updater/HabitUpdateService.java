@@ -1,15 +1,30 @@
 package habitTracker.updater;
 
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 import habitTracker.Habit.Habit;
-import habitTracker.Structure.HabitStructureRepository;
+import habitTracker.Structure.HabitStructure;
+import habitTracker.Structure.TodayCache;
 
 import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 /**
  * Unified daily engine for the rolling "grace window" model.
@@ -23,50 +38,372 @@ import java.util.List;
  *
  * At frequency=1 the window is a single day, so behavior is identical to the previous model:
  * a missed day is docked on the next run ("negative streaks work on the update day").
+ *
+ * Only habits whose nextResolutionDate has arrived are visited: every pass records, per habit, the
+ * next day a window opens or closes, so a weekly/monthly habit with nothing to resolve is skipped.
+ *
+ * Habits are streamed from Mongo (active and due only, engine fields only, sorted by userId) and processed
+ * one user at a time, so the heap only ever holds a single user's habits. Each user's habit_structures rows that any of their
+ * windows could touch are fetched in a single range query into a HabitStructureIndex, and every
+ * seed/window check is answered from that index instead of one exists query per occurrence.
+ * Seeds and streak updates go out through an EngineWriteBatch that is flushed once per user.
+ *
+ * A habit that has missed habits.engine.catch-up-threshold or more windows (the app was down) is
+ * caught up in closed form instead of window by window: see catchUp.
+ *
+ * User shards run concurrently on virtual threads, at most habits.engine.parallelism at a time so
+ * the Mongo pool (and the small WiredTiger cache) is not flooded. A user's habits always stay in one
+ * shard, so rule interactions between them are resolved by a single worker in a fixed order.
+ *
+ * Each run is recorded in engine_runs (EngineRunService) and checkpointed as shards finish; a run
+ * that was cut short resumes after the last checkpointed user instead of starting over.
+ * Only the replica holding the daily-engine lease (EngineLeaseService) runs it.
+ *
+ * Mongo reads and writes go through EngineThrottle, which slows the pass down while request or
+ * Mongo latency is high.
+ *
+ * Runs are per time-zone bucket (EngineBuckets): UpdateScheduler runs the engine hourly for the
+ * users whose local midnight just passed, with "today" being their local date.
+ *
+ * With habits.engine.wheel.enabled, ResolutionWheel resolves each habit shortly after its window
+ * closes (resolveHabits) and the hourly run only sweeps up what the wheel missed.
  */
 @Service
 public class HabitUpdateService {
 
     private final MongoTemplate mongoTemplate;
     private final HabitStructureManager habitStructureManager;
-    private final HabitStructureRepository habitStructureRepository;
+    private final EngineRunService engineRunService;
+    private final EngineThrottle throttle;
+    private final TodayCache todayCache;
+    private static final EngineThrottle UNTHROTTLED = EngineThrottle.unlimited(); // request-path catch-up
+    private final int bulkBatchSize;
+    private final int parallelism;
+    private final int catchUpThreshold;
+    private final SeedPolicy seedPolicy;
 
     public HabitUpdateService(MongoTemplate mongoTemplate,
                               HabitStructureManager habitStructureManager,
-                              HabitStructureRepository habitStructureRepository) {
+                              EngineRunService engineRunService,
+                              EngineThrottle throttle,
+                              TodayCache todayCache,
+                              @Value("${habits.engine.bulk-batch-size:500}") int bulkBatchSize,
+                              @Value("${habits.engine.parallelism:4}") int parallelism,
+                              @Value("${habits.engine.catch-up-threshold:8}") int catchUpThreshold,
+                              @Value("${habits.engine.catch-up-seeds:ALL}") SeedPolicy seedPolicy) {
         this.mongoTemplate = mongoTemplate;
         this.habitStructureManager = habitStructureManager;
-        this.habitStructureRepository = habitStructureRepository;
+        this.engineRunService = engineRunService;
+        this.throttle = throttle;
+        this.todayCache = todayCache;
+        this.bulkBatchSize = bulkBatchSize;
+        this.parallelism = Math.max(1, parallelism);
+        this.catchUpThreshold = Math.max(1, catchUpThreshold);
+        this.seedPolicy = seedPolicy;
     }
 
-    public void updateAllHabits() {
-        LocalDate today = LocalDate.now();
-        List<Habit> allHabits = mongoTemplate.findAll(Habit.class);
-        for (Habit habit : allHabits) {
-            processHabit(habit, today);
+    // Everything processHabit reads. description/twoMinuteRule (up to 2000 chars each), status and the
+    // other display-only fields never leave Mongo during the nightly scan.
+    static final String[] ENGINE_FIELDS = {
+            "id", "name", "frequency", "curDate", "endDate", "active",
+            "streak", "longestStreak", "defaultMade", "userId"
+    };
+
+    /**
+     * One engine pass over the due habits of the users in scope, resolved as of run.getRunDate() —
+     * the local date in their time zone, not the server's. The caller owns the run (EngineRunService
+     * startOrResume/finish) and must hold the daily-engine lease; the pass stops handing out shards
+     * as soon as the lease is no longer held.
+     */
+    public EngineRunCounters updateAllHabits(LeaderLease lease, EngineRun run, EngineScope scope) {
+        LocalDate today = run.getRunDate();
+        EngineRunCounters counters = new EngineRunCounters();
+        ShardCheckpoints checkpoints = new ShardCheckpoints(engineRunService, run, lease);
+        // A permit is taken before a shard is handed to a worker and released when it finishes, so
+        // the cursor stops reading ahead while all workers are busy — at most `parallelism` shards
+        // (plus the one being collected) are ever held in memory.
+        Semaphore permits = new Semaphore(parallelism);
+        // Sorted by userId so each user's habits arrive contiguously: a shard is complete as soon
+        // as the cursor moves on to the next userId. Closing the executor waits for running shards.
+        try (ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor();
+             Stream<Habit> habits = mongoTemplate.stream(dueHabitsQuery(today, scope, run.getWatermarkUserId()), Habit.class)) {
+            Iterator<Habit> cursor = habits.iterator();
+            List<Habit> shard = new ArrayList<>();
+            while (cursor.hasNext()) {
+                if (!lease.isHeld()) {
+                    counters.interrupted();
+                    System.err.println("Engine lease lost; stopping this run (the new leader resumes it)");
+                    break;
+                }
+                throttle.acquire(1); // one token per habit read off the cursor
+                Habit habit = cursor.next();
+                counters.habitScanned();
+                if (!shard.isEmpty() && !Objects.equals(shard.get(0).getUserId(), habit.getUserId())) {
+                    submitShard(workers, permits, shard, today, counters, checkpoints, lease);
+                    shard = new ArrayList<>();
+                }
+                shard.add(habit);
+            }
+            if (!shard.isEmpty()) {
+                if (lease.isHeld()) {
+                    submitShard(workers, permits, shard, today, counters, checkpoints, lease);
+                } else {
+                    counters.interrupted();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            counters.interrupted();
+            System.err.println("Engine run interrupted; it resumes from its last checkpoint on the next start");
         }
+        System.out.println("Engine run " + run.getId() + ": " + counters);
+        return counters;
     }
 
-    private void processHabit(Habit habit, LocalDate today) {
-        if (!Boolean.TRUE.equals(habit.getActive())) {
+    /**
+     * Resolves just these habits, each as of its owner's local date (todayOf), for ResolutionWheel
+     * when their windows close. Habits that are inactive or no longer due (another replica, or the
+     * sweep, got there first) are skipped. Same per-user shards and CAS writes as updateAllHabits;
+     * the caller must hold the daily-engine lease.
+     */
+    public EngineRunCounters resolveHabits(Collection<Integer> habitIds, Function<String, LocalDate> todayOf,
+                                           LeaderLease lease) {
+        EngineRunCounters counters = new EngineRunCounters();
+        if (habitIds.isEmpty()) {
+            return counters;
+        }
+        Query query = new Query(Criteria.where("id").in(habitIds).and("active").is(true)).with(Sort.by("userId"));
+        query.fields().include(ENGINE_FIELDS).include("nextResolutionDate");
+        throttle.acquire(1);
+        Map<String, List<Habit>> byUser = new LinkedHashMap<>();
+        for (Habit habit : mongoTemplate.find(query, Habit.class)) {
+            counters.habitScanned();
+            byUser.computeIfAbsent(habit.getUserId(), u -> new ArrayList<>()).add(habit);
+        }
+        for (Map.Entry<String, List<Habit>> entry : byUser.entrySet()) {
+            if (!lease.isHeld()) {
+                counters.interrupted();
+                break;
+            }
+            LocalDate today = todayOf.apply(entry.getKey());
+            List<Habit> due = entry.getValue().stream()
+                    .filter(h -> h.getNextResolutionDate() == null || !h.getNextResolutionDate().isAfter(today))
+                    .toList();
+            if (!due.isEmpty()) {
+                processUser(entry.getKey(), due, today, counters, throttle);
+            }
+        }
+        return counters;
+    }
+
+    /**
+     * Resolves whatever is due for the users in scope as of `today`, outside the daily run: no
+     * engine_runs record, no checkpoints. Every habit carries its own watermark — curDate (the first
+     * unresolved occurrence) and nextResolutionDate (the first day there is anything to do again) —
+     * so this can be called at any time and only touches habits with something new; when nothing is
+     * due it is a single indexed query that returns nothing. Safe without the lease: every habit
+     * update is conditional on the curDate it was read with and seeds are upserts, so a concurrent
+     * run or sweep cannot resolve the same occurrence twice.
+     */
+    public EngineRunCounters resolveDue(EngineScope scope, LocalDate today) {
+        return resolveDue(scope, today, throttle);
+    }
+
+    /**
+     * resolveDue for one user on a request thread (UserCatchUpService): the same work, but its reads
+     * and write batch skip EngineThrottle, so a page load never sleeps on the engine's token bucket.
+     * The work is bounded by that one user's due habits.
+     */
+    public EngineRunCounters resolveDueForUser(String userId, LocalDate today) {
+        return resolveDue(new EngineScope(List.of(userId), false), today, UNTHROTTLED);
+    }
+
+    private EngineRunCounters resolveDue(EngineScope scope, LocalDate today, EngineThrottle throttle) {
+        EngineRunCounters counters = new EngineRunCounters();
+        throttle.acquire(1);
+        Map<String, List<Habit>> byUser = new LinkedHashMap<>();
+        for (Habit habit : mongoTemplate.find(dueHabitsQuery(today, scope, null), Habit.class)) {
+            counters.habitScanned();
+            byUser.computeIfAbsent(habit.getUserId(), u -> new ArrayList<>()).add(habit);
+        }
+        byUser.forEach((userId, habits) -> processUser(userId, habits, today, counters, throttle));
+        return counters;
+    }
+
+    private void processUser(String userId, List<Habit> habits, LocalDate today, EngineRunCounters counters,
+                             EngineThrottle throttle) {
+        try {
+            counters.shardFinished(processShard(habits, today, counters, throttle));
+        } catch (RuntimeException e) {
+            counters.shardFailed(); // left due; the next trigger picks it up again
+            System.err.println("Resolving habits of user " + userId + " failed: " + e.getMessage());
+        }
+    }
+
+    private void submitShard(ExecutorService workers, Semaphore permits, List<Habit> shard, LocalDate today,
+                             EngineRunCounters counters, ShardCheckpoints checkpoints,
+                             LeaderLease lease) throws InterruptedException {
+        String userId = shard.get(0).getUserId();
+        if (checkpoints.isDone(userId)) {
+            counters.shardSkipped(); // finished by an earlier attempt of this run
             return;
         }
+        checkpoints.submitted(userId);
+        permits.acquire();
+        workers.submit(() -> {
+            try {
+                if (!lease.isHeld()) {
+                    counters.interrupted(); // queued before the lease was lost; leave it to the new leader
+                    return;
+                }
+                counters.shardFinished(processShard(shard, today, counters, throttle));
+                checkpoints.finished(userId);
+            } catch (RuntimeException e) {
+                // One user's failure must not stop the others; their curDate is untouched and the
+                // checkpoint never moves past them, so a resumed or later run picks them up again.
+                counters.shardFailed();
+                System.err.println("Engine shard for user " + userId + " failed: " + e.getMessage());
+            } finally {
+                permits.release();
+            }
+        });
+    }
+
+    /**
+     * Active habits of the users in scope that have something to resolve today. nextResolutionDate
+     * is written by every engine pass; a missing/null value (new habit, or one an edit reset) means
+     * "due now". A resumed run starts after the users its checkpoint already covers.
+     */
+    Query dueHabitsQuery(LocalDate today, EngineScope scope, String afterUserId) {
+        Criteria criteria = Criteria.where("active").is(true).orOperator(
+                Criteria.where("nextResolutionDate").lte(today),
+                Criteria.where("nextResolutionDate").is(null));
+        if (scope.byZone()) {
+            criteria = criteria.and("timeZone").in(scope.zones());
+        }
+        if (scope.userIds() != null || afterUserId != null) {
+            // Both conditions go on the one userId key: {$in: [...], $gt: watermark}
+            Criteria owner = criteria.and("userId");
+            if (scope.userIds() != null) {
+                owner = owner.in(scope.ownerValues());
+            }
+            if (afterUserId != null) {
+                owner = owner.gt(afterUserId);
+            }
+            criteria = owner;
+        }
+        Query query = new Query(criteria)
+                .with(Sort.by("userId"))
+                .allowDiskUse(true);
+        query.fields().include(ENGINE_FIELDS);
+        return query;
+    }
+
+    private EngineWriteBatch processShard(List<Habit> userHabits, LocalDate today, EngineRunCounters counters,
+                                          EngineThrottle throttle) {
+        EngineWriteBatch batch = new EngineWriteBatch(mongoTemplate, bulkBatchSize, throttle);
+        OccurrenceLookup lookup = loadStructureIndex(userHabits, today, throttle);
+        int resolvedCount = 0;
+        for (Habit habit : userHabits) {
+            long started = System.nanoTime();
+            boolean resolved = processHabit(habit, today, lookup, batch);
+            counters.habitProcessed(resolved, (System.nanoTime() - started) / 1_000);
+            if (resolved) {
+                resolvedCount++;
+            }
+        }
+        batch.flush();
+        // Logged per shard here rather than per habit in processHabit, which replays and benchmarks
+        // call millions of times.
+        System.out.println("User " + userHabits.get(0).getUserId() + ": " + resolvedCount + "/" + userHabits.size()
+                + " habit(s) resolved as of " + today + ", " + batch.getTotalUpdated() + " updated, "
+                + batch.getTotalInserted() + " seed(s)");
+        if (batch.getTotalUpdated() + batch.getTotalInserted() > 0) {
+            todayCache.invalidate(userHabits.get(0).getUserId()); // a shard is one user's habits
+        }
+        return batch;
+    }
+
+    /**
+     * One range query covering every window the roll-forward below can inspect for these habits:
+     * from the earliest open anchor up to the last day of the furthest window that can be open today
+     * (today + frequency - 1). Keyed by habitId rather than userId so rows written before toggles
+     * carried a userId are still found, exactly as the per-occurrence exists queries found them.
+     */
+    HabitStructureIndex loadStructureIndex(List<Habit> habits, LocalDate today) {
+        return loadStructureIndex(habits, today, throttle);
+    }
+
+    private HabitStructureIndex loadStructureIndex(List<Habit> habits, LocalDate today, EngineThrottle throttle) {
+        List<Integer> habitIds = new ArrayList<>();
+        LocalDate from = null;
+        LocalDate to = today;
+        for (Habit habit : habits) {
+            LocalDate anchor = habit.getCurDate();
+            if (!Boolean.TRUE.equals(habit.getActive()) || anchor == null || anchor.isAfter(today)) {
+                continue; // nothing to resolve, so nothing to look up
+            }
+            habitIds.add(habit.getId());
+            if (from == null || anchor.isBefore(from)) {
+                from = anchor;
+            }
+            LocalDate lastOpenDay = today.plusDays(frequencyOf(habit) - 1);
+            if (lastOpenDay.isAfter(to)) {
+                to = lastOpenDay;
+            }
+        }
+        if (habitIds.isEmpty()) {
+            return new HabitStructureIndex();
+        }
+        Query query = new Query(Criteria.where("habitId").in(habitIds)
+                .and("structureDate").gte(from).lte(to));
+        query.fields().include("habitId", "structureDate", "completed");
+        throttle.acquire(1);
+        return HabitStructureIndex.of(mongoTemplate.find(query, HabitStructure.class));
+    }
+
+    static int frequencyOf(Habit habit) {
+        return habit.getFrequency() != null && habit.getFrequency() > 0 ? habit.getFrequency() : 1;
+    }
+
+    /** Rolls one habit forward to today; true if at least one occurrence was resolved (curDate moved). */
+    boolean processHabit(Habit habit, LocalDate today, OccurrenceLookup lookup, EngineWriteBatch batch) {
+        if (!Boolean.TRUE.equals(habit.getActive())) {
+            return false;
+        }
         LocalDate anchor = habit.getCurDate();
         if (anchor == null) {
-            return; // misconfigured (no schedule anchor)
+            return false; // misconfigured (no schedule anchor)
         }
 
-        int freq = habit.getFrequency() != null && habit.getFrequency() > 0 ? habit.getFrequency() : 1;
+        int freq = frequencyOf(habit);
         LocalDate endDate = habit.getEndDate();
-        boolean isDefaultMade = Boolean.TRUE.equals(habit.getDefaultMade());
+        StreakState state = new StreakState(
+                habit.getStreak() != null ? habit.getStreak() : 0,
+                habit.getLongestStreak() != null ? habit.getLongestStreak() : 0);
 
-        int streak = habit.getStreak() != null ? habit.getStreak() : 0;
-        int longestStreak = habit.getLongestStreak() != null ? habit.getLongestStreak() : 0;
+        if (closedWindowCount(anchor, freq, endDate, today) >= catchUpThreshold) {
+            anchor = catchUp(habit, anchor, freq, today, state, lookup, batch);
+        } else {
+            anchor = rollForward(habit, anchor, freq, today, state, lookup, batch);
+        }
 
-        Integer pendingLastNeg = null;   // set lastNegativeStreak when crediting from <= 0
-        boolean clearLastNeg = false;    // unset lastNegativeStreak when a positive run is broken
+        Update update = new Update()
+                .set("curDate", anchor)
+                .set("nextResolutionDate", nextResolutionDate(anchor, freq, endDate, today));
+        state.writeTo(update);
+        // Conditional on the curDate this pass started from: if anything else already moved the habit
+        // on (another replica's stale run, an edit), this update matches nothing instead of
+        // resolving the same occurrences twice.
+        batch.updateHabit(new Query(Criteria.where("id").is(habit.getId()).and("curDate").is(habit.getCurDate())), update);
+        return !anchor.equals(habit.getCurDate());
+    }
 
-        // Roll forward through every occurrence that is already resolved.
+    /** Roll forward through every occurrence that is already resolved, one window at a time. */
+    private LocalDate rollForward(Habit habit, LocalDate anchor, int freq, LocalDate today,
+                                  StreakState state, OccurrenceLookup lookup, EngineWriteBatch batch) {
+        LocalDate endDate = habit.getEndDate();
+        boolean isDefaultMade = Boolean.TRUE.equals(habit.getDefaultMade());
         while (true) {
             if (endDate != null && anchor.isAfter(endDate)) {
                 break; // habit has ended; no further occurrences
@@ -78,9 +415,7 @@ public class HabitUpdateService {
             // Materialize the occurrence's seed the moment its window opens. For defaultMade habits
             // the seed is completed=true ("assumed done"); for normal habits it is completed=false.
             // The seed keeps the occurrence visible on the Today page and on the completion table.
-            if (!habitStructureRepository.existsByHabitIdAndStructureDate(habit.getId(), anchor)) {
-                habitStructureManager.createHabitStructure(habit.getId(), anchor, isDefaultMade, habit.getUserId());
-            }
+            seedIfMissing(habit, anchor, lookup, batch);
 
             LocalDate windowLastDay = anchor.plusDays(freq - 1);
             boolean windowClosed = !today.isBefore(anchor.plusDays(freq)); // today >= anchor + freq
@@ -93,17 +428,15 @@ public class HabitUpdateService {
                 if (!windowClosed) {
                     success = null;
                 } else {
-                    boolean relapsed = habitStructureRepository
-                            .existsByHabitIdAndCompletedInWindow(
-                                    habit.getId(), Boolean.FALSE, anchor, windowLastDay);
+                    boolean relapsed = lookup.existsInWindow(
+                            habit.getId(), Boolean.FALSE, anchor, windowLastDay);
                     success = !relapsed;
                 }
             } else {
                 // Completed anywhere in the window resolves immediately (even mid-window); otherwise
                 // it only lapses once the whole window has elapsed.
-                boolean completed = habitStructureRepository
-                        .existsByHabitIdAndCompletedInWindow(
-                                habit.getId(), Boolean.TRUE, anchor, windowLastDay);
+                boolean completed = lookup.existsInWindow(
+                        habit.getId(), Boolean.TRUE, anchor, windowLastDay);
                 if (completed) {
                     success = true;
                 } else if (windowClosed) {
@@ -117,40 +450,123 @@ public class HabitUpdateService {
                 break; // current window is open and unresolved — stop here
             }
             if (success) {
-                if (streak <= 0) {
-                    pendingLastNeg = streak; // remember the negative depth for restoreNegativeStreak
-                    clearLastNeg = false;
-                    streak = 1;
-                } else {
-                    streak++;
-                }
-                if (streak > longestStreak) {
-                    longestStreak = streak;
-                }
+                state.succeeded(1);
             } else {
-                if (streak > 0) {
-                    streak = 0;
-                    pendingLastNeg = null;
-                    clearLastNeg = true;
-                } else {
-                    streak--;
-                }
+                state.lapsed(1);
             }
             anchor = anchor.plusDays(freq);
         }
+        return anchor;
+    }
 
-        Update update = new Update()
-                .set("streak", streak)
-                .set("longestStreak", longestStreak)
-                .set("curDate", anchor);
-        if (pendingLastNeg != null) {
-            update.set("lastNegativeStreak", pendingLastNeg);
-        } else if (clearLastNeg) {
-            update.unset("lastNegativeStreak");
-        }
-        mongoTemplate.updateFirst(new Query(Criteria.where("id").is(habit.getId())), update, Habit.class);
-
-        System.out.println("Habit #" + habit.getId() + " (" + habit.getName() + "): streak=" + streak
-                + ", curDate=" + anchor + ", longest=" + longestStreak);
+    /**
+     * Same result as rollForward, without walking the gap. Every closed window has a default outcome
+     * (normal: lapse, defaultMade: success) unless it holds an "exceptional" row (normal: a completion,
+     * defaultMade: a relapse). Those rows are fetched in one call; the windows between them are
+     * applied as runs of default outcomes. Only the still-open window needs the regular check.
+     */
+    private LocalDate catchUp(Habit habit, LocalDate anchor, int freq, LocalDate today,
+                              StreakState state, OccurrenceLookup lookup, EngineWriteBatch batch) {
+        LocalDate endDate = habit.getEndDate();
+        boolean isDefaultMade = Boolean.TRUE.equals(habit.getDefaultMade());
+        long opened = openedWindowCount(anchor, freq, endDate, today);
+        long closed = closedWindowCount(anchor, freq, endDate, today);
+
+        if (seedPolicy == SeedPolicy.ALL) {
+            for (long i = 0; i < opened; i++) {
+                seedIfMissing(habit, anchor.plusDays(i * freq), lookup, batch);
+            }
+        } else if (closed < opened) {
+            seedIfMissing(habit, anchor.plusDays(closed * freq), lookup, batch);
+        }
+
+        resolveClosedWindows(habit, anchor, freq, closed, state, lookup);
+        LocalDate current = anchor.plusDays(closed * freq);
+
+        // The open window, if any: a normal habit completed in it resolves now (see rollForward).
+        if (closed < opened && !isDefaultMade
+                && lookup.existsInWindow(habit.getId(), Boolean.TRUE, current, current.plusDays(freq - 1))) {
+            state.succeeded(1);
+            current = current.plusDays(freq);
+        }
+        return current;
+    }
+
+    /**
+     * Applies the outcomes of `closed` consecutive windows starting at anchor, all of which have
+     * fully elapsed. Shared by catchUp and StreakRepairService, which refolds a habit's whole history.
+     */
+    static void resolveClosedWindows(Habit habit, LocalDate anchor, int freq, long closed,
+                                     StreakState state, OccurrenceLookup lookup) {
+        if (closed <= 0) {
+            return;
+        }
+        boolean isDefaultMade = Boolean.TRUE.equals(habit.getDefaultMade());
+        LocalDate gapLastDay = anchor.plusDays(closed * freq - 1);
+        List<LocalDate> exceptional = lookup.datesInWindow(
+                habit.getId(), isDefaultMade ? Boolean.FALSE : Boolean.TRUE, anchor, gapLastDay);
+        long resolved = 0;
+        for (LocalDate date : exceptional) {
+            long window = ChronoUnit.DAYS.between(anchor, date) / freq;
+            if (window < resolved) {
+                continue; // another row in a window already applied
+            }
+            applyDefault(state, isDefaultMade, window - resolved);
+            applyDefault(state, !isDefaultMade, 1);
+            resolved = window + 1;
+        }
+        applyDefault(state, isDefaultMade, closed - resolved);
+    }
+
+    /** A run of windows resolved the way a defaultMade (success) or normal (lapse) habit resolves by default. */
+    private static void applyDefault(StreakState state, boolean success, long windows) {
+        if (success) {
+            state.succeeded(windows);
+        } else {
+            state.lapsed(windows);
+        }
+    }
+
+    private void seedIfMissing(Habit habit, LocalDate date, OccurrenceLookup lookup, EngineWriteBatch batch) {
+        if (!lookup.hasStructure(habit.getId(), date)) {
+            boolean isDefaultMade = Boolean.TRUE.equals(habit.getDefaultMade());
+            batch.insertSeed(habitStructureManager.buildHabitStructure(
+                    habit.getId(), date, isDefaultMade, habit.getUserId()));
+            lookup.structureCreated(habit.getId(), date, isDefaultMade);
+        }
+    }
+
+    /** Windows starting at anchor that have opened by today and before endDate. */
+    static long openedWindowCount(LocalDate anchor, int freq, LocalDate endDate, LocalDate today) {
+        if (today.isBefore(anchor)) {
+            return 0;
+        }
+        long opened = ChronoUnit.DAYS.between(anchor, today) / freq + 1;
+        if (endDate != null) {
+            opened = endDate.isBefore(anchor) ? 0 : Math.min(opened, ChronoUnit.DAYS.between(anchor, endDate) / freq + 1);
+        }
+        return opened;
+    }
+
+    /** Of those, the windows that have also fully elapsed (today >= window start + freq). */
+    static long closedWindowCount(LocalDate anchor, int freq, LocalDate endDate, LocalDate today) {
+        if (today.isBefore(anchor)) {
+            return 0;
+        }
+        return Math.min(ChronoUnit.DAYS.between(anchor, today) / freq, openedWindowCount(anchor, freq, endDate, today));
+    }
+
+    /**
+     * The first day on which the engine has anything to do for this habit again, given where the
+     * roll-forward stopped: the day a not-yet-open window opens (its seed must be materialized), or
+     * the day the current open window closes (it lapses or, for defaultMade, is credited). A normal
+     * habit can also resolve mid-window by being completed — StructureService pulls the date forward
+     * on every completion toggle for that case.
+     */
+    static LocalDate nextResolutionDate(LocalDate anchor, int freq, LocalDate endDate, LocalDate today) {
+        if (endDate != null && anchor.isAfter(endDate)) {
+            return Habit.NO_RESOLUTION_DUE; // ended; an edit of endDate makes it due again
+        }
+        return today.isBefore(anchor) ? anchor : anchor.plusDays(freq);
     }
 }
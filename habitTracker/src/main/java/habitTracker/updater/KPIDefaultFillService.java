@@ -1,41 +1,141 @@
 package habitTracker.updater;
 
 import habitTracker.KPI.KPI;
+import habitTracker.KPI.KPIData;
 import habitTracker.KPI.KPIRepository;
 import habitTracker.KPI.KPIService;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDate;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * Fills in yesterday's value for any KPI that opted into auto-fill (KPI.autoFillEnabled) and has
- * no data point for that date yet — i.e. the user forgot to log it. Scans across all users the
- * same way HabitUpdateService does for habits (no SecurityUtils/request context on a cron thread),
- * but every write goes through KPIService.fillDefaultIfMissing, which is scoped to that KPI's own
- * id-keyed collection — one user's missed KPI never touches another user's data.
+ * Fills in the default value for every day a KPI that opted into auto-fill (KPI.autoFillEnabled)
+ * has no data point for — i.e. the user forgot to log it — up to the target date. Scans across all
+ * users the same way HabitUpdateService does for habits (no SecurityUtils/request context on a cron
+ * thread), but every write goes through KPIService, scoped to that KPI's own id-keyed collection —
+ * one user's missed KPI never touches another user's data.
+ *
+ * A KPI's gap starts after its last point, after the last day a previous run covered for it
+ * (KPI.autoFilledThrough) and not before it was created, and is capped at habits.kpi.fill.max-days,
+ * so a few days of downtime are filled in one go. Each KPI costs one read and one bulk write however
+ * long its gap is (KPIService.planDefaultFill / writeDefaultFill); KPIs are filled concurrently, at
+ * most habits.kpi.fill.parallelism at a time, so the pass does not grow serially with their number.
  */
 @Service
 public class KPIDefaultFillService {
 
     private final KPIRepository kpiRepository;
     private final KPIService kpiService;
+    private final EngineThrottle throttle;
+    private final MongoTemplate mongoTemplate;
+    private final int maxDays;
+    private final int parallelism;
 
-    public KPIDefaultFillService(KPIRepository kpiRepository, KPIService kpiService) {
+    public KPIDefaultFillService(KPIRepository kpiRepository, KPIService kpiService, EngineThrottle throttle,
+                                 MongoTemplate mongoTemplate,
+                                 @Value("${habits.kpi.fill.max-days:31}") int maxDays,
+                                 @Value("${habits.kpi.fill.parallelism:4}") int parallelism) {
         this.kpiRepository = kpiRepository;
         this.kpiService = kpiService;
+        this.throttle = throttle;
+        this.mongoTemplate = mongoTemplate;
+        this.maxDays = Math.max(1, maxDays);
+        this.parallelism = Math.max(1, parallelism);
     }
 
-    public void fillMissingDefaults() {
-        LocalDate targetDate = LocalDate.now().minusDays(1);
-        List<KPI> candidates = kpiRepository.findByActiveAndAutoFillEnabled(true, true);
-        int filled = 0;
-        for (KPI kpi : candidates) {
-            if (kpiService.fillDefaultIfMissing(kpi, targetDate)) {
-                filled++;
+    public int fillMissingDefaults() {
+        return fillMissingDefaults(LocalDate.now().minusDays(1), EngineScope.everyone());
+    }
+
+    /**
+     * One engine bucket's share: targetDate is the day that just ended in the bucket's zones, and
+     * only KPIs in those zones (KPI.timeZone) are considered. Returns how many KPIs got at least one
+     * day filled. Every candidate is attempted; if any failed, this throws afterwards so the run is
+     * not marked complete, and the failed KPIs' gaps are picked up again by the next run.
+     */
+    public int fillMissingDefaults(LocalDate targetDate, EngineScope scope) {
+        List<KPI> candidates = scope.coversEveryone()
+                ? kpiRepository.findByActiveAndAutoFillEnabled(true, true)
+                : kpiRepository.findByActiveAndAutoFillEnabledAndTimeZoneIn(true, true, scope.zones());
+        AtomicInteger filled = new AtomicInteger();
+        AtomicInteger days = new AtomicInteger();
+        Queue<String> covered = new ConcurrentLinkedQueue<>();
+        Queue<String> failed = new ConcurrentLinkedQueue<>();
+        Semaphore permits = new Semaphore(parallelism);
+        try (ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (KPI kpi : candidates) {
+                permits.acquire();
+                workers.submit(() -> {
+                    try {
+                        int written = fill(kpi, targetDate);
+                        if (written > 0) {
+                            filled.incrementAndGet();
+                            days.addAndGet(written);
+                        }
+                        covered.add(kpi.getId());
+                    } catch (RuntimeException e) {
+                        failed.add(kpi.getId());
+                        System.err.println("KPI default-fill for " + kpi.getId() + " failed: " + e.getMessage());
+                    } finally {
+                        permits.release();
+                    }
+                });
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("KPI default-fill interrupted", e);
+        }
+        markCovered(List.copyOf(covered), targetDate);
+        System.out.println("KPI default-fill: " + filled + "/" + candidates.size() + " KPI(s) filled, "
+                + days + " day(s), through " + targetDate);
+        if (!failed.isEmpty()) {
+            throw new IllegalStateException(failed.size() + " KPI default-fill(s) failed: " + failed);
+        }
+        return filled.get();
+    }
+
+    private int fill(KPI kpi, LocalDate targetDate) {
+        LocalDate notBefore = targetDate.minusDays(maxDays - 1);
+        if (kpi.getAutoFilledThrough() != null && !kpi.getAutoFilledThrough().isBefore(notBefore)) {
+            notBefore = kpi.getAutoFilledThrough().plusDays(1);
+        }
+        if (kpi.getCreatedAt() != null && kpi.getCreatedAt().toLocalDate().isAfter(notBefore)) {
+            notBefore = kpi.getCreatedAt().toLocalDate();
+        }
+        if (notBefore.isAfter(targetDate)) {
+            return 0;
+        }
+        throttle.acquire(1); // the last-point read
+        List<KPIData> points = kpiService.planDefaultFill(kpi, notBefore, targetDate);
+        if (points.isEmpty()) {
+            return 0;
+        }
+        throttle.acquire(points.size()); // one per document in the bulk write
+        return kpiService.writeDefaultFill(kpi, points);
+    }
+
+    // One write for the whole pass; a KPI that failed keeps its old mark, so its gap is retried.
+    private void markCovered(List<String> kpiIds, LocalDate targetDate) {
+        if (kpiIds.isEmpty()) {
+            return;
         }
-        System.out.println("KPI default-fill: " + filled + "/" + candidates.size()
-                + " KPI(s) filled for " + targetDate);
+        throttle.acquire(1);
+        mongoTemplate.updateMulti(
+                new Query(Criteria.where("id").in(kpiIds)
+                        .orOperator(Criteria.where("autoFilledThrough").lt(targetDate),
+                                Criteria.where("autoFilledThrough").is(null))),
+                new Update().set("autoFilledThrough", targetDate), KPI.class);
     }
 }
@@ -1,18 +0,0 @@
-package habitTracker.updater;
-
-import lombok.AllArgsConstructor;
-import lombok.Data;
-import lombok.NoArgsConstructor;
-import org.springframework.data.annotation.Id;
-import org.springframework.data.mongodb.core.mapping.Document;
-
-import java.time.LocalDate;
-
-@Document(collection = "last_run_date")
-@Data
-@AllArgsConstructor
-@NoArgsConstructor
-public class LastRunDate {
-    @Id
-    private LocalDate date;
-}
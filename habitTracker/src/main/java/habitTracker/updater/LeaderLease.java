@@ -0,0 +1,63 @@
+package habitTracker.updater;
+
+import java.time.Instant;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * A lease held by this instance, from EngineLeaseService.tryAcquire. Renewed in the background
+ * until closed; once a renewal fails (or the lease simply runs out) isHeld() turns false and stays
+ * false, and the holder must stop — another replica may already have taken over with a higher token.
+ */
+public class LeaderLease implements AutoCloseable {
+
+    private final EngineLeaseService leaseService;
+    private final String name;
+    private final long token;
+    private volatile Instant validUntil;
+    private volatile boolean lost;
+    private ScheduledFuture<?> heartbeat;
+
+    LeaderLease(EngineLeaseService leaseService, String name, long token, Instant validUntil) {
+        this.leaseService = leaseService;
+        this.name = name;
+        this.token = token;
+        this.validUntil = validUntil;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /** Fencing token: strictly greater than the token of every earlier holder of this lease. */
+    public long getToken() {
+        return token;
+    }
+
+    public boolean isHeld() {
+        return !lost && Instant.now().isBefore(validUntil);
+    }
+
+    /** Something noticed a newer leader (e.g. a fenced write matched nothing). */
+    public void markLost() {
+        lost = true;
+    }
+
+    void renewed(Instant validUntil) {
+        this.validUntil = validUntil;
+    }
+
+    void startHeartbeat(ScheduledFuture<?> heartbeat) {
+        this.heartbeat = heartbeat;
+    }
+
+    @Override
+    public void close() {
+        if (heartbeat != null) {
+            heartbeat.cancel(false);
+        }
+        if (!lost) {
+            leaseService.release(this);
+        }
+        lost = true;
+    }
+}
@@ -0,0 +1,26 @@
+package habitTracker.updater;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Read side of the daily engine: the two questions HabitUpdateService asks about habit_structures
+ * while rolling an occurrence forward. Kept behind an interface so the same resolution code can run
+ * against one query per question (RepositoryOccurrenceLookup) or against rows that were loaded up
+ * front in a single range query (HabitStructureIndex).
+ */
+public interface OccurrenceLookup {
+
+    /** Is there any structure row (seed or toggle) for this habit on this exact date? */
+    boolean hasStructure(Integer habitId, LocalDate date);
+
+    /** Is there a row with the given completed value anywhere in [start, end] (inclusive bounds)? */
+    boolean existsInWindow(Integer habitId, Boolean completed, LocalDate start, LocalDate end);
+
+    /** Distinct dates, ascending, of rows with the given completed value in [start, end] (inclusive). */
+    List<LocalDate> datesInWindow(Integer habitId, Boolean completed, LocalDate start, LocalDate end);
+
+    /** Called after the engine materializes a seed, so later lookups in the same pass can see it. */
+    default void structureCreated(Integer habitId, LocalDate date, boolean completed) {
+    }
+}
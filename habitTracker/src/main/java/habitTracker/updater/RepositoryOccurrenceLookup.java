@@ -0,0 +1,40 @@
+package habitTracker.updater;
+
+import habitTracker.Structure.HabitStructure;
+import habitTracker.Structure.HabitStructureRepository;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * One Mongo round trip per question. This is the engine's original access pattern; it is still the
+ * cheapest option when only a single habit is being resolved, and it is the reference the batched
+ * HabitStructureIndex is tested against.
+ */
+public class RepositoryOccurrenceLookup implements OccurrenceLookup {
+
+    private final HabitStructureRepository habitStructureRepository;
+
+    public RepositoryOccurrenceLookup(HabitStructureRepository habitStructureRepository) {
+        this.habitStructureRepository = habitStructureRepository;
+    }
+
+    @Override
+    public boolean hasStructure(Integer habitId, LocalDate date) {
+        return habitStructureRepository.existsByHabitIdAndStructureDate(habitId, date);
+    }
+
+    @Override
+    public boolean existsInWindow(Integer habitId, Boolean completed, LocalDate start, LocalDate end) {
+        return habitStructureRepository.existsByHabitIdAndCompletedInWindow(habitId, completed, start, end);
+    }
+
+    @Override
+    public List<LocalDate> datesInWindow(Integer habitId, Boolean completed, LocalDate start, LocalDate end) {
+        return habitStructureRepository.findByHabitIdAndCompletedInWindow(habitId, completed, start, end).stream()
+                .map(HabitStructure::getStructureDate)
+                .distinct()
+                .sorted()
+                .toList();
+    }
+}
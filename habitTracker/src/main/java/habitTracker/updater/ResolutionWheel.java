@@ -0,0 +1,280 @@
+package habitTracker.updater;
+
+import habitTracker.Habit.Habit;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+import jakarta.annotation.PreDestroy;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Resolves each habit when its window actually closes instead of in one nightly batch. Every active
+ * habit sits in a TimingWheel keyed by its next resolution instant: the start of its
+ * nextResolutionDate in the owner's zone, plus a fixed per-habit offset within
+ * habits.engine.wheel.spread-minutes so a zone's habits do not all fire in the same second. A ticker
+ * thread advances the wheel every tick and hands due habits to HabitUpdateService.resolveHabits,
+ * then schedules them again from the nextResolutionDate the engine wrote.
+ *
+ * Firing takes the daily-engine lease, so only one replica resolves at a time; every replica keeps
+ * its own wheel, and the ones that lose the race find the habits no longer due. Built from Mongo
+ * after the startup catch-up and reloaded every habits.engine.wheel.reload-hours; HabitService puts
+ * new and edited habits on it. The hourly UpdateScheduler run stays as a backstop for anything the
+ * wheel missed (replica down at the time, lease busy, failed shard).
+ */
+@Component
+public class ResolutionWheel {
+
+    private static final long TICK_MILLIS = 1_000;
+    static final long RETRY_DELAY_MILLIS = 30_000;
+
+    private final MongoTemplate mongoTemplate;
+    private final HabitUpdateService habitUpdateService;
+    private final EngineLeaseService engineLeaseService;
+    private final EngineBuckets engineBuckets;
+    private final boolean enabled;
+    private final long spreadMillis;
+    private final long reloadHours;
+    private final LongSupplier clock;
+    private final TimingWheel<Integer> wheel;
+    private volatile boolean started;
+    private ScheduledExecutorService ticker;
+
+    public ResolutionWheel(MongoTemplate mongoTemplate,
+                           HabitUpdateService habitUpdateService,
+                           EngineLeaseService engineLeaseService,
+                           EngineBuckets engineBuckets,
+                           @Value("${habits.engine.wheel.enabled:true}") boolean enabled,
+                           @Value("${habits.engine.wheel.spread-minutes:30}") long spreadMinutes,
+                           @Value("${habits.engine.wheel.reload-hours:6}") long reloadHours) {
+        this(mongoTemplate, habitUpdateService, engineLeaseService, engineBuckets, enabled, spreadMinutes,
+                reloadHours, System::currentTimeMillis);
+    }
+
+    ResolutionWheel(MongoTemplate mongoTemplate, HabitUpdateService habitUpdateService,
+                    EngineLeaseService engineLeaseService, EngineBuckets engineBuckets, boolean enabled,
+                    long spreadMinutes, long reloadHours, LongSupplier clock) {
+        this.mongoTemplate = mongoTemplate;
+        this.habitUpdateService = habitUpdateService;
+        this.engineLeaseService = engineLeaseService;
+        this.engineBuckets = engineBuckets;
+        this.enabled = enabled;
+        // Kept under an hour: the backstop sweep runs at local 01:05 and should find the night done.
+        this.spreadMillis = TimeUnit.MINUTES.toMillis(Math.max(0, Math.min(spreadMinutes, 55)));
+        this.reloadHours = Math.max(1, reloadHours);
+        this.clock = clock;
+        this.wheel = new TimingWheel<>(TICK_MILLIS, clock.getAsLong());
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /** Called once the startup catch-up is over: loads the wheel and starts ticking. */
+    public synchronized void start() {
+        if (!enabled || started) {
+            return;
+        }
+        reload();
+        ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "resolution-wheel");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker.scheduleWithFixedDelay(this::safeTick, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+        ticker.scheduleWithFixedDelay(this::safeReload, reloadHours, reloadHours, TimeUnit.HOURS);
+        started = true;
+    }
+
+    /**
+     * Puts every active habit due before the next reload (plus a day of margin for zones ahead of
+     * the server) on the wheel. Habits due later are picked up by a later reload.
+     */
+    void reload() {
+        LocalDate until = LocalDate.now(engineBuckets.serverZone()).plusDays(reloadHours / 24 + 2);
+        Query query = new Query(Criteria.where("active").is(true).orOperator(
+                Criteria.where("nextResolutionDate").lte(until),
+                Criteria.where("nextResolutionDate").is(null)));
+        query.fields().include("id", "userId", "active", "nextResolutionDate");
+        List<Habit> habits = mongoTemplate.find(query, Habit.class);
+        scheduleAll(habits, false);
+        System.out.println("Resolution wheel loaded " + habits.size() + " habit(s); " + size() + " scheduled");
+    }
+
+    /** A habit was created or edited: schedule it from its current state (nothing if inactive). */
+    public void habitChanged(Habit habit) {
+        if (!enabled || habit == null || habit.getId() == null) {
+            return;
+        }
+        scheduleAll(List.of(habit), true);
+    }
+
+    /**
+     * A completion toggle made the habit due (nextResolutionDate unset): look at it again at the
+     * owner's next local midnight. Toggles CompletionResolver credits on the spot are rescheduled
+     * from their new nextResolutionDate right after (habitChanged).
+     */
+    public void dueAtNextMidnight(Integer habitId, String userId) {
+        if (!enabled || habitId == null) {
+            return;
+        }
+        ZoneId zone = engineBuckets.zonesOf(Collections.singletonList(userId)).get(userId);
+        LocalDate tomorrow = LocalDate.ofInstant(Instant.ofEpochMilli(clock.getAsLong()), zone).plusDays(1);
+        schedule(habitId, deadline(habitId, tomorrow, zone));
+    }
+
+    int size() {
+        synchronized (wheel) {
+            return wheel.size();
+        }
+    }
+
+    boolean isScheduled(Integer habitId) {
+        synchronized (wheel) {
+            return wheel.contains(habitId);
+        }
+    }
+
+    /** Advances the wheel and resolves whatever came due. */
+    void tick() {
+        List<Integer> due;
+        synchronized (wheel) {
+            due = wheel.advance(clock.getAsLong());
+        }
+        if (!due.isEmpty()) {
+            fire(due);
+        }
+    }
+
+    private void fire(List<Integer> habitIds) {
+        try (LeaderLease lease = engineLeaseService.tryAcquire(EngineLeaseService.DAILY_ENGINE)) {
+            if (lease == null) {
+                // A run (or another replica's wheel) holds the lease; try again shortly.
+                retryLater(habitIds);
+                return;
+            }
+            Map<String, ZoneId> zones = zonesOfOwners(habitIds);
+            long now = clock.getAsLong();
+            EngineRunCounters counters = habitUpdateService.resolveHabits(habitIds,
+                    userId -> LocalDate.ofInstant(Instant.ofEpochMilli(now),
+                            zones.getOrDefault(userId, engineBuckets.serverZone())),
+                    lease);
+            System.out.println("Resolution wheel fired " + habitIds.size() + " habit(s): " + counters);
+        } catch (RuntimeException e) {
+            System.err.println("Resolution wheel could not resolve " + habitIds.size() + " habit(s): " + e.getMessage());
+            retryLater(habitIds);
+            return;
+        }
+        // Whatever happened, reschedule from what is in Mongo now: the new nextResolutionDate, or the
+        // old one (already passed, so retried) if the habit could not be resolved.
+        Query query = new Query(Criteria.where("id").in(habitIds));
+        query.fields().include("id", "userId", "active", "nextResolutionDate");
+        List<Habit> habits = mongoTemplate.find(query, Habit.class);
+        List<Integer> gone = new ArrayList<>(habitIds);
+        habits.forEach(h -> gone.remove(h.getId()));
+        synchronized (wheel) {
+            gone.forEach(wheel::cancel); // deleted meanwhile
+        }
+        scheduleAll(habits, false);
+    }
+
+    private Map<String, ZoneId> zonesOfOwners(List<Integer> habitIds) {
+        Query query = new Query(Criteria.where("id").in(habitIds));
+        query.fields().include("id", "userId");
+        List<String> owners = new ArrayList<>();
+        for (Habit habit : mongoTemplate.find(query, Habit.class)) {
+            owners.add(habit.getUserId());
+        }
+        return engineBuckets.zonesOf(owners);
+    }
+
+    /**
+     * Schedules each habit at its next resolution instant. nextResolutionDate null ("due now") means
+     * the owner's next local midnight when the change comes from an edit, or a retry shortly when the
+     * habit is simply overdue (loaded at startup or after a failed resolution).
+     */
+    private void scheduleAll(Collection<Habit> habits, boolean edited) {
+        List<String> owners = habits.stream().map(Habit::getUserId).toList();
+        Map<String, ZoneId> zones = engineBuckets.zonesOf(owners);
+        long now = clock.getAsLong();
+        for (Habit habit : habits) {
+            LocalDate next = habit.getNextResolutionDate();
+            if (!Boolean.TRUE.equals(habit.getActive()) || Habit.NO_RESOLUTION_DUE.equals(next)) {
+                synchronized (wheel) {
+                    wheel.cancel(habit.getId());
+                }
+                continue;
+            }
+            ZoneId zone = zones.getOrDefault(habit.getUserId(), engineBuckets.serverZone());
+            LocalDate today = LocalDate.ofInstant(Instant.ofEpochMilli(now), zone);
+            if (next == null) {
+                next = edited ? today.plusDays(1) : today;
+            }
+            schedule(habit.getId(), deadline(habit.getId(), next, zone));
+        }
+    }
+
+    private void schedule(Integer habitId, long deadlineMillis) {
+        // A deadline that already passed means "overdue": retry in a bit rather than spin every tick.
+        long now = clock.getAsLong();
+        long at = deadlineMillis > now ? deadlineMillis : now + RETRY_DELAY_MILLIS;
+        synchronized (wheel) {
+            if (!wheel.schedule(habitId, at)) {
+                wheel.cancel(habitId); // beyond the horizon; a later reload schedules it
+            }
+        }
+    }
+
+    private void retryLater(List<Integer> habitIds) {
+        long at = clock.getAsLong() + RETRY_DELAY_MILLIS;
+        synchronized (wheel) {
+            habitIds.forEach(id -> wheel.schedule(id, at));
+        }
+    }
+
+    /** Start of the local day plus a stable per-habit offset within the spread. */
+    long deadline(Integer habitId, LocalDate date, ZoneId zone) {
+        long midnight = date.atStartOfDay(zone).toInstant().toEpochMilli();
+        if (spreadMillis == 0) {
+            return midnight;
+        }
+        long mixed = habitId * 0x9E3779B97F4A7C15L;
+        return midnight + Math.floorMod(mixed ^ (mixed >>> 32), spreadMillis);
+    }
+
+    private void safeTick() {
+        try {
+            tick();
+        } catch (RuntimeException e) {
+            System.err.println("Resolution wheel tick failed: " + e.getMessage());
+        }
+    }
+
+    private void safeReload() {
+        try {
+            reload();
+        } catch (RuntimeException e) {
+            System.err.println("Resolution wheel reload failed: " + e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (ticker != null) {
+            ticker.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package habitTracker.updater;
+
+/**
+ * Which occurrence seeds the engine materializes when it catches up over a long gap (see
+ * habits.engine.catch-up-threshold). The regular step loop always seeds every occurrence it walks.
+ */
+public enum SeedPolicy {
+    /** Seed every occurrence in the gap, exactly like the step loop would (bulk inserted). */
+    ALL,
+    /** Seed only the occurrence whose window is still open; lapsed windows in the gap stay row-less. */
+    OPEN_ONLY
+}
@@ -0,0 +1,69 @@
+package habitTracker.updater;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Turns out-of-order shard completions into an EngineRun checkpoint. Shards are submitted in userId
+ * order; the watermark only moves past a user once every user before it has finished, and a failed
+ * shard is never marked finished, so a resumed run retries it.
+ *
+ * Synchronized so checkpoints are written one at a time and never overtaken by an older snapshot.
+ * A checkpoint that is fenced off means another leader has taken the run over: the lease is
+ * marked lost so this instance stops handing out shards.
+ */
+class ShardCheckpoints {
+
+    private final EngineRunService engineRunService;
+    private final EngineRun run;
+    private final LeaderLease lease;
+    private final Set<String> alreadyDone;
+    private final Deque<String> inFlight = new ArrayDeque<>();
+    private final Set<String> finishedAhead;
+    private String watermark;
+
+    ShardCheckpoints(EngineRunService engineRunService, EngineRun run, LeaderLease lease) {
+        this.engineRunService = engineRunService;
+        this.run = run;
+        this.lease = lease;
+        this.watermark = run.getWatermarkUserId();
+        List<String> ahead = run.getFinishedAheadUserIds() != null ? run.getFinishedAheadUserIds() : List.of();
+        this.alreadyDone = Set.copyOf(ahead);
+        this.finishedAhead = new HashSet<>(ahead);
+    }
+
+    /** Finished by an earlier attempt of this run (the scan query already excludes users <= watermark). */
+    boolean isDone(String userId) {
+        return userId != null && alreadyDone.contains(userId);
+    }
+
+    synchronized void submitted(String userId) {
+        if (userId != null) { // legacy habits without an owner are not checkpointed
+            inFlight.addLast(userId);
+        }
+    }
+
+    synchronized void finished(String userId) {
+        if (userId == null) {
+            return;
+        }
+        finishedAhead.add(userId);
+        while (!inFlight.isEmpty() && finishedAhead.contains(inFlight.peekFirst())) {
+            watermark = inFlight.pollFirst();
+            finishedAhead.remove(watermark);
+        }
+        if (watermark != null) {
+            String covered = watermark;
+            finishedAhead.removeIf(done -> done.compareTo(covered) <= 0); // carried over from an earlier attempt
+        }
+        List<String> ahead = new ArrayList<>(finishedAhead);
+        ahead.sort(null);
+        if (!engineRunService.checkpoint(run, watermark, ahead)) {
+            lease.markLost();
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package habitTracker.updater;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+
+/**
+ * One streak repair (StreakRepairService.start), stored when it is requested and again with its
+ * report when it ends. Served by EngineRunAdminController. A run whose instance went down before it
+ * ended stays RUNNING; nothing picks it up again.
+ */
+@Document(collection = "streak_repair_runs")
+@Data
+@Builder(toBuilder = true)
+@AllArgsConstructor
+@NoArgsConstructor
+public class StreakRepairRun {
+    public static final String RUNNING = "RUNNING";
+    public static final String FINISHED = "FINISHED";
+    public static final String FAILED = "FAILED";
+
+    @Id
+    private String id;
+    private boolean dryRun;
+    private String status;
+    @Indexed
+    private Instant startedAt;
+    private Instant finishedAt;
+    private String error; // FAILED only
+    private StreakRepairService.Report report; // FINISHED only
+}
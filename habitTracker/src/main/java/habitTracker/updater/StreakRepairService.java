@@ -0,0 +1,272 @@
+package habitTracker.updater;
+
+import habitTracker.Habit.Habit;
+import habitTracker.Structure.HabitStructure;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Recomputes every habit's streak, longestStreak and lastNegativeStreak from its full
+ * habit_structures history and fixes the ones whose stored values drifted (manual streak edits,
+ * rule changes, bugs since fixed).
+ *
+ * The engine position is left as it is: each habit is refolded from a fresh state over the windows
+ * it has already resolved — the ones before its curDate, anchored backwards from curDate in steps
+ * of its frequency and starting no earlier than startDate — with the engine's own window rule
+ * (HabitUpdateService.resolveClosedWindows). Replaying it window by window would give the same
+ * state; this is just the closed form the catch-up path already uses.
+ *
+ * Per user there are two reads (the habits, then all their rows) and one unordered bulk write of
+ * the corrections, each conditional on the curDate that was read, like the engine's own update — a
+ * habit the engine or a toggle moved on meanwhile is left for the next repair. Users are split
+ * across a fork/join pool of habits.repair.parallelism workers; Mongo traffic goes through
+ * EngineThrottle.
+ *
+ * The admin endpoint starts it in the background (start), one at a time per instance, and the
+ * report is stored in streak_repair_runs (StreakRepairRun) next to engine_run_stats.
+ */
+@Service
+public class StreakRepairService {
+
+    /** At most this many drifted habits are listed in a report; the count covers all of them. */
+    static final int MAX_REPORTED = 1000;
+
+    private static final int USERS_PER_TASK = 16;
+
+    private final MongoTemplate mongoTemplate;
+    private final EngineThrottle throttle;
+    private final int bulkBatchSize;
+    private final int parallelism;
+    private final Executor background;
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    @Autowired
+    public StreakRepairService(MongoTemplate mongoTemplate, EngineThrottle throttle,
+                               @Value("${habits.engine.bulk-batch-size:500}") int bulkBatchSize,
+                               @Value("${habits.repair.parallelism:4}") int parallelism) {
+        this(mongoTemplate, throttle, bulkBatchSize, parallelism,
+                task -> Thread.ofVirtual().name("streak-repair").start(task));
+    }
+
+    StreakRepairService(MongoTemplate mongoTemplate, EngineThrottle throttle, int bulkBatchSize, int parallelism,
+                        Executor background) {
+        this.mongoTemplate = mongoTemplate;
+        this.throttle = throttle;
+        this.bulkBatchSize = bulkBatchSize;
+        this.parallelism = Math.max(1, parallelism);
+        this.background = background;
+    }
+
+    /** Stored and recomputed streak fields of a habit that differed. */
+    public record Drift(Integer habitId, String userId,
+                        Integer storedStreak, Integer storedLongestStreak, Integer storedLastNegativeStreak,
+                        int streak, int longestStreak, Integer lastNegativeStreak) {}
+
+    public record Report(boolean dryRun, int usersScanned, int habitsScanned, int habitsDrifted,
+                         int habitsRepaired, int usersFailed, long elapsedMillis, List<Drift> drifts) {}
+
+    /**
+     * Records a RUNNING StreakRepairRun and runs repairAll for it in the background; the stored run
+     * gets the report (or the error) when it ends. Null if a repair is already running here.
+     */
+    public StreakRepairRun start(boolean dryRun) {
+        if (!running.compareAndSet(false, true)) {
+            return null;
+        }
+        StreakRepairRun run;
+        try {
+            run = mongoTemplate.insert(StreakRepairRun.builder()
+                    .dryRun(dryRun).status(StreakRepairRun.RUNNING).startedAt(Instant.now()).build());
+            background.execute(() -> finish(run));
+        } catch (RuntimeException e) {
+            running.set(false);
+            throw e;
+        }
+        return run;
+    }
+
+    private void finish(StreakRepairRun run) {
+        StreakRepairRun.StreakRepairRunBuilder ended = run.toBuilder();
+        try {
+            ended.report(repairAll(run.isDryRun())).status(StreakRepairRun.FINISHED);
+        } catch (RuntimeException e) {
+            System.err.println("Streak repair " + run.getId() + " failed: " + e.getMessage());
+            ended.error(String.valueOf(e.getMessage())).status(StreakRepairRun.FAILED);
+        } finally {
+            running.set(false);
+        }
+        try {
+            mongoTemplate.save(ended.finishedAt(Instant.now()).build());
+        } catch (RuntimeException e) {
+            System.err.println("Could not store streak repair " + run.getId() + ": " + e.getMessage());
+        }
+    }
+
+    /** Most recent repairs first. */
+    public List<StreakRepairRun> recentRuns(int limit) {
+        Query query = new Query().with(Sort.by(Sort.Direction.DESC, "startedAt")).limit(limit);
+        return mongoTemplate.find(query, StreakRepairRun.class);
+    }
+
+    /** With dryRun nothing is written; the report still lists what would be repaired. */
+    public Report repairAll(boolean dryRun) {
+        long started = System.nanoTime();
+        throttle.acquire(1);
+        List<String> userIds = mongoTemplate.findDistinct(new Query(), "userId", Habit.class, String.class);
+        Totals totals = new Totals();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.invoke(new UsersTask(userIds, 0, userIds.size(), dryRun, totals));
+        } finally {
+            pool.shutdown();
+        }
+        List<Drift> drifts = new ArrayList<>(totals.drifts);
+        Report report = new Report(dryRun, userIds.size(), totals.habitsScanned.get(), totals.habitsDrifted.get(),
+                totals.habitsRepaired.get(), totals.usersFailed.get(), (System.nanoTime() - started) / 1_000_000,
+                drifts.subList(0, Math.min(drifts.size(), MAX_REPORTED)));
+        System.out.println("Streak repair" + (dryRun ? " (dry run)" : "") + ": " + report.habitsDrifted() + "/"
+                + report.habitsScanned() + " habit(s) drifted, " + report.habitsRepaired() + " repaired, "
+                + report.usersFailed() + " user(s) failed, " + report.elapsedMillis() + " ms");
+        return report;
+    }
+
+    /** Repairs one user's habits; returns their drifts. Package-private for tests. */
+    List<Drift> repairUser(String userId, boolean dryRun, Totals totals) {
+        Query habitsQuery = new Query(Criteria.where("userId").is(userId));
+        habitsQuery.fields().include(HabitUpdateService.ENGINE_FIELDS).include("startDate", "lastNegativeStreak");
+        throttle.acquire(1);
+        List<Habit> habits = mongoTemplate.find(habitsQuery, Habit.class);
+        totals.habitsScanned.addAndGet(habits.size());
+        if (habits.isEmpty()) {
+            return List.of();
+        }
+        Query rowsQuery = new Query(Criteria.where("habitId").in(habits.stream().map(Habit::getId).toList()));
+        rowsQuery.fields().include("habitId", "structureDate", "completed");
+        throttle.acquire(1);
+        HabitStructureIndex rows = HabitStructureIndex.of(mongoTemplate.find(rowsQuery, HabitStructure.class));
+
+        List<Drift> drifts = new ArrayList<>();
+        EngineWriteBatch batch = new EngineWriteBatch(mongoTemplate, bulkBatchSize, throttle);
+        for (Habit habit : habits) {
+            Drift drift = recompute(habit, rows);
+            if (drift == null) {
+                continue;
+            }
+            drifts.add(drift);
+            if (!dryRun) {
+                Update update = new Update().set("streak", drift.streak()).set("longestStreak", drift.longestStreak());
+                if (drift.lastNegativeStreak() != null) {
+                    update.set("lastNegativeStreak", drift.lastNegativeStreak());
+                } else {
+                    update.unset("lastNegativeStreak");
+                }
+                batch.updateHabit(new Query(Criteria.where("id").is(habit.getId())
+                        .and("curDate").is(habit.getCurDate())), update);
+            }
+        }
+        batch.flush();
+        totals.habitsDrifted.addAndGet(drifts.size());
+        totals.habitsRepaired.addAndGet(batch.getTotalUpdated());
+        return drifts;
+    }
+
+    /** The habit's streak fields refolded from its history; null if they match what is stored (or cannot be recomputed). */
+    static Drift recompute(Habit habit, OccurrenceLookup rows) {
+        LocalDate curDate = habit.getCurDate();
+        LocalDate startDate = habit.getStartDate();
+        if (curDate == null || startDate == null) {
+            return null; // no schedule to refold
+        }
+        int freq = HabitUpdateService.frequencyOf(habit);
+        long windows = startDate.isBefore(curDate) ? ChronoUnit.DAYS.between(startDate, curDate) / freq : 0;
+        LocalDate firstAnchor = curDate.minusDays(windows * freq);
+        StreakState state = new StreakState(0, 0);
+        HabitUpdateService.resolveClosedWindows(habit, firstAnchor, freq,
+                HabitUpdateService.closedWindowCount(firstAnchor, freq, habit.getEndDate(), curDate), state, rows);
+
+        Integer lastNegative = state.lastNegativeStreak(null);
+        boolean matches = state.streak() == orZero(habit.getStreak())
+                && state.longestStreak() == orZero(habit.getLongestStreak())
+                && Objects.equals(lastNegative, habit.getLastNegativeStreak());
+        if (matches) {
+            return null;
+        }
+        return new Drift(habit.getId(), habit.getUserId(),
+                habit.getStreak(), habit.getLongestStreak(), habit.getLastNegativeStreak(),
+                state.streak(), state.longestStreak(), lastNegative);
+    }
+
+    private static int orZero(Integer value) {
+        return value != null ? value : 0;
+    }
+
+    /** Run-wide counts; fork/join leaves add to them as their users finish. */
+    static final class Totals {
+        final AtomicInteger habitsScanned = new AtomicInteger();
+        final AtomicInteger habitsDrifted = new AtomicInteger();
+        final AtomicInteger habitsRepaired = new AtomicInteger();
+        final AtomicInteger usersFailed = new AtomicInteger();
+        final Queue<Drift> drifts = new ConcurrentLinkedQueue<>();
+    }
+
+    /** Halves its range of users until it is small enough to repair them one after the other. */
+    private final class UsersTask extends RecursiveAction {
+
+        private final List<String> userIds;
+        private final int from;
+        private final int to;
+        private final boolean dryRun;
+        private final Totals totals;
+
+        UsersTask(List<String> userIds, int from, int to, boolean dryRun, Totals totals) {
+            this.userIds = userIds;
+            this.from = from;
+            this.to = to;
+            this.dryRun = dryRun;
+            this.totals = totals;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > USERS_PER_TASK) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new UsersTask(userIds, from, mid, dryRun, totals),
+                        new UsersTask(userIds, mid, to, dryRun, totals));
+                return;
+            }
+            for (int i = from; i < to; i++) {
+                String userId = userIds.get(i);
+                try {
+                    List<Drift> drifts = repairUser(userId, dryRun, totals);
+                    if (totals.drifts.size() < MAX_REPORTED) {
+                        totals.drifts.addAll(drifts);
+                    }
+                } catch (RuntimeException e) {
+                    // One user's failure must not stop the others; their stored values are untouched.
+                    totals.usersFailed.incrementAndGet();
+                    System.err.println("Streak repair for user " + userId + " failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+}
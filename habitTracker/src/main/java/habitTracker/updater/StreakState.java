@@ -0,0 +1,76 @@
+package habitTracker.updater;
+
+import org.springframework.data.mongodb.core.query.Update;
+
+/**
+ * A habit's streak fields while the engine resolves its occurrences. The step loop applies one
+ * outcome at a time; catch-up applies whole runs of identical outcomes, which is why every
+ * transition takes a count — k successes (or lapses) in a row end in exactly the same state as
+ * applying them one by one.
+ */
+final class StreakState {
+
+    private int streak;
+    private int longestStreak;
+    private Integer pendingLastNeg;  // set lastNegativeStreak when crediting from <= 0
+    private boolean clearLastNeg;    // unset lastNegativeStreak when a positive run is broken
+
+    StreakState(int streak, int longestStreak) {
+        this.streak = streak;
+        this.longestStreak = longestStreak;
+    }
+
+    void succeeded(long times) {
+        if (times <= 0) {
+            return;
+        }
+        if (streak <= 0) {
+            pendingLastNeg = streak; // remember the negative depth for restoreNegativeStreak
+            clearLastNeg = false;
+            streak = Math.toIntExact(times);
+        } else {
+            streak = Math.toIntExact(streak + times);
+        }
+        if (streak > longestStreak) {
+            longestStreak = streak;
+        }
+    }
+
+    void lapsed(long times) {
+        if (times <= 0) {
+            return;
+        }
+        if (streak > 0) {
+            streak = 0;
+            pendingLastNeg = null;
+            clearLastNeg = true;
+            times--;
+        }
+        streak = Math.toIntExact(streak - times);
+    }
+
+    int streak() {
+        return streak;
+    }
+
+    int longestStreak() {
+        return longestStreak;
+    }
+
+    /** lastNegativeStreak once the outcomes applied so far are written over `previous`. */
+    Integer lastNegativeStreak(Integer previous) {
+        if (pendingLastNeg != null) {
+            return pendingLastNeg;
+        }
+        return clearLastNeg ? null : previous;
+    }
+
+    void writeTo(Update update) {
+        update.set("streak", streak).set("longestStreak", longestStreak);
+        if (pendingLastNeg != null) {
+            update.set("lastNegativeStreak", pendingLastNeg);
+        } else if (clearLastNeg) {
+            update.unset("lastNegativeStreak");
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package habitTracker.updater;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Hierarchical timing wheel: LEVELS wheels of SLOTS slots each, the first one tickMillis per slot,
+ * every next one SLOTS times coarser. A key lands on the finest level whose range still covers its
+ * deadline; whenever a finer wheel wraps around, the matching slot of the next level is cascaded
+ * down. schedule/cancel are O(1) and advance costs O(ticks passed + keys due), no matter how many
+ * keys are waiting — a priority queue of every active habit would pay log n per edit instead.
+ *
+ * Each key is scheduled at most once; scheduling it again moves it. Not thread-safe on its own;
+ * ResolutionWheel synchronizes on it.
+ */
+final class TimingWheel<K> {
+
+    static final int LEVELS = 4;
+    private static final int SLOT_BITS = 6;
+    static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+
+    private record Entry(long tick, int level, int slot) {}
+
+    private final long tickMillis;
+    private final List<List<Set<K>>> wheels = new ArrayList<>();
+    private final Map<K, Entry> entries = new HashMap<>();
+    private long currentTick;
+
+    TimingWheel(long tickMillis, long startMillis) {
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("tickMillis must be positive");
+        }
+        this.tickMillis = tickMillis;
+        this.currentTick = startMillis / tickMillis;
+        for (int level = 0; level < LEVELS; level++) {
+            List<Set<K>> slots = new ArrayList<>(SLOTS);
+            for (int slot = 0; slot < SLOTS; slot++) {
+                slots.add(new HashSet<>());
+            }
+            wheels.add(slots);
+        }
+    }
+
+    /** How far ahead a key can be scheduled (SLOTS^LEVELS ticks). */
+    long horizonMillis() {
+        return (1L << (SLOT_BITS * LEVELS)) * tickMillis;
+    }
+
+    /**
+     * Schedules key to expire at deadlineMillis, replacing an earlier schedule of the same key.
+     * A deadline that has already passed expires on the next advance. False (and the key is not
+     * scheduled) if the deadline lies beyond the horizon.
+     */
+    boolean schedule(K key, long deadlineMillis) {
+        long tick = Math.max(ceilDiv(deadlineMillis, tickMillis), currentTick + 1);
+        if (tick - currentTick >= (1L << (SLOT_BITS * LEVELS))) {
+            cancel(key);
+            return false;
+        }
+        cancel(key);
+        place(key, tick);
+        return true;
+    }
+
+    void cancel(K key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            wheels.get(entry.level()).get(entry.slot()).remove(key);
+        }
+    }
+
+    boolean contains(K key) {
+        return entries.containsKey(key);
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    /** Moves the wheel to nowMillis and returns every key whose deadline has been reached. */
+    List<K> advance(long nowMillis) {
+        long target = nowMillis / tickMillis;
+        List<K> expired = new ArrayList<>();
+        while (currentTick < target) {
+            currentTick++;
+            // Coarsest level first, so keys cascading through several levels at once end up in the
+            // level-0 slot that is expired right below.
+            for (int level = LEVELS - 1; level > 0; level--) {
+                if ((currentTick & ((1L << (SLOT_BITS * level)) - 1)) == 0) {
+                    cascade(level, (int) ((currentTick >>> (SLOT_BITS * level)) & SLOT_MASK));
+                }
+            }
+            Set<K> slot = wheels.get(0).get((int) (currentTick & SLOT_MASK));
+            for (Iterator<K> it = slot.iterator(); it.hasNext(); ) {
+                K key = it.next();
+                it.remove();
+                entries.remove(key);
+                expired.add(key);
+            }
+            if (entries.isEmpty()) {
+                currentTick = Math.max(currentTick, target); // nothing waiting: skip the idle ticks
+            }
+        }
+        return expired;
+    }
+
+    private void cascade(int level, int slotIndex) {
+        Set<K> slot = wheels.get(level).get(slotIndex);
+        if (slot.isEmpty()) {
+            return;
+        }
+        List<K> keys = new ArrayList<>(slot);
+        slot.clear();
+        for (K key : keys) {
+            place(key, entries.remove(key).tick());
+        }
+    }
+
+    private void place(K key, long tick) {
+        long delta = tick - currentTick;
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= (1L << (SLOT_BITS * (level + 1)))) {
+            level++;
+        }
+        int slot = (int) ((tick >>> (SLOT_BITS * level)) & SLOT_MASK);
+        wheels.get(level).get(slot).add(key);
+        entries.put(key, new Entry(tick, level, slot));
+    }
+
+    private static long ceilDiv(long value, long divisor) {
+        return -Math.floorDiv(-value, divisor);
+    }
+}
@@ -1,53 +1,201 @@
 package habitTracker.updater;
 
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
-import jakarta.annotation.PostConstruct;
 
+import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.util.List;
 
+/**
+ * Drives the engine per time-zone bucket (EngineBuckets). Every hour, the users whose local
+ * midnight just passed get their day rolled over: habits resolved as of their local date, then
+ * yesterday's KPI defaults filled. That spreads the load across 24 small runs instead of one big
+ * one at server midnight, and a user in Tokyo no longer has their streak decided on London's day.
+ * With the resolution wheel on (ResolutionWheel), that hourly run is a backstop an hour later.
+ */
 @Component
 public class UpdateScheduler {
 
-    private final LastRunDateService lastRunDateService;
     private final HabitUpdateService habitUpdateService;
     private final KPIDefaultFillService kpiDefaultFillService;
+    private final EngineLeaseService engineLeaseService;
+    private final EngineRunService engineRunService;
+    private final EngineBuckets engineBuckets;
+    private final EngineStatus engineStatus;
+    private final ResolutionWheel resolutionWheel;
 
-    public UpdateScheduler(LastRunDateService lastRunDateService,
-                           HabitUpdateService habitUpdateService,
-                           KPIDefaultFillService kpiDefaultFillService) {
-        this.lastRunDateService = lastRunDateService;
+    // Long enough to outlast the resolution wheel's brief hold of the lease, short enough not to
+    // stall the scheduler thread while another replica runs the engine.
+    static final Duration LEASE_WAIT = Duration.ofSeconds(10);
+
+    public UpdateScheduler(HabitUpdateService habitUpdateService,
+                           KPIDefaultFillService kpiDefaultFillService,
+                           EngineLeaseService engineLeaseService,
+                           EngineRunService engineRunService,
+                           EngineBuckets engineBuckets,
+                           EngineStatus engineStatus,
+                           ResolutionWheel resolutionWheel) {
         this.habitUpdateService = habitUpdateService;
         this.kpiDefaultFillService = kpiDefaultFillService;
+        this.engineLeaseService = engineLeaseService;
+        this.engineRunService = engineRunService;
+        this.engineBuckets = engineBuckets;
+        this.engineStatus = engineStatus;
+        this.resolutionWheel = resolutionWheel;
     }
 
-    @PostConstruct
+    /**
+     * After downtime every zone may have missed its midnight, so startup covers all of them. Runs on
+     * a background thread once the app is ready, so the container starts (and passes its health
+     * check) straight away; EngineStatus holds habit writes off until the catch-up is over.
+     */
+    @EventListener(ApplicationReadyEvent.class)
     public void runOnStartup() {
+        Thread.ofVirtual().name("engine-startup-catch-up").start(this::catchUpOnStartup);
+    }
+
+    void catchUpOnStartup() {
         System.out.println("Running updater on startup at: " + LocalDateTime.now());
-        performDailyUpdate();
+        try {
+            performUpdate(engineBuckets.all(Instant.now()));
+        } finally {
+            // Also when this replica did not get the lease or a bucket failed: whatever is left is
+            // resumed by the leader or the standby check, and writes cannot stay blocked forever.
+            engineStatus.markReady();
+            System.out.println("Startup catch-up finished at: " + LocalDateTime.now());
+            startResolutionWheel();
+        }
+    }
+
+    // Built only now, so it loads the habits with the nextResolutionDate the catch-up just wrote.
+    private void startResolutionWheel() {
+        try {
+            resolutionWheel.start();
+        } catch (RuntimeException e) {
+            System.err.println("Could not start the resolution wheel; the hourly run still covers every zone: " + e.getMessage());
+        }
     }
 
-    @Scheduled(cron = "0 5 0 * * ?")
+    /**
+     * With the resolution wheel on, habits are resolved as their windows close and this becomes the
+     * backstop: it runs at local 01:05, after the wheel's spread, and only finds what the wheel missed
+     * (plus the KPI default-fill, which is still done here).
+     */
+    @Scheduled(cron = "0 5 * * * ?")
     public void scheduledUpdate() {
         System.out.println("Scheduled update triggered at: " + LocalDateTime.now());
-        performDailyUpdate();
+        Instant now = Instant.now();
+        performUpdate(resolutionWheel.isEnabled()
+                ? engineBuckets.atLocalHour(now, 1)
+                : engineBuckets.justPastMidnight(now));
     }
 
-    private void performDailyUpdate() {
-        try {
-            if (lastRunDateService.hasRunToday()) {
-                System.out.println("Updater already ran today. Skipping.");
+    /**
+     * Admin trigger (POST /api/admin/engine-run): every zone, like the startup catch-up. Zones whose
+     * run for today is done only get what became due since; the others are run or resumed. Runs in
+     * the background; a replica without the lease leaves the work to the leader.
+     */
+    public void runNow() {
+        Thread.ofVirtual().name("engine-admin-run").start(() -> {
+            System.out.println("Engine run requested by an admin at: " + LocalDateTime.now());
+            performUpdate(engineBuckets.all(Instant.now()));
+        });
+    }
+
+    /**
+     * Standby takeover: a run that is still RUNNING is either in progress on the leader (whose live
+     * lease makes tryAcquire fail here) or was orphaned by a leader that died, in which case the
+     * lease has expired and this instance picks the run up from its last checkpoint. Runs from an
+     * earlier local day are left alone; the next run for those zones abandons them.
+     */
+    @Scheduled(fixedDelayString = "${habits.engine.lease.standby-check-ms:60000}",
+               initialDelayString = "${habits.engine.lease.standby-check-ms:60000}")
+    public void takeOverOrphanedRun() {
+        Instant now = Instant.now();
+        List<EngineBucket> orphaned = engineRunService.findUnfinishedRuns().stream()
+                .filter(run -> run.getZones() != null && !run.getZones().isEmpty())
+                .filter(run -> run.getRunDate().equals(engineBuckets.todayIn(run.getZones().get(0), now)))
+                .map(run -> new EngineBucket(run.getRunDate(), run.getZones()))
+                .toList();
+        if (!orphaned.isEmpty()) {
+            performUpdate(orphaned);
+        }
+    }
+
+    private void performUpdate(List<EngineBucket> buckets) {
+        if (buckets.isEmpty()) {
+            return;
+        }
+        // Every replica fires the triggers above; only the lease holder does the work. The
+        // isCompleted check-then-run below is only safe because it happens under the lease.
+        try (LeaderLease lease = engineLeaseService.acquire(EngineLeaseService.DAILY_ENGINE, LEASE_WAIT)) {
+            if (lease == null) {
+                System.out.println("Another instance holds the engine lease. Skipping.");
                 return;
             }
-            lastRunDateService.markRunToday();
-            // Single unified pass: rolls each habit's grace window forward, crediting/docking the
-            // streak and advancing curDate as occurrences resolve.
-            habitUpdateService.updateAllHabits();
-            kpiDefaultFillService.fillMissingDefaults();
-            System.out.println("Updater ran successfully for " + java.time.LocalDate.now());
+            for (EngineBucket bucket : buckets) {
+                if (!lease.isHeld()) {
+                    System.err.println("Engine lease lost; the new leader finishes the remaining buckets");
+                    return;
+                }
+                try {
+                    runBucket(bucket, lease);
+                } catch (RuntimeException e) {
+                    // Recorded as PARTIAL; the other zones still get their day rolled over.
+                    System.err.println("Error during engine run " + bucket.key() + ": " + e.getMessage());
+                    e.printStackTrace();
+                }
+            }
         } catch (Exception e) {
-            System.err.println("Error during daily update: " + e.getMessage());
+            System.err.println("Error during engine update: " + e.getMessage());
             e.printStackTrace();
         }
     }
+
+    private void runBucket(EngineBucket bucket, LeaderLease lease) {
+        if (engineRunService.isCompleted(bucket)) {
+            // The day's run is done, but a trigger can come at any time (restart, admin call): resolve
+            // only what became due since, per habit. Usually nothing, and then this is one empty query.
+            EngineRunCounters swept = habitUpdateService.resolveDue(engineBuckets.scopeOf(bucket), bucket.today());
+            System.out.println("Engine run " + bucket.key() + " already completed; swept what was due since: " + swept);
+            return;
+        }
+        Instant startedAt = Instant.now();
+        // Checkpointed in engine_runs, so if it is cut short the next start (or a standby) resumes it.
+        EngineRun run = engineRunService.startOrResume(bucket, lease.getToken());
+        EngineRunCounters counters = new EngineRunCounters();
+        int kpiFills = 0;
+        boolean complete = false;
+        try {
+            EngineScope scope = engineBuckets.scopeOf(bucket);
+            // Single unified pass: rolls each habit's grace window forward, crediting/docking the
+            // streak and advancing curDate as occurrences resolve.
+            counters = habitUpdateService.updateAllHabits(lease, run, scope);
+            if (!counters.isComplete()) {
+                System.err.println("Engine run " + run.getId() + " incomplete; it resumes on the next start");
+                return;
+            }
+            kpiFills = kpiDefaultFillService.fillMissingDefaults(bucket.today().minusDays(1), scope);
+            // COMPLETED only after both sub-tasks succeeded (the run date used to be marked first,
+            // so a crash mid-run silently skipped the remaining users until the next day).
+            complete = lease.isHeld();
+        } finally {
+            engineRunService.finish(run, complete, counters + ", " + kpiFills + " KPI(s) filled");
+            System.out.println("Engine run " + run.getId() + " " + run.getStatus() + ": " + counters);
+            recordStats(run, counters, kpiFills, startedAt);
+        }
+    }
+
+    // Telemetry only: a failed write here must not fail (or un-complete) the run itself.
+    private void recordStats(EngineRun run, EngineRunCounters counters, int kpiFills, Instant startedAt) {
+        try {
+            engineRunService.recordStats(EngineRunStats.of(run, counters, kpiFills, startedAt, Instant.now()));
+        } catch (RuntimeException e) {
+            System.err.println("Could not record stats for engine run " + run.getId() + ": " + e.getMessage());
+        }
+    }
 }
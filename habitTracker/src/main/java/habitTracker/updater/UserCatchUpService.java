@@ -0,0 +1,103 @@
+package habitTracker.updater;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Brings one user's habits up to date on their first request of their local day, so their streaks
+ * are right even if every scheduled trigger for their zone was missed (the app was down at their
+ * midnight, the wheel and the hourly run both failed). Only habits with something due are touched
+ * (HabitUpdateService.resolveDue); once a user is caught up for a local date, further requests that
+ * day cost a map lookup (their zone is cached alongside). The map is per replica, so each replica
+ * pays one zone read and one due-habits query per user and day. It is bounded like TodayCache: least
+ * recently seen users are evicted past habits.engine.user-catch-up.max-entries, and an evicted user's
+ * next request just runs the (idempotent) catch-up again.
+ *
+ * Runs on the request thread, so it bypasses EngineThrottle (resolveDueForUser): the throttle exists
+ * to slow the engine down for requests, and a request must never sleep on it. One user's due habits
+ * are a handful of documents.
+ *
+ * Skipped while the startup catch-up is running: it covers every zone anyway, and the readiness
+ * interceptor already holds habit writes off until it is done.
+ */
+@Service
+public class UserCatchUpService {
+
+    private final HabitUpdateService habitUpdateService;
+    private final EngineBuckets engineBuckets;
+    private final EngineStatus engineStatus;
+    private final Clock clock;
+
+    private final int maxEntries;
+    // userId → their zone and the local date they were last caught up for; access-ordered, guarded by itself
+    private final Map<String, CaughtUp> caughtUp;
+
+    private record CaughtUp(ZoneId zone, LocalDate date) {}
+
+    public UserCatchUpService(HabitUpdateService habitUpdateService, EngineBuckets engineBuckets,
+                              EngineStatus engineStatus,
+                              @Value("${habits.engine.user-catch-up.max-entries:10000}") int maxEntries) {
+        this(habitUpdateService, engineBuckets, engineStatus, maxEntries, Clock.systemUTC());
+    }
+
+    UserCatchUpService(HabitUpdateService habitUpdateService, EngineBuckets engineBuckets,
+                       EngineStatus engineStatus, int maxEntries, Clock clock) {
+        this.habitUpdateService = habitUpdateService;
+        this.engineBuckets = engineBuckets;
+        this.engineStatus = engineStatus;
+        this.clock = clock;
+        this.maxEntries = Math.max(1, maxEntries);
+        this.caughtUp = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CaughtUp> eldest) {
+                return size() > UserCatchUpService.this.maxEntries;
+            }
+        };
+    }
+
+    /** True if this call ran the engine for the user (their first request of the day on this replica). */
+    public boolean catchUp(String userId) {
+        if (userId == null || !engineStatus.isReady()) {
+            return false;
+        }
+        Instant now = clock.instant();
+        CaughtUp last;
+        synchronized (caughtUp) {
+            last = caughtUp.get(userId);
+        }
+        if (last != null && last.date().equals(now.atZone(last.zone()).toLocalDate())) {
+            return false;
+        }
+        // The zone is looked up again once a day, so a changed User.timeZone is picked up by the next day.
+        ZoneId zone = engineBuckets.zonesOf(List.of(userId)).get(userId);
+        CaughtUp current = new CaughtUp(zone, now.atZone(zone).toLocalDate());
+        CaughtUp previous;
+        synchronized (caughtUp) {
+            previous = caughtUp.put(userId, current);
+        }
+        if (current.equals(previous)) {
+            return false; // a concurrent first request got here first
+        }
+        EngineRunCounters counters = habitUpdateService.resolveDueForUser(userId, current.date());
+        if (!counters.isComplete()) {
+            synchronized (caughtUp) {
+                caughtUp.remove(userId, current); // retried on the next request
+            }
+        }
+        return true;
+    }
+
+    int size() {
+        synchronized (caughtUp) {
+            return caughtUp.size();
+        }
+    }
+}
@@ -1,10 +1,12 @@
 window.ENV = {
   ENDPOINTS: {
     AUTH_ME:         '/auth/me',
+    AUTH_TIME_ZONE:  '/auth/me/time-zone',
     LOGOUT:          '/logout',
     TODAY:           '/api/today',
     HABITS_LIST:     '/api/habits',
     HABITS_TABLE:    '/api/habits/table',
+    HABITS_TABLE_V2: '/api/v2/habits/table',
     HABITS_RULES:    '/api/habits/rules',
     HABITS_STREAKS:  '/habits/streaks',
     HABIT_UPDATE:    (id) => `/habits/update/${id}`,
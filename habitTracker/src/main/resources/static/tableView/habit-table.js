@@ -53,7 +53,7 @@ function fetchUpdatedTable() {
         return;
     }
 
-    fetch(`/habits/tableAsync?startDate=${startDate}&endDate=${endDate}`, {
+    fetch(`/api/v2/habits/table?startDate=${startDate}&endDate=${endDate}`, {
         method: 'GET',
         headers: {
             'Accept': 'application/json'
@@ -87,15 +87,35 @@ function getHabitOrderFromHeaders() {
     return habitOrder;
 }
 
-// Helper function to find habit key by name in the habits object
-function findHabitKeyByName(habits, habitName) {
-    for (const key of Object.keys(habits)) {
-        const match = key.match(/Pair\(key=(.*), value=(-?\d+)\)/);
-        if (match && match[1] === habitName) {
-            return key;
-        }
+// Version 2 table: a habit's days are base64 little-endian bits, day d = bit (d % 8) of byte (d / 8).
+function decodeDays(base64, days) {
+    if (base64 == null) {
+        return null;
+    }
+    const bytes = atob(base64);
+    const bits = [];
+    for (let d = 0; d < days; d++) {
+        const byte = d >> 3;
+        bits.push(byte < bytes.length && ((bytes.charCodeAt(byte) >> (d & 7)) & 1) === 1);
     }
-    return null;
+    return bits;
+}
+
+// startDate plus n days, as yyyy-mm-dd (UTC, so no time-zone shift)
+function addDays(isoDate, n) {
+    const date = new Date(isoDate + 'T00:00:00Z');
+    date.setUTCDate(date.getUTCDate() + n);
+    return date.toISOString().slice(0, 10);
+}
+
+function dayStatus(active, completed, d) {
+    if (!active) {
+        return 'ACTIVE_INCOMPLETE'; // habit not found: no statuses, as before
+    }
+    if (!active[d]) {
+        return 'INACTIVE';
+    }
+    return completed[d] ? 'ACTIVE_COMPLETED' : 'ACTIVE_INCOMPLETE';
 }
 
 function updateTable(data) {
@@ -106,13 +126,26 @@ function updateTable(data) {
     // Get the habit order from table headers to maintain consistency
     const habitOrder = getHabitOrderFromHeaders();
 
-    data.forEach(entry => {
+    // Decode every habit's days once, keyed by name like the headers
+    const habitsByName = {};
+    data.habits.forEach(habit => {
+        if (!(habit.name in habitsByName)) {
+            habitsByName[habit.name] = {
+                id: habit.id,
+                completed: decodeDays(habit.completed, data.days),
+                active: decodeDays(habit.active, data.days)
+            };
+        }
+    });
+
+    for (let d = 0; d < data.days; d++) {
+        const date = addDays(data.startDate, d);
         const row = document.createElement('tr');
 
         // Add date cell
         const dateCell = document.createElement('td');
         dateCell.className = 'date-cell';
-        dateCell.textContent = entry.date;
+        dateCell.textContent = date;
         row.appendChild(dateCell);
 
         // Add habit cells in the same order as headers
@@ -122,36 +155,23 @@ function updateTable(data) {
 
             const checkbox = document.createElement('input');
             checkbox.type = 'checkbox';
-            checkbox.setAttribute('data-date', entry.date);
-
-            // Find the habit key that matches this habit name
-            const habitKey = findHabitKeyByName(entry.habits, habitName);
-            
-            if (habitKey) {
-                const value = entry.habits[habitKey];
-                checkbox.checked = value;
-
-                // Extract habit ID from the key
-                const match = habitKey.match(/Pair\(key=(.*), value=(-?\d+)\)/);
-                if (match) {
-                    checkbox.setAttribute('data-habit-name', match[1]);
-                    checkbox.setAttribute('data-habit-id', match[2]);
-                    
-                    // Check habit status and apply styling
-                    const habitStatus = entry.habitStatuses && entry.habitStatuses[habitKey];
-                    
-                    if (habitStatus === 'INACTIVE') {
-                        checkbox.classList.add('inactive-habit');
-                        checkbox.disabled = true;
-                        checkbox.setAttribute('data-habit-status', 'INACTIVE');
-                    } else {
-                        checkbox.setAttribute('data-habit-status', habitStatus || 'ACTIVE_INCOMPLETE');
-                    }
+            checkbox.setAttribute('data-date', date);
+            checkbox.setAttribute('data-habit-name', habitName);
+
+            const habit = habitsByName[habitName];
+            if (habit) {
+                checkbox.checked = habit.completed[d];
+                checkbox.setAttribute('data-habit-id', habit.id);
+
+                const habitStatus = dayStatus(habit.active, habit.completed, d);
+                if (habitStatus === 'INACTIVE') {
+                    checkbox.classList.add('inactive-habit');
+                    checkbox.disabled = true;
                 }
+                checkbox.setAttribute('data-habit-status', habitStatus);
             } else {
                 // Habit not found in data - might be a new habit or data issue
                 checkbox.checked = false;
-                checkbox.setAttribute('data-habit-name', habitName);
                 checkbox.setAttribute('data-habit-id', '');
                 checkbox.setAttribute('data-habit-status', 'ACTIVE_INCOMPLETE');
                 console.warn('Habit not found in data:', habitName);
@@ -164,5 +184,5 @@ function updateTable(data) {
         });
 
         tbody.appendChild(row);
-    });
+    }
 }
\ No newline at end of file
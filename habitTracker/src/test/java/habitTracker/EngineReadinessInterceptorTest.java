@@ -0,0 +1,37 @@
+package habitTracker;
+
+import habitTracker.updater.EngineStatus;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class EngineReadinessInterceptorTest {
+
+    private final EngineStatus engineStatus = mock(EngineStatus.class);
+    private final EngineReadinessInterceptor interceptor = new EngineReadinessInterceptor(engineStatus);
+
+    @Test
+    void writeDuringCatchUp_is503WithRetryAfter() throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        boolean proceed = interceptor.preHandle(new MockHttpServletRequest("POST", "/habits/update/1"), response, null);
+
+        assertFalse(proceed);
+        assertEquals(503, response.getStatus());
+        assertEquals(String.valueOf(EngineReadinessInterceptor.RETRY_AFTER_SECONDS), response.getHeader("Retry-After"));
+    }
+
+    @Test
+    void readsAreServedDuringCatchUp() throws Exception {
+        assertTrue(interceptor.preHandle(new MockHttpServletRequest("GET", "/habits/list"), new MockHttpServletResponse(), null));
+    }
+
+    @Test
+    void writesPassOnceReady() throws Exception {
+        when(engineStatus.isReady()).thenReturn(true);
+        assertTrue(interceptor.preHandle(new MockHttpServletRequest("POST", "/habits/update/1"), new MockHttpServletResponse(), null));
+    }
+}
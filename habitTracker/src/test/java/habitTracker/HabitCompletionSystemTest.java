@@ -6,6 +6,7 @@ import habitTracker.auth.AuthTestHelper;
 import habitTracker.auth.JwtUtil;
 import habitTracker.auth.User;
 import habitTracker.auth.UserPrincipal;
+import habitTracker.updater.EngineStatus;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -20,11 +21,13 @@ import org.testcontainers.containers.MongoDBContainer;
 import org.testcontainers.junit.jupiter.Container;
 import org.testcontainers.junit.jupiter.Testcontainers;
 
+import java.time.Duration;
 import java.time.LocalDate;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.csrf;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.MOCK)
@@ -39,14 +42,16 @@ class HabitCompletionSystemTest {
     @Autowired MockMvc mockMvc;
     @Autowired MongoTemplate mongoTemplate;
     @Autowired JwtUtil jwtUtil;
+    @Autowired EngineStatus engineStatus;
 
     AuthTestHelper auth;
 
     @BeforeEach
-    void clearCollections() {
+    void clearCollections() throws InterruptedException {
+        // the startup catch-up runs in the background; habit writes get 503 until it is done
+        assertTrue(engineStatus.awaitReady(Duration.ofSeconds(30)));
         mongoTemplate.dropCollection(Habit.class);
         mongoTemplate.dropCollection(HabitStructure.class);
-        mongoTemplate.dropCollection("last_run_date");
         mongoTemplate.dropCollection("_migration");
         mongoTemplate.dropCollection(User.class);
         auth = new AuthTestHelper(mongoTemplate, jwtUtil);
@@ -99,4 +104,38 @@ class HabitCompletionSystemTest {
         assertEquals(-27, updated.getStreak());
         assertNull(updated.getLastNegativeStreak());
     }
+
+    @Test
+    void completingOpenWindow_creditsStreakInTheRequest_andUncheckingUndoesIt() throws Exception {
+        UserPrincipal alice = auth.register("alice3@habits.test");
+
+        mongoTemplate.save(Habit.builder()
+                .id(44).name("read").frequency(1)
+                .startDate(LocalDate.now()).curDate(LocalDate.now()).streak(4).longestStreak(4)
+                .defaultMade(false).active(true).userId(alice.getId()).build());
+
+        mockMvc.perform(post("/habits/update/44")
+                        .param("completed", "true")
+                        .with(auth.session(alice))
+                        .with(csrf()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.value").value(5))
+                .andExpect(jsonPath("$.open").value(false));
+
+        Habit credited = mongoTemplate.findById(44, Habit.class);
+        assertEquals(5, credited.getStreak());
+        assertEquals(LocalDate.now().plusDays(1), credited.getCurDate());
+
+        mockMvc.perform(post("/habits/update/44")
+                        .param("completed", "false")
+                        .with(auth.session(alice))
+                        .with(csrf()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.value").value(4));
+
+        Habit undone = mongoTemplate.findById(44, Habit.class);
+        assertEquals(4, undone.getStreak());
+        assertEquals(LocalDate.now(), undone.getCurDate());
+        assertNull(undone.getInlineResolution());
+    }
 }
@@ -6,6 +6,7 @@ import habitTracker.auth.AuthTestHelper;
 import habitTracker.auth.JwtUtil;
 import habitTracker.auth.User;
 import habitTracker.auth.UserPrincipal;
+import habitTracker.updater.EngineStatus;
 import habitTracker.updater.KPIDefaultFillService;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -21,6 +22,7 @@ import org.testcontainers.containers.MongoDBContainer;
 import org.testcontainers.junit.jupiter.Container;
 import org.testcontainers.junit.jupiter.Testcontainers;
 
+import java.time.Duration;
 import java.time.LocalDate;
 import java.util.List;
 
@@ -41,6 +43,7 @@ class KPIIntegrationTest {
     @Autowired MockMvc mockMvc;
     @Autowired MongoTemplate mongoTemplate;
     @Autowired JwtUtil jwtUtil;
+    @Autowired EngineStatus engineStatus;
     @Autowired KPIDefaultFillService kpiDefaultFillService;
     @Autowired KPICollectionNameUtil collectionNameUtil;
     @Autowired DynamicKPIDataRepository dynamicKPIDataRepository;
@@ -48,7 +51,9 @@ class KPIIntegrationTest {
     AuthTestHelper auth;
 
     @BeforeEach
-    void setup() {
+    void setup() throws InterruptedException {
+        // the startup catch-up runs in the background; habit writes get 503 until it is done
+        assertTrue(engineStatus.awaitReady(Duration.ofSeconds(30)));
         auth = new AuthTestHelper(mongoTemplate, jwtUtil);
         mongoTemplate.dropCollection(KPI.class);
         mongoTemplate.dropCollection(Habit.class);
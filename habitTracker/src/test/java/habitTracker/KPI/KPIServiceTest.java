@@ -1,6 +1,7 @@
 package habitTracker.KPI;
 
 import habitTracker.auth.SecurityUtils;
+import habitTracker.updater.EngineBuckets;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -36,13 +37,16 @@ class KPIServiceTest {
     @Mock
     private KPICollectionNameUtil collectionNameUtil;
 
+    @Mock
+    private EngineBuckets engineBuckets;
+
     private KPIService kpiService;
     private MockedStatic<SecurityUtils> securityUtils;
 
     @BeforeEach
     void setUp() {
         kpiService = new KPIService(kpiRepository, dynamicKPIDataRepository,
-                                   kpiHabitMappingRepository, collectionNameUtil);
+                                   kpiHabitMappingRepository, collectionNameUtil, engineBuckets);
         securityUtils = mockStatic(SecurityUtils.class);
         securityUtils.when(SecurityUtils::getCurrentUserId).thenReturn(USER_ID);
     }
@@ -304,6 +308,8 @@ class KPIServiceTest {
         when(collectionNameUtil.toCollectionName(kpiId)).thenReturn(collectionName);
         when(dynamicKPIDataRepository.findByDateBetweenOrderByDateAsc(any(), any(), eq(collectionName))).thenReturn(Arrays.asList());
 
+        when(engineBuckets.todayOf(USER_ID)).thenReturn(LocalDate.of(2025, 3, 10)); // the user's date, not the server's
+
         List<KPIDataDTO> result = kpiService.getWeeklyKPIData(kpiName);
 
         assertNotNull(result);
@@ -321,6 +327,8 @@ class KPIServiceTest {
         when(collectionNameUtil.toCollectionName(kpiId)).thenReturn(collectionName);
         when(dynamicKPIDataRepository.findByDateBetweenOrderByDateAsc(any(), any(), eq(collectionName))).thenReturn(Arrays.asList());
 
+        when(engineBuckets.todayOf(USER_ID)).thenReturn(LocalDate.of(2025, 3, 10)); // the user's date, not the server's
+
         List<KPIDataDTO> result = kpiService.getMonthlyKPIData(kpiName);
 
         assertNotNull(result);
@@ -328,62 +336,52 @@ class KPIServiceTest {
     }
 
     @Test
-    void testFillDefaultIfMissing_FillsWhenNoDataExists() {
-        String kpiId = "kpi123";
+    void testPlanDefaultFill_FillsEveryDayAfterTheLastPoint_ChainingTheEMA() {
         String collectionName = "kpi_data_kpi123";
-        LocalDate date = LocalDate.of(2024, 1, 1);
-        KPI kpi = KPI.builder().id(kpiId).name("Weight").userId(USER_ID)
-                .autoFillEnabled(true).defaultValue(70.0).build();
-
-        when(collectionNameUtil.toCollectionName(kpiId)).thenReturn(collectionName);
-        when(dynamicKPIDataRepository.findByDate(date, collectionName)).thenReturn(Optional.empty());
-        when(dynamicKPIDataRepository.findTopNOrderByDateDesc(30, collectionName)).thenReturn(Arrays.asList());
-
-        boolean filled = kpiService.fillDefaultIfMissing(kpi, date);
-
-        assertTrue(filled);
-        verify(dynamicKPIDataRepository).save(argThat(d ->
-            d.getValue().equals(70.0) && Boolean.TRUE.equals(d.getAutoFilled())), eq(collectionName));
-    }
-
-    @Test
-    void testFillDefaultIfMissing_SkipsWhenDataAlreadyExists() {
-        String kpiId = "kpi123";
-        String collectionName = "kpi_data_kpi123";
-        LocalDate date = LocalDate.of(2024, 1, 1);
-        KPI kpi = KPI.builder().id(kpiId).name("Weight").userId(USER_ID)
+        KPI kpi = KPI.builder().id("kpi123").name("Weight").userId(USER_ID)
                 .autoFillEnabled(true).defaultValue(70.0).build();
-
-        when(collectionNameUtil.toCollectionName(kpiId)).thenReturn(collectionName);
-        when(dynamicKPIDataRepository.findByDate(date, collectionName))
-            .thenReturn(Optional.of(KPIData.builder().value(65.0).build()));
-
-        boolean filled = kpiService.fillDefaultIfMissing(kpi, date);
-
-        assertFalse(filled);
+        when(collectionNameUtil.toCollectionName("kpi123")).thenReturn(collectionName);
+        when(dynamicKPIDataRepository.findLatestOnOrBefore(LocalDate.of(2024, 1, 10), collectionName))
+                .thenReturn(Optional.of(KPIData.builder().date(LocalDate.of(2024, 1, 7)).value(85.0)
+                        .exponentialMovingAverage(85.0).build()));
+
+        List<KPIData> points = kpiService.planDefaultFill(kpi, LocalDate.of(2024, 1, 1), LocalDate.of(2024, 1, 10));
+
+        assertEquals(List.of(LocalDate.of(2024, 1, 8), LocalDate.of(2024, 1, 9), LocalDate.of(2024, 1, 10)),
+                points.stream().map(KPIData::getDate).toList());
+        double ema = 85.0;
+        for (KPIData point : points) {
+            ema = 70.0 * 2 / 15 + ema * 13 / 15; // what three separate fills would compute
+            assertEquals(ema, point.getExponentialMovingAverage(), 1e-9);
+            assertEquals(70.0, point.getValue());
+            assertTrue(point.getAutoFilled());
+        }
         verify(dynamicKPIDataRepository, never()).save(any(KPIData.class), anyString());
     }
 
     @Test
-    void testFillDefaultIfMissing_SkipsWhenAutoFillDisabled() {
+    void testPlanDefaultFill_WithoutAnyPoint_StartsAtNotBefore() {
+        String collectionName = "kpi_data_kpi123";
         KPI kpi = KPI.builder().id("kpi123").name("Weight").userId(USER_ID)
-                .autoFillEnabled(false).defaultValue(70.0).build();
+                .autoFillEnabled(true).defaultValue(70.0).build();
+        when(collectionNameUtil.toCollectionName("kpi123")).thenReturn(collectionName);
+        when(dynamicKPIDataRepository.findLatestOnOrBefore(any(), eq(collectionName))).thenReturn(Optional.empty());
 
-        boolean filled = kpiService.fillDefaultIfMissing(kpi, LocalDate.now());
+        List<KPIData> points = kpiService.planDefaultFill(kpi, LocalDate.of(2024, 1, 9), LocalDate.of(2024, 1, 10));
 
-        assertFalse(filled);
-        verify(dynamicKPIDataRepository, never()).findByDate(any(), anyString());
+        assertEquals(2, points.size());
+        assertEquals(LocalDate.of(2024, 1, 9), points.get(0).getDate());
+        assertEquals(70.0, points.get(0).getExponentialMovingAverage());
     }
 
     @Test
-    void testFillDefaultIfMissing_SkipsWhenDefaultValueNull() {
-        KPI kpi = KPI.builder().id("kpi123").name("Weight").userId(USER_ID)
-                .autoFillEnabled(true).defaultValue(null).build();
-
-        boolean filled = kpiService.fillDefaultIfMissing(kpi, LocalDate.now());
+    void testWriteDefaultFill_IsOneBulkInsertIntoTheKPIsCollection() {
+        KPI kpi = KPI.builder().id("kpi123").build();
+        List<KPIData> points = List.of(KPIData.builder().date(LocalDate.of(2024, 1, 9)).build());
+        when(collectionNameUtil.toCollectionName("kpi123")).thenReturn("kpi_data_kpi123");
+        when(dynamicKPIDataRepository.insertMissing(points, "kpi_data_kpi123")).thenReturn(1);
 
-        assertFalse(filled);
-        verify(dynamicKPIDataRepository, never()).findByDate(any(), anyString());
+        assertEquals(1, kpiService.writeDefaultFill(kpi, points));
     }
 
     @Test
@@ -7,6 +7,7 @@ import habitTracker.auth.AuthTestHelper;
 import habitTracker.auth.JwtUtil;
 import habitTracker.auth.User;
 import habitTracker.auth.UserPrincipal;
+import habitTracker.updater.EngineStatus;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -20,6 +21,7 @@ import org.testcontainers.containers.MongoDBContainer;
 import org.testcontainers.junit.jupiter.Container;
 import org.testcontainers.junit.jupiter.Testcontainers;
 
+import java.time.Duration;
 import java.time.LocalDate;
 import java.util.List;
 
@@ -47,11 +49,14 @@ class SecurityAndValidationTest {
     @Autowired MockMvc mockMvc;
     @Autowired MongoTemplate mongoTemplate;
     @Autowired JwtUtil jwtUtil;
+    @Autowired EngineStatus engineStatus;
 
     AuthTestHelper auth;
 
     @BeforeEach
-    void clear() {
+    void clear() throws InterruptedException {
+        // the startup catch-up runs in the background; habit writes get 503 until it is done
+        assertTrue(engineStatus.awaitReady(Duration.ofSeconds(30)));
         mongoTemplate.dropCollection(Habit.class);
         mongoTemplate.dropCollection(HabitStructure.class);
         mongoTemplate.dropCollection(User.class);
@@ -244,4 +249,36 @@ class SecurityAndValidationTest {
         // ownership check used to succeed even though the request overall was rejected.
         assertEquals(0, mongoTemplate.findAll(Rule.class).size());
     }
+
+    // ---------- admin endpoints ----------
+
+    @Test
+    void engineRunHistory_isForbiddenToRegularUsers() throws Exception {
+        UserPrincipal alice = auth.register("alice@habits.test");
+        mockMvc.perform(get("/api/admin/engine-runs").with(auth.session(alice)))
+                .andExpect(status().isForbidden());
+    }
+
+    @Test
+    void engineRunHistory_isServedToAdmins() throws Exception {
+        UserPrincipal ops = auth.register("ops@habits.test");
+        User stored = mongoTemplate.findById(ops.getId(), User.class);
+        stored.setAdmin(true);
+        mongoTemplate.save(stored);
+        mockMvc.perform(get("/api/admin/engine-runs").param("limit", "5").with(auth.session(ops)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$").isArray());
+    }
+
+    @Test
+    void adminRole_isNotGrantedByRegisteringAnAdminLookingEmail() throws Exception {
+        UserPrincipal ops = auth.register("ops@habits.test");
+        User stored = mongoTemplate.findById(ops.getId(), User.class);
+        stored.setAdmin(true);
+        mongoTemplate.save(stored);
+
+        UserPrincipal lookalike = auth.register("OPS@habits.test"); // a separate account, no admin flag
+        mockMvc.perform(get("/api/admin/engine-runs").with(auth.session(lookalike)))
+                .andExpect(status().isForbidden());
+    }
 }
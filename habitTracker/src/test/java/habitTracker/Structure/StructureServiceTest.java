@@ -0,0 +1,233 @@
+package habitTracker.Structure;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import habitTracker.Habit.Habit;
+import habitTracker.Habit.HabitService;
+import habitTracker.Habit.InlineResolution;
+import habitTracker.Rules.RuleService;
+import habitTracker.Structure.OpenWindowRepository.WindowProbe;
+import habitTracker.Structure.StructureDTO.HabitStatus;
+import habitTracker.auth.User;
+import habitTracker.auth.UserPrincipal;
+import habitTracker.updater.CompletionResolver;
+import habitTracker.updater.EngineBuckets;
+import habitTracker.updater.HabitDateCalculator;
+import habitTracker.updater.HabitStructureManager;
+import habitTracker.util.Pair;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class StructureServiceTest {
+
+    private static final LocalDate TODAY = LocalDate.now();
+
+    private final HabitService habitService = mock(HabitService.class);
+    private final OpenWindowRepository openWindowRepository = mock(OpenWindowRepository.class);
+    private final HabitStructureRepository habitStructureRepository = mock(HabitStructureRepository.class);
+    private final HabitStructureManager habitStructureManager = mock(HabitStructureManager.class);
+    private final CompletionResolver completionResolver = mock(CompletionResolver.class);
+    private final EngineBuckets engineBuckets = mock(EngineBuckets.class);
+
+    private final StructureService service = new StructureService(habitStructureRepository, habitService,
+            mock(RuleService.class), new HabitDateCalculator(), completionResolver,
+            habitStructureManager, openWindowRepository, TodayCache.disabled(), engineBuckets);
+
+    @BeforeEach
+    void usersDateIsToday() {
+        when(engineBuckets.todayOf(any())).thenReturn(TODAY);
+    }
+
+    private static Habit habit(int id, String name, int frequency, LocalDate curDate, boolean defaultMade) {
+        return Habit.builder().id(id).name(name).frequency(frequency).curDate(curDate)
+                .active(true).defaultMade(defaultMade).build();
+    }
+
+    @Test
+    void todayIsBuiltFromOneAggregation_notOneQueryPerHabit() {
+        Habit gym = habit(1, "gym", 3, TODAY.minusDays(1), false);       // completed inside its window
+        Habit read = habit(2, "read", 1, TODAY, false);                  // not done yet
+        Habit smoking = habit(3, "no smoking", 1, TODAY, true);          // no relapse
+        Habit sugar = habit(4, "no sugar", 1, TODAY, true);              // relapsed: dropped from Today
+        Habit later = habit(5, "later", 1, TODAY.plusDays(2), false);    // window not open yet
+        when(habitService.getAllHabits()).thenReturn(List.of(gym, read, smoking, sugar, later));
+        when(openWindowRepository.habitsWithRowInWindow(any())).thenReturn(Set.of(1, 4));
+
+        StructureDTO today = service.getTodayStructure();
+
+        verify(openWindowRepository, times(1)).habitsWithRowInWindow(List.of(
+                new WindowProbe(1, true, TODAY.minusDays(1), TODAY.plusDays(1)),
+                new WindowProbe(2, true, TODAY, TODAY),
+                new WindowProbe(3, false, TODAY, TODAY),
+                new WindowProbe(4, false, TODAY, TODAY)));
+        verifyNoInteractions(habitStructureRepository);
+        verify(habitService, never()).getHabitsByIds(any());
+
+        assertEquals(List.of("gym", "no smoking", "read"),
+                today.getHabits().keySet().stream().map(Pair::getKey).toList());
+        assertEquals(Boolean.TRUE, today.getHabits().get(new Pair<>("gym", 1)));
+        assertEquals(Boolean.FALSE, today.getHabits().get(new Pair<>("read", 2)));
+        assertEquals(Boolean.TRUE, today.getHabits().get(new Pair<>("no smoking", 3)));
+        assertEquals(3, today.getHabitDetails().size());
+    }
+
+    @Test
+    void windowCreditedOnTheSpot_isProbedFromItsOwnStart() {
+        Habit gym = habit(1, "gym", 2, TODAY.plusDays(1), false);
+        InlineResolution credited = new InlineResolution();
+        credited.setWindowStart(TODAY.minusDays(1));
+        gym.setInlineResolution(credited);
+        when(habitService.getAllHabits()).thenReturn(List.of(gym));
+        when(openWindowRepository.habitsWithRowInWindow(any())).thenReturn(Set.of(1));
+
+        StructureDTO today = service.getTodayStructure();
+
+        verify(openWindowRepository).habitsWithRowInWindow(List.of(new WindowProbe(1, true, TODAY.minusDays(1), TODAY)));
+        assertEquals(Boolean.TRUE, today.getHabits().get(new Pair<>("gym", 1)));
+    }
+
+    @Test
+    void noHabitsOnToday_stillOneEmptyCall() {
+        when(habitService.getAllHabits()).thenReturn(List.of(habit(1, "later", 1, TODAY.plusDays(3), false)));
+        when(openWindowRepository.habitsWithRowInWindow(any())).thenReturn(Set.of());
+
+        assertTrue(service.getTodayStructure().getHabits().isEmpty());
+        verify(openWindowRepository).habitsWithRowInWindow(List.of());
+    }
+
+    @Test
+    void today_andADatelessToggle_useTheUsersDate_notTheServers() {
+        signIn("ana");
+        LocalDate usersDate = TODAY.plusDays(1); // e.g. already past midnight in the user's zone
+        when(engineBuckets.todayOf("ana")).thenReturn(usersDate);
+        Habit sugar = habit(4, "no sugar", 1, usersDate, true);
+        when(habitService.getAllHabits()).thenReturn(List.of(sugar));
+        when(habitService.getHabitById(4)).thenReturn(sugar);
+        when(openWindowRepository.habitsWithRowInWindow(any())).thenReturn(Set.of());
+        when(completionResolver.completionToggled(4, usersDate, false)).thenReturn(CompletionResolver.Outcome.UNCHANGED);
+
+        assertEquals(usersDate, service.getTodayStructure().getDate());
+        service.updateHabitCompletion(4, false, null);
+
+        verify(habitStructureManager).setCompleted(4, usersDate, false, "ana");
+        verify(habitService).restoreNegativeStreak(4); // a relapse "today" in the user's day
+    }
+
+    @Test
+    void cachedToday_isKeyedOnTheUsersDate() {
+        signIn("ana");
+        StructureService cached = new StructureService(habitStructureRepository, habitService,
+                mock(RuleService.class), new HabitDateCalculator(), completionResolver,
+                habitStructureManager, openWindowRepository, new TodayCache(10, 300), engineBuckets);
+        when(habitService.getAllHabits()).thenReturn(List.of());
+        when(openWindowRepository.habitsWithRowInWindow(any())).thenReturn(Set.of());
+
+        cached.getTodayStructure();
+        cached.getTodayStructure();
+        when(engineBuckets.todayOf("ana")).thenReturn(TODAY.plusDays(1)); // the user's midnight, not the server's
+
+        assertEquals(TODAY.plusDays(1), cached.getTodayStructure().getDate());
+        verify(habitService, times(2)).getAllHabits();
+    }
+
+    @AfterEach
+    void clearUser() {
+        SecurityContextHolder.clearContext();
+    }
+
+    private static void signIn(String userId) {
+        UserPrincipal principal = UserPrincipal.fromUser(User.builder().id(userId).email(userId + "@example.com").build());
+        SecurityContextHolder.getContext().setAuthentication(
+                new UsernamePasswordAuthenticationToken(principal, null, principal.getAuthorities()));
+    }
+
+    private static HabitStructure row(int habitId, LocalDate date, Boolean completed) {
+        HabitStructure row = new HabitStructure();
+        row.setHabitId(habitId);
+        row.setStructureDate(date);
+        row.setCompleted(completed);
+        return row;
+    }
+
+    @Test
+    void dateRangeTable_isSortedByName_withCompletionsAndStatuses() {
+        signIn("ana");
+        LocalDate start = LocalDate.of(2025, 3, 1);
+        LocalDate end = LocalDate.of(2025, 3, 3);
+        Habit walk = Habit.builder().id(7).name("walk").frequency(1).startDate(start).active(true).build();
+        Habit gym = Habit.builder().id(3).name("gym").frequency(2).startDate(start).active(true).build();
+        when(habitService.getHabitsByIds(any())).thenReturn(List.of(walk, gym));
+        when(habitStructureRepository.findByStructureDateBetweenAndUserId(start.minusDays(1), end.plusDays(1), "ana"))
+                .thenReturn(List.of(row(7, start, true), row(3, start.plusDays(2), true), row(7, start.plusDays(1), null),
+                        row(3, start.minusDays(1), true), row(3, end.plusDays(1), true))); // outside the range: ignored
+
+        List<StructureDTO> table = service.getStructuresForDateRange(start, end,
+                List.of(new Pair<>("walk", 7), new Pair<>("gym", 3), new Pair<>("gone", 9)));
+
+        assertEquals(List.of(start, start.plusDays(1), end), table.stream().map(StructureDTO::getDate).toList());
+        StructureDTO first = table.get(0);
+        assertEquals(List.of("gone", "gym", "walk"), first.getHabits().keySet().stream().map(Pair::getKey).toList());
+        assertEquals(Map.of(new Pair<>("gone", 9), false, new Pair<>("gym", 3), false, new Pair<>("walk", 7), true), first.getHabits());
+        assertEquals(Map.of(new Pair<>("gym", 3), HabitStatus.ACTIVE_INCOMPLETE, new Pair<>("walk", 7), HabitStatus.ACTIVE_COMPLETED),
+                first.getHabitStatuses()); // no status for a habit that was not found
+        assertEquals(HabitStatus.INACTIVE, table.get(1).getHabitStatuses().get(new Pair<>("gym", 3)));
+        assertEquals(HabitStatus.ACTIVE_INCOMPLETE, table.get(1).getHabitStatuses().get(new Pair<>("walk", 7)));
+        assertEquals(HabitStatus.ACTIVE_COMPLETED, table.get(2).getHabitStatuses().get(new Pair<>("gym", 3)));
+        verify(habitService, times(1)).getHabitsByIds(eq(List.of(7, 3, 9)));
+    }
+
+    @Test
+    void tableColumns_packEachHabitsDaysIntoBits_andAreFarSmallerThanTheDailyMaps() throws Exception {
+        signIn("ana");
+        LocalDate start = LocalDate.of(2025, 1, 1);
+        LocalDate end = LocalDate.of(2025, 12, 31);
+        List<Pair<String, Integer>> names = new ArrayList<>();
+        List<Habit> habits = new ArrayList<>();
+        List<HabitStructure> rows = new ArrayList<>();
+        for (int id = 1; id <= 50; id++) {
+            names.add(new Pair<>("habit " + id, id));
+            habits.add(Habit.builder().id(id).name("habit " + id).frequency(id % 3 + 1).startDate(start).active(true).build());
+            for (LocalDate day = start; !day.isAfter(end); day = day.plusDays(id % 4 + 1)) {
+                rows.add(row(id, day, true));
+            }
+        }
+        when(habitService.getHabitsByIds(any())).thenReturn(habits);
+        when(habitStructureRepository.findByStructureDateBetweenAndUserId(any(), any(), eq("ana"))).thenReturn(rows);
+
+        HabitTableColumns columns = service.getTableColumns(start, end, names);
+        List<StructureDTO> daily = service.getStructuresForDateRange(start, end, names);
+
+        assertEquals(HabitTableColumns.VERSION, columns.version());
+        assertEquals(365, columns.days());
+        for (HabitTableColumns.Column column : columns.habits()) {
+            BitSet done = BitSet.valueOf(Base64.getDecoder().decode(column.completed()));
+            BitSet active = BitSet.valueOf(Base64.getDecoder().decode(column.active()));
+            Pair<String, Integer> key = new Pair<>(column.name(), column.id());
+            for (int d = 0; d < columns.days(); d++) {
+                assertEquals(daily.get(d).getHabits().get(key), done.get(d), column.name() + " day " + d);
+                HabitStatus status = daily.get(d).getHabitStatuses().get(key);
+                assertEquals(status != HabitStatus.INACTIVE, active.get(d), column.name() + " day " + d);
+            }
+        }
+
+        ObjectMapper json = new ObjectMapper().findAndRegisterModules();
+        int before = json.writeValueAsBytes(daily).length;
+        int after = json.writeValueAsBytes(columns).length;
+        assertTrue(after * 10 <= before, "v2 " + after + " bytes vs v1 " + before + " bytes");
+    }
+}
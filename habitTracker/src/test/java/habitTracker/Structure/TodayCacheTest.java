@@ -0,0 +1,130 @@
+package habitTracker.Structure;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TodayCacheTest {
+
+    private static final LocalDate DAY = LocalDate.of(2025, 3, 2);
+
+    private final MutableClock clock = new MutableClock();
+    private final AtomicInteger computed = new AtomicInteger();
+
+    private StructureDTO compute() {
+        computed.incrementAndGet();
+        StructureDTO structure = new StructureDTO();
+        structure.setDate(DAY);
+        return structure;
+    }
+
+    @Test
+    void repeatVisit_isServedFromTheCache() {
+        TodayCache cache = new TodayCache(10, Duration.ofMinutes(5), clock);
+
+        StructureDTO first = cache.getOrCompute("ana", DAY, this::compute);
+
+        assertSame(first, cache.getOrCompute("ana", DAY, this::compute));
+        assertEquals(1, computed.get());
+    }
+
+    @Test
+    void write_invalidatesOnlyThatUser() {
+        TodayCache cache = new TodayCache(10, Duration.ofMinutes(5), clock);
+        cache.getOrCompute("ana", DAY, this::compute);
+        cache.getOrCompute("ben", DAY, this::compute);
+
+        cache.invalidate("ana");
+        cache.getOrCompute("ana", DAY, this::compute);
+        cache.getOrCompute("ben", DAY, this::compute);
+
+        assertEquals(3, computed.get());
+    }
+
+    @Test
+    void nextDay_orExpiredEntry_isRecomputed() {
+        TodayCache cache = new TodayCache(10, Duration.ofMinutes(5), clock);
+        cache.getOrCompute("ana", DAY, this::compute);
+
+        cache.getOrCompute("ana", DAY.plusDays(1), this::compute); // date rollover
+        clock.advance(Duration.ofMinutes(6));
+        cache.getOrCompute("ana", DAY.plusDays(1), this::compute); // ttl
+
+        assertEquals(3, computed.get());
+    }
+
+    @Test
+    void usersMidnight_whileTheServersDayGoesOn_isRecomputed() {
+        TodayCache cache = new TodayCache(10, Duration.ofMinutes(5), clock);
+        ZoneId kiritimati = ZoneId.of("Pacific/Kiritimati"); // UTC+14: midnight there is 10:00 UTC
+        clock.set(Instant.parse("2025-03-02T09:59:00Z"));
+        LocalDate serverDay = LocalDate.now(clock);
+        cache.getOrCompute("ana", LocalDate.ofInstant(clock.instant(), kiritimati), this::compute);
+
+        clock.advance(Duration.ofMinutes(2));
+        cache.getOrCompute("ana", LocalDate.ofInstant(clock.instant(), kiritimati), this::compute);
+
+        assertEquals(serverDay, LocalDate.now(clock));
+        assertEquals(2, computed.get());
+    }
+
+    @Test
+    void leastRecentlyUsedUser_isEvictedPastMaxEntries() {
+        TodayCache cache = new TodayCache(2, Duration.ofMinutes(5), clock);
+        cache.getOrCompute("ana", DAY, this::compute);
+        cache.getOrCompute("ben", DAY, this::compute);
+        cache.getOrCompute("ana", DAY, this::compute); // ana is now the most recent
+        cache.getOrCompute("cy", DAY, this::compute);
+
+        assertEquals(2, cache.size());
+        cache.getOrCompute("ana", DAY, this::compute);
+        assertEquals(3, computed.get());
+        cache.getOrCompute("ben", DAY, this::compute);
+        assertEquals(4, computed.get());
+    }
+
+    @Test
+    void structureComputedDuringAWrite_isNotStored() {
+        TodayCache cache = new TodayCache(10, Duration.ofMinutes(5), clock);
+
+        cache.getOrCompute("ana", DAY, () -> {
+            StructureDTO stale = compute();
+            cache.invalidate("ana"); // the write lands while the read is in flight
+            return stale;
+        });
+        cache.getOrCompute("ana", DAY, this::compute);
+
+        assertEquals(2, computed.get());
+    }
+
+    @Test
+    void disabledCache_orUnknownUser_alwaysComputes() {
+        TodayCache.disabled().getOrCompute("ana", DAY, this::compute);
+        TodayCache.disabled().getOrCompute("ana", DAY, this::compute);
+        TodayCache cache = new TodayCache(10, Duration.ofMinutes(5), clock);
+        cache.getOrCompute(null, DAY, this::compute);
+        cache.getOrCompute(null, DAY, this::compute);
+
+        assertEquals(4, computed.get());
+        assertEquals(0, cache.size());
+    }
+
+    private static final class MutableClock extends Clock {
+        private Instant now = Instant.parse("2025-03-02T10:00:00Z");
+
+        void advance(Duration duration) { now = now.plus(duration); }
+        void set(Instant instant) { now = instant; }
+
+        @Override public ZoneId getZone() { return ZoneOffset.UTC; }
+        @Override public Clock withZone(ZoneId zone) { return this; }
+        @Override public Instant instant() { return now; }
+    }
+}
@@ -0,0 +1,40 @@
+package habitTracker.auth;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class AdminAccessTest {
+
+    private final UserRepository userRepository = mock(UserRepository.class);
+    private final AdminAccess access = new AdminAccess(userRepository);
+
+    private static UsernamePasswordAuthenticationToken signedIn(String id, String email) {
+        UserPrincipal principal = UserPrincipal.fromUser(User.builder().id(id).email(email).build());
+        return new UsernamePasswordAuthenticationToken(principal, null, principal.getAuthorities());
+    }
+
+    @Test
+    void storedAdminFlag_grantsAccess() {
+        when(userRepository.findById("ops")).thenReturn(Optional.of(User.builder().id("ops").admin(true).build()));
+        when(userRepository.findById("alice")).thenReturn(Optional.of(User.builder().id("alice").build()));
+
+        assertTrue(access.isAdmin(signedIn("ops", "ops@habits.test")));
+        assertFalse(access.isAdmin(signedIn("alice", "alice@habits.test")));
+    }
+
+    @Test
+    void email_neverGrantsAccess() {
+        // Another account registered under the admin's email in a different case is still just itself.
+        when(userRepository.findById("ops")).thenReturn(Optional.of(User.builder().id("ops").email("ops@habits.test").admin(true).build()));
+        when(userRepository.findById("mallory")).thenReturn(Optional.of(User.builder().id("mallory").email("OPS@habits.test").build()));
+
+        assertFalse(access.isAdmin(signedIn("mallory", "OPS@habits.test")));
+        assertFalse(access.isAdmin(signedIn("gone", "ops@habits.test"))); // deleted user
+        assertFalse(access.isAdmin(null));
+    }
+}
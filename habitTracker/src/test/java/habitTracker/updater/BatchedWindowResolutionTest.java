@@ -0,0 +1,251 @@
+package habitTracker.updater;
+
+import habitTracker.Habit.Habit;
+import habitTracker.Structure.HabitStructure;
+import habitTracker.Structure.HabitStructureRepository;
+import habitTracker.Structure.TodayCache;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * The batched path (one range query per user → HabitStructureIndex) must resolve every occurrence
+ * exactly like the original per-occurrence exists queries. Both paths run over the same randomized
+ * habit_structures fixtures; the persisted update and the seeds created must be identical.
+ */
+class BatchedWindowResolutionTest {
+
+    // held for the whole test; lease loss is covered separately
+    private final LeaderLease lease = new LeaderLease(null, EngineLeaseService.DAILY_ENGINE, 1L, Instant.MAX);
+
+    private static EngineRun run() {
+        return EngineRun.builder().id(TODAY.toString()).runDate(TODAY).status(EngineRun.RUNNING).leaseToken(1L).build();
+    }
+
+    private static final LocalDate TODAY = LocalDate.now();
+    private static final int[] FREQUENCIES = {1, 2, 3, 7, 30, 60};
+
+    @Test
+    void batchedIndex_matchesPerQueryPath_onRandomizedHistories() {
+        Random random = new Random(20240601L);
+        for (int scenario = 0; scenario < 500; scenario++) {
+            Habit habit = randomHabit(random);
+            List<HabitStructure> rows = randomRows(random, habit);
+
+            Outcome perQuery = runPerQuery(copyOf(habit), rows);
+            Outcome batched = runBatched(copyOf(habit), rows);
+
+            assertEquals(perQuery.update, batched.update, "update differs for scenario " + scenario + ": " + habit);
+            assertEquals(perQuery.seeds, batched.seeds, "seeds differ for scenario " + scenario + ": " + habit);
+        }
+    }
+
+    @Test
+    void oneRangeQueryPerUserShard_regardlessOfOccurrencesRolled() {
+        MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+        HabitStructureManager manager = new HabitStructureManager(mongoTemplate);
+        BulkOperations bulkOps = mock(BulkOperations.class);
+        when(mongoTemplate.bulkOps(any(BulkMode.class), any(Class.class))).thenReturn(bulkOps);
+        Habit a = habit(1, 1, false, TODAY.minusDays(40), "alice");
+        Habit b = habit(2, 7, true, TODAY.minusDays(90), "alice");
+        Habit c = habit(3, 1, false, TODAY.minusDays(3), "bob");
+        when(mongoTemplate.stream(any(Query.class), eq(Habit.class))).thenAnswer(inv -> Stream.of(a, b, c));
+        when(mongoTemplate.find(any(Query.class), eq(HabitStructure.class))).thenReturn(List.of());
+
+        new HabitUpdateService(mongoTemplate, manager, new EngineRunService(mongoTemplate), EngineThrottle.unlimited(), TodayCache.disabled(), 500, 4, 8, SeedPolicy.ALL).updateAllHabits(lease, run(), EngineScope.everyone());
+
+        verify(mongoTemplate, times(2)).find(any(Query.class), eq(HabitStructure.class));
+        verify(bulkOps, times(3)).updateOne(any(Query.class), any(Update.class));
+    }
+
+    /**
+     * Skipping a habit until its nextResolutionDate must never lose work: on every day before that
+     * date (with no new toggles) a pass would have seeded nothing and changed nothing.
+     */
+    @Test
+    void daysBeforeNextResolutionDate_haveNothingToResolve() {
+        Random random = new Random(20240602L);
+        for (int scenario = 0; scenario < 300; scenario++) {
+            Habit habit = randomHabit(random);
+            List<HabitStructure> rows = randomRows(random, habit);
+            Outcome first = runPerQuery(copyOf(habit), rows);
+            Document set = (Document) first.update.get("$set");
+            LocalDate next = (LocalDate) set.get("nextResolutionDate");
+            assertTrue(next.isAfter(TODAY), "scenario " + scenario + " is due again today: " + habit);
+
+            Habit resolved = copyOf(habit);
+            resolved.setCurDate((LocalDate) set.get("curDate"));
+            resolved.setStreak(((Number) set.get("streak")).intValue());
+            resolved.setLongestStreak(((Number) set.get("longestStreak")).intValue());
+            HabitStructureIndex index = HabitStructureIndex.of(rows);
+            for (String seed : first.seeds) {
+                String[] parts = seed.split("=");
+                index.add(1, LocalDate.parse(parts[0]), Boolean.valueOf(parts[1]));
+            }
+            LocalDate lastSkipped = next.isAfter(TODAY.plusDays(120)) ? TODAY.plusDays(120) : next.minusDays(1);
+            for (LocalDate day = TODAY.plusDays(1); !day.isAfter(lastSkipped); day = day.plusDays(1)) {
+                Harness harness = new Harness();
+                EngineWriteBatch batch = new EngineWriteBatch(harness.mongoTemplate, 500);
+                harness.service().processHabit(copyOf(resolved), day, index, batch);
+                batch.flush();
+                Outcome skipped = harness.outcome();
+                Document skippedSet = (Document) skipped.update.get("$set");
+                assertEquals(List.of(), skipped.seeds, "scenario " + scenario + " seeds on " + day);
+                assertEquals(set.get("curDate"), skippedSet.get("curDate"), "scenario " + scenario + " on " + day);
+                assertEquals(set.get("streak"), skippedSet.get("streak"), "scenario " + scenario + " on " + day);
+            }
+        }
+    }
+
+    // --- the two paths under comparison ---
+
+    private record Outcome(Document update, List<String> seeds) {}
+
+    private Outcome runPerQuery(Habit habit, List<HabitStructure> rows) {
+        Harness harness = new Harness();
+        HabitStructureRepository repository = mock(HabitStructureRepository.class);
+        List<HabitStructure> live = new ArrayList<>(rows);
+        when(repository.existsByHabitIdAndStructureDate(anyInt(), any())).thenAnswer(inv ->
+                live.stream().anyMatch(r -> r.getHabitId().equals(inv.getArgument(0))
+                        && r.getStructureDate().equals(inv.getArgument(1))));
+        when(repository.existsByHabitIdAndCompletedInWindow(anyInt(), any(), any(), any())).thenAnswer(inv -> {
+            Integer habitId = inv.getArgument(0);
+            Boolean completed = inv.getArgument(1);
+            LocalDate start = inv.getArgument(2);
+            LocalDate end = inv.getArgument(3);
+            return live.stream().anyMatch(r -> r.getHabitId().equals(habitId)
+                    && completed.equals(r.getCompleted())
+                    && !r.getStructureDate().isBefore(start) && !r.getStructureDate().isAfter(end));
+        });
+        when(repository.findByHabitIdAndCompletedInWindow(anyInt(), any(), any(), any())).thenAnswer(inv -> {
+            Integer habitId = inv.getArgument(0);
+            Boolean completed = inv.getArgument(1);
+            LocalDate start = inv.getArgument(2);
+            LocalDate end = inv.getArgument(3);
+            return live.stream().filter(r -> r.getHabitId().equals(habitId)
+                    && completed.equals(r.getCompleted())
+                    && !r.getStructureDate().isBefore(start) && !r.getStructureDate().isAfter(end)).toList();
+        });
+
+        EngineWriteBatch batch = new EngineWriteBatch(harness.mongoTemplate, 500);
+        harness.service().processHabit(habit, TODAY, new RepositoryOccurrenceLookup(repository), batch);
+        batch.flush();
+        return harness.outcome();
+    }
+
+    private Outcome runBatched(Habit habit, List<HabitStructure> rows) {
+        Harness harness = new Harness();
+        MongoTemplate mongoTemplate = harness.mongoTemplate;
+        when(mongoTemplate.stream(any(Query.class), eq(Habit.class))).thenAnswer(inv -> Stream.of(habit));
+        // Honour the range query's bounds so a too-narrow range would show up as a mismatch.
+        when(mongoTemplate.find(any(Query.class), eq(HabitStructure.class))).thenAnswer(inv -> {
+            Document criteria = inv.<Query>getArgument(0).getQueryObject();
+            Collection<?> ids = (Collection<?>) ((Document) criteria.get("habitId")).get("$in");
+            Document range = (Document) criteria.get("structureDate");
+            LocalDate from = (LocalDate) range.get("$gte");
+            LocalDate to = (LocalDate) range.get("$lte");
+            return rows.stream()
+                    .filter(r -> ids.contains(r.getHabitId()))
+                    .filter(r -> !r.getStructureDate().isBefore(from) && !r.getStructureDate().isAfter(to))
+                    .toList();
+        });
+
+        harness.service().updateAllHabits(lease, run(), EngineScope.everyone());
+        return harness.outcome();
+    }
+
+    /** A mocked MongoTemplate whose bulk writes are captured for comparison. */
+    private static class Harness {
+        final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+        final BulkOperations bulkOps = mock(BulkOperations.class);
+
+        Harness() {
+            when(mongoTemplate.bulkOps(any(BulkMode.class), any(Class.class))).thenReturn(bulkOps);
+        }
+
+        HabitUpdateService service() {
+            return new HabitUpdateService(mongoTemplate, new HabitStructureManager(mongoTemplate), new EngineRunService(mongoTemplate), EngineThrottle.unlimited(), TodayCache.disabled(), 500, 4, 8, SeedPolicy.ALL);
+        }
+
+        Outcome outcome() {
+            List<String> seeds = new ArrayList<>();
+            ArgumentCaptor<Query> key = ArgumentCaptor.forClass(Query.class);
+            ArgumentCaptor<Update> fields = ArgumentCaptor.forClass(Update.class);
+            verify(bulkOps, atLeast(0)).upsert(key.capture(), fields.capture());
+            for (int i = 0; i < key.getAllValues().size(); i++) {
+                Document inserted = (Document) fields.getAllValues().get(i).getUpdateObject().get("$setOnInsert");
+                seeds.add(key.getAllValues().get(i).getQueryObject().get("structureDate") + "=" + inserted.get("completed"));
+            }
+
+            ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+            verify(bulkOps, atLeast(0)).updateOne(any(Query.class), update.capture());
+            Document updateObject = update.getAllValues().isEmpty() ? null : update.getValue().getUpdateObject();
+            return new Outcome(updateObject, seeds);
+        }
+    }
+
+    // --- fixtures ---
+
+    private Habit randomHabit(Random random) {
+        int freq = FREQUENCIES[random.nextInt(FREQUENCIES.length)];
+        LocalDate curDate = TODAY.minusDays(random.nextInt(200) - 10); // mostly past, sometimes future
+        Habit habit = habit(1, freq, random.nextBoolean(), curDate, "alice");
+        habit.setStreak(random.nextInt(11) - 5);
+        habit.setLongestStreak(Math.max(habit.getStreak(), 0) + random.nextInt(3));
+        if (random.nextInt(5) == 0) {
+            habit.setEndDate(curDate.plusDays(random.nextInt(120)));
+        }
+        return habit;
+    }
+
+    private List<HabitStructure> randomRows(Random random, Habit habit) {
+        List<HabitStructure> rows = new ArrayList<>();
+        LocalDate from = habit.getCurDate().minusDays(10);
+        LocalDate to = TODAY.plusDays(habit.getFrequency() + 5);
+        double density = random.nextDouble();
+        for (LocalDate d = from; !d.isAfter(to); d = d.plusDays(1)) {
+            if (random.nextDouble() < density) {
+                rows.add(HabitStructure.builder().habitId(1).structureDate(d)
+                        .completed(random.nextInt(4) == 0 ? !habit.getDefaultMade() : habit.getDefaultMade())
+                        .build());
+                if (random.nextInt(20) == 0) { // occasional duplicate row for the same day
+                    rows.add(HabitStructure.builder().habitId(1).structureDate(d)
+                            .completed(random.nextBoolean()).build());
+                }
+            }
+        }
+        rows.add(HabitStructure.builder().habitId(99).structureDate(habit.getCurDate()).completed(true).build());
+        return rows;
+    }
+
+    private Habit habit(int id, int freq, boolean defaultMade, LocalDate curDate, String userId) {
+        return Habit.builder()
+                .id(id).name("h" + id).frequency(freq).startDate(curDate).curDate(curDate)
+                .streak(0).longestStreak(0).defaultMade(defaultMade).active(true).userId(userId).build();
+    }
+
+    private Habit copyOf(Habit h) {
+        return Habit.builder()
+                .id(h.getId()).name(h.getName()).frequency(h.getFrequency()).startDate(h.getStartDate())
+                .curDate(h.getCurDate()).endDate(h.getEndDate()).streak(h.getStreak())
+                .longestStreak(h.getLongestStreak()).defaultMade(h.getDefaultMade()).active(h.getActive())
+                .userId(h.getUserId()).build();
+    }
+}
@@ -0,0 +1,170 @@
+package habitTracker.updater;
+
+import habitTracker.Habit.Habit;
+import habitTracker.Structure.HabitStructure;
+import habitTracker.Structure.TodayCache;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Closed-form catch-up must land on exactly the state the window-by-window loop reaches: same
+ * streak/longest/lastNegativeStreak/curDate, and (with SeedPolicy.ALL) the same seeds.
+ */
+class CatchUpResolutionTest {
+
+    private static final LocalDate TODAY = LocalDate.now();
+    private static final int[] FREQUENCIES = {1, 2, 3, 7, 30};
+
+    @Test
+    void catchUp_matchesStepLoop_onRandomizedLongGaps() {
+        Random random = new Random(20240715L);
+        for (int scenario = 0; scenario < 1000; scenario++) {
+            Habit habit = randomHabit(random);
+            List<HabitStructure> rows = randomRows(random, habit);
+
+            Outcome step = run(habit, rows, Integer.MAX_VALUE, SeedPolicy.ALL);
+            Outcome catchUp = run(habit, rows, 1, SeedPolicy.ALL);
+
+            assertEquals(step.update, catchUp.update, "update differs for scenario " + scenario + ": " + habit);
+            assertEquals(step.seeds, catchUp.seeds, "seeds differ for scenario " + scenario + ": " + habit);
+        }
+    }
+
+    @Test
+    void openOnlyPolicy_seedsJustTheOpenWindow_withTheSameStreak() {
+        Habit habit = habit(1, 3, false, TODAY.minusDays(20));
+        List<HabitStructure> rows = List.of(row(TODAY.minusDays(15), true));
+
+        Outcome all = run(habit, rows, 1, SeedPolicy.ALL);
+        Outcome openOnly = run(habit, rows, 1, SeedPolicy.OPEN_ONLY);
+
+        assertEquals(all.update, openOnly.update);
+        assertEquals(20, all.seeds.size()); // 20 lapsed/done days + today, minus the completed day's row
+        assertEquals(List.of(TODAY + "=false"), openOnly.seeds);
+    }
+
+    @Test
+    void lookupsDoNotScaleWithTheGap() {
+        AtomicInteger windowChecks = new AtomicInteger();
+        HabitStructureIndex index = new HabitStructureIndex() {
+            @Override
+            public boolean existsInWindow(Integer habitId, Boolean completed, LocalDate start, LocalDate end) {
+                windowChecks.incrementAndGet();
+                return super.existsInWindow(habitId, completed, start, end);
+            }
+        };
+        index.add(1, TODAY.minusDays(100), true);
+
+        Harness harness = new Harness(1, SeedPolicy.OPEN_ONLY);
+        harness.process(habit(1, 0, false, TODAY.minusDays(365)), index);
+
+        assertTrue(windowChecks.get() <= 1, windowChecks.get() + " window checks for a 365-day gap");
+        Document set = (Document) harness.outcome().update.get("$set");
+        assertEquals(-98, ((Number) set.get("streak")).intValue()); // 265 misses, a success, then 99 misses
+        assertEquals(TODAY, set.get("curDate"));
+    }
+
+    // --- harness ---
+
+    private record Outcome(Document update, List<String> seeds) {}
+
+    private Outcome run(Habit habit, List<HabitStructure> rows, int threshold, SeedPolicy policy) {
+        Harness harness = new Harness(threshold, policy);
+        harness.process(copyOf(habit), HabitStructureIndex.of(rows));
+        return harness.outcome();
+    }
+
+    private static class Harness {
+        final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+        final BulkOperations bulkOps = mock(BulkOperations.class);
+        final HabitUpdateService service;
+
+        Harness(int threshold, SeedPolicy policy) {
+            when(mongoTemplate.bulkOps(any(BulkMode.class), any(Class.class))).thenReturn(bulkOps);
+            service = new HabitUpdateService(mongoTemplate, new HabitStructureManager(mongoTemplate), new EngineRunService(mongoTemplate), EngineThrottle.unlimited(), TodayCache.disabled(), 500, 4, threshold, policy);
+        }
+
+        void process(Habit habit, OccurrenceLookup lookup) {
+            EngineWriteBatch batch = new EngineWriteBatch(mongoTemplate, 500);
+            service.processHabit(habit, TODAY, lookup, batch);
+            batch.flush();
+        }
+
+        Outcome outcome() {
+            List<String> seeds = new ArrayList<>();
+            ArgumentCaptor<Query> key = ArgumentCaptor.forClass(Query.class);
+            ArgumentCaptor<Update> fields = ArgumentCaptor.forClass(Update.class);
+            verify(bulkOps, atLeast(0)).upsert(key.capture(), fields.capture());
+            for (int i = 0; i < key.getAllValues().size(); i++) {
+                Document inserted = (Document) fields.getAllValues().get(i).getUpdateObject().get("$setOnInsert");
+                seeds.add(key.getAllValues().get(i).getQueryObject().get("structureDate") + "=" + inserted.get("completed"));
+            }
+            ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+            verify(bulkOps).updateOne(any(Query.class), update.capture());
+            return new Outcome(update.getValue().getUpdateObject(), seeds);
+        }
+    }
+
+    // --- fixtures ---
+
+    private Habit randomHabit(Random random) {
+        int freq = FREQUENCIES[random.nextInt(FREQUENCIES.length)];
+        LocalDate curDate = TODAY.minusDays(random.nextInt(400) - 5);
+        Habit habit = habit(1, random.nextInt(11) - 5, random.nextBoolean(), curDate);
+        habit.setFrequency(freq);
+        habit.setLongestStreak(Math.max(habit.getStreak(), 0) + random.nextInt(3));
+        if (random.nextInt(5) == 0) {
+            habit.setEndDate(curDate.plusDays(random.nextInt(400)));
+        }
+        return habit;
+    }
+
+    private List<HabitStructure> randomRows(Random random, Habit habit) {
+        List<HabitStructure> rows = new ArrayList<>();
+        double density = random.nextDouble() * random.nextDouble(); // skewed towards sparse gaps
+        for (LocalDate d = habit.getCurDate().minusDays(5); !d.isAfter(TODAY.plusDays(35)); d = d.plusDays(1)) {
+            if (random.nextDouble() < density) {
+                rows.add(row(d, random.nextInt(3) == 0 ? !habit.getDefaultMade() : habit.getDefaultMade()));
+                if (random.nextInt(20) == 0) {
+                    rows.add(row(d, random.nextBoolean())); // duplicate row for the same day
+                }
+            }
+        }
+        return rows;
+    }
+
+    private HabitStructure row(LocalDate date, boolean completed) {
+        return HabitStructure.builder().habitId(1).structureDate(date).completed(completed).build();
+    }
+
+    private Habit habit(int freq, int streak, boolean defaultMade, LocalDate curDate) {
+        return Habit.builder()
+                .id(1).name("h").frequency(freq).startDate(curDate).curDate(curDate)
+                .streak(streak).longestStreak(Math.max(streak, 0))
+                .defaultMade(defaultMade).active(true).userId("alice").build();
+    }
+
+    private Habit copyOf(Habit h) {
+        return Habit.builder()
+                .id(h.getId()).name(h.getName()).frequency(h.getFrequency()).startDate(h.getStartDate())
+                .curDate(h.getCurDate()).endDate(h.getEndDate()).streak(h.getStreak())
+                .longestStreak(h.getLongestStreak()).defaultMade(h.getDefaultMade()).active(h.getActive())
+                .userId(h.getUserId()).build();
+    }
+}
@@ -0,0 +1,184 @@
+package habitTracker.updater;
+
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.result.UpdateResult;
+import habitTracker.Habit.Habit;
+import habitTracker.Habit.InlineResolution;
+import habitTracker.Structure.HabitStructure;
+import habitTracker.Structure.TodayCache;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class CompletionResolverTest {
+
+    private static final LocalDate TODAY = LocalDate.now();
+
+    @Mock MongoTemplate mongoTemplate;
+    @Mock BulkOperations bulkOps;
+    @Mock EngineBuckets engineBuckets;
+    @Mock ResolutionWheel resolutionWheel;
+
+    // rows of the toggled window, as the toggle left them
+    private final List<HabitStructure> rows = new ArrayList<>();
+
+    private CompletionResolver resolver;
+
+    @BeforeEach
+    void setUp() {
+        when(engineBuckets.zonesOf(any())).thenAnswer(inv -> {
+            Map<String, ZoneId> zones = new HashMap<>();
+            zones.put("alice", ZoneId.systemDefault());
+            return zones;
+        });
+        when(mongoTemplate.find(any(Query.class), eq(HabitStructure.class))).thenReturn(rows);
+        when(mongoTemplate.bulkOps(any(BulkMode.class), any(Class.class))).thenReturn(bulkOps);
+        BulkWriteResult written = mock(BulkWriteResult.class);
+        when(written.getModifiedCount()).thenReturn(1);
+        when(bulkOps.execute()).thenReturn(written);
+        HabitUpdateService engine = new HabitUpdateService(mongoTemplate, new HabitStructureManager(mongoTemplate),
+                new EngineRunService(mongoTemplate), EngineThrottle.unlimited(), TodayCache.disabled(), 500, 4, 8, SeedPolicy.ALL);
+        resolver = new CompletionResolver(mongoTemplate, engine, engineBuckets, resolutionWheel, true);
+    }
+
+    private Habit stored(Habit habit) {
+        when(mongoTemplate.findOne(any(Query.class), eq(Habit.class))).thenReturn(habit);
+        return habit;
+    }
+
+    private static Habit habit(int freq, int streak, boolean defaultMade, LocalDate curDate) {
+        return Habit.builder()
+                .id(1).name("read").frequency(freq).curDate(curDate).streak(streak).longestStreak(Math.max(streak, 0))
+                .defaultMade(defaultMade).active(true).userId("alice").build();
+    }
+
+    private void row(LocalDate date, boolean completed) {
+        rows.add(HabitStructure.builder().habitId(1).structureDate(date).completed(completed).build());
+    }
+
+    private Document captureSet() {
+        ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        verify(bulkOps).updateOne(any(Query.class), update.capture());
+        return (Document) update.getValue().getUpdateObject().get("$set");
+    }
+
+    @Test
+    void completingTheOpenWindow_creditsItRightAway_andKeepsTheStateBefore() {
+        stored(habit(7, -2, false, TODAY.minusDays(2)));
+        row(TODAY, true);
+
+        assertEquals(CompletionResolver.Outcome.CREDITED, resolver.completionToggled(1, TODAY, true));
+
+        Document set = captureSet();
+        assertEquals(1, set.get("streak"));
+        assertEquals(-2, set.get("lastNegativeStreak"));
+        assertEquals(TODAY.plusDays(5), set.get("curDate"));
+        assertEquals(TODAY.plusDays(5), set.get("nextResolutionDate")); // the next window opens then
+        InlineResolution before = (InlineResolution) set.get("inlineResolution");
+        assertEquals(TODAY.minusDays(2), before.getWindowStart());
+        assertEquals(-2, before.getStreak());
+        assertNull(before.getLastNegativeStreak());
+        verify(resolutionWheel).habitChanged(any());
+    }
+
+    @Test
+    void creditIsConditionalOnCurDate_soAConcurrentEnginePassCannotCountItTwice() {
+        stored(habit(1, 3, false, TODAY));
+        row(TODAY, true);
+
+        resolver.completionToggled(1, TODAY, true);
+
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        verify(bulkOps).updateOne(query.capture(), any(Update.class));
+        assertEquals(TODAY, query.getValue().getQueryObject().get("curDate"));
+    }
+
+    @Test
+    void defaultMadeHabits_areOnlyDecidedWhenTheirWindowCloses() {
+        stored(habit(1, 3, true, TODAY));
+
+        assertEquals(CompletionResolver.Outcome.UNCHANGED, resolver.completionToggled(1, TODAY, true));
+        verifyNoInteractions(bulkOps, resolutionWheel);
+    }
+
+    @Test
+    void closedWindowsStillPending_areLeftToTheEngine() {
+        stored(habit(1, 3, false, TODAY.minusDays(1)));
+        row(TODAY, true);
+
+        assertEquals(CompletionResolver.Outcome.UNCHANGED, resolver.completionToggled(1, TODAY, true));
+        verifyNoInteractions(bulkOps);
+    }
+
+    @Test
+    void uncheckingTheCreditedDay_putsTheStateBack() {
+        Habit credited = habit(7, 1, false, TODAY.plusDays(5));
+        credited.setLastNegativeStreak(-2);
+        credited.setInlineResolution(InlineResolution.builder()
+                .windowStart(TODAY.minusDays(2)).streak(-2).longestStreak(0).build());
+        stored(credited);
+        when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), eq(Habit.class)))
+                .thenReturn(UpdateResult.acknowledged(1, 1L, null));
+
+        assertEquals(CompletionResolver.Outcome.UNDONE, resolver.completionToggled(1, TODAY, false));
+
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate).updateFirst(query.capture(), update.capture(), eq(Habit.class));
+        assertEquals(TODAY.plusDays(5), query.getValue().getQueryObject().get("curDate"));
+        Document set = (Document) update.getValue().getUpdateObject().get("$set");
+        assertEquals(TODAY.minusDays(2), set.get("curDate"));
+        assertEquals(-2, set.get("streak"));
+        Document unset = (Document) update.getValue().getUpdateObject().get("$unset");
+        assertTrue(unset.containsKey("lastNegativeStreak"));
+        assertTrue(unset.containsKey("inlineResolution"));
+        assertTrue(unset.containsKey("nextResolutionDate"));
+    }
+
+    @Test
+    void uncheckingOneOfTwoCompletions_keepsTheCredit() {
+        Habit credited = habit(7, 1, false, TODAY.plusDays(5));
+        credited.setInlineResolution(InlineResolution.builder()
+                .windowStart(TODAY.minusDays(2)).streak(0).longestStreak(0).build());
+        stored(credited);
+        when(mongoTemplate.exists(any(Query.class), eq(HabitStructure.class))).thenReturn(true);
+
+        assertEquals(CompletionResolver.Outcome.UNCHANGED, resolver.completionToggled(1, TODAY, false));
+        verify(mongoTemplate, never()).updateFirst(any(Query.class), any(Update.class), eq(Habit.class));
+    }
+
+    @Test
+    void creditOfAnEarlierWindow_isNotUndoneOnceALaterOneResolved() {
+        Habit moved = habit(1, 2, false, TODAY.plusDays(1));
+        moved.setInlineResolution(InlineResolution.builder()
+                .windowStart(TODAY.minusDays(1)).streak(0).longestStreak(0).build());
+        stored(moved);
+
+        assertEquals(CompletionResolver.Outcome.UNCHANGED, resolver.completionToggled(1, TODAY.minusDays(1), false));
+        verify(mongoTemplate, never()).updateFirst(any(Query.class), any(Update.class), eq(Habit.class));
+    }
+}
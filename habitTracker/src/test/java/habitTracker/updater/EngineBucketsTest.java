@@ -0,0 +1,127 @@
+package habitTracker.updater;
+
+import habitTracker.Habit.Habit;
+import habitTracker.KPI.KPI;
+import habitTracker.auth.User;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class EngineBucketsTest {
+
+    // 2025-03-02 15:30 UTC: 00:30 in Tokyo, 00:30 in Seoul, 15:30 in London, 07:30 in Los Angeles
+    private static final Instant NOW = Instant.parse("2025-03-02T15:30:00Z");
+
+    private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+
+    private EngineBuckets buckets(String... userZones) {
+        when(mongoTemplate.findDistinct(any(Query.class), eq("timeZone"), eq(User.class), eq(String.class)))
+                .thenReturn(List.of(userZones));
+        return new EngineBuckets(mongoTemplate, "Europe/London");
+    }
+
+    @Test
+    void justPastMidnight_picksOnlyZonesAtLocalHourZero_groupedByTheirDate() {
+        List<EngineBucket> picked = buckets("Asia/Tokyo", "Asia/Seoul", "America/Los_Angeles").justPastMidnight(NOW);
+
+        assertEquals(List.of(new EngineBucket(LocalDate.of(2025, 3, 3), List.of("Asia/Seoul", "Asia/Tokyo"))), picked);
+    }
+
+    @Test
+    void all_coversEveryZoneInUse_includingTheServerZone() {
+        List<EngineBucket> all = buckets("Asia/Tokyo", "America/Los_Angeles").all(NOW);
+
+        assertEquals(List.of(
+                new EngineBucket(LocalDate.of(2025, 3, 2), List.of("America/Los_Angeles", "Europe/London")),
+                new EngineBucket(LocalDate.of(2025, 3, 3), List.of("Asia/Tokyo"))), all);
+    }
+
+    @Test
+    void unknownStoredZone_isIgnored() {
+        List<EngineBucket> all = buckets("Mars/Olympus_Mons").all(NOW);
+
+        assertEquals(List.of(new EngineBucket(LocalDate.of(2025, 3, 2), List.of("Europe/London"))), all);
+    }
+
+    @Test
+    void serverZoneBucket_alsoCoversRecordsWithoutAZone_withoutListingUsers() {
+        EngineScope scope = buckets().scopeOf(new EngineBucket(LocalDate.of(2025, 3, 2), List.of("Europe/London")));
+
+        assertEquals(Arrays.asList("Europe/London", null), scope.zones());
+        assertTrue(scope.includeUnowned());
+        assertNull(scope.userIds());
+        verify(mongoTemplate, never()).find(any(Query.class), eq(User.class));
+    }
+
+    @Test
+    void otherZoneBucket_coversOnlyItsOwnZones() {
+        EngineScope scope = buckets("Asia/Tokyo").scopeOf(new EngineBucket(LocalDate.of(2025, 3, 3), List.of("Asia/Tokyo")));
+
+        assertEquals(List.of("Asia/Tokyo"), scope.zones());
+        assertFalse(scope.includeUnowned());
+        assertFalse(scope.coversEveryone());
+        verify(mongoTemplate, never()).find(any(Query.class), eq(User.class));
+    }
+
+    @Test
+    void storedZoneOf_isTheUsersZone_orNullForNoneOrAnUnknownOne() {
+        EngineBuckets buckets = buckets();
+        when(mongoTemplate.findOne(any(Query.class), eq(User.class))).thenReturn(
+                User.builder().id("kenji").timeZone("Asia/Tokyo").build(),
+                User.builder().id("ann").build(),
+                User.builder().id("mars").timeZone("Mars/Olympus_Mons").build());
+
+        assertEquals("Asia/Tokyo", buckets.storedZoneOf("kenji"));
+        assertNull(buckets.storedZoneOf("ann"));
+        assertNull(buckets.storedZoneOf("mars"));
+        assertNull(buckets.storedZoneOf(null));
+    }
+
+    @Test
+    void zoneChanged_movesTheUsersHabitsAndKPIs() {
+        buckets().zoneChanged("kenji", "Asia/Tokyo");
+
+        ArgumentCaptor<Query> owned = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate).updateMulti(owned.capture(), update.capture(), eq(Habit.class));
+        assertEquals(new Document("userId", "kenji"), owned.getValue().getQueryObject());
+        assertEquals(new Document("timeZone", "Asia/Tokyo"), update.getValue().getUpdateObject().get("$set"));
+        verify(mongoTemplate).updateMulti(any(Query.class), eq(update.getValue()), eq(KPI.class));
+    }
+
+    @Test
+    void atLocalHour_picksTheZonesAnHourPastMidnight() {
+        // 01:30 in Tokyo at 16:30 UTC; London is at 16:30
+        List<EngineBucket> picked = buckets("Asia/Tokyo").atLocalHour(NOW.plusSeconds(3600), 1);
+
+        assertEquals(List.of(new EngineBucket(LocalDate.of(2025, 3, 3), List.of("Asia/Tokyo"))), picked);
+    }
+
+    @Test
+    void zonesOf_fallsBackToTheServerZone_forUsersWithoutOne_andUnownedHabits() {
+        EngineBuckets buckets = buckets();
+        when(mongoTemplate.find(any(Query.class), eq(User.class))).thenReturn(List.of(
+                User.builder().id("kenji").timeZone("Asia/Tokyo").build(),
+                User.builder().id("mars").timeZone("Mars/Olympus_Mons").build()));
+
+        var zones = buckets.zonesOf(Arrays.asList("kenji", "ann", "mars", null));
+
+        assertEquals(ZoneId.of("Asia/Tokyo"), zones.get("kenji"));
+        assertEquals(ZoneId.of("Europe/London"), zones.get("ann"));
+        assertEquals(ZoneId.of("Europe/London"), zones.get("mars"));
+        assertEquals(ZoneId.of("Europe/London"), zones.get(null));
+    }
+}
@@ -0,0 +1,104 @@
+package habitTracker.updater;
+
+import com.mongodb.client.result.UpdateResult;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class EngineLeaseServiceTest {
+
+    @Mock MongoTemplate mongoTemplate;
+
+    private EngineLeaseService leaseService;
+
+    private EngineLeaseService service() {
+        leaseService = new EngineLeaseService(mongoTemplate, 120, "node-a");
+        return leaseService;
+    }
+
+    @AfterEach
+    void stopHeartbeats() {
+        if (leaseService != null) {
+            leaseService.shutdown();
+        }
+    }
+
+    /** Stubs findAndModify to behave like the upsert succeeding: the document comes back as ours. */
+    private void acquireSucceedsWithToken(long token) {
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class), eq(EngineLease.class)))
+                .thenAnswer(inv -> {
+                    Update update = inv.getArgument(1);
+                    String holder = (String) ((Document) update.getUpdateObject().get("$set")).get("holder");
+                    return EngineLease.builder().id(EngineLeaseService.DAILY_ENGINE).holder(holder).token(token).build();
+                });
+    }
+
+    @Test
+    void acquire_onlyMatchesAnExpiredLease_andBumpsTheToken() {
+        acquireSucceedsWithToken(7);
+
+        LeaderLease lease = service().tryAcquire(EngineLeaseService.DAILY_ENGINE);
+
+        assertNotNull(lease);
+        assertTrue(lease.isHeld());
+        assertEquals(7, lease.getToken());
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        ArgumentCaptor<FindAndModifyOptions> options = ArgumentCaptor.forClass(FindAndModifyOptions.class);
+        verify(mongoTemplate).findAndModify(query.capture(), update.capture(), options.capture(), eq(EngineLease.class));
+        assertTrue(query.getValue().getQueryObject().containsKey("$or"), "must only match an expired lease");
+        assertEquals(new Document("token", 1), update.getValue().getUpdateObject().get("$inc"));
+        assertTrue(options.getValue().isUpsert());
+    }
+
+    @Test
+    void liveLeaseHeldElsewhere_isNotAcquired() {
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class), eq(EngineLease.class)))
+                .thenThrow(new DuplicateKeyException("E11000 duplicate key"));
+
+        assertNull(service().tryAcquire(EngineLeaseService.DAILY_ENGINE));
+    }
+
+    @Test
+    void failedRenewal_losesTheLease() {
+        acquireSucceedsWithToken(3);
+        LeaderLease lease = service().tryAcquire(EngineLeaseService.DAILY_ENGINE);
+        when(mongoTemplate.updateFirst(any(Query.class), any(UpdateDefinition.class), eq(EngineLease.class)))
+                .thenReturn(UpdateResult.acknowledged(0, 0L, null));
+
+        leaseService.renew(lease);
+
+        assertFalse(lease.isHeld());
+    }
+
+    @Test
+    void close_releasesOnlyOurOwnToken() {
+        acquireSucceedsWithToken(4);
+        LeaderLease lease = service().tryAcquire(EngineLeaseService.DAILY_ENGINE);
+
+        lease.close();
+
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).updateFirst(query.capture(), any(UpdateDefinition.class), eq(EngineLease.class));
+        assertEquals(4L, query.getValue().getQueryObject().get("token"));
+        assertFalse(lease.isHeld());
+    }
+}
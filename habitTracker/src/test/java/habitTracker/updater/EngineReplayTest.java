@@ -0,0 +1,113 @@
+package habitTracker.updater;
+
+import habitTracker.Habit.Habit;
+import habitTracker.Structure.HabitStructure;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The replay runs processHabit over plain lists (a detached engine has no MongoTemplate, so any
+ * database access would fail these tests) and must agree with itself across the engine's shortcuts.
+ */
+class EngineReplayTest {
+
+    private static final LocalDate D0 = LocalDate.of(2023, 1, 2);
+    private static final int[] FREQUENCIES = {1, 2, 3, 7, 30};
+
+    private static Habit habit(int id, int freq, boolean defaultMade, LocalDate startDate) {
+        return Habit.builder()
+                .id(id).name("h" + id).frequency(freq).startDate(startDate).curDate(startDate)
+                .streak(17).longestStreak(40) // live values; the replay starts from scratch
+                .defaultMade(defaultMade).active(true).userId("alice").build();
+    }
+
+    private static HabitStructure row(int habitId, LocalDate date, boolean completed) {
+        return HabitStructure.builder().habitId(habitId).structureDate(date).completed(completed).build();
+    }
+
+    @Test
+    void dailyHabit_producesTheStreakTimelineTheNightlyRunsWould() {
+        List<HabitStructure> rows = List.of(row(1, D0, true), row(1, D0.plusDays(1), true), row(1, D0.plusDays(3), true));
+
+        EngineReplay.Result result = EngineReplay.detached(8, SeedPolicy.ALL)
+                .run(List.of(habit(1, 1, false, D0)), rows, D0, D0.plusDays(3));
+
+        assertEquals(List.of(
+                new EngineReplay.Point(D0, 1, 1, D0.plusDays(1)),
+                new EngineReplay.Point(D0.plusDays(1), 2, 2, D0.plusDays(2)),
+                new EngineReplay.Point(D0.plusDays(3), 1, 2, D0.plusDays(4))), // day 2 lapsed, day 3 done
+                result.timelines().get(1));
+        assertEquals(1, result.seedsCreated()); // the missed day 2
+        assertEquals(4, result.engineRuns());
+    }
+
+    @Test
+    void aRowIsOnlySeenFromItsOwnDate() {
+        LocalDate completedOn = D0.plusDays(5);
+
+        EngineReplay.Result result = EngineReplay.detached(8, SeedPolicy.ALL)
+                .run(List.of(habit(1, 7, false, D0)), List.of(row(1, completedOn, true)), D0, D0.plusDays(6),
+                        EngineReplay.Cadence.ALL, 1);
+
+        assertEquals(List.of(new EngineReplay.Point(completedOn, 1, 1, D0.plusDays(7))), result.timelines().get(1));
+    }
+
+    @Test
+    void replayStartsAtTheFirstOccurrenceOnOrAfterFrom() {
+        Habit weekly = habit(1, 7, false, D0);
+
+        Habit copy = EngineReplay.startingAt(weekly, D0.plusDays(8));
+
+        assertEquals(D0.plusDays(14), copy.getCurDate());
+        assertEquals(0, copy.getStreak());
+        assertEquals(17, weekly.getStreak()); // the input is never modified
+    }
+
+    @Test
+    void dueOnlyRuns_catchUp_andStrides_allAgreeWithTheVisitEveryHabitReference() {
+        Random random = new Random(20250101L);
+        List<Habit> habits = new ArrayList<>();
+        List<HabitStructure> rows = new ArrayList<>();
+        LocalDate to = D0.plusDays(730);
+        for (int id = 1; id <= 40; id++) {
+            int freq = FREQUENCIES[random.nextInt(FREQUENCIES.length)];
+            Habit habit = habit(id, freq, random.nextInt(4) == 0, D0.plusDays(random.nextInt(60)));
+            if (random.nextInt(5) == 0) {
+                habit.setEndDate(D0.plusDays(200 + random.nextInt(400)));
+            }
+            habits.add(habit);
+            double rate = random.nextDouble();
+            for (LocalDate day = habit.getStartDate(); !day.isAfter(to); day = day.plusDays(1)) {
+                if (random.nextDouble() < rate / freq) {
+                    rows.add(row(id, day, !Boolean.TRUE.equals(habit.getDefaultMade())));
+                }
+            }
+        }
+
+        EngineReplay.Result reference = EngineReplay.detached(Integer.MAX_VALUE, SeedPolicy.ALL)
+                .run(habits, rows, D0, to, EngineReplay.Cadence.ALL, 1);
+        EngineReplay.Result dueOnly = EngineReplay.detached(Integer.MAX_VALUE, SeedPolicy.ALL)
+                .run(habits, rows, D0, to);
+        EngineReplay.Result monthlyWithCatchUp = EngineReplay.detached(1, SeedPolicy.OPEN_ONLY)
+                .run(habits, rows, D0, to, EngineReplay.Cadence.DUE, 30);
+
+        assertEquals(List.of(), reference.divergingHabits(dueOnly, true));
+        assertEquals(List.of(), reference.divergingHabits(monthlyWithCatchUp, false));
+        assertTrue(dueOnly.habitsProcessed() < reference.habitsProcessed());
+    }
+
+    @Test
+    void badRange_isRejected() {
+        EngineReplay replay = EngineReplay.detached(8, SeedPolicy.ALL);
+
+        assertThrows(IllegalArgumentException.class, () -> replay.run(List.of(), List.of(), D0, D0.minusDays(1)));
+        assertThrows(IllegalArgumentException.class,
+                () -> replay.run(List.of(), List.of(), D0, D0, EngineReplay.Cadence.DUE, 0));
+    }
+}
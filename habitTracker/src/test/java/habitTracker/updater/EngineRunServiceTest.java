@@ -0,0 +1,83 @@
+package habitTracker.updater;
+
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class EngineRunServiceTest {
+
+    private static final EngineBucket BUCKET = new EngineBucket(LocalDate.of(2025, 3, 2), List.of("Asia/Tokyo", "UTC"));
+
+    @Mock MongoTemplate mongoTemplate;
+
+    private EngineRunService service() {
+        return new EngineRunService(mongoTemplate);
+    }
+
+    @Test
+    void freshRun_isKeyedByTheBucket_andCarriesItsZones() {
+        EngineRun run = service().startOrResume(BUCKET, 7L);
+
+        assertEquals("2025-03-02@Asia/Tokyo,UTC", run.getId());
+        assertEquals(BUCKET.today(), run.getRunDate());
+        assertEquals(BUCKET.zones(), run.getZones());
+        assertEquals(7L, run.getLeaseToken());
+        verify(mongoTemplate).insert(run);
+    }
+
+    @Test
+    void unfinishedRunsOfEarlierDays_thatShareAZone_areAbandoned() {
+        service().startOrResume(BUCKET, 7L);
+
+        ArgumentCaptor<Query> abandoned = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).updateMulti(abandoned.capture(), any(Update.class), eq(EngineRun.class));
+        Document query = abandoned.getValue().getQueryObject();
+        assertEquals(new Document("$lt", BUCKET.today()), query.get("runDate"));
+        assertTrue(query.get("$or").toString().contains("Asia/Tokyo"));
+    }
+
+    @Test
+    void unfinishedRun_isResumedWithTheNewToken() {
+        EngineRun partial = EngineRun.builder().id(BUCKET.key()).runDate(BUCKET.today()).zones(BUCKET.zones())
+                .status(EngineRun.PARTIAL).resumeCount(1).leaseToken(3L).watermarkUserId("alice").build();
+        when(mongoTemplate.findById(BUCKET.key(), EngineRun.class)).thenReturn(partial);
+
+        EngineRun run = service().startOrResume(BUCKET, 7L);
+
+        assertSame(partial, run);
+        assertEquals(EngineRun.RUNNING, run.getStatus());
+        assertEquals(2, run.getResumeCount());
+        assertEquals(7L, run.getLeaseToken());
+        verify(mongoTemplate, never()).insert(any(EngineRun.class));
+    }
+
+    @Test
+    void finish_isFencedByTheLeaseToken() {
+        EngineRun run = EngineRun.builder().id(BUCKET.key()).leaseToken(7L).build();
+
+        service().finish(run, true, "done");
+
+        ArgumentCaptor<Query> fenced = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate).updateFirst(fenced.capture(), update.capture(), eq(EngineRun.class));
+        assertEquals(7L, fenced.getValue().getQueryObject().get("leaseToken"));
+        assertEquals(EngineRun.COMPLETED, ((Document) update.getValue().getUpdateObject().get("$set")).get("status"));
+    }
+}
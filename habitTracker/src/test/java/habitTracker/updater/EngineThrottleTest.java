@@ -0,0 +1,97 @@
+package habitTracker.updater;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EngineThrottleTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final AtomicLong clock = new AtomicLong(1_000 * SECOND);
+
+    // 1000 ops/s max, 100 ops/s floor, 250 ms request target, 100 ms Mongo target
+    private EngineThrottle throttle() {
+        return new EngineThrottle(1000, 100, 250, 100, clock::get);
+    }
+
+    private void tick() {
+        clock.addAndGet(SECOND);
+    }
+
+    @Test
+    void withinTheBucket_noWait_andAnOverdraftWaitsForItsDeficit() {
+        EngineThrottle throttle = throttle();
+
+        assertEquals(0, throttle.reserve(1000));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(500), throttle.reserve(500)); // 500 short at 1000/s
+        assertEquals(500, throttle.snapshot().totalWaitMs());
+    }
+
+    @Test
+    void slowMongo_halvesTheRate_downToTheFloor_thenItRecovers() {
+        EngineThrottle throttle = throttle();
+        for (int i = 0; i < 6; i++) {
+            throttle.recordMongoLatency(400);
+            tick();
+            throttle.reserve(1);
+        }
+        assertEquals(100, throttle.snapshot().opsPerSecond(), 0.001);
+
+        for (int i = 0; i < 40; i++) { // quiet: the average decays, then the rate grows back
+            tick();
+            throttle.reserve(1);
+        }
+        assertEquals(1000, throttle.snapshot().opsPerSecond(), 0.001);
+    }
+
+    @Test
+    void slowRequests_alsoBackOff() {
+        EngineThrottle throttle = throttle();
+        throttle.recordRequestLatency(900);
+        tick();
+        throttle.reserve(1);
+
+        assertEquals(500, throttle.snapshot().opsPerSecond(), 0.001);
+    }
+
+    @Test
+    void healthyLatencies_keepTheMaximum() {
+        EngineThrottle throttle = throttle();
+        for (int i = 0; i < 5; i++) {
+            throttle.recordMongoLatency(5);
+            throttle.recordRequestLatency(40);
+            tick();
+            throttle.reserve(1);
+        }
+        assertEquals(1000, throttle.snapshot().opsPerSecond(), 0.001);
+    }
+
+    @Test
+    void unlimited_neverWaits() {
+        EngineThrottle throttle = EngineThrottle.unlimited();
+        assertEquals(0, throttle.reserve(1_000_000));
+        assertFalse(throttle.snapshot().enabled());
+    }
+
+    @Test
+    void requestThread_neverWaits_evenOnAnOverdrawnBucket() {
+        EngineThrottle throttle = new EngineThrottle(1, 1, 250, 100, System::nanoTime); // 1 op/s
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest()));
+        try {
+            long started = System.nanoTime();
+            throttle.acquire(10_000); // would sleep for hours on an engine thread
+
+            assertTrue(System.nanoTime() - started < SECOND);
+            assertEquals(0, throttle.snapshot().totalWaitMs()); // nothing debited either
+        } finally {
+            RequestContextHolder.resetRequestAttributes();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package habitTracker.updater;
+
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.bulk.BulkWriteUpsert;
+import habitTracker.Habit.Habit;
+import habitTracker.Structure.HabitStructure;
+import org.bson.BsonObjectId;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class EngineWriteBatchTest {
+
+    private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+    private final BulkOperations seedOps = mock(BulkOperations.class);
+    private final BulkOperations habitOps = mock(BulkOperations.class);
+
+    EngineWriteBatchTest() {
+        when(mongoTemplate.bulkOps(BulkMode.UNORDERED, HabitStructure.class)).thenReturn(seedOps);
+        when(mongoTemplate.bulkOps(BulkMode.UNORDERED, Habit.class)).thenReturn(habitOps);
+        when(seedOps.execute()).thenAnswer(inv -> BulkWriteResult.acknowledged(0, 0, 0, 0,
+                List.of(new BulkWriteUpsert(0, new BsonObjectId()), new BulkWriteUpsert(1, new BsonObjectId())), List.of()));
+        when(habitOps.execute()).thenAnswer(inv -> BulkWriteResult.acknowledged(0, 1, 0, 1, List.of(), List.of()));
+    }
+
+    private HabitStructure seed(int habitId) {
+        return HabitStructure.builder().habitId(habitId).structureDate(LocalDate.now()).completed(false).build();
+    }
+
+    @Test
+    void nothingIsWritten_untilFlushOrBatchSize() {
+        EngineWriteBatch batch = new EngineWriteBatch(mongoTemplate, 10);
+        batch.insertSeed(seed(1));
+        batch.updateHabit(new Query(Criteria.where("id").is(1)), new Update().set("streak", 1));
+        verifyNoInteractions(mongoTemplate);
+
+        batch.flush();
+        verify(seedOps).upsert(any(Query.class), any(Update.class));
+        verify(habitOps).updateOne(any(Query.class), any(Update.class));
+    }
+
+    @Test
+    void fullBuffer_isFlushedAsOneUnorderedBulkWrite() {
+        EngineWriteBatch batch = new EngineWriteBatch(mongoTemplate, 2);
+        batch.insertSeed(seed(1));
+        batch.insertSeed(seed(2)); // reaches batch size
+        batch.insertSeed(seed(3));
+
+        verify(seedOps, times(1)).execute();
+        assertEquals(2, batch.getTotalInserted());
+    }
+
+    @Test
+    void flush_accumulatesReportedCounts() {
+        EngineWriteBatch batch = new EngineWriteBatch(mongoTemplate, 100);
+        batch.insertSeed(seed(1));
+        batch.insertSeed(seed(2));
+        batch.updateHabit(new Query(Criteria.where("id").is(1)), new Update().set("streak", 1));
+        batch.flush();
+        batch.flush(); // empty buffers: no further bulk calls
+
+        assertEquals(2, batch.getTotalInserted());
+        assertEquals(1, batch.getTotalUpdated());
+        verify(seedOps, times(1)).execute();
+        verify(habitOps, times(1)).execute();
+    }
+
+    @Test
+    void seedsAreSetOnInsertUpserts_soAnExistingRowIsLeftAlone() {
+        EngineWriteBatch batch = new EngineWriteBatch(mongoTemplate, 10);
+        batch.insertSeed(HabitStructure.builder().habitId(7).structureDate(LocalDate.of(2025, 3, 1))
+                .completed(true).userId("alice").build());
+        batch.flush();
+
+        ArgumentCaptor<Query> key = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<Update> fields = ArgumentCaptor.forClass(Update.class);
+        verify(seedOps).upsert(key.capture(), fields.capture());
+        assertEquals(new Document("habitId", 7).append("structureDate", LocalDate.of(2025, 3, 1)),
+                key.getValue().getQueryObject());
+        assertEquals(new Document("completed", true).append("userId", "alice"),
+                fields.getValue().getUpdateObject().get("$setOnInsert"));
+        assertNull(fields.getValue().getUpdateObject().get("$set"));
+    }
+}
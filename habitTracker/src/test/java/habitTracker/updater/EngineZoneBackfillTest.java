@@ -0,0 +1,70 @@
+package habitTracker.updater;
+
+import habitTracker.Habit.Habit;
+import habitTracker.KPI.KPI;
+import habitTracker.auth.User;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class EngineZoneBackfillTest {
+
+    private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+    private final BulkOperations habitOps = mock(BulkOperations.class);
+    private final BulkOperations kpiOps = mock(BulkOperations.class);
+    private final EngineZoneBackfill backfill = new EngineZoneBackfill(mongoTemplate);
+
+    @Test
+    void copiesEachZonedUsersZone_ontoTheirHabitsAndKPIs_skippingUnknownZones() {
+        when(mongoTemplate.stream(any(Query.class), eq(User.class))).thenReturn(Stream.of(
+                User.builder().id("kenji").timeZone("Asia/Tokyo").build(),
+                User.builder().id("mars").timeZone("Mars/Olympus_Mons").build()));
+        when(mongoTemplate.bulkOps(BulkMode.UNORDERED, Habit.class)).thenReturn(habitOps);
+        when(mongoTemplate.bulkOps(BulkMode.UNORDERED, KPI.class)).thenReturn(kpiOps);
+
+        assertEquals(1, backfill.run());
+
+        ArgumentCaptor<Query> owned = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        verify(habitOps).updateMulti(owned.capture(), update.capture());
+        assertEquals(new Document("userId", "kenji"), owned.getValue().getQueryObject());
+        assertEquals(new Document("timeZone", "Asia/Tokyo"), update.getValue().getUpdateObject().get("$set"));
+        verify(kpiOps).updateMulti(owned.getValue(), update.getValue());
+        verify(habitOps).execute();
+        verify(kpiOps).execute();
+    }
+
+    @Test
+    void writesNothing_whenNoUserHasAZone() {
+        when(mongoTemplate.stream(any(Query.class), eq(User.class))).thenReturn(Stream.of());
+
+        assertEquals(0, backfill.run());
+
+        verify(mongoTemplate, never()).bulkOps(any(BulkMode.class), any(Class.class));
+    }
+
+    @Test
+    void isSkipped_onceTheZoneIndexExists() {
+        IndexOperations indexOps = mock(IndexOperations.class);
+        when(mongoTemplate.indexOps(Habit.class)).thenReturn(indexOps);
+        IndexInfo zoneIndex = new IndexInfo(List.of(), Habit.ZONE_DUE_INDEX, false, false, "");
+        when(indexOps.getIndexInfo()).thenReturn(List.of()).thenReturn(List.of(zoneIndex));
+
+        assertTrue(backfill.isNeeded());
+        assertFalse(backfill.isNeeded());
+    }
+}
@@ -4,6 +4,8 @@ import habitTracker.Habit.Habit;
 import org.junit.jupiter.api.Test;
 
 import java.time.LocalDate;
+import java.util.BitSet;
+import java.util.Random;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -73,4 +75,32 @@ class HabitDateCalculatorTest {
         assertFalse(calc.shouldTrackHabitOnDate(h, start.plusDays(6)));
         assertFalse(calc.shouldTrackHabitOnDate(h, start.plusDays(8)));
     }
+
+    @Test
+    void activeDays_matchesShouldTrackHabitOnDate_onEveryDay() {
+        LocalDate from = LocalDate.of(2026, 1, 1);
+        LocalDate to = LocalDate.of(2026, 12, 31);
+        Random random = new Random(7);
+        for (int i = 0; i < 500; i++) {
+            int frequency = random.nextInt(30) + 1;
+            LocalDate start = from.plusDays(random.nextInt(500) - 200);
+            LocalDate end = random.nextBoolean() ? null : start.plusDays(random.nextInt(400));
+            Habit h = habit(frequency, start, end);
+
+            BitSet days = calc.activeDays(h, from, to);
+
+            for (int day = 0; day <= 364; day++) {
+                assertEquals(calc.shouldTrackHabitOnDate(h, from.plusDays(day)), days.get(day), h + " day " + day);
+            }
+            assertTrue(days.length() <= 365);
+        }
+    }
+
+    @Test
+    void activeDays_outsideTheHabitsDates_isEmpty() {
+        LocalDate start = LocalDate.of(2026, 6, 1);
+        assertTrue(calc.activeDays(habit(1, start, null), start.minusDays(10), start.minusDays(1)).isEmpty());
+        assertTrue(calc.activeDays(habit(3, start, start.plusDays(5)), start.plusDays(6), start.plusDays(30)).isEmpty());
+        assertEquals(BitSet.valueOf(new long[] {0b1001001}), calc.activeDays(habit(3, start, null), start, start.plusDays(8)));
+    }
 }
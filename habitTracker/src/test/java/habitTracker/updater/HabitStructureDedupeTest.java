@@ -0,0 +1,97 @@
+package habitTracker.updater;
+
+import com.mongodb.client.result.DeleteResult;
+import habitTracker.Structure.HabitStructure;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationResults;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class HabitStructureDedupeTest {
+
+    private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+    private final HabitStructureDedupe dedupe = new HabitStructureDedupe(mongoTemplate);
+
+    @Test
+    void keepsTheNewestRowOfADay_andDeletesTheRest() {
+        ObjectId newest = new ObjectId();
+        ObjectId older = new ObjectId();
+        ObjectId oldest = new ObjectId();
+        Document day = new Document("ids", List.of(newest, older, oldest)).append("userId", "alice")
+                .append("completed", false).append("count", 3);
+        when(mongoTemplate.aggregate(any(Aggregation.class), eq(HabitStructure.class), eq(Document.class)))
+                .thenReturn(new AggregationResults<>(List.of(day), new Document()));
+        when(mongoTemplate.remove(any(Query.class), eq(HabitStructure.class))).thenReturn(DeleteResult.acknowledged(2));
+
+        assertEquals(2, dedupe.run());
+
+        ArgumentCaptor<Query> removed = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).remove(removed.capture(), eq(HabitStructure.class));
+        assertEquals(new Document("_id", new Document("$in", List.of(older, oldest))), removed.getValue().getQueryObject());
+        ArgumentCaptor<Query> kept = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<Update> merged = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate).updateFirst(kept.capture(), merged.capture(), eq(HabitStructure.class));
+        assertEquals(new Document("_id", newest), kept.getValue().getQueryObject());
+        assertEquals(new Document("userId", "alice").append("completed", false), merged.getValue().getUpdateObject().get("$set"));
+    }
+
+    @Test
+    void olderCompletedRow_isMergedIntoTheNewerSeed_notDeletedWithIt() {
+        // The user's completion was written first (and toggled in place); an engine seed came later.
+        ObjectId seed = new ObjectId();
+        ObjectId completedRow = new ObjectId();
+        Document day = new Document("ids", List.of(seed, completedRow)).append("userId", "alice")
+                .append("completed", true).append("count", 2); // $max over {false, true}
+        when(mongoTemplate.aggregate(any(Aggregation.class), eq(HabitStructure.class), eq(Document.class)))
+                .thenReturn(new AggregationResults<>(List.of(day), new Document()));
+        when(mongoTemplate.remove(any(Query.class), eq(HabitStructure.class))).thenReturn(DeleteResult.acknowledged(1));
+
+        dedupe.run();
+
+        ArgumentCaptor<Update> merged = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate).updateFirst(eq(new Query(Criteria.where("_id").is(seed))),
+                merged.capture(), eq(HabitStructure.class));
+        assertEquals(true, ((Document) merged.getValue().getUpdateObject().get("$set")).get("completed"));
+        ArgumentCaptor<Query> removed = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).remove(removed.capture(), eq(HabitStructure.class));
+        assertEquals(new Document("_id", new Document("$in", List.of(completedRow))), removed.getValue().getQueryObject());
+    }
+
+    @Test
+    void groupsWithTheMaxOfCompleted() {
+        when(mongoTemplate.aggregate(any(Aggregation.class), eq(HabitStructure.class), eq(Document.class)))
+                .thenReturn(new AggregationResults<>(List.of(), new Document()));
+
+        dedupe.run();
+
+        ArgumentCaptor<Aggregation> aggregation = ArgumentCaptor.forClass(Aggregation.class);
+        verify(mongoTemplate).aggregate(aggregation.capture(), eq(HabitStructure.class), eq(Document.class));
+        Document group = aggregation.getValue().toPipeline(Aggregation.DEFAULT_CONTEXT).get(1).get("$group", Document.class);
+        assertEquals(new Document("$max", "$completed"), group.get("completed"));
+    }
+
+    @Test
+    void isSkipped_onceTheUniqueIndexExists() {
+        IndexOperations indexOps = mock(IndexOperations.class);
+        when(mongoTemplate.indexOps(HabitStructure.class)).thenReturn(indexOps);
+        IndexInfo unique = new IndexInfo(List.of(), HabitStructure.UNIQUE_DAY_INDEX, true, false, "");
+        when(indexOps.getIndexInfo()).thenReturn(List.of()).thenReturn(List.of(unique));
+
+        assertTrue(dedupe.isNeeded());
+        assertFalse(dedupe.isNeeded());
+    }
+}
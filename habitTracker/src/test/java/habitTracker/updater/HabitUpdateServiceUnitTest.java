@@ -1,7 +1,8 @@
 package habitTracker.updater;
 
 import habitTracker.Habit.Habit;
-import habitTracker.Structure.HabitStructureRepository;
+import habitTracker.Structure.HabitStructure;
+import habitTracker.Structure.TodayCache;
 import org.bson.Document;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -10,12 +11,20 @@ import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.mockito.junit.jupiter.MockitoSettings;
 import org.mockito.quality.Strictness;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
 
+import java.time.Instant;
 import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.*;
@@ -29,16 +38,25 @@ import static org.mockito.Mockito.*;
 @MockitoSettings(strictness = Strictness.LENIENT)
 class HabitUpdateServiceUnitTest {
 
+    // held for the whole test; lease loss is covered separately
+    private final LeaderLease lease = new LeaderLease(null, EngineLeaseService.DAILY_ENGINE, 1L, Instant.MAX);
+
     @Mock MongoTemplate mongoTemplate;
-    @Mock HabitStructureManager habitStructureManager;
-    @Mock HabitStructureRepository habitStructureRepository;
+    @Mock BulkOperations bulkOps;
+
+    // habit_structures rows returned by the engine's per-user range query
+    private final List<HabitStructure> structures = new ArrayList<>();
 
     private HabitUpdateService service() {
-        return new HabitUpdateService(mongoTemplate, habitStructureManager, habitStructureRepository);
+        return new HabitUpdateService(mongoTemplate, new HabitStructureManager(mongoTemplate), new EngineRunService(mongoTemplate), EngineThrottle.unlimited(), TodayCache.disabled(), 500, 4, 8, SeedPolicy.ALL);
     }
 
     private static final LocalDate TODAY = LocalDate.now();
 
+    private static EngineRun freshRun() {
+        return EngineRun.builder().id(TODAY.toString()).runDate(TODAY).status(EngineRun.RUNNING).leaseToken(1L).build();
+    }
+
     private Habit habit(int freq, int streak, boolean defaultMade, LocalDate curDate) {
         return Habit.builder()
                 .id(1).name("test").frequency(freq).startDate(curDate).curDate(curDate)
@@ -46,14 +64,20 @@ class HabitUpdateServiceUnitTest {
                 .defaultMade(defaultMade).active(true).build();
     }
 
+    private void structure(LocalDate date, boolean completed) {
+        structures.add(HabitStructure.builder().habitId(1).structureDate(date).completed(completed).build());
+    }
+
     private void run(Habit h) {
-        when(mongoTemplate.findAll(Habit.class)).thenReturn(List.of(h));
-        service().updateAllHabits();
+        when(mongoTemplate.stream(any(Query.class), eq(Habit.class))).thenAnswer(inv -> Stream.of(h));
+        when(mongoTemplate.find(any(Query.class), eq(HabitStructure.class))).thenReturn(structures);
+        when(mongoTemplate.bulkOps(any(BulkMode.class), any(Class.class))).thenReturn(bulkOps);
+        service().updateAllHabits(lease, freshRun(), EngineScope.everyone());
     }
 
     private Update captureUpdate() {
         ArgumentCaptor<Update> captor = ArgumentCaptor.forClass(Update.class);
-        verify(mongoTemplate).updateFirst(any(Query.class), captor.capture(), eq(Habit.class));
+        verify(bulkOps).updateOne(any(Query.class), captor.capture());
         return captor.getValue();
     }
 
@@ -107,8 +131,7 @@ class HabitUpdateServiceUnitTest {
     void completionFromNegative_resetsToOne_recordsLastNeg() {
         // Only yesterday's occurrence is completed; today's window is still open and untouched.
         LocalDate y = TODAY.minusDays(1);
-        when(habitStructureRepository.existsByHabitIdAndCompletedInWindow(
-                eq(1), eq(Boolean.TRUE), eq(y), eq(y))).thenReturn(true);
+        structure(y, true);
         run(habit(1, -5, false, y));
         Update u = captureUpdate();
         assertEquals(1, streakOf(u));
@@ -129,9 +152,8 @@ class HabitUpdateServiceUnitTest {
 
     @Test
     void longPeriod_completedMidWindow_creditsAndAdvancesOnePeriod() {
-        when(habitStructureRepository.existsByHabitIdAndCompletedInWindow(
-                eq(1), eq(Boolean.TRUE), any(), any())).thenReturn(true);
         LocalDate anchor = TODAY.minusDays(30);
+        structure(anchor.plusDays(10), true);
         run(habit(60, 0, false, anchor));
         Update u = captureUpdate();
         assertEquals(1, streakOf(u));
@@ -156,8 +178,7 @@ class HabitUpdateServiceUnitTest {
 
     @Test
     void defaultMade_relapse_docksToZeroFromPositive() {
-        when(habitStructureRepository.existsByHabitIdAndCompletedInWindow(
-                eq(1), eq(Boolean.FALSE), any(), any())).thenReturn(true); // relapse present
+        structure(TODAY.minusDays(1), false); // relapse present
         run(habit(1, 3, true, TODAY.minusDays(1)));
         assertEquals(0, streakOf(captureUpdate()));
     }
@@ -171,14 +192,343 @@ class HabitUpdateServiceUnitTest {
         assertEquals(TODAY, curDateOf(u));
     }
 
+    // --- bulk writes ---
+
+    @Test
+    void seedsAndUpdate_goOutAsBulkWrites_notPerDocumentSaves() {
+        // three lapsed daily windows -> three seeds, one habit update, all via bulk ops
+        run(habit(1, 0, false, TODAY.minusDays(3)));
+        verify(bulkOps, times(4)).upsert(any(Query.class), any(Update.class)); // 3 lapsed + today's open window
+        verify(bulkOps).updateOne(any(Query.class), any(Update.class));
+        verify(mongoTemplate, never()).save(any());
+        verify(mongoTemplate, never()).updateFirst(any(Query.class), any(UpdateDefinition.class), eq(Habit.class));
+    }
+
+    @Test
+    void existingSeed_isNotInsertedAgain() {
+        structure(TODAY, false);
+        run(habit(1, 0, false, TODAY));
+        verify(bulkOps, never()).upsert(any(Query.class), any(Update.class));
+    }
+
+    // --- streamed scan ---
+
+    @Test
+    void scan_filtersActiveInMongo_projectsEngineFields_sortedByUser() {
+        run(habit(1, 0, false, TODAY));
+        ArgumentCaptor<Query> captor = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).stream(captor.capture(), eq(Habit.class));
+        Query query = captor.getValue();
+
+        assertEquals(true, query.getQueryObject().get("active"));
+        assertTrue(query.getQueryObject().containsKey("$or"), "only habits due today are scanned");
+        assertEquals(1, query.getSortObject().get("userId"));
+        Document fields = query.getFieldsObject();
+        assertTrue(fields.containsKey("curDate"));
+        assertTrue(fields.containsKey("streak"));
+        assertFalse(fields.containsKey("description"));
+        assertFalse(fields.containsKey("twoMinuteRule"));
+        verify(mongoTemplate, never()).findAll(Habit.class);
+    }
+
+    // --- due date ---
+
+    private LocalDate nextResolutionOf(Update u) {
+        Document set = (Document) u.getUpdateObject().get("$set");
+        return (LocalDate) set.get("nextResolutionDate");
+    }
+
+    @Test
+    void openWindow_isDueAgainWhenItCloses() {
+        LocalDate anchor = TODAY.minusDays(30);
+        run(habit(60, 0, false, anchor));
+        assertEquals(anchor.plusDays(60), nextResolutionOf(captureUpdate()));
+    }
+
+    @Test
+    void notYetOpenWindow_isDueOnTheDayItOpens() {
+        LocalDate anchor = TODAY.plusDays(5);
+        run(habit(7, 0, false, anchor));
+        assertEquals(anchor, nextResolutionOf(captureUpdate()));
+    }
+
+    @Test
+    void endedHabit_isNeverDueAgain() {
+        Habit h = habit(1, 0, false, TODAY.minusDays(3));
+        h.setEndDate(TODAY.minusDays(2));
+        run(h);
+        assertEquals(Habit.NO_RESOLUTION_DUE, nextResolutionOf(captureUpdate()));
+    }
+
+    // --- user sharding ---
+
+    @Test
+    void shardsRunConcurrently_butNeverAboveTheParallelismCap() {
+        List<Habit> habits = IntStream.range(0, 12)
+                .mapToObj(i -> {
+                    Habit h = habit(1, 0, false, TODAY.minusDays(1));
+                    h.setId(100 + i);
+                    h.setUserId("user-" + (i / 2)); // 6 users, 2 habits each, contiguous
+                    return h;
+                }).toList();
+        when(mongoTemplate.stream(any(Query.class), eq(Habit.class))).thenAnswer(inv -> habits.stream());
+        when(mongoTemplate.bulkOps(any(BulkMode.class), any(Class.class))).thenReturn(bulkOps);
+
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        when(mongoTemplate.find(any(Query.class), eq(HabitStructure.class))).thenAnswer(inv -> {
+            int now = running.incrementAndGet();
+            maxRunning.accumulateAndGet(now, Math::max);
+            Thread.sleep(50);
+            running.decrementAndGet();
+            return List.of();
+        });
+
+        EngineRunCounters counters = new HabitUpdateService(mongoTemplate, new HabitStructureManager(mongoTemplate), new EngineRunService(mongoTemplate), EngineThrottle.unlimited(), TodayCache.disabled(), 500, 2, 8, SeedPolicy.ALL).updateAllHabits(lease, freshRun(), EngineScope.everyone());
+
+        assertTrue(maxRunning.get() <= 2, "ran " + maxRunning.get() + " shards at once");
+        assertEquals(6, counters.getShardsProcessed());
+        assertEquals(12, counters.getHabitsScanned());
+        verify(mongoTemplate, times(6)).find(any(Query.class), eq(HabitStructure.class)); // one per user
+        verify(bulkOps, times(12)).updateOne(any(Query.class), any(Update.class));
+    }
+
+    @Test
+    void failingShard_doesNotStopOtherUsers() {
+        Habit alice = habit(1, 0, false, TODAY.minusDays(1));
+        alice.setUserId("alice");
+        Habit bob = habit(1, 0, false, TODAY.minusDays(1));
+        bob.setId(2);
+        bob.setUserId("bob");
+        when(mongoTemplate.stream(any(Query.class), eq(Habit.class))).thenAnswer(inv -> Stream.of(alice, bob));
+        when(mongoTemplate.bulkOps(any(BulkMode.class), any(Class.class))).thenReturn(bulkOps);
+        when(mongoTemplate.find(any(Query.class), eq(HabitStructure.class))).thenAnswer(inv -> {
+            Document criteria = inv.<Query>getArgument(0).getQueryObject();
+            if (List.of(1).equals(((Document) criteria.get("habitId")).get("$in"))) {
+                throw new IllegalStateException("boom");
+            }
+            return List.of();
+        });
+
+        EngineRunCounters counters = service().updateAllHabits(lease, freshRun(), EngineScope.everyone());
+
+        assertEquals(1, counters.getShardsFailed());
+        assertEquals(1, counters.getShardsProcessed());
+    }
+
+    // --- checkpointed runs ---
+
+    @Test
+    void resumedRun_scansAfterTheWatermark_andSkipsUsersDoneAhead() {
+        EngineRun unfinished = EngineRun.builder().id(TODAY.toString()).runDate(TODAY).status(EngineRun.RUNNING)
+                .leaseToken(1L).watermarkUserId("alice").finishedAheadUserIds(new ArrayList<>(List.of("carol"))).build();
+        Habit bob = habit(1, 0, false, TODAY.minusDays(1));
+        bob.setUserId("bob");
+        Habit carol = habit(1, 0, false, TODAY.minusDays(1));
+        carol.setId(2);
+        carol.setUserId("carol");
+        when(mongoTemplate.stream(any(Query.class), eq(Habit.class))).thenAnswer(inv -> Stream.of(bob, carol));
+        when(mongoTemplate.find(any(Query.class), eq(HabitStructure.class))).thenReturn(List.of());
+        when(mongoTemplate.bulkOps(any(BulkMode.class), any(Class.class))).thenReturn(bulkOps);
+
+        EngineRunCounters counters = service().updateAllHabits(lease, unfinished, EngineScope.everyone());
+
+        ArgumentCaptor<Query> scan = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).stream(scan.capture(), eq(Habit.class));
+        assertEquals(new Document("$gt", "alice"), scan.getValue().getQueryObject().get("userId"));
+        assertEquals(1, counters.getShardsProcessed());
+        assertEquals(1, counters.getShardsSkipped());
+        verify(bulkOps, times(1)).updateOne(any(Query.class), any(Update.class)); // bob only
+    }
+
+    @Test
+    void finishedShard_isCheckpointed() {
+        Habit h = habit(1, 0, false, TODAY.minusDays(1));
+        h.setUserId("alice");
+        run(h);
+
+        ArgumentCaptor<Update> runUpdates = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate).updateFirst(any(Query.class), runUpdates.capture(), eq(EngineRun.class));
+        Document checkpoint = (Document) runUpdates.getValue().getUpdateObject().get("$set");
+        assertEquals("alice", checkpoint.get("watermarkUserId"));
+    }
+
+    @Test
+    void counters_tellResolvedHabitsFromMerelyVisitedOnes() {
+        Habit lapsed = habit(1, 0, false, TODAY.minusDays(1));
+        lapsed.setUserId("alice");
+        Habit open = habit(7, 0, false, TODAY.minusDays(1)); // window still open: visited, nothing resolved
+        open.setId(2);
+        open.setUserId("alice");
+        when(mongoTemplate.stream(any(Query.class), eq(Habit.class))).thenAnswer(inv -> Stream.of(lapsed, open));
+        when(mongoTemplate.find(any(Query.class), eq(HabitStructure.class))).thenReturn(List.of());
+        when(mongoTemplate.bulkOps(any(BulkMode.class), any(Class.class))).thenReturn(bulkOps);
+
+        EngineRunCounters counters = service().updateAllHabits(lease, freshRun(), EngineScope.everyone());
+
+        assertEquals(2, counters.getHabitsScanned());
+        assertEquals(1, counters.getHabitsResolved());
+        assertEquals(2, counters.getHabitTimings().count());
+    }
+
+    // --- time-zone buckets ---
+
+    @Test
+    void bucketScope_limitsTheScanToItsZones_andResolvesAsOfTheRunDate() {
+        LocalDate runDate = TODAY.minusDays(1); // a zone still on yesterday
+        EngineRun run = EngineRun.builder().id(runDate + "@America/Los_Angeles").runDate(runDate)
+                .status(EngineRun.RUNNING).leaseToken(1L).build();
+        Habit h = habit(1, 0, false, runDate.minusDays(1));
+        h.setUserId("alice");
+        when(mongoTemplate.stream(any(Query.class), eq(Habit.class))).thenAnswer(inv -> Stream.of(h));
+        when(mongoTemplate.find(any(Query.class), eq(HabitStructure.class))).thenReturn(List.of());
+        when(mongoTemplate.bulkOps(any(BulkMode.class), any(Class.class))).thenReturn(bulkOps);
+
+        service().updateAllHabits(lease, run, EngineScope.inZones(List.of("America/Los_Angeles")));
+
+        ArgumentCaptor<Query> scan = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).stream(scan.capture(), eq(Habit.class));
+        assertEquals(new Document("$in", List.of("America/Los_Angeles")), scan.getValue().getQueryObject().get("timeZone"));
+        assertFalse(scan.getValue().getQueryObject().containsKey("userId")); // no user-id list
+        assertEquals(runDate, curDateOf(captureUpdate())); // one window closed as of the run date, not today
+    }
+
+    @Test
+    void bucketScope_withTheServerZone_alsoCoversHabitsWithoutAZone_andKeepsTheWatermark() {
+        Query query = service().dueHabitsQuery(TODAY, EngineScope.inZones(java.util.Arrays.asList("Europe/London", null)), "alice");
+
+        Document zone = (Document) query.getQueryObject().get("timeZone");
+        assertEquals(java.util.Arrays.asList("Europe/London", null), zone.get("$in"));
+        assertEquals(new Document("$gt", "alice"), query.getQueryObject().get("userId"));
+    }
+
+    @Test
+    void userScope_limitsTheScanToThoseUsers() {
+        Query query = service().dueHabitsQuery(TODAY, new EngineScope(List.of("bob"), true), null);
+
+        assertEquals(new Document("$in", java.util.Arrays.asList("bob", null)), query.getQueryObject().get("userId"));
+        assertFalse(query.getQueryObject().containsKey("timeZone"));
+    }
+
+    // --- leadership ---
+
+    @Test
+    void habitUpdate_isConditionalOnTheCurDateThePassStartedFrom() {
+        LocalDate anchor = TODAY.minusDays(1);
+        run(habit(1, 0, false, anchor));
+        ArgumentCaptor<Query> captor = ArgumentCaptor.forClass(Query.class);
+        verify(bulkOps).updateOne(captor.capture(), any(Update.class));
+        assertEquals(anchor, captor.getValue().getQueryObject().get("curDate"));
+    }
+
+    @Test
+    void lostLease_stopsHandingOutShards() {
+        LeaderLease expiring = new LeaderLease(null, EngineLeaseService.DAILY_ENGINE, 1L, Instant.MAX);
+        Habit alice = habit(1, 0, false, TODAY.minusDays(1));
+        alice.setUserId("alice");
+        Habit bob = habit(1, 0, false, TODAY.minusDays(1));
+        bob.setId(2);
+        bob.setUserId("bob");
+        Habit carol = habit(1, 0, false, TODAY.minusDays(1));
+        carol.setId(3);
+        carol.setUserId("carol");
+        // The lease is lost while the cursor is on bob: alice was already handed out, nobody after.
+        when(mongoTemplate.stream(any(Query.class), eq(Habit.class))).thenAnswer(inv -> Stream.of(alice, bob, carol)
+                .peek(h -> { if (h == bob) expiring.markLost(); }));
+        when(mongoTemplate.find(any(Query.class), eq(HabitStructure.class))).thenReturn(List.of());
+        when(mongoTemplate.bulkOps(any(BulkMode.class), any(Class.class))).thenReturn(bulkOps);
+
+        EngineRunCounters counters = service().updateAllHabits(expiring, freshRun(), EngineScope.everyone());
+
+        assertFalse(counters.isComplete());
+        assertTrue(counters.getShardsProcessed() <= 1);
+        verify(mongoTemplate, atMost(1)).find(any(Query.class), eq(HabitStructure.class));
+    }
+
+    @Test
+    void fencedCheckpoint_meansAnotherLeaderTookOver() {
+        Habit h = habit(1, 0, false, TODAY.minusDays(1));
+        h.setUserId("alice");
+        when(mongoTemplate.updateFirst(any(Query.class), any(UpdateDefinition.class), eq(EngineRun.class)))
+                .thenReturn(com.mongodb.client.result.UpdateResult.acknowledged(0, 0L, null));
+        run(h);
+        assertFalse(lease.isHeld());
+    }
+
     // --- guards ---
 
+    @Test
+    void resolveHabits_resolvesOnlyTheHabitsStillDue_asOfEachOwnersLocalDate() {
+        Habit due = habit(1, 2, false, TODAY.minusDays(1));
+        due.setUserId("kenji");
+        Habit notYet = habit(1, 2, false, TODAY.minusDays(1));
+        notYet.setId(2);
+        notYet.setUserId("kenji");
+        notYet.setNextResolutionDate(TODAY.plusDays(1)); // already moved on by another replica
+        when(mongoTemplate.find(any(Query.class), eq(Habit.class))).thenReturn(List.of(due, notYet));
+        when(mongoTemplate.find(any(Query.class), eq(HabitStructure.class))).thenReturn(structures);
+        when(mongoTemplate.bulkOps(any(BulkMode.class), any(Class.class))).thenReturn(bulkOps);
+
+        EngineRunCounters counters = service().resolveHabits(List.of(1, 2), userId -> TODAY, lease);
+
+        assertEquals(1, counters.getHabitsResolved());
+        Update update = captureUpdate();
+        assertEquals(0, streakOf(update)); // 2 -> 0: yesterday's window lapsed
+        assertEquals(TODAY, ((Document) update.getUpdateObject().get("$set")).get("curDate"));
+    }
+
+    @Test
+    void resolveDue_outsideARun_queriesOnlyTheUsersDueHabits_andResolvesThem() {
+        Habit due = habit(1, 2, false, TODAY.minusDays(1));
+        due.setUserId("kenji");
+        when(mongoTemplate.find(any(Query.class), eq(Habit.class))).thenReturn(List.of(due));
+        when(mongoTemplate.find(any(Query.class), eq(HabitStructure.class))).thenReturn(structures);
+        when(mongoTemplate.bulkOps(any(BulkMode.class), any(Class.class))).thenReturn(bulkOps);
+
+        EngineRunCounters counters = service().resolveDue(new EngineScope(List.of("kenji"), false), TODAY);
+
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).find(query.capture(), eq(Habit.class));
+        assertEquals(new Document("$in", List.of("kenji")), query.getValue().getQueryObject().get("userId"));
+        assertTrue(counters.isComplete());
+        assertEquals(1, counters.getHabitsResolved());
+        assertEquals(0, streakOf(captureUpdate()));
+    }
+
+    @Test
+    void resolveDueForUser_onTheRequestPath_neverTouchesTheEngineThrottle() {
+        Habit due = habit(1, 2, false, TODAY.minusDays(1));
+        due.setUserId("kenji");
+        when(mongoTemplate.find(any(Query.class), eq(Habit.class))).thenReturn(List.of(due));
+        when(mongoTemplate.find(any(Query.class), eq(HabitStructure.class))).thenReturn(structures);
+        when(mongoTemplate.bulkOps(any(BulkMode.class), any(Class.class))).thenReturn(bulkOps);
+        EngineThrottle throttle = mock(EngineThrottle.class);
+
+        EngineRunCounters counters = new HabitUpdateService(mongoTemplate, new HabitStructureManager(mongoTemplate),
+                new EngineRunService(mongoTemplate), throttle, TodayCache.disabled(), 500, 4, 8, SeedPolicy.ALL)
+                .resolveDueForUser("kenji", TODAY);
+
+        assertEquals(1, counters.getHabitsResolved());
+        verifyNoInteractions(throttle); // the lookup, the structure range and the write batch all skip it
+    }
+
+    @Test
+    void resolveDue_withNothingDue_isOneEmptyQuery() {
+        when(mongoTemplate.find(any(Query.class), eq(Habit.class))).thenReturn(List.of());
+
+        EngineRunCounters counters = service().resolveDue(new EngineScope(List.of("kenji"), false), TODAY);
+
+        assertEquals(0, counters.getHabitsScanned());
+        verify(mongoTemplate, never()).find(any(Query.class), eq(HabitStructure.class));
+        verify(mongoTemplate, never()).bulkOps(any(BulkMode.class), any(Class.class));
+    }
+
     @Test
     void inactiveHabit_isSkipped() {
         Habit inactive = habit(1, 0, false, TODAY.minusDays(1));
         inactive.setActive(false);
         run(inactive);
-        verify(mongoTemplate, never()).updateFirst(any(), any(), eq(Habit.class));
+        verify(bulkOps, never()).updateOne(any(Query.class), any(Update.class));
     }
 
     @Test
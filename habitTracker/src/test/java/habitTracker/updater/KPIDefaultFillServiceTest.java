@@ -1,27 +1,44 @@
 package habitTracker.updater;
 
 import habitTracker.KPI.KPI;
+import habitTracker.KPI.KPIData;
 import habitTracker.KPI.KPIRepository;
 import habitTracker.KPI.KPIService;
+import org.bson.Document;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 
 import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Collections;
 import java.util.List;
 
+import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.*;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
 class KPIDefaultFillServiceTest {
 
     @Mock KPIRepository kpiRepository;
     @Mock KPIService kpiService;
+    @Mock MongoTemplate mongoTemplate;
 
     private KPIDefaultFillService service() {
-        return new KPIDefaultFillService(kpiRepository, kpiService);
+        return new KPIDefaultFillService(kpiRepository, kpiService, EngineThrottle.unlimited(), mongoTemplate, 31, 4);
+    }
+
+    private static List<KPIData> days(int n) {
+        return Collections.nCopies(n, KPIData.builder().value(1.0).build());
     }
 
     @Test
@@ -31,11 +48,11 @@ class KPIDefaultFillServiceTest {
         service().fillMissingDefaults();
 
         verify(kpiRepository).findByActiveAndAutoFillEnabled(true, true);
-        verifyNoInteractions(kpiService);
+        verifyNoInteractions(kpiService, mongoTemplate);
     }
 
     @Test
-    void fillMissingDefaults_targetsYesterday_forEachCandidateKPI() {
+    void fillMissingDefaults_fillsThroughYesterday_atMostMaxDaysBack() {
         KPI kpi1 = KPI.builder().id("k1").userId("alice").build();
         KPI kpi2 = KPI.builder().id("k2").userId("bob").build();
         when(kpiRepository.findByActiveAndAutoFillEnabled(true, true)).thenReturn(List.of(kpi1, kpi2));
@@ -43,23 +60,69 @@ class KPIDefaultFillServiceTest {
         service().fillMissingDefaults();
 
         LocalDate yesterday = LocalDate.now().minusDays(1);
-        verify(kpiService).fillDefaultIfMissing(kpi1, yesterday);
-        verify(kpiService).fillDefaultIfMissing(kpi2, yesterday);
+        verify(kpiService).planDefaultFill(kpi1, yesterday.minusDays(30), yesterday);
+        verify(kpiService).planDefaultFill(kpi2, yesterday.minusDays(30), yesterday);
     }
 
     @Test
-    void fillMissingDefaults_oneKPIsFailureDoesNotResultInOthersNotBeingProcessed() {
-        // fillDefaultIfMissing itself is @Transactional per-KPI in KPIService; the cron loop here
-        // must still attempt every candidate even if an earlier one is a no-op.
-        KPI kpi1 = KPI.builder().id("k1").userId("alice").build();
-        KPI kpi2 = KPI.builder().id("k2").userId("bob").build();
-        when(kpiRepository.findByActiveAndAutoFillEnabled(true, true)).thenReturn(List.of(kpi1, kpi2));
-        when(kpiService.fillDefaultIfMissing(eq(kpi1), any())).thenReturn(false);
-        when(kpiService.fillDefaultIfMissing(eq(kpi2), any())).thenReturn(true);
+    void gapStartsAfterTheLastCoveredDay_andNotBeforeTheKPIExisted() {
+        LocalDate target = LocalDate.of(2025, 3, 10);
+        KPI covered = KPI.builder().id("k1").userId("alice").autoFilledThrough(LocalDate.of(2025, 3, 6)).build();
+        KPI young = KPI.builder().id("k2").userId("alice").createdAt(LocalDateTime.of(2025, 3, 8, 12, 0)).build();
+        KPI upToDate = KPI.builder().id("k3").userId("alice").autoFilledThrough(target).build();
+        when(kpiRepository.findByActiveAndAutoFillEnabled(true, true)).thenReturn(List.of(covered, young, upToDate));
 
-        service().fillMissingDefaults();
+        service().fillMissingDefaults(target, EngineScope.everyone());
+
+        verify(kpiService).planDefaultFill(covered, LocalDate.of(2025, 3, 7), target);
+        verify(kpiService).planDefaultFill(young, LocalDate.of(2025, 3, 8), target);
+        verify(kpiService, never()).planDefaultFill(eq(upToDate), any(), any());
+    }
+
+    @Test
+    void eachKPIsGap_isWrittenAsOneBulkWrite_andTheRunMarksThemCovered() {
+        LocalDate target = LocalDate.of(2025, 3, 10);
+        KPI kpi = KPI.builder().id("k1").userId("alice").build();
+        when(kpiRepository.findByActiveAndAutoFillEnabled(true, true)).thenReturn(List.of(kpi));
+        List<KPIData> gap = days(3);
+        when(kpiService.planDefaultFill(eq(kpi), any(), eq(target))).thenReturn(gap);
+        when(kpiService.writeDefaultFill(kpi, gap)).thenReturn(3);
+
+        assertEquals(1, service().fillMissingDefaults(target, EngineScope.everyone()));
+
+        verify(kpiService, times(1)).writeDefaultFill(kpi, gap);
+        ArgumentCaptor<Update> mark = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate).updateMulti(any(Query.class), mark.capture(), eq(KPI.class));
+        assertEquals(new Document("autoFilledThrough", target), mark.getValue().getUpdateObject().get("$set"));
+    }
+
+    @Test
+    void oneKPIsFailure_doesNotStopTheOthers_butKeepsTheRunIncomplete() {
+        LocalDate target = LocalDate.of(2025, 3, 10);
+        KPI broken = KPI.builder().id("k1").userId("alice").build();
+        KPI fine = KPI.builder().id("k2").userId("bob").build();
+        when(kpiRepository.findByActiveAndAutoFillEnabled(true, true)).thenReturn(List.of(broken, fine));
+        when(kpiService.planDefaultFill(eq(broken), any(), any())).thenThrow(new IllegalStateException("boom"));
+        when(kpiService.planDefaultFill(eq(fine), any(), any())).thenReturn(days(1));
+        when(kpiService.writeDefaultFill(eq(fine), any())).thenReturn(1);
+
+        assertThrows(IllegalStateException.class, () -> service().fillMissingDefaults(target, EngineScope.everyone()));
+
+        verify(kpiService).writeDefaultFill(eq(fine), any());
+        ArgumentCaptor<Query> marked = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).updateMulti(marked.capture(), any(Update.class), eq(KPI.class));
+        assertEquals(new Document("$in", List.of("k2")), marked.getValue().getQueryObject().get("id")); // k1 is retried
+    }
+
+    @Test
+    void fillMissingDefaults_forABucket_onlyScansItsZonesKPIs_forItsLocalYesterday() {
+        KPI kpi = KPI.builder().id("k1").userId("kenji").timeZone("Asia/Tokyo").build();
+        LocalDate tokyoYesterday = LocalDate.of(2025, 3, 2);
+        when(kpiRepository.findByActiveAndAutoFillEnabledAndTimeZoneIn(true, true, List.of("Asia/Tokyo"))).thenReturn(List.of(kpi));
+
+        service().fillMissingDefaults(tokyoYesterday, EngineScope.inZones(List.of("Asia/Tokyo")));
 
-        verify(kpiService).fillDefaultIfMissing(eq(kpi1), any());
-        verify(kpiService).fillDefaultIfMissing(eq(kpi2), any());
+        verify(kpiService).planDefaultFill(eq(kpi), any(), eq(tokyoYesterday));
+        verify(kpiRepository, never()).findByActiveAndAutoFillEnabled(any(), any());
     }
 }
@@ -0,0 +1,46 @@
+package habitTracker.updater;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LatencyHistogramTest {
+
+    @Test
+    void buckets_areContiguous_andEachValueFallsInsideItsBucket() {
+        for (long v = 0; v < 100_000; v++) {
+            int index = LatencyHistogram.indexOf(v);
+            assertTrue(v <= LatencyHistogram.upperBoundOf(index), "value " + v);
+            assertTrue(index == 0 || v > LatencyHistogram.upperBoundOf(index - 1), "value " + v);
+        }
+        assertDoesNotThrow(() -> new LatencyHistogram().record(Long.MAX_VALUE));
+    }
+
+    @Test
+    void percentiles_areWithinTheBucketPrecision() {
+        Random random = new Random(7);
+        long[] values = new long[10_000];
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (long) Math.abs(random.nextGaussian() * 400) + 20;
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+
+        for (double q : new double[] {0.5, 0.99}) {
+            long exact = values[(int) Math.ceil(q * values.length) - 1];
+            long reported = histogram.percentile(q);
+            assertTrue(reported >= exact && reported <= exact * 1.125 + 1, q + ": " + reported + " vs " + exact);
+        }
+        assertEquals(values[values.length - 1], histogram.max());
+        assertEquals(values.length, histogram.count());
+    }
+
+    @Test
+    void empty_reportsZero() {
+        assertEquals(0, new LatencyHistogram().percentile(0.99));
+    }
+}
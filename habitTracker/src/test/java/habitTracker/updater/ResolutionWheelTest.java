@@ -0,0 +1,174 @@
+package habitTracker.updater;
+
+import habitTracker.Habit.Habit;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class ResolutionWheelTest {
+
+    private static final ZoneId TOKYO = ZoneId.of("Asia/Tokyo");
+    // 2025-03-02 22:00 in Tokyo
+    private static final Instant NOW = Instant.parse("2025-03-02T13:00:00Z");
+    private static final LocalDate TOKYO_TODAY = LocalDate.of(2025, 3, 2);
+    private static final long SPREAD_MILLIS = 30 * 60_000L;
+
+    @Mock MongoTemplate mongoTemplate;
+    @Mock HabitUpdateService habitUpdateService;
+    @Mock EngineLeaseService engineLeaseService;
+    @Mock EngineBuckets engineBuckets;
+
+    private final AtomicLong clock = new AtomicLong(NOW.toEpochMilli());
+    private ResolutionWheel wheel;
+
+    @BeforeEach
+    void setUp() {
+        when(engineBuckets.serverZone()).thenReturn(ZoneId.of("UTC"));
+        when(engineBuckets.zonesOf(any())).thenAnswer(inv -> {
+            Map<String, ZoneId> zones = new HashMap<>();
+            for (String userId : inv.<Collection<String>>getArgument(0)) {
+                zones.put(userId, TOKYO);
+            }
+            return zones;
+        });
+        wheel = new ResolutionWheel(mongoTemplate, habitUpdateService, engineLeaseService, engineBuckets,
+                true, 30, 6, clock::get);
+    }
+
+    private static Habit habit(int id, LocalDate nextResolutionDate, boolean active) {
+        return Habit.builder().id(id).userId("kenji").active(active).nextResolutionDate(nextResolutionDate).build();
+    }
+
+    private void leader() {
+        when(engineLeaseService.tryAcquire(EngineLeaseService.DAILY_ENGINE)).thenReturn(
+                new LeaderLease(engineLeaseService, EngineLeaseService.DAILY_ENGINE, 1L, Instant.MAX));
+    }
+
+    private void at(Instant instant) {
+        clock.set(instant.toEpochMilli());
+    }
+
+    private long tokyoMidnight(LocalDate date) {
+        return date.atStartOfDay(TOKYO).toInstant().toEpochMilli();
+    }
+
+    @Test
+    void deadline_isTheOwnersLocalMidnight_plusAStableOffsetWithinTheSpread() {
+        long midnight = tokyoMidnight(TOKYO_TODAY.plusDays(1));
+        for (int id = 1; id < 200; id++) {
+            long deadline = wheel.deadline(id, TOKYO_TODAY.plusDays(1), TOKYO);
+            assertTrue(deadline >= midnight && deadline < midnight + SPREAD_MILLIS, "habit " + id);
+            assertEquals(deadline, wheel.deadline(id, TOKYO_TODAY.plusDays(1), TOKYO));
+        }
+    }
+
+    @Test
+    void habitFires_whenItsWindowCloses_asOfTheOwnersLocalDate() {
+        leader();
+        Habit habit = habit(7, TOKYO_TODAY.plusDays(1), true);
+        wheel.habitChanged(habit);
+        long deadline = wheel.deadline(7, TOKYO_TODAY.plusDays(1), TOKYO);
+
+        at(Instant.ofEpochMilli(deadline - 1_000));
+        wheel.tick();
+        verifyNoInteractions(habitUpdateService);
+
+        when(mongoTemplate.find(any(Query.class), eq(Habit.class)))
+                .thenReturn(List.of(habit(7, TOKYO_TODAY.plusDays(2), true)));
+        when(habitUpdateService.resolveHabits(any(), any(), any())).thenReturn(new EngineRunCounters());
+        at(Instant.ofEpochMilli(deadline + 1_000));
+        wheel.tick();
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<Function<String, LocalDate>> todayOf = ArgumentCaptor.forClass(Function.class);
+        verify(habitUpdateService).resolveHabits(eq(List.of(7)), todayOf.capture(), any());
+        assertEquals(TOKYO_TODAY.plusDays(1), todayOf.getValue().apply("kenji"));
+        verify(engineLeaseService).release(any());
+        assertTrue(wheel.isScheduled(7)); // rescheduled for the next window
+    }
+
+    @Test
+    void leaseBusy_retriesShortlyInsteadOfDroppingTheHabit() {
+        when(engineLeaseService.tryAcquire(EngineLeaseService.DAILY_ENGINE)).thenReturn(null);
+        wheel.habitChanged(habit(7, TOKYO_TODAY.plusDays(1), true));
+        long deadline = wheel.deadline(7, TOKYO_TODAY.plusDays(1), TOKYO);
+
+        at(Instant.ofEpochMilli(deadline + 1_000));
+        wheel.tick();
+
+        verifyNoInteractions(habitUpdateService);
+        assertTrue(wheel.isScheduled(7));
+        leader();
+        when(habitUpdateService.resolveHabits(any(), any(), any())).thenReturn(new EngineRunCounters());
+        at(Instant.ofEpochMilli(deadline + 1_000 + ResolutionWheel.RETRY_DELAY_MILLIS + 1_000));
+        wheel.tick();
+        verify(habitUpdateService).resolveHabits(eq(List.of(7)), any(), any());
+    }
+
+    @Test
+    void inactiveOrEndedHabits_areTakenOffTheWheel() {
+        wheel.habitChanged(habit(7, TOKYO_TODAY.plusDays(1), true));
+        wheel.habitChanged(habit(8, TOKYO_TODAY.plusDays(1), true));
+
+        wheel.habitChanged(habit(7, TOKYO_TODAY.plusDays(1), false));
+        wheel.habitChanged(habit(8, Habit.NO_RESOLUTION_DUE, true));
+
+        assertFalse(wheel.isScheduled(7));
+        assertFalse(wheel.isScheduled(8));
+    }
+
+    @Test
+    void toggleOrEdit_schedulesTheHabitAtTheNextLocalMidnight_neverRightAway() {
+        leader();
+        wheel.dueAtNextMidnight(7, "kenji");
+        wheel.habitChanged(habit(8, null, true)); // an edit reset nextResolutionDate
+
+        at(NOW.plusSeconds(60));
+        wheel.tick();
+        verifyNoInteractions(habitUpdateService);
+
+        when(habitUpdateService.resolveHabits(any(), any(), any())).thenReturn(new EngineRunCounters());
+        at(Instant.ofEpochMilli(tokyoMidnight(TOKYO_TODAY.plusDays(1)) + SPREAD_MILLIS));
+        wheel.tick();
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<Collection<Integer>> fired = ArgumentCaptor.forClass(Collection.class);
+        verify(habitUpdateService).resolveHabits(fired.capture(), any(), any());
+        assertEquals(List.of(7, 8), fired.getValue().stream().sorted().toList());
+    }
+
+    @Test
+    void disabled_wheelIgnoresChanges() {
+        ResolutionWheel off = new ResolutionWheel(mongoTemplate, habitUpdateService, engineLeaseService, engineBuckets,
+                false, 30, 6, clock::get);
+
+        off.habitChanged(habit(7, TOKYO_TODAY.plusDays(1), true));
+        off.dueAtNextMidnight(8, "kenji");
+        off.start();
+
+        assertEquals(0, off.size());
+        verifyNoInteractions(mongoTemplate);
+    }
+}
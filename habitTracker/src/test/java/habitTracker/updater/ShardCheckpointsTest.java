@@ -0,0 +1,104 @@
+package habitTracker.updater;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+
+import java.time.Instant;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class ShardCheckpointsTest {
+
+    @Mock EngineRunService engineRunService;
+
+    private final LeaderLease lease = new LeaderLease(null, EngineLeaseService.DAILY_ENGINE, 1L, Instant.MAX);
+
+    @BeforeEach
+    void checkpointsAreAccepted() {
+        when(engineRunService.checkpoint(any(), any(), any())).thenReturn(true);
+    }
+
+    private EngineRun freshRun() {
+        return EngineRun.builder().id("2024-06-01").status(EngineRun.RUNNING).build();
+    }
+
+    @Test
+    void watermark_waitsForEarlierShards_whenTheyFinishOutOfOrder() {
+        EngineRun run = freshRun();
+        ShardCheckpoints checkpoints = new ShardCheckpoints(engineRunService, run, lease);
+        checkpoints.submitted("a");
+        checkpoints.submitted("b");
+        checkpoints.submitted("c");
+
+        checkpoints.finished("b");
+        verify(engineRunService).checkpoint(run, null, List.of("b"));
+
+        checkpoints.finished("a");
+        verify(engineRunService).checkpoint(run, "b", List.of());
+
+        checkpoints.finished("c");
+        verify(engineRunService).checkpoint(run, "c", List.of());
+    }
+
+    @Test
+    void failedShard_holdsTheWatermark_soAResumeRetriesIt() {
+        EngineRun run = freshRun();
+        ShardCheckpoints checkpoints = new ShardCheckpoints(engineRunService, run, lease);
+        checkpoints.submitted("a");
+        checkpoints.submitted("b");
+        checkpoints.submitted("c");
+
+        checkpoints.finished("a");
+        // "b" failed: never finished
+        checkpoints.finished("c");
+
+        verify(engineRunService).checkpoint(run, "a", List.of("c"));
+    }
+
+    @Test
+    void resumedRun_skipsUsersDoneAhead_andDropsThemOnceTheWatermarkPasses() {
+        EngineRun run = freshRun();
+        run.setWatermarkUserId("a");
+        run.setFinishedAheadUserIds(new ArrayList<>(List.of("c")));
+        ShardCheckpoints checkpoints = new ShardCheckpoints(engineRunService, run, lease);
+
+        assertTrue(checkpoints.isDone("c"));
+        assertFalse(checkpoints.isDone("b"));
+
+        checkpoints.submitted("b");
+        checkpoints.submitted("d");
+        checkpoints.finished("b");
+        verify(engineRunService).checkpoint(run, "b", List.of("c"));
+        checkpoints.finished("d");
+        verify(engineRunService).checkpoint(run, "d", List.of());
+    }
+
+    @Test
+    void legacyHabitsWithoutOwner_areNotCheckpointed() {
+        ShardCheckpoints checkpoints = new ShardCheckpoints(engineRunService, freshRun(), lease);
+        checkpoints.submitted(null);
+        checkpoints.finished(null);
+        verify(engineRunService, never()).checkpoint(any(), any(), any());
+    }
+
+    @Test
+    void fencedCheckpoint_losesTheLease() {
+        when(engineRunService.checkpoint(any(), any(), any())).thenReturn(false);
+        ShardCheckpoints checkpoints = new ShardCheckpoints(engineRunService, freshRun(), lease);
+        checkpoints.submitted("a");
+        checkpoints.finished("a");
+        assertFalse(lease.isHeld());
+    }
+}
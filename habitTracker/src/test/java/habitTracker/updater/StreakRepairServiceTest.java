@@ -0,0 +1,195 @@
+package habitTracker.updater;
+
+import com.mongodb.bulk.BulkWriteResult;
+import habitTracker.Habit.Habit;
+import habitTracker.Structure.HabitStructure;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class StreakRepairServiceTest {
+
+    private static final LocalDate D0 = LocalDate.of(2022, 1, 3);
+    private static final int[] FREQUENCIES = {1, 2, 3, 7, 30};
+
+    private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+    private final BulkOperations habitOps = mock(BulkOperations.class);
+    private final StreakRepairService service = new StreakRepairService(mongoTemplate, EngineThrottle.unlimited(), 500, 2);
+
+    StreakRepairServiceTest() {
+        when(mongoTemplate.bulkOps(BulkMode.UNORDERED, Habit.class)).thenReturn(habitOps);
+        when(habitOps.execute()).thenAnswer(inv -> BulkWriteResult.acknowledged(0, 1, 0, 1, List.of(), List.of()));
+    }
+
+    private static Habit habit(int id, int freq, boolean defaultMade, LocalDate startDate) {
+        return Habit.builder()
+                .id(id).name("h" + id).frequency(freq).startDate(startDate).curDate(startDate)
+                .streak(0).longestStreak(0).defaultMade(defaultMade).active(true).userId("alice").build();
+    }
+
+    private static HabitStructure row(int habitId, LocalDate date, boolean completed) {
+        return HabitStructure.builder().habitId(habitId).structureDate(date).completed(completed).build();
+    }
+
+    @Test
+    void recompute_agreesWithTheEngineRunDailyOverTheWholeHistory() {
+        Random random = new Random(20220103L);
+        List<Habit> habits = new ArrayList<>();
+        List<HabitStructure> rows = new ArrayList<>();
+        LocalDate to = D0.plusDays(1100);
+        for (int id = 1; id <= 40; id++) {
+            int freq = FREQUENCIES[random.nextInt(FREQUENCIES.length)];
+            Habit habit = habit(id, freq, random.nextInt(4) == 0, D0.plusDays(random.nextInt(90)));
+            if (random.nextInt(5) == 0) {
+                habit.setEndDate(D0.plusDays(300 + random.nextInt(600)));
+            }
+            habits.add(habit);
+            double rate = random.nextDouble();
+            for (LocalDate day = habit.getStartDate(); !day.isAfter(to); day = day.plusDays(1)) {
+                if (random.nextDouble() < rate / freq) {
+                    rows.add(row(id, day, !Boolean.TRUE.equals(habit.getDefaultMade())));
+                }
+            }
+        }
+        EngineReplay.Result engine = EngineReplay.detached(Integer.MAX_VALUE, SeedPolicy.ALL)
+                .run(habits, rows, D0, to, EngineReplay.Cadence.ALL, 1);
+        HabitStructureIndex index = HabitStructureIndex.of(rows);
+
+        for (Habit habit : habits) {
+            EngineReplay.Point expected = engine.finalStates().get(habit.getId());
+            habit.setCurDate(expected.curDate()); // where the engine stands; the stored streak drifted
+            habit.setStreak(expected.streak() + 3);
+            habit.setLongestStreak(expected.longestStreak());
+
+            StreakRepairService.Drift drift = StreakRepairService.recompute(habit, index);
+
+            assertNotNull(drift, "habit " + habit.getId());
+            assertEquals(expected.streak(), drift.streak(), "habit " + habit.getId());
+            assertEquals(expected.longestStreak(), drift.longestStreak(), "habit " + habit.getId());
+        }
+    }
+
+    @Test
+    void recompute_reportsNothing_whenTheStoredValuesAreRight() {
+        Habit daily = habit(1, 1, false, D0);
+        daily.setCurDate(D0.plusDays(4));
+        daily.setStreak(-1);
+        daily.setLongestStreak(2);
+        // done, done, missed, missed → the stored values already match
+        HabitStructureIndex rows = HabitStructureIndex.of(List.of(
+                row(1, D0, true), row(1, D0.plusDays(1), true), row(1, D0.plusDays(2), false)));
+
+        assertNull(StreakRepairService.recompute(daily, rows));
+    }
+
+    @Test
+    void repairUser_writesOneConditionalUpdatePerDriftedHabit() {
+        Habit drifted = habit(1, 1, false, D0);
+        drifted.setCurDate(D0.plusDays(2));
+        drifted.setStreak(9);
+        drifted.setLongestStreak(9);
+        Habit fine = habit(2, 1, false, D0);
+        when(mongoTemplate.find(any(Query.class), eq(Habit.class))).thenReturn(List.of(drifted, fine));
+        when(mongoTemplate.find(any(Query.class), eq(HabitStructure.class)))
+                .thenReturn(List.of(row(1, D0, true), row(1, D0.plusDays(1), true)));
+        StreakRepairService.Totals totals = new StreakRepairService.Totals();
+
+        List<StreakRepairService.Drift> drifts = service.repairUser("alice", false, totals);
+
+        assertEquals(List.of(new StreakRepairService.Drift(1, "alice", 9, 9, null, 2, 2, 0)), drifts);
+        ArgumentCaptor<Query> match = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        verify(habitOps, times(1)).updateOne(match.capture(), update.capture());
+        assertEquals(new Document("id", 1).append("curDate", D0.plusDays(2)), match.getValue().getQueryObject());
+        assertEquals(new Document("streak", 2).append("longestStreak", 2).append("lastNegativeStreak", 0),
+                update.getValue().getUpdateObject().get("$set"));
+        assertEquals(1, totals.habitsRepaired.get());
+    }
+
+    @Test
+    void dryRun_reportsTheDrift_butWritesNothing() {
+        Habit drifted = habit(1, 1, false, D0);
+        drifted.setCurDate(D0.plusDays(1));
+        drifted.setStreak(5);
+        when(mongoTemplate.find(any(Query.class), eq(Habit.class))).thenReturn(List.of(drifted));
+        when(mongoTemplate.find(any(Query.class), eq(HabitStructure.class))).thenReturn(List.of());
+
+        List<StreakRepairService.Drift> drifts = service.repairUser("alice", true, new StreakRepairService.Totals());
+
+        assertEquals(-1, drifts.get(0).streak());
+        verify(mongoTemplate, never()).bulkOps(any(), eq(Habit.class));
+    }
+
+    @Test
+    void repairAll_coversEveryUser_andOneUsersFailureDoesNotStopTheOthers() {
+        List<String> users = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            users.add(String.format("user%03d", i));
+        }
+        when(mongoTemplate.findDistinct(any(Query.class), eq("userId"), eq(Habit.class), eq(String.class))).thenReturn(users);
+        when(mongoTemplate.find(any(Query.class), eq(Habit.class))).thenAnswer(inv -> {
+            Query query = inv.getArgument(0);
+            String userId = query.getQueryObject().getString("userId");
+            if ("user042".equals(userId)) {
+                throw new IllegalStateException("boom");
+            }
+            Habit habit = habit(1, 1, false, D0);
+            habit.setUserId(userId);
+            habit.setCurDate(D0.plusDays(1));
+            habit.setStreak(1); // day 0 was never done
+            return List.of(habit);
+        });
+        when(mongoTemplate.find(any(Query.class), eq(HabitStructure.class))).thenReturn(List.of());
+
+        StreakRepairService.Report report = service.repairAll(false);
+
+        assertEquals(100, report.usersScanned());
+        assertEquals(99, report.habitsScanned());
+        assertEquals(99, report.habitsDrifted());
+        assertEquals(1, report.usersFailed());
+        assertEquals(99, report.drifts().size());
+    }
+
+    @Test
+    void start_runsInTheBackground_oneAtATime_andStoresTheReport() {
+        List<Runnable> queued = new ArrayList<>();
+        StreakRepairService background = new StreakRepairService(mongoTemplate, EngineThrottle.unlimited(), 500, 2, queued::add);
+        when(mongoTemplate.insert(any(StreakRepairRun.class))).thenAnswer(inv -> {
+            StreakRepairRun run = inv.getArgument(0);
+            run.setId("r1");
+            return run;
+        });
+        when(mongoTemplate.findDistinct(any(Query.class), eq("userId"), eq(Habit.class), eq(String.class))).thenReturn(List.of());
+
+        StreakRepairRun started = background.start(true);
+
+        assertEquals(StreakRepairRun.RUNNING, started.getStatus());
+        assertNull(background.start(true)); // still running
+        verify(mongoTemplate, never()).findDistinct(any(Query.class), eq("userId"), eq(Habit.class), eq(String.class)); // nothing ran yet
+
+        queued.remove(0).run();
+
+        ArgumentCaptor<StreakRepairRun> stored = ArgumentCaptor.forClass(StreakRepairRun.class);
+        verify(mongoTemplate).save(stored.capture());
+        assertEquals("r1", stored.getValue().getId());
+        assertEquals(StreakRepairRun.FINISHED, stored.getValue().getStatus());
+        assertTrue(stored.getValue().getReport().dryRun());
+        assertNotNull(stored.getValue().getFinishedAt());
+        assertEquals(StreakRepairRun.RUNNING, started.getStatus()); // the 202 body is not touched afterwards
+        assertNotNull(background.start(false)); // free again
+    }
+}
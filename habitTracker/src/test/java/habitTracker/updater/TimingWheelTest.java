@@ -0,0 +1,94 @@
+package habitTracker.updater;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TimingWheelTest {
+
+    private static final long TICK = 1_000;
+    private static final long START = 1_700_000_123_456L;
+
+    @Test
+    void keyExpiresOnTheTickOfItsDeadline_notBefore() {
+        TimingWheel<String> wheel = new TimingWheel<>(TICK, START);
+        wheel.schedule("a", START + 5_500);
+
+        assertEquals(List.of(), wheel.advance(START + 5_400));
+        assertEquals(List.of("a"), wheel.advance(START + 6_000));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void farDeadlines_cascadeDownThroughTheLevels() {
+        TimingWheel<String> wheel = new TimingWheel<>(TICK, START);
+        long inTwoMonths = START + 60L * 24 * 3600 * 1000;
+        wheel.schedule("far", inTwoMonths);
+
+        assertEquals(List.of(), wheel.advance(inTwoMonths - TICK));
+        assertEquals(List.of("far"), wheel.advance(inTwoMonths + TICK));
+    }
+
+    @Test
+    void reschedulingMovesTheKey_andCancelRemovesIt() {
+        TimingWheel<String> wheel = new TimingWheel<>(TICK, START);
+        wheel.schedule("a", START + 10_000);
+        wheel.schedule("a", START + 100_000);
+        wheel.schedule("b", START + 10_000);
+        wheel.cancel("b");
+
+        assertEquals(List.of(), wheel.advance(START + 50_000));
+        assertEquals(List.of("a"), wheel.advance(START + 101_000)); // first tick at or after the deadline
+    }
+
+    @Test
+    void pastDeadline_expiresOnTheNextAdvance_andBeyondTheHorizonIsRefused() {
+        TimingWheel<String> wheel = new TimingWheel<>(TICK, START);
+
+        assertTrue(wheel.schedule("late", START - 60_000));
+        assertFalse(wheel.schedule("never", START + wheel.horizonMillis() + TICK));
+        assertFalse(wheel.contains("never"));
+        assertEquals(List.of("late"), wheel.advance(START + TICK));
+    }
+
+    @Test
+    void matchesASortedReference_onRandomSchedulesAndAdvances() {
+        Random random = new Random(42);
+        TimingWheel<Integer> wheel = new TimingWheel<>(TICK, START);
+        Map<Integer, Long> reference = new HashMap<>();
+        long now = START;
+        for (int round = 0; round < 2_000; round++) {
+            for (int i = 0; i < 5; i++) {
+                int key = random.nextInt(500);
+                long deadline = now + (long) (Math.pow(random.nextDouble(), 4) * 30L * 24 * 3600 * 1000);
+                wheel.schedule(key, deadline);
+                reference.put(key, Math.max(-Math.floorDiv(-deadline, TICK), now / TICK + 1) * TICK);
+            }
+            if (random.nextInt(10) == 0 && !reference.isEmpty()) {
+                Integer key = new ArrayList<>(reference.keySet()).get(random.nextInt(reference.size()));
+                wheel.cancel(key);
+                reference.remove(key);
+            }
+            now += random.nextInt(3) == 0 ? random.nextLong(3_600_000L * 24) : random.nextLong(90_000);
+
+            List<Integer> expected = new ArrayList<>();
+            long until = now;
+            reference.forEach((key, due) -> {
+                if (due <= until) {
+                    expected.add(key);
+                }
+            });
+            expected.forEach(reference::remove);
+            List<Integer> expired = wheel.advance(now);
+
+            assertEquals(expected.stream().sorted().toList(), expired.stream().sorted().toList(), "round " + round);
+            assertEquals(reference.size(), wheel.size());
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package habitTracker.updater;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class UpdateSchedulerTest {
+
+    private static final LocalDate TODAY = LocalDate.of(2025, 3, 2);
+    private static final EngineBucket TOKYO = new EngineBucket(TODAY, List.of("Asia/Tokyo"));
+    private static final EngineBucket LONDON = new EngineBucket(TODAY.minusDays(1), List.of("Europe/London"));
+    private static final EngineScope TOKYO_USERS = new EngineScope(List.of("kenji"), false);
+
+    @Mock HabitUpdateService habitUpdateService;
+    @Mock KPIDefaultFillService kpiDefaultFillService;
+    @Mock EngineLeaseService engineLeaseService;
+    @Mock EngineRunService engineRunService;
+    @Mock EngineBuckets engineBuckets;
+    @Mock ResolutionWheel resolutionWheel;
+
+    private final EngineStatus engineStatus = new EngineStatus();
+
+    private final EngineRun run = EngineRun.builder().id(TOKYO.key()).runDate(TODAY).zones(TOKYO.zones()).build();
+
+    private UpdateScheduler scheduler() {
+        return new UpdateScheduler(habitUpdateService, kpiDefaultFillService, engineLeaseService,
+                engineRunService, engineBuckets, engineStatus, resolutionWheel);
+    }
+
+    private void leader() {
+        when(engineLeaseService.acquire(EngineLeaseService.DAILY_ENGINE, UpdateScheduler.LEASE_WAIT)).thenReturn(
+                new LeaderLease(engineLeaseService, EngineLeaseService.DAILY_ENGINE, 1L, Instant.MAX));
+    }
+
+    private void tokyoJustPastMidnight() {
+        when(engineBuckets.justPastMidnight(any())).thenReturn(List.of(TOKYO));
+        when(engineBuckets.scopeOf(TOKYO)).thenReturn(TOKYO_USERS);
+        when(engineRunService.startOrResume(eq(TOKYO), anyLong())).thenReturn(run);
+    }
+
+    @Test
+    void completeRun_isMarkedAfterBothSubTasks_forTheBucketsLocalDay() {
+        leader();
+        tokyoJustPastMidnight();
+        when(habitUpdateService.updateAllHabits(any(), eq(run), eq(TOKYO_USERS))).thenReturn(new EngineRunCounters());
+        when(kpiDefaultFillService.fillMissingDefaults(any(), any())).thenReturn(3);
+
+        scheduler().scheduledUpdate();
+
+        var order = inOrder(habitUpdateService, kpiDefaultFillService, engineRunService, engineLeaseService);
+        order.verify(habitUpdateService).updateAllHabits(any(), eq(run), eq(TOKYO_USERS));
+        order.verify(kpiDefaultFillService).fillMissingDefaults(TODAY.minusDays(1), TOKYO_USERS);
+        order.verify(engineRunService).finish(eq(run), eq(true), anyString());
+        order.verify(engineLeaseService).release(any()); // lease handed back once the job is done
+        verify(engineRunService).recordStats(argThat(stats -> stats.getKpiFills() == 3));
+    }
+
+    @Test
+    void everyAttempt_recordsItsStats_evenWhenItCrashed() {
+        leader();
+        tokyoJustPastMidnight();
+        when(habitUpdateService.updateAllHabits(any(), any(), any())).thenThrow(new IllegalStateException("mongo down"));
+        doThrow(new IllegalStateException("stats collection unavailable")).when(engineRunService).recordStats(any());
+
+        scheduler().scheduledUpdate();
+
+        ArgumentCaptor<EngineRunStats> stats = ArgumentCaptor.forClass(EngineRunStats.class);
+        verify(engineRunService).recordStats(stats.capture());
+        assertEquals(TOKYO.key(), stats.getValue().getRunId());
+        verify(engineRunService).finish(eq(run), eq(false), anyString()); // a stats failure changes nothing
+    }
+
+    @Test
+    void incompleteRun_isLeftPartial_soTheNextStartResumesIt() {
+        leader();
+        tokyoJustPastMidnight();
+        EngineRunCounters counters = new EngineRunCounters();
+        counters.shardFailed();
+        when(habitUpdateService.updateAllHabits(any(), any(), any())).thenReturn(counters);
+
+        scheduler().scheduledUpdate();
+
+        verify(engineRunService).finish(eq(run), eq(false), anyString());
+        verifyNoInteractions(kpiDefaultFillService);
+    }
+
+    @Test
+    void crashedRun_isLeftPartial_andTheOtherBucketsStillRun() {
+        leader();
+        when(engineBuckets.all(any())).thenReturn(List.of(TOKYO, LONDON));
+        EngineRun london = EngineRun.builder().id(LONDON.key()).runDate(LONDON.today()).build();
+        when(engineRunService.startOrResume(eq(TOKYO), anyLong())).thenReturn(run);
+        when(engineRunService.startOrResume(eq(LONDON), anyLong())).thenReturn(london);
+        when(habitUpdateService.updateAllHabits(any(), eq(run), any())).thenThrow(new IllegalStateException("mongo down"));
+        when(habitUpdateService.updateAllHabits(any(), eq(london), any())).thenReturn(new EngineRunCounters());
+
+        scheduler().catchUpOnStartup();
+
+        verify(engineRunService).finish(eq(run), eq(false), anyString());
+        verify(engineRunService).finish(eq(london), eq(true), anyString());
+        verify(engineLeaseService).release(any());
+    }
+
+    @Test
+    void startupCatchUp_runsInTheBackground_andOpensWritesWhenDone() throws Exception {
+        leader();
+        when(engineBuckets.all(any())).thenReturn(List.of(TOKYO));
+        when(engineBuckets.scopeOf(TOKYO)).thenReturn(TOKYO_USERS);
+        when(engineRunService.startOrResume(eq(TOKYO), anyLong())).thenReturn(run);
+        CountDownLatch release = new CountDownLatch(1);
+        when(habitUpdateService.updateAllHabits(any(), any(), any())).thenAnswer(inv -> {
+            release.await();
+            return new EngineRunCounters();
+        });
+
+        scheduler().runOnStartup(); // returns while the engine is still running
+
+        assertFalse(engineStatus.isReady());
+        release.countDown();
+        assertTrue(engineStatus.awaitReady(Duration.ofSeconds(5)));
+        verify(engineRunService).finish(eq(run), eq(true), anyString());
+    }
+
+    @Test
+    void startupCatchUp_startsTheResolutionWheelAfterwards() {
+        leader();
+        when(engineBuckets.all(any())).thenReturn(List.of(TOKYO));
+        when(engineBuckets.scopeOf(TOKYO)).thenReturn(TOKYO_USERS);
+        when(engineRunService.startOrResume(eq(TOKYO), anyLong())).thenReturn(run);
+        when(habitUpdateService.updateAllHabits(any(), any(), any())).thenReturn(new EngineRunCounters());
+        doThrow(new IllegalStateException("mongo down")).when(resolutionWheel).start();
+
+        scheduler().catchUpOnStartup();
+
+        var order = inOrder(habitUpdateService, resolutionWheel);
+        order.verify(habitUpdateService).updateAllHabits(any(), eq(run), eq(TOKYO_USERS));
+        order.verify(resolutionWheel).start(); // loaded from the state the catch-up wrote
+        assertTrue(engineStatus.isReady());
+    }
+
+    @Test
+    void withTheWheelOn_theHourlyRunIsABackstopAnHourAfterLocalMidnight() {
+        when(resolutionWheel.isEnabled()).thenReturn(true);
+        when(engineBuckets.atLocalHour(any(), eq(1))).thenReturn(List.of());
+
+        scheduler().scheduledUpdate();
+
+        verify(engineBuckets).atLocalHour(any(), eq(1));
+        verify(engineBuckets, never()).justPastMidnight(any());
+    }
+
+    @Test
+    void startupCatchUp_opensWritesEvenWithoutTheLease() {
+        when(engineBuckets.all(any())).thenReturn(List.of(TOKYO));
+        when(engineLeaseService.acquire(EngineLeaseService.DAILY_ENGINE, UpdateScheduler.LEASE_WAIT)).thenReturn(null);
+
+        scheduler().catchUpOnStartup();
+
+        assertTrue(engineStatus.isReady());
+    }
+
+    @Test
+    void completedBucket_onlySweepsWhatBecameDueSince() {
+        leader();
+        tokyoJustPastMidnight();
+        when(engineRunService.isCompleted(TOKYO)).thenReturn(true);
+        when(habitUpdateService.resolveDue(TOKYO_USERS, TODAY)).thenReturn(new EngineRunCounters());
+
+        scheduler().scheduledUpdate();
+
+        verify(engineRunService, never()).startOrResume(any(), anyLong());
+        verify(habitUpdateService).resolveDue(TOKYO_USERS, TODAY);
+        verify(habitUpdateService, never()).updateAllHabits(any(), any(), any());
+        verifyNoInteractions(kpiDefaultFillService);
+    }
+
+    @Test
+    void noZoneJustPastMidnight_doesNotEvenTakeTheLease() {
+        when(engineBuckets.justPastMidnight(any())).thenReturn(List.of());
+
+        scheduler().scheduledUpdate();
+
+        verifyNoInteractions(engineLeaseService, habitUpdateService);
+    }
+
+    @Test
+    void anotherInstanceHoldsTheLease_nothingRunsHere() {
+        tokyoJustPastMidnight();
+        when(engineLeaseService.acquire(EngineLeaseService.DAILY_ENGINE, UpdateScheduler.LEASE_WAIT)).thenReturn(null);
+
+        scheduler().scheduledUpdate();
+
+        verifyNoInteractions(habitUpdateService, kpiDefaultFillService);
+    }
+
+    @Test
+    void standby_onlyStepsInForAnUnfinishedRunOfTheZonesCurrentDay() {
+        EngineRun stale = EngineRun.builder().id(LONDON.key()).runDate(LONDON.today()).zones(LONDON.zones()).build();
+        when(engineRunService.findUnfinishedRuns()).thenReturn(List.of(stale));
+        when(engineBuckets.todayIn(eq("Europe/London"), any())).thenReturn(TODAY);
+        scheduler().takeOverOrphanedRun();
+        verify(engineLeaseService, never()).acquire(any(), any());
+
+        leader();
+        when(engineRunService.findUnfinishedRuns()).thenReturn(List.of(run));
+        when(engineBuckets.todayIn(eq("Asia/Tokyo"), any())).thenReturn(TODAY);
+        when(engineBuckets.scopeOf(TOKYO)).thenReturn(TOKYO_USERS);
+        when(engineRunService.startOrResume(eq(TOKYO), anyLong())).thenReturn(run);
+        when(habitUpdateService.updateAllHabits(any(), any(), any())).thenReturn(new EngineRunCounters());
+        scheduler().takeOverOrphanedRun();
+        verify(habitUpdateService).updateAllHabits(any(), eq(run), eq(TOKYO_USERS));
+    }
+}
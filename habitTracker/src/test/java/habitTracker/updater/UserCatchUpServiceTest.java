@@ -0,0 +1,109 @@
+package habitTracker.updater;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class UserCatchUpServiceTest {
+
+    private static final ZoneId TOKYO = ZoneId.of("Asia/Tokyo");
+
+    private final HabitUpdateService habitUpdateService = mock(HabitUpdateService.class);
+    private final EngineBuckets engineBuckets = mock(EngineBuckets.class);
+    private final EngineStatus engineStatus = new EngineStatus();
+
+    UserCatchUpServiceTest() {
+        engineStatus.markReady();
+        when(engineBuckets.zonesOf(List.of("kenji"))).thenReturn(Map.of("kenji", TOKYO));
+        when(habitUpdateService.resolveDueForUser(any(), any())).thenReturn(new EngineRunCounters());
+    }
+
+    private UserCatchUpService at(String instant) {
+        return new UserCatchUpService(habitUpdateService, engineBuckets, engineStatus, 100,
+                Clock.fixed(Instant.parse(instant), ZoneOffset.UTC));
+    }
+
+    @Test
+    void firstRequestOfTheLocalDay_resolvesWhatIsDue_laterOnesDoNothing() {
+        UserCatchUpService service = at("2025-03-01T16:00:00Z"); // 01:00 on Mar 2 in Tokyo
+
+        assertTrue(service.catchUp("kenji"));
+        assertFalse(service.catchUp("kenji"));
+
+        verify(habitUpdateService, times(1)).resolveDueForUser("kenji", LocalDate.of(2025, 3, 2));
+        verify(engineBuckets, times(1)).zonesOf(any()); // the zone is cached for the day
+    }
+
+    @Test
+    void theNextLocalDay_runsAgain() {
+        EngineRunCounters counters = new EngineRunCounters();
+        UserCatchUpService service = new UserCatchUpService(habitUpdateService, engineBuckets, engineStatus, 100,
+                new Clock() {
+                    int calls;
+                    @Override public ZoneId getZone() { return ZoneOffset.UTC; }
+                    @Override public Clock withZone(ZoneId zone) { return this; }
+                    @Override public Instant instant() {
+                        // two requests on Mar 2 in Tokyo, then one after Tokyo's midnight
+                        return Instant.parse(calls++ < 2 ? "2025-03-02T10:00:00Z" : "2025-03-02T15:30:00Z");
+                    }
+                });
+        when(habitUpdateService.resolveDueForUser(any(), any())).thenReturn(counters);
+
+        service.catchUp("kenji");
+        service.catchUp("kenji");
+        service.catchUp("kenji");
+
+        verify(habitUpdateService).resolveDueForUser("kenji", LocalDate.of(2025, 3, 2));
+        verify(habitUpdateService).resolveDueForUser("kenji", LocalDate.of(2025, 3, 3));
+    }
+
+    @Test
+    void failedCatchUp_isRetriedOnTheNextRequest() {
+        EngineRunCounters failed = new EngineRunCounters();
+        failed.shardFailed();
+        when(habitUpdateService.resolveDueForUser(any(), any())).thenReturn(failed).thenReturn(new EngineRunCounters());
+        UserCatchUpService service = at("2025-03-01T16:00:00Z");
+
+        assertTrue(service.catchUp("kenji"));
+        assertTrue(service.catchUp("kenji"));
+        assertFalse(service.catchUp("kenji"));
+    }
+
+    @Test
+    void leastRecentlySeenUsers_areEvictedPastMaxEntries_andCaughtUpAgainNextTime() {
+        when(engineBuckets.zonesOf(List.of("ann"))).thenReturn(Map.of("ann", TOKYO));
+        when(engineBuckets.zonesOf(List.of("bob"))).thenReturn(Map.of("bob", TOKYO));
+        UserCatchUpService service = new UserCatchUpService(habitUpdateService, engineBuckets, engineStatus, 2,
+                Clock.fixed(Instant.parse("2025-03-01T16:00:00Z"), ZoneOffset.UTC));
+
+        service.catchUp("kenji");
+        service.catchUp("ann");
+        service.catchUp("kenji"); // kenji is now more recent than ann
+        service.catchUp("bob");   // evicts ann
+
+        assertEquals(2, service.size());
+        assertFalse(service.catchUp("kenji"));
+        assertTrue(service.catchUp("ann"));
+        verify(habitUpdateService, times(2)).resolveDueForUser("ann", LocalDate.of(2025, 3, 2));
+    }
+
+    @Test
+    void nothingRuns_duringTheStartupCatchUp_orWithoutAUser() {
+        UserCatchUpService service = new UserCatchUpService(habitUpdateService, engineBuckets, new EngineStatus(), 100,
+                Clock.fixed(Instant.parse("2025-03-01T16:00:00Z"), ZoneOffset.UTC));
+
+        assertFalse(service.catchUp("kenji"));
+        assertFalse(at("2025-03-01T16:00:00Z").catchUp(null));
+        verifyNoInteractions(habitUpdateService);
+    }
+}